@@ -0,0 +1,11 @@
+#!/bin/sh
+
+# Runs a recording through the filters of a chip's FilterChain without AEViewer and writes the filtered output.
+# Example: ./filter-chain-batch-processor.sh -aechip=eu.seebetter.ini.chips.davis.DAVIS240C -filters=filterSettings/denoise.xml input.aedat output.aedat
+#
+# If you get "UnsatisfiedLinkError: /tmp/usb4java... failed to map segment from shared object: Operation not permitted",
+# add the following line to the command below:
+# -Djava.io.tmpdir=~/tmpdir/
+
+JHOME="$(dirname "$0")"
+java -classpath "${JHOME}/dist/jAER.jar:${JHOME}/jars/*:${JHOME}/jars/javacv/*:${JHOME}/jars/jogl/*:${JHOME}/jars/usb4java/*" -Dsun.java2d.noddraw=true -Dsun.java2d.opengl=false net.sf.jaer.eventprocessing.FilterChainBatchProcessor "$@"
@@ -28,6 +28,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
 import javax.swing.BoxLayout;
@@ -82,6 +83,9 @@ public abstract class AbstractDavisCNN {
     protected boolean printActivations = false;
     protected boolean printWeights = false;
     protected long processingTimeNs;
+    protected int lastBatchSize = 0; // number of frames in the last call to processDvsFrames
+    protected long batchOperationCounter = 0, batchProcessingTimeNs = 0;
+    private boolean decisionEventsDeferred = false; // set by AsyncCNNInferenceStage while its worker runs the net
 
     public AbstractDavisCNN(AbstractDavisCNNProcessor processor) {
         this.processor=processor;
@@ -95,6 +99,43 @@ public abstract class AbstractDavisCNN {
      */
     abstract public float[] processDvsFrame(DvsFramer.DvsFrame subsampler);
 
+    /**
+     * Processes a batch of DVS frames, e.g. all the ROIs of
+     * DvsFramerROIGenerator that filled during one packet. This default
+     * implementation processes the frames one after the other; subclasses
+     * override it to evaluate the frames together, so that the weights of each
+     * layer are loaded once for the whole batch.
+     *
+     * @param frames the frames, all of the size of the network input
+     * @return the output activations, one new array per frame
+     * @see #getBatchPerformanceString()
+     */
+    public float[][] processDvsFrames(List<? extends DvsFramer.DvsFrame> frames) {
+        final long startTime = System.nanoTime();
+        final float[][] outputs = new float[frames.size()][];
+        long ops = 0;
+        for (int i = 0; i < outputs.length; i++) {
+            float[] o = processDvsFrame(frames.get(i));
+            outputs[i] = o == null ? null : Arrays.copyOf(o, o.length);
+            ops += operationCounter;
+        }
+        setBatchStatistics(outputs.length, ops, System.nanoTime() - startTime);
+        return outputs;
+    }
+
+    /**
+     * Records the cost of the last batch for getBatchPerformanceString
+     *
+     * @param batchSize the number of frames
+     * @param ops the number of operations for all frames
+     * @param timeNs the time in ns to process all frames
+     */
+    protected void setBatchStatistics(int batchSize, long ops, long timeNs) {
+        lastBatchSize = batchSize;
+        batchOperationCounter = ops;
+        batchProcessingTimeNs = timeNs;
+    }
+
     /**
      * Computes the output of the network from an input activationsFrame
      *
@@ -145,6 +186,26 @@ public abstract class AbstractDavisCNN {
         return support;
     }
 
+    /**
+     * Fires EVENT_MADE_DECISION, unless the decision events are deferred
+     */
+    protected void fireMadeDecision() {
+        if (!decisionEventsDeferred) {
+            getSupport().firePropertyChange(EVENT_MADE_DECISION, null, this);
+        }
+    }
+
+    /**
+     * Suppresses EVENT_MADE_DECISION while the net runs on a worker thread;
+     * the AsyncCNNInferenceStage fires it from the event processing thread
+     * instead. Must be called holding the lock on the net.
+     *
+     * @param decisionEventsDeferred true to suppress the event
+     */
+    void setDecisionEventsDeferred(boolean decisionEventsDeferred) {
+        this.decisionEventsDeferred = decisionEventsDeferred;
+    }
+
     /**
      * @param lastInputTypeProcessedWasApsFrame the
      * lastInputTypeProcessedWasApsFrame to set
@@ -162,6 +223,31 @@ public abstract class AbstractDavisCNN {
         return String.format("%s ops in %s s: %s ops/sec", engFmt.format(operationCounter), engFmt.format(processingTimeNs * 1e-9f), engFmt.format(operationCounter / (1e-9f * processingTimeNs)));
     }
 
+    /**
+     * Return a string representation of the latency and throughput of the last
+     * call to processDvsFrames
+     *
+     * @return batch of %d frames in %s s: %s frames/sec, %s ops/sec
+     */
+    public String getBatchPerformanceString() {
+        final float s = batchProcessingTimeNs * 1e-9f;
+        return String.format("batch of %d frames in %s s: %s frames/sec, %s ops/sec", lastBatchSize, engFmt.format(s), engFmt.format(lastBatchSize / s), engFmt.format(batchOperationCounter / s));
+    }
+
+    /**
+     * @return the number of frames in the last call to processDvsFrames
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return the time in ns of the last call to processDvsFrames
+     */
+    public long getBatchProcessingTimeNs() {
+        return batchProcessingTimeNs;
+    }
+
     /**
      * @param softMaxOutput the softMaxOutput to set
      */
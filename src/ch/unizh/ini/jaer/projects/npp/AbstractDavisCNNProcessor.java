@@ -31,6 +31,7 @@ import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JFileChooser;
@@ -114,6 +115,10 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
     public ImageDisplay inputImageDisplay;
     protected boolean softMaxOutput = getBoolean("softMaxOutput", true); // more reasonable output by setting true
     protected boolean zeroPadding = getBoolean("zeroPadding", false); // false for original nullhop and roshambo nets
+    protected boolean gemmConvolution = getBoolean("gemmConvolution", false); // pure java nets compute conv layers as blocked matrix multiplication on all cores
+    protected boolean quantizedInference = getBoolean("quantizedInference", false); // pure java nets run as int8 after calibration on recorded DVS frames
+    protected int quantizationCalibrationFrames = getInt("quantizationCalibrationFrames", 100);
+    protected ArrayList<DvsFrame> calibrationFrames = new ArrayList<DvsFrame>(); // copies of DVS frames recorded for int8 calibration
     protected boolean normalizeDVSForZsNullhop = getBoolean("normalizeDVSForZsNullhop", false); // uses DvsFramer normalizeFrame method to normalize DVS histogram images and in addition it shifts the pixel values to be centered around zero with range -1 to +1
     protected int lastProcessedEventTimestamp = 0;
     protected String performanceString = null; // holds string representation of processing time
@@ -127,6 +132,10 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
     private int imageHeight = getInt("imageHeight", 64);
     private float imageMean = getFloat("imageMean", 0);
     private float imageScale = getFloat("imageScale", 1);
+    protected boolean asyncInference = getBoolean("asyncInference", false);
+    protected AsyncCNNInferenceStage.QueuePolicy inferenceQueuePolicy = AsyncCNNInferenceStage.QueuePolicy.valueOf(getString("inferenceQueuePolicy", AsyncCNNInferenceStage.QueuePolicy.LatestWins.toString()));
+    protected int inferenceQueueCapacity = getInt("inferenceQueueCapacity", 2);
+    protected AsyncCNNInferenceStage inferenceStage = null; // runs the CNN on DVS frames on a worker thread if asyncInference is set
 
     public AbstractDavisCNNProcessor(AEChip chip) {
         super(chip);
@@ -153,6 +162,13 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
         setPropertyTooltip(anal, "processDVSTimeSlices", "sends DVS time slices to convnet");
         setPropertyTooltip(anal, "processAPSDVSTogetherInAPSNet", "sends APS frames and DVS time slices to single convnet");
         setPropertyTooltip(anal, "zeroPadding", "CNN uses zero padding; must be set properly according to CNN to run CNN");
+        setPropertyTooltip(anal, "quantizedInference", "<html>(XML networks only) runs the CNN with int8 weights and activations.<br>The first quantizationCalibrationFrames DVS frames are run in float to calibrate the activation ranges; the accuracy compared with float is then logged");
+        setPropertyTooltip(anal, "quantizationCalibrationFrames", "(quantizedInference only) number of DVS frames recorded to calibrate the int8 network");
+        setPropertyTooltip(anal, "recalibrateQuantization", "(quantizedInference only) records new DVS frames and calibrates the int8 network again");
+        setPropertyTooltip(anal, "gemmConvolution", "(XML networks only) computes conv layers as blocked matrix multiplications split over all CPU cores; off by default, which uses the original per-pixel loops");
+        setPropertyTooltip(anal, "asyncInference", "<html>runs the CNN on DVS frames on a worker thread, so that event accumulation keeps pace with the sensor while the CNN runs as fast as the CPU allows.<br>Frames are dropped according to inferenceQueuePolicy when the CNN falls behind");
+        setPropertyTooltip(anal, "inferenceQueuePolicy", "<html>(asyncInference only) what to do with a new DVS frame when the CNN is busy:<br>LatestWins: only the newest frame waits<br>DropOldest: drop the oldest waiting frame<br>DropNewest: drop the new frame");
+        setPropertyTooltip(anal, "inferenceQueueCapacity", "(asyncInference only) number of DVS frames that can wait for the CNN with DropOldest and DropNewest policies");
         setPropertyTooltip(anal, "processingTimeLimitMs", "<html>time limit for processing packet in ms to process OF events (events still accumulate). <br> Set to 0 to disable. <p>Alternative to the system EventPacket timelimiter, which cannot be used here because we still need to accumulate and render the events");
         setPropertyTooltip(tf, "makeRGBFrames", "(TensorFlow only) Tells the CNN to make RGB input from grayscale DVS/APS frames; use it with a network configured for RGB input");
         setPropertyTooltip(tf, "inputLayerName", "(TensorFlow only) Input layer; parse it from loading the network and examining console output for layers for lines starting with ****");
@@ -302,6 +318,9 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
                 break; // discard rest of this packet
             }
         }
+        if (inferenceStage != null && inferenceStage.isStarted()) {
+            inferenceStage.fireResults(); // EVENT_MADE_DECISION and EVENT_INFERENCE_RESULT of frames the worker finished
+        }
         return in;
     }
 
@@ -364,6 +383,11 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
                 }
                 apsDvsNet.setSoftMaxOutput(softMaxOutput); // must set manually since net doesn't know option kept here.
                 apsDvsNet.setZeroPadding(zeroPadding); // must set manually since net doesn't know option kept here.
+                if (apsDvsNet instanceof DavisCNNPureJava) {
+                    ((DavisCNNPureJava) apsDvsNet).setGemmConvolution(gemmConvolution);
+                    ((DavisCNNPureJava) apsDvsNet).setQuantizedInference(quantizedInference);
+                }
+                calibrationFrames.clear();
                 dvsSubsampler.setFromNetwork(apsDvsNet);
             }
         } catch (IOException ex) {
@@ -400,7 +424,9 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
                     if (measurePerformance) {
                         startTime = System.nanoTime();
                     }
-                    float[] outputs = apsDvsNet.processAPSFrame((AEFrameChipRenderer) (chip.getRenderer()));
+                    synchronized (apsDvsNet) { // the async inference worker may be running the net on a DVS frame
+                        apsDvsNet.processAPSFrame((AEFrameChipRenderer) (chip.getRenderer()));
+                    }
                     if (measurePerformance) {
                         long dt = System.nanoTime() - startTime;
                         float ms = 1e-6f * dt;
@@ -415,6 +441,11 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
                     startTime = System.nanoTime();
                 }
                 if (processDVSTimeSlices) {
+                    recordCalibrationFrame((DvsFrame) evt.getNewValue());
+                }
+                if (processDVSTimeSlices && asyncInference && apsDvsNet != null) {
+                    getInferenceStage().submit((DvsFrame) evt.getNewValue(), lastProcessedEventTimestamp); // EVENT_MADE_DECISION and EVENT_INFERENCE_RESULT are fired at the end of filterPacket
+                } else if (processDVSTimeSlices) {
                     apsDvsNet.processDvsFrame((DvsFrame) evt.getNewValue()); // generates PropertyChange EVENT_MADE_DECISION
                     if (measurePerformance) {
                         long dt = System.nanoTime() - startTime;
@@ -428,6 +459,16 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
 
     @Override
     public void annotate(GLAutoDrawable drawable) {
+        final AbstractDavisCNN net = apsDvsNet;
+        if (net == null) {
+            return;
+        }
+        synchronized (net) { // the async inference worker may be computing the activations
+            annotateNetwork(drawable);
+        }
+    }
+
+    private void annotateNetwork(GLAutoDrawable drawable) {
         GL2 gl = drawable.getGL().getGL2();
         if (apsDvsNet != null && apsDvsNet.getNetname() != null) {
             MultilineAnnotationTextRenderer.resetToYPositionPixels(chip.getSizeY() * 1f);
@@ -706,10 +747,112 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
         apsDvsNet.setZeroPadding(zeroPadding);
     }
 
+    /**
+     * Records a copy of the frame for int8 calibration, if the network should
+     * run as int8 but is not calibrated yet, and calibrates when enough frames
+     * are recorded.
+     *
+     * @param frame the filled DVS frame
+     */
+    protected void recordCalibrationFrame(DvsFrame frame) {
+        if (!quantizedInference || !(apsDvsNet instanceof DavisCNNPureJava) || ((DavisCNNPureJava) apsDvsNet).isQuantizationCalibrated()) {
+            return;
+        }
+        calibrationFrames.add(frame.copyTo(null));
+        if (calibrationFrames.size() >= quantizationCalibrationFrames) {
+            final DavisCNNPureJava net = (DavisCNNPureJava) apsDvsNet;
+            try {
+                synchronized (net) { // the async inference worker may be running the net
+                    QuantizedCNN.Comparison c = net.calibrateQuantization(calibrationFrames);
+                    log.info("calibrated int8 network: " + c + "; " + net.getQuantizedCNN());
+                }
+            } catch (IllegalStateException e) {
+                log.warning("could not quantize network, running it in float: " + e.getMessage());
+                setQuantizedInference(false);
+            } finally {
+                calibrationFrames.clear();
+            }
+        }
+    }
+
+    /**
+     * Discards the int8 network and records new DVS frames to calibrate it
+     * again.
+     */
+    public synchronized void doRecalibrateQuantization() {
+        calibrationFrames.clear();
+        if (apsDvsNet instanceof DavisCNNPureJava) {
+            ((DavisCNNPureJava) apsDvsNet).clearQuantization();
+            if (quantizedInference) {
+                log.info("recording " + quantizationCalibrationFrames + " DVS frames to calibrate the int8 network");
+            }
+        }
+    }
+
+    /**
+     * @return the quantizedInference
+     */
+    public boolean isQuantizedInference() {
+        return quantizedInference;
+    }
+
+    /**
+     * @param quantizedInference the quantizedInference to set
+     */
+    public void setQuantizedInference(boolean quantizedInference) {
+        boolean old = this.quantizedInference;
+        this.quantizedInference = quantizedInference;
+        putBoolean("quantizedInference", quantizedInference);
+        if (apsDvsNet instanceof DavisCNNPureJava) {
+            ((DavisCNNPureJava) apsDvsNet).setQuantizedInference(quantizedInference);
+        }
+        getSupport().firePropertyChange("quantizedInference", old, quantizedInference);
+    }
+
+    /**
+     * @return the quantizationCalibrationFrames
+     */
+    public int getQuantizationCalibrationFrames() {
+        return quantizationCalibrationFrames;
+    }
+
+    /**
+     * @param quantizationCalibrationFrames the quantizationCalibrationFrames
+     * to set
+     */
+    public void setQuantizationCalibrationFrames(int quantizationCalibrationFrames) {
+        if (quantizationCalibrationFrames < 1) {
+            quantizationCalibrationFrames = 1;
+        }
+        this.quantizationCalibrationFrames = quantizationCalibrationFrames;
+        putInt("quantizationCalibrationFrames", quantizationCalibrationFrames);
+    }
+
+    /**
+     * @return the gemmConvolution
+     */
+    public boolean isGemmConvolution() {
+        return gemmConvolution;
+    }
+
+    /**
+     * @param gemmConvolution the gemmConvolution to set
+     */
+    public void setGemmConvolution(boolean gemmConvolution) {
+        this.gemmConvolution = gemmConvolution;
+        putBoolean("gemmConvolution", gemmConvolution);
+        if (apsDvsNet instanceof DavisCNNPureJava) {
+            ((DavisCNNPureJava) apsDvsNet).setGemmConvolution(gemmConvolution);
+        }
+    }
+
     @Override
     public synchronized void setFilterEnabled(boolean yes) {
         super.setFilterEnabled(yes);
         if (!yes) {
+            if (inferenceStage != null) {
+                inferenceStage.stop();
+            }
             cleanup();
         }
     }
@@ -717,6 +860,9 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
     @Override
     public synchronized void cleanup() {
         super.cleanup();
+        if (inferenceStage != null) {
+            inferenceStage.stop();
+        }
         if (showActivations && apsDvsNet != null) {
             apsDvsNet.cleanup();
         }
@@ -842,4 +988,77 @@ public abstract class AbstractDavisCNNProcessor extends EventFilter2D implements
         putFloat("imageScale", imageScale);
     }
 
+    /**
+     * Returns the stage that runs the CNN on DVS frames on a worker thread,
+     * constructing and starting it if needed.
+     *
+     * @return the inference stage
+     */
+    protected synchronized AsyncCNNInferenceStage getInferenceStage() {
+        if (inferenceStage == null) {
+            inferenceStage = new AsyncCNNInferenceStage(this);
+            inferenceStage.setQueuePolicy(inferenceQueuePolicy);
+            inferenceStage.setCapacity(inferenceQueueCapacity);
+        }
+        inferenceStage.start();
+        return inferenceStage;
+    }
+
+    /**
+     * @return the asyncInference
+     */
+    public boolean isAsyncInference() {
+        return asyncInference;
+    }
+
+    /**
+     * @param asyncInference the asyncInference to set
+     */
+    public synchronized void setAsyncInference(boolean asyncInference) {
+        this.asyncInference = asyncInference;
+        putBoolean("asyncInference", asyncInference);
+        if (!asyncInference && inferenceStage != null) {
+            inferenceStage.stop();
+        }
+    }
+
+    /**
+     * @return the inferenceQueuePolicy
+     */
+    public AsyncCNNInferenceStage.QueuePolicy getInferenceQueuePolicy() {
+        return inferenceQueuePolicy;
+    }
+
+    /**
+     * @param inferenceQueuePolicy the inferenceQueuePolicy to set
+     */
+    public void setInferenceQueuePolicy(AsyncCNNInferenceStage.QueuePolicy inferenceQueuePolicy) {
+        this.inferenceQueuePolicy = inferenceQueuePolicy;
+        putString("inferenceQueuePolicy", inferenceQueuePolicy.toString());
+        if (inferenceStage != null) {
+            inferenceStage.setQueuePolicy(inferenceQueuePolicy);
+        }
+    }
+
+    /**
+     * @return the inferenceQueueCapacity
+     */
+    public int getInferenceQueueCapacity() {
+        return inferenceQueueCapacity;
+    }
+
+    /**
+     * @param inferenceQueueCapacity the inferenceQueueCapacity to set
+     */
+    public void setInferenceQueueCapacity(int inferenceQueueCapacity) {
+        if (inferenceQueueCapacity < 1) {
+            inferenceQueueCapacity = 1;
+        }
+        this.inferenceQueueCapacity = inferenceQueueCapacity;
+        putInt("inferenceQueueCapacity", inferenceQueueCapacity);
+        if (inferenceStage != null) {
+            inferenceStage.setCapacity(inferenceQueueCapacity);
+        }
+    }
+
 }
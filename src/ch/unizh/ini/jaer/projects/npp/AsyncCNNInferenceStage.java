@@ -0,0 +1,432 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package ch.unizh.ini.jaer.projects.npp;
+
+import ch.unizh.ini.jaer.projects.npp.DvsFramer.DvsFrame;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the CNN of an AbstractDavisCNNProcessor on a worker thread, so that
+ * event accumulation into DVS frames keeps pace with the sensor while the
+ * network runs at whatever rate the CPU allows.
+ * <p>
+ * Filled DvsFrames are copied into recycled frames and put on a bounded
+ * queue. When the queue is full, the QueuePolicy decides which frames are
+ * dropped. Each result is delivered back as a PropertyChangeEvent
+ * {@link #EVENT_INFERENCE_RESULT} from the processor's support, carrying an
+ * {@link InferenceResult} with the timestamp of the frame that was processed.
+ * The worker only queues the results; {@link #fireResults()}, called by the
+ * processor from the event processing thread, fires them together with the
+ * network's AbstractDavisCNN.EVENT_MADE_DECISION, so listeners are never
+ * called from the worker thread.
+ * <p>
+ * The networks keep their activations in their layers, so one network can
+ * run only one frame at a time; the stage therefore has a single worker per
+ * network.
+ */
+public class AsyncCNNInferenceStage {
+
+    private static final Logger log = Logger.getLogger("AsyncCNNInferenceStage");
+    private static final int MAX_PENDING_RESULTS = 64; // results kept if fireResults is not called, e.g. while paused
+    /**
+     * PropertyChangeEvent fired from the processor's support when a queued
+     * frame has been processed. The new value is the InferenceResult.
+     */
+    public static final String EVENT_INFERENCE_RESULT = "inferenceResult";
+
+    /**
+     * What to do with a new frame when the queue is full.
+     */
+    public enum QueuePolicy {
+        /**
+         * Discard all queued frames; only the newest frame waits for the
+         * worker
+         */
+        LatestWins,
+        /**
+         * Discard the oldest queued frame to make room for the new one
+         */
+        DropOldest,
+        /**
+         * Discard the new frame
+         */
+        DropNewest
+    }
+
+    /**
+     * The result of processing one frame.
+     */
+    public static class InferenceResult {
+
+        /**
+         * Sequence number of the frame, counting all submitted frames
+         */
+        public final long frameNumber;
+        /**
+         * Timestamp in us of the last event accumulated into the frame
+         */
+        public final int timestamp;
+        /**
+         * Copy of the network output activations
+         */
+        public final float[] outputs;
+        /**
+         * Time in ms from submitting the frame to the end of processing
+         */
+        public final float latencyMs;
+        /**
+         * Time in ms the network took to process the frame
+         */
+        public final float processingMs;
+
+        InferenceResult(long frameNumber, int timestamp, float[] outputs, float latencyMs, float processingMs) {
+            this.frameNumber = frameNumber;
+            this.timestamp = timestamp;
+            this.outputs = outputs;
+            this.latencyMs = latencyMs;
+            this.processingMs = processingMs;
+        }
+
+        @Override
+        public String toString() {
+            return "InferenceResult{" + "frameNumber=" + frameNumber + ", timestamp=" + timestamp + ", latencyMs=" + latencyMs + ", processingMs=" + processingMs + '}';
+        }
+    }
+
+    private static class Job {
+
+        DvsFrame frame;
+        int timestamp;
+        long frameNumber;
+        long submitTimeNs;
+    }
+
+    private final AbstractDavisCNNProcessor processor;
+    private final Object lock = new Object();
+    private final ArrayDeque<Job> queue = new ArrayDeque<Job>();
+    private final ArrayDeque<Job> free = new ArrayDeque<Job>();
+    private final ArrayDeque<InferenceResult> results = new ArrayDeque<InferenceResult>(); // processed but not yet fired
+    private QueuePolicy queuePolicy = QueuePolicy.LatestWins;
+    private int capacity = 2;
+    private Thread worker = null;
+    private volatile boolean running = false;
+    private long submittedCount = 0, processedCount = 0, droppedCount = 0;
+    private volatile InferenceResult lastResult = null;
+
+    /**
+     * Constructs a new stage. The worker is started by {@link #start()}.
+     *
+     * @param processor the processor whose network is run and whose support
+     * fires the results
+     */
+    public AsyncCNNInferenceStage(AbstractDavisCNNProcessor processor) {
+        this.processor = processor;
+    }
+
+    /**
+     * Starts the worker thread. Does nothing if already started.
+     */
+    synchronized public void start() {
+        if (worker != null) {
+            return;
+        }
+        running = true;
+        worker = new Thread("AsyncCNNInference " + processor.getClass().getSimpleName()) {
+            @Override
+            public void run() {
+                work();
+            }
+        };
+        worker.setDaemon(true);
+        worker.setPriority(Thread.NORM_PRIORITY - 1); // leave the event processing ahead of inference
+        worker.start();
+    }
+
+    /**
+     * Stops the worker thread and discards queued frames and results that
+     * were not fired. Waits until the worker has finished the frame it is
+     * processing, so that a following start() never runs two workers.
+     */
+    synchronized public void stop() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        worker.interrupt();
+        boolean interrupted = false;
+        while (worker.isAlive()) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        synchronized (lock) {
+            while (!queue.isEmpty()) {
+                free.add(queue.poll());
+            }
+            results.clear();
+        }
+    }
+
+    /**
+     * @return true if the worker is running
+     */
+    synchronized public boolean isStarted() {
+        return worker != null;
+    }
+
+    /**
+     * Queues a copy of a filled frame for processing. Never blocks; if the
+     * queue is full, frames are dropped according to the QueuePolicy.
+     *
+     * @param frame the frame, which the caller may clear and reuse as soon as
+     * this method returns
+     * @param timestamp the timestamp in us of the last event in the frame
+     */
+    public void submit(DvsFrame frame, int timestamp) {
+        Job job;
+        synchronized (lock) {
+            job = free.poll();
+        }
+        if (job == null) {
+            job = new Job();
+        }
+        job.frame = frame.copyTo(job.frame);
+        job.timestamp = timestamp;
+        job.submitTimeNs = System.nanoTime();
+        synchronized (lock) {
+            job.frameNumber = submittedCount++;
+            if (queuePolicy == QueuePolicy.LatestWins) {
+                while (!queue.isEmpty()) {
+                    free.add(queue.poll());
+                    droppedCount++;
+                }
+            } else if (queue.size() >= capacity) {
+                if (queuePolicy == QueuePolicy.DropOldest) {
+                    free.add(queue.poll());
+                    droppedCount++;
+                } else {
+                    free.add(job);
+                    droppedCount++;
+                    return;
+                }
+            }
+            queue.add(job);
+            lock.notify();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            Job job;
+            synchronized (lock) {
+                while (running && queue.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                job = queue.poll();
+            }
+            try {
+                InferenceResult result = process(job);
+                if (result != null) {
+                    lastResult = result;
+                    synchronized (lock) {
+                        if (results.size() >= MAX_PENDING_RESULTS) {
+                            results.poll();
+                        }
+                        results.add(result);
+                    }
+                }
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "CNN inference on frame " + job.frameNumber + " failed", e);
+            } finally {
+                synchronized (lock) {
+                    free.add(job);
+                }
+            }
+        }
+    }
+
+    private InferenceResult process(Job job) {
+        final AbstractDavisCNN net = processor.apsDvsNet;
+        if (net == null) {
+            return null;
+        }
+        float[] outputs;
+        final long startTime = System.nanoTime();
+        synchronized (net) { // the APS frame path runs the same net on the event processing thread
+            net.setDecisionEventsDeferred(true); // fired by fireResults on the event processing thread
+            try {
+                outputs = net.processDvsFrame(job.frame);
+            } finally {
+                net.setDecisionEventsDeferred(false);
+            }
+            outputs = outputs == null ? null : Arrays.copyOf(outputs, outputs.length);
+            if (processor.measurePerformance) {
+                final float ms = 1e-6f * (System.nanoTime() - startTime);
+                processor.performanceString = String.format("Frame processing time: %.1fms (%.1f FPS); %s; %s", ms, 1e3f / ms, net.getPerformanceString(), this);
+            }
+        }
+        final long endTime = System.nanoTime();
+        synchronized (lock) {
+            processedCount++;
+        }
+        return new InferenceResult(job.frameNumber, job.timestamp, outputs, 1e-6f * (endTime - job.submitTimeNs), 1e-6f * (endTime - startTime));
+    }
+
+    /**
+     * Fires the events for the frames processed since the last call:
+     * {@link #EVENT_INFERENCE_RESULT} from the processor's support for each
+     * frame and then, if there was any, AbstractDavisCNN.EVENT_MADE_DECISION
+     * once from the net. The lock on the net is held meanwhile, so listeners
+     * see the activations of the newest frame. Must be called from the event
+     * processing thread.
+     */
+    public void fireResults() {
+        final AbstractDavisCNN net = processor.apsDvsNet;
+        if (net == null) {
+            return;
+        }
+        synchronized (net) {
+            boolean fired = false;
+            InferenceResult result;
+            while (true) {
+                synchronized (lock) {
+                    result = results.poll();
+                }
+                if (result == null) {
+                    break;
+                }
+                processor.getSupport().firePropertyChange(EVENT_INFERENCE_RESULT, null, result);
+                fired = true;
+            }
+            if (fired) {
+                net.fireMadeDecision();
+            }
+        }
+    }
+
+    /**
+     * @return the most recent result, or null
+     */
+    public InferenceResult getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * @return the queuePolicy
+     */
+    public QueuePolicy getQueuePolicy() {
+        synchronized (lock) {
+            return queuePolicy;
+        }
+    }
+
+    /**
+     * @param queuePolicy the queuePolicy to set
+     */
+    public void setQueuePolicy(QueuePolicy queuePolicy) {
+        synchronized (lock) {
+            this.queuePolicy = queuePolicy;
+        }
+    }
+
+    /**
+     * @return the maximum number of frames waiting for the worker
+     */
+    public int getCapacity() {
+        synchronized (lock) {
+            return capacity;
+        }
+    }
+
+    /**
+     * Sets the maximum number of frames waiting for the worker. Not used by
+     * QueuePolicy.LatestWins, which keeps only one.
+     *
+     * @param capacity the capacity, at least 1
+     */
+    public void setCapacity(int capacity) {
+        synchronized (lock) {
+            this.capacity = Math.max(1, capacity);
+            while (queue.size() > this.capacity) {
+                free.add(queue.poll());
+                droppedCount++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames submitted
+     */
+    public long getSubmittedCount() {
+        synchronized (lock) {
+            return submittedCount;
+        }
+    }
+
+    /**
+     * @return the number of frames processed
+     */
+    public long getProcessedCount() {
+        synchronized (lock) {
+            return processedCount;
+        }
+    }
+
+    /**
+     * @return the number of frames dropped because the worker was busy
+     */
+    public long getDroppedCount() {
+        synchronized (lock) {
+            return droppedCount;
+        }
+    }
+
+    /**
+     * Resets the frame counters.
+     */
+    public void resetCounters() {
+        synchronized (lock) {
+            submittedCount = 0;
+            processedCount = 0;
+            droppedCount = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("async %s: %d submitted, %d processed, %d dropped", queuePolicy, submittedCount, processedCount, droppedCount);
+        }
+    }
+
+}
@@ -25,6 +25,7 @@ import java.awt.GridLayout;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import javax.swing.BoxLayout;
@@ -98,6 +99,9 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
     public OutputOrInnerProductFullyConnectedLayer outputLayer; // the final layer, not part of layers
     protected boolean normalizeKernelDisplayWeightsGlobally = true;
     protected boolean normalizeActivationDisplayGlobally = true;
+    protected boolean gemmConvolution = false; // compute conv layers as blocked matrix multiplication on the fork-join pool
+    protected boolean quantizedInference = false; // run the int8 network once it is calibrated
+    protected QuantizedCNN quantizedCNN = null; // int8 version of this network, made by calibrateQuantization
 
     public DavisCNNPureJava(AbstractDavisCNNProcessor processor) {
         super(processor);
@@ -115,6 +119,75 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
         return processLayers();
     }
 
+    /**
+     * Processes the frames together: each conv layer computes all of them with
+     * one GemmConvolution and the fully connected layers apply each weight to
+     * all of them, so the weights are loaded once per batch rather than once
+     * per frame. The output layer is left with the activations of the last
+     * frame and EVENT_MADE_DECISION is fired once for the batch; the
+     * activations of the other layers are not updated. The frames are
+     * processed one by one for the int8 network, without gemmConvolution, or
+     * if a layer cannot be batched.
+     *
+     * @param frames the frames
+     * @return the output activations, one new array per frame
+     */
+    @Override
+    public float[][] processDvsFrames(List<? extends DvsFrame> frames) {
+        final int n = frames.size();
+        if ((n < 2) || (inputLayer == null) || !gemmConvolution || (quantizedInference && isQuantizationCalibrated())) {
+            return super.processDvsFrames(frames);
+        }
+        operationCounter = 0;
+        startProcessingTimeNs = System.nanoTime();
+        float[][] inputs = null;
+        for (int i = 0; i < n; i++) {
+            inputLayer.processDvsTimeslice(frames.get(i));
+            if (inputs == null) {
+                inputs = inputLayer.allocateBatchActivations(n, inputLayer.activations.length);
+            }
+            System.arraycopy(inputLayer.activations, 0, inputs[i], 0, inputLayer.activations.length);
+        }
+        if (!computeBatchLayers(n)) {
+            return super.processDvsFrames(frames);
+        }
+        final float[][] outputs = new float[n][];
+        for (int i = 0; i < n; i++) {
+            final float[] a = outputLayer.batchActivations[i];
+            if (softMaxOutput) {
+                outputLayer.softMax(a);
+            }
+            outputs[i] = Arrays.copyOf(a, a.length);
+        }
+        outputLayer.setActivations(outputs[n - 1]);
+        processingTimeNs = System.nanoTime() - startProcessingTimeNs;
+        setBatchStatistics(n, operationCounter, processingTimeNs);
+        networkRanOnce = true;
+        setLastInputTypeProcessedWasApsFrame(false);
+        fireMadeDecision();
+        return outputs;
+    }
+
+    // computes batchActivations of all layers from those of the input layer; returns false if some layer cannot be batched
+    private boolean computeBatchLayers(int n) {
+        for (int i = 1; i < nLayers; i++) {
+            final Layer input = layers[i - 1], layer = layers[i];
+            if (layer instanceof ConvLayer) {
+                if (!((ConvLayer) layer).computeBatch(input, n)) {
+                    return false;
+                }
+            } else if ((layer instanceof SubsamplingLayer) && (input instanceof ConvLayer)) {
+                ((SubsamplingLayer) layer).computeBatch((ConvLayer) input, n);
+            } else if (layer instanceof OutputOrInnerProductFullyConnectedLayer) {
+                ((OutputOrInnerProductFullyConnectedLayer) layer).computeBatch(input, n);
+            } else {
+                return false;
+            }
+        }
+        outputLayer.computeBatch(layers[nLayers - 1], n);
+        return true;
+    }
+
     /**
      * Computes the output of the network from an input activationsFrame
      *
@@ -161,12 +234,10 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
     private float[] processLayers() {
         operationCounter = 0;
         startProcessingTimeNs = System.nanoTime();
-        for (int i = 1; i < nLayers; i++) { // skip input layer, whose activations are computed by reading in frame and downsampling it
-            layers[i].compute(layers[i - 1]);
-        }
-        outputLayer.compute(layers[nLayers - 1]);
-        if (softMaxOutput) {
-            outputLayer.computeSoftMax();
+        if (quantizedInference && isQuantizationCalibrated()) {
+            computeQuantizedLayers(quantizedCNN);
+        } else {
+            computeFloatLayers();
         }
 
         if (isPrintActivations()) {
@@ -177,9 +248,115 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
         }
         processingTimeNs = System.nanoTime() - startProcessingTimeNs;
         networkRanOnce = true;
-        getSupport().firePropertyChange(EVENT_MADE_DECISION, null, this);
+        fireMadeDecision();
+        return outputLayer.activations;
+    }
+
+    private void computeFloatLayers() {
+        for (int i = 1; i < nLayers; i++) { // skip input layer, whose activations are computed by reading in frame and downsampling it
+            layers[i].compute(layers[i - 1]);
+        }
+        outputLayer.compute(layers[nLayers - 1]);
+        if (softMaxOutput) {
+            outputLayer.computeSoftMax();
+        }
+    }
+
+    // the int8 network only sets the input and output layer activations
+    private void computeQuantizedLayers(QuantizedCNN q) {
+        outputLayer.setActivations(q.process(inputLayer.activations));
+        operationCounter += q.getOperationCount();
+        if (softMaxOutput) {
+            outputLayer.computeSoftMax();
+        }
+    }
+
+    /**
+     * Computes the float network output for a frame without firing
+     * EVENT_MADE_DECISION; used for calibration.
+     *
+     * @param frame the input
+     * @return the output activations
+     */
+    float[] computeFloat(DvsFrame frame) {
+        inputLayer.processDvsTimeslice(frame);
+        computeFloatLayers();
+        return outputLayer.activations;
+    }
+
+    /**
+     * Computes the int8 network output for a frame without firing
+     * EVENT_MADE_DECISION; used for calibration.
+     *
+     * @param frame the input
+     * @param q the int8 network
+     * @return the output activations
+     */
+    float[] computeQuantized(DvsFrame frame, QuantizedCNN q) {
+        inputLayer.processDvsTimeslice(frame);
+        computeQuantizedLayers(q);
         return outputLayer.activations;
     }
+
+    /**
+     * Quantizes the network to int8, using the frames to find the ranges of
+     * the activations, and compares the int8 with the float network on the
+     * same frames. The int8 network is used from then on if
+     * quantizedInference is set.
+     *
+     * @param frames recorded DVS frames that are typical of the input
+     * @return the comparison of the int8 with the float network
+     * @throws IllegalStateException if the network cannot be quantized
+     * @see QuantizedCNN
+     */
+    public QuantizedCNN.Comparison calibrateQuantization(List<DvsFrame> frames) {
+        if (inputLayer == null || outputLayer == null) {
+            throw new IllegalStateException("no network loaded");
+        }
+        final QuantizedCNN q = new QuantizedCNN(this);
+        final QuantizedCNN.Comparison c = q.calibrate(frames);
+        quantizedCNN = q;
+        return c;
+    }
+
+    /**
+     * @return true if the network has been quantized by calibrateQuantization
+     */
+    public boolean isQuantizationCalibrated() {
+        return quantizedCNN != null && quantizedCNN.isCalibrated();
+    }
+
+    /**
+     * Discards the int8 network, e.g. to calibrate again.
+     */
+    public void clearQuantization() {
+        quantizedCNN = null;
+    }
+
+    /**
+     * @return the int8 network, or null if not calibrated
+     */
+    public QuantizedCNN getQuantizedCNN() {
+        return quantizedCNN;
+    }
+
+    /**
+     * @return the quantizedInference
+     */
+    public boolean isQuantizedInference() {
+        return quantizedInference;
+    }
+
+    /**
+     * Sets whether the int8 network is run instead of the float network once
+     * it is calibrated. The int8 network only computes the input and output
+     * layer activations.
+     *
+     * @param quantizedInference the quantizedInference to set
+     */
+    public void setQuantizedInference(boolean quantizedInference) {
+        this.quantizedInference = quantizedInference;
+    }
     
   
     public void drawActivations() {
@@ -292,6 +469,26 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
     abstract public class Layer extends AbstractDavisCNN.Layer {
 
         public float[] activations;
+        float[][] batchActivations; // activations for each frame of processDvsFrames
+
+        /**
+         * Allocates batchActivations if needed
+         *
+         * @param n the number of frames
+         * @param length the number of activations per frame
+         * @return batchActivations
+         */
+        float[][] allocateBatchActivations(int n, int length) {
+            if ((batchActivations == null) || (batchActivations.length < n)) {
+                batchActivations = new float[n][];
+            }
+            for (int i = 0; i < n; i++) {
+                if ((batchActivations[i] == null) || (batchActivations[i].length != length)) {
+                    batchActivations[i] = new float[length];
+                }
+            }
+            return batchActivations;
+        }
 
         public Layer(int index) {
             super(index);
@@ -720,6 +917,9 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
         private ImageDisplay[] activationDisplays = null;
         private ImageDisplay[][] kernelDisplays = null;
         private int warningCountMax = 10;
+        private GemmConvolution gemm = null; // used if gemmConvolution is set; holds the kernels packed once per network load
+        private boolean gemmKernelsFlipped; // whether the kernels in gemm were packed flipped
+        private float[] batchGemmOutput = null; // output maps of a batch, each holding the map of all frames side by side
 
         private ActivationFunction activationFunction = ActivationFunction.Undefined; // default is the sigmoid, the only choice in DeepLearnToolbox
 
@@ -813,10 +1013,70 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                 log.warning("input.activations==null");
                 return;
             }
-            if ((inputLayer.activations.length % nInputMaps) != 0 && warningCountMax-- > 0) {
-                log.warning("input.activations.length=" + inputLayer.activations.length + " which is not divisible by nInputMaps=" + nInputMaps);
+            computeDimensions(inputLayer.activations.length);
+
+            if ((activations == null) || (activations.length != activationsLength)) {
+                activations = new float[activationsLength];
+            } else {
+                Arrays.fill(activations, 0);  // clear the output, since results from inputMaps will be accumulated
+            }
+
+            if (gemmConvolution && canComputeGemm(inputLayer, inputLayer.activations.length)) {
+                computeGemm(inputLayer);
+            } else {
+                for (int inputMap = 0; inputMap < nInputMaps; inputMap++) { // for each inputMap
+                    for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) { // for each kernel/outputMap
+                        conv(inputLayer, outputMap, inputMap);
+                    }
+                }
+            }
+
+            applyBiasAndNonlinearity(activations);
+        }
+
+        /**
+         * Computes the batchActivations from those of the input layer, with
+         * one GemmConvolution for as many frames as fit in its batch size
+         *
+         * @param inputLayer the input to this layer, with its batchActivations
+         * @param n the number of frames
+         * @return false if the layer cannot be computed by GemmConvolution
+         */
+        boolean computeBatch(Layer inputLayer, int n) {
+            final float[][] inputs = inputLayer.batchActivations;
+            computeDimensions(inputs[0].length);
+            if (!canComputeGemm(inputLayer, inputs[0].length)) {
+                return false;
+            }
+            final float[][] outputs = allocateBatchActivations(n, activationsLength);
+            setGemmKernels();
+            final int inputMapStride = inputLayer instanceof InputLayer ? 0 : inputMapLength;
+            final int maxBatchSize = gemm.getMaxBatchSize(outputMapLength);
+            for (int first = 0; first < n; first += maxBatchSize) {
+                final int m = Math.min(maxBatchSize, n - first);
+                gemm.unroll(inputs, first, m, inputMapStride, inputMapDim, outputMapDim, gemmOffset(), gemmMaxInputCoordinate());
+                if ((batchGemmOutput == null) || (batchGemmOutput.length < (m * activationsLength))) {
+                    batchGemmOutput = new float[m * activationsLength];
+                }
+                gemm.multiply(batchGemmOutput);
+                operationCounter += 2 * gemm.getMacCount();
+                for (int i = 0; i < m; i++) {
+                    final float[] output = outputs[first + i];
+                    for (int map = 0; map < nOutputMaps; map++) {
+                        System.arraycopy(batchGemmOutput, (((map * m) + i) * outputMapLength), output, map * outputMapLength, outputMapLength);
+                    }
+                    applyBiasAndNonlinearity(output);
+                }
+            }
+            return true;
+        }
+
+        // computes the map sizes from the number of input activations
+        private void computeDimensions(int inputActivationsLength) {
+            if ((inputActivationsLength % nInputMaps) != 0 && warningCountMax-- > 0) {
+                log.warning("input.activations.length=" + inputActivationsLength + " which is not divisible by nInputMaps=" + nInputMaps);
             }
-            inputMapLength = inputLayer.activations.length / nInputMaps; // for computing indexing to input
+            inputMapLength = inputActivationsLength / nInputMaps; // for computing indexing to input
             double sqrtInputMapLength = Math.sqrt(inputMapLength);
             if (Math.IEEEremainder(sqrtInputMapLength, 1) != 0 && warningCountMax-- > 0) {
                 log.warning("input map is not square; Math.rint(sqrtInputMapLength)=" + Math.rint(sqrtInputMapLength));
@@ -835,20 +1095,50 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
             if (nOutputMaps != biases.length && warningCountMax-- > 0) {
                 log.warning("nOutputMaps!=biases.length: " + nOutputMaps + "!=" + biases.length);
             }
+        }
 
-            if ((activations == null) || (activations.length != activationsLength)) {
-                activations = new float[activationsLength];
-            } else {
-                Arrays.fill(activations, 0);  // clear the output, since results from inputMaps will be accumulated
+        // the GEMM path reads the input activations directly, so it needs the layouts that a() uses for square maps and odd kernels
+        private boolean canComputeGemm(Layer inputLayer, int inputActivationsLength) {
+            if ((kernelDim % 2) != 1 || (inputMapDim * inputMapDim) != inputMapLength || (inputMapLength * nInputMaps) != inputActivationsLength) {
+                return false;
             }
+            if (inputLayer instanceof InputLayer) {
+                return ((InputLayer) inputLayer).height == inputMapDim;
+            }
+            return (inputLayer instanceof ConvLayer) || (inputLayer instanceof SubsamplingLayer);
+        }
 
-            for (int inputMap = 0; inputMap < nInputMaps; inputMap++) { // for each inputMap
-                for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) { // for each kernel/outputMap
-                    conv(inputLayer, outputMap, inputMap);
-                }
+        // computes the same sums as conv() with im2col and a blocked matrix multiplication
+        private void computeGemm(Layer inputLayer) {
+            setGemmKernels();
+            // the input layer returns its single map for every input map
+            final int inputMapStride = inputLayer instanceof InputLayer ? 0 : inputMapLength;
+            gemm.unroll(inputLayer.activations, inputMapStride, inputMapDim, outputMapDim, gemmOffset(), gemmMaxInputCoordinate());
+            gemm.multiply(activations);
+            operationCounter += 2 * gemm.getMacCount();
+        }
+
+        // packs the kernels on first use, and again only if a change of zeroPadding changes the flip
+        private void setGemmKernels() {
+            // conv() flips the kernel only for DeepLearnToolbox nets without zero padding
+            final boolean flip = !zeroPadding && !getNettype().equals("caffe_net");
+            if ((gemm != null) && (flip == gemmKernelsFlipped)) {
+                return;
+            }
+            if (gemm == null) {
+                gemm = new GemmConvolution();
             }
+            gemm.setKernels(kernels, nInputMaps, nOutputMaps, kernelDim, flip);
+            gemmKernelsFlipped = flip;
+        }
 
-            applyBiasAndNonlinearity();
+        private int gemmOffset() {
+            return zeroPadding ? halfKernelDim : 0;
+        }
+
+        // like conv(), which copies input coordinates up to inputMapDim - 2 * halfKernelDim into the padded map
+        private int gemmMaxInputCoordinate() {
+            return zeroPadding ? inputMapDim - 2 * halfKernelDim : inputMapDim - 1;
         }
 
         // convolves a given kernel over the inputMap and accumulates output to activations
@@ -937,7 +1227,7 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
             return sum;
         }
 
-        private void applyBiasAndNonlinearity() {
+        private void applyBiasAndNonlinearity(float[] activations) {
             if (activations == null) {
                 return;
             }
@@ -990,6 +1280,26 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
             return (outputMap * outputMapLength) + (outputMapDim * x) + y; //(outputMapDim-y-1);
         }
 
+        int getNumInputMaps() {
+            return nInputMaps;
+        }
+
+        int getNumOutputMaps() {
+            return nOutputMaps;
+        }
+
+        int getKernelDim() {
+            return kernelDim;
+        }
+
+        float[] getKernels() {
+            return kernels;
+        }
+
+        float[] getBiases() {
+            return biases;
+        }
+
         @Override
         synchronized public void cleanupGraphics() {
             activationDisplays = null;
@@ -1110,6 +1420,29 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                 return;
             }
             ConvLayer convLayer = (ConvLayer) input;
+            computeDimensions(convLayer);
+
+            if ((activations == null) || (activations.length != activationsLength)) {
+                activations = new float[activationsLength];
+            }
+            pool(convLayer, convLayer.activations, activations);
+        }
+
+        /**
+         * Computes the batchActivations from those of the conv layer
+         *
+         * @param convLayer the input to this layer, with its batchActivations
+         * @param n the number of frames
+         */
+        void computeBatch(ConvLayer convLayer, int n) {
+            computeDimensions(convLayer);
+            final float[][] outputs = allocateBatchActivations(n, activationsLength);
+            for (int i = 0; i < n; i++) {
+                pool(convLayer, convLayer.batchActivations[i], outputs[i]);
+            }
+        }
+
+        private void computeDimensions(ConvLayer convLayer) {
             nOutputMaps = convLayer.nOutputMaps;
             inputMapDim = convLayer.outputMapDim;
             inputMapLength = convLayer.outputMapLength;
@@ -1118,11 +1451,10 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
             averageOverMultiplier = 1f / averageOverNum;
             outputMapLength = inputMapLength / averageOverNum;
             activationsLength = outputMapLength * nOutputMaps;
+        }
 
-            if ((activations == null) || (activations.length != activationsLength)) {
-                activations = new float[activationsLength];
-            }
-
+        // pools input, the activations of convLayer for one frame, into output
+        private void pool(ConvLayer convLayer, float[] input, float[] output) {
             for (int map = 0; map < nOutputMaps; map++) {
                 for (int xo = 0; xo < outputMapDim; xo++) { // output map index
                     for (int yo = 0; yo < outputMapDim; yo++) { // output map
@@ -1133,10 +1465,10 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                             for (int yi = starty; yi < endy; yi++) {
                                 switch (poolingType) {
                                     case Average:
-                                        sumOrMax += convLayer.a(map, xi, yi); // add to sum to processAPSFrame average
+                                        sumOrMax += input[convLayer.o(map, xi, yi)]; // add to sum to processAPSFrame average
                                         break;
                                     case Max:
-                                        float f = convLayer.a(map, xi, yi);
+                                        float f = input[convLayer.o(map, xi, yi)];
                                         sumOrMax = f > sumOrMax ? f : sumOrMax;
                                         break;
                                     case Undefined:
@@ -1147,13 +1479,13 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                         }
                         // debug
                         int idx = o(map, xo, yo);
-                        if (idx >= activations.length) {
+                        if (idx >= output.length) {
                             log.warning("overran this pooling layer's output activations");
                         }
                         if (poolingType == PoolingType.Average) {
-                            activations[o(map, xo, yo)] = sumOrMax * averageOverMultiplier;  //average
+                            output[o(map, xo, yo)] = sumOrMax * averageOverMultiplier;  //average
                         } else {
-                            activations[o(map, xo, yo)] = sumOrMax;
+                            output[o(map, xo, yo)] = sumOrMax;
                         }
                     }
                 }
@@ -1297,7 +1629,55 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                 throw new ArrayIndexOutOfBoundsException(e.toString());
             }
 
+            applyBiasAndActivationFunction(activations);
             maxActivation = Float.NEGATIVE_INFINITY;
+            for (int unit = 0; unit < biases.length; unit++) {
+                if (activations[unit] > maxActivation) {
+                    maxActivatedUnit = unit;
+                    maxActivation = activations[unit];
+                }
+            }
+
+        }
+
+        /**
+         * Computes the batchActivations from those of the input layer. Each
+         * weight is loaded once and applied to all frames.
+         *
+         * @param input the input to this layer, with its batchActivations
+         * @param n the number of frames
+         */
+        void computeBatch(Layer input, int n) {
+            final float[][] inputs = input.batchActivations;
+            final int nUnits = biases.length, nInputs = inputs[0].length;
+            if ((nUnits * nInputs) > weights.length) {
+                log.warning("input has " + nInputs + " activations but there are only " + weights.length + " weights for " + nUnits + " units. Could you have an incorrect zeroPadding setting?");
+                throw new ArrayIndexOutOfBoundsException(nUnits * nInputs);
+            }
+            final float[][] outputs = allocateBatchActivations(n, nUnits);
+            for (int i = 0; i < n; i++) {
+                Arrays.fill(outputs[i], 0);
+            }
+            for (int w = 0; w < nInputs; w++) {
+                final int w0 = nUnits * w; // the weights of all units for this input are contiguous, see weight()
+                for (int i = 0; i < n; i++) {
+                    final float a = inputs[i][w];
+                    if (a == 0) {
+                        continue;
+                    }
+                    final float[] output = outputs[i];
+                    for (int unit = 0; unit < nUnits; unit++) {
+                        output[unit] += a * weights[w0 + unit];
+                    }
+                }
+            }
+            operationCounter += 2 * nUnits * nInputs * n;
+            for (int i = 0; i < n; i++) {
+                applyBiasAndActivationFunction(outputs[i]);
+            }
+        }
+
+        private void applyBiasAndActivationFunction(float[] activations) {
             for (int unit = 0; unit < biases.length; unit++) {
                 switch (activationFunction) {
                     case Sigmoid:
@@ -1311,12 +1691,22 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
                         activations[unit] = (activations[unit] + biases[unit]);
                 }
                 operationCounter += 2;
+            }
+        }
+
+        // sets the activations computed elsewhere, e.g. by QuantizedCNN
+        void setActivations(float[] values) {
+            if ((activations == null) || (activations.length != values.length)) {
+                activations = new float[values.length];
+            }
+            System.arraycopy(values, 0, activations, 0, values.length);
+            maxActivation = Float.NEGATIVE_INFINITY;
+            for (int unit = 0; unit < activations.length; unit++) {
                 if (activations[unit] > maxActivation) {
                     maxActivatedUnit = unit;
                     maxActivation = activations[unit];
                 }
             }
-
         }
 
         private float weight(int unit, int nUnits, int weight) {
@@ -1384,24 +1774,31 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
             if (activations == null || activations.length == 0) {
                 return;
             }
+            softMax(activations);
+            maxActivation = Float.NEGATIVE_INFINITY;
+            for (int k = 0; k < activations.length; k++) {
+                if (activations[k] > maxActivation) {
+                    setMaxActivatedUnit(k);
+                    maxActivation = activations[k];
+                }
+            }
+        }
+
+        // replaces the values in a by their softmax
+        private void softMax(float[] a) {
             float sum = 0;
-            for (int k = 0; k < activations.length; k++) { // simply MAC the weight times the input activation
-                float f = (float) Math.exp(activations[k]);
+            for (int k = 0; k < a.length; k++) { // simply MAC the weight times the input activation
+                float f = (float) Math.exp(a[k]);
                 if (Float.isInfinite(f)) {
                     f = Float.MAX_VALUE; // handle exponential overflow
                 }
                 sum += f;
-                activations[k] = f;
+                a[k] = f;
                 operationCounter += 2;
             }
-            maxActivation = Float.NEGATIVE_INFINITY;
             float r = 1 / sum;
-            for (int k = 0; k < activations.length; k++) { // simply MAC the weight times the input activation
-                activations[k] *= r;
-                if (activations[k] > maxActivation) {
-                    setMaxActivatedUnit(k);
-                    maxActivation = activations[k];
-                }
+            for (int k = 0; k < a.length; k++) {
+                a[k] *= r;
                 operationCounter += 2;
             }
         }
@@ -1786,6 +2183,7 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
 
         cleanup();
         networkRanOnce = false;
+        quantizedCNN = null;
 
         log.info(toString());
     }
@@ -1868,6 +2266,24 @@ public class DavisCNNPureJava extends AbstractDavisCNN {
         this.normalizeKernelDisplayWeightsGlobally = normalizeKernelDisplayWeightsGlobally;
     }
 
+    /**
+     * @return the gemmConvolution
+     */
+    public boolean isGemmConvolution() {
+        return gemmConvolution;
+    }
+
+    /**
+     * Sets whether conv layers are computed by GemmConvolution, as a blocked
+     * matrix multiplication split over the cores, or by the original per
+     * pixel loops, which are the default.
+     *
+     * @param gemmConvolution true to use GemmConvolution
+     */
+    public void setGemmConvolution(boolean gemmConvolution) {
+        this.gemmConvolution = gemmConvolution;
+    }
+
     /**
      * @return the normalizeActivationDisplayGlobally
      */
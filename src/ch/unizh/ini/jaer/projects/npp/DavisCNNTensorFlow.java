@@ -28,6 +28,8 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import net.sf.jaer.graphics.AEFrameChipRenderer;
@@ -36,6 +38,7 @@ import org.tensorflow.Graph;
 import org.tensorflow.Operation;
 import org.tensorflow.Output;
 import org.tensorflow.Session;
+import org.tensorflow.Shape;
 import org.tensorflow.Tensor;
 
 /**
@@ -56,6 +59,8 @@ public class DavisCNNTensorFlow extends AbstractDavisCNN {
     private Graph executionGraph = null;
     private Graph inputNormalizationGraph = null;
     private ArrayList<String> ioLayers = new ArrayList();
+    private boolean batchUnsupported = false; // set if the graph has no batch dimension, e.g. because it is fixed to 1
+    private int batchWarningCount = 10; // limits the warnings about batches that failed for other reasons
 
     public DavisCNNTensorFlow(AbstractDavisCNNProcessor processor) {
         super(processor);
@@ -68,6 +73,69 @@ public class DavisCNNTensorFlow extends AbstractDavisCNN {
         return results;
     }
 
+    /**
+     * Runs the graph once on a tensor holding all the frames, so that the
+     * session is set up and the weights are loaded once for the batch. Falls
+     * back to one frame at a time from then on if the graph has no batch
+     * dimension, and only for this batch if the batch failed for another
+     * reason, e.g. a misconfigured layer name.
+     *
+     * @param frames the frames, all of the same size
+     * @return the output activations, one array per frame
+     */
+    @Override
+    public float[][] processDvsFrames(List<? extends DvsFramer.DvsFrame> frames) {
+        final int n = frames.size();
+        if ((n < 2) || (executionGraph == null) || batchUnsupported) {
+            return super.processDvsFrames(frames);
+        }
+        final Operation input = executionGraph.operation(processor.getInputLayerName());
+        if (input == null) {
+            if (batchWarningCount-- > 0) {
+                log.warning("input layer " + processor.getInputLayerName() + " not found in graph, processing frames one by one");
+            }
+            return super.processDvsFrames(frames);
+        }
+        final Shape inputShape = input.output(0).shape();
+        if ((inputShape.numDimensions() > 0) && (inputShape.size(0) >= 0)) {
+            log.info("input layer " + processor.getInputLayerName() + " has fixed batch size " + inputShape.size(0) + " (shape " + inputShape + "), processing frames one by one from now on");
+            batchUnsupported = true;
+            return super.processDvsFrames(frames);
+        }
+        final long startTime = System.nanoTime();
+        final int width = frames.get(0).getWidth(), height = frames.get(0).getHeight();
+        final int numChannels = processor.isMakeRGBFrames() ? 3 : 1;
+        inputLayer = new InputLayer(width, height, numChannels);
+        final int frameLength = width * height * numChannels;
+        final float[] batch = new float[n * frameLength];
+        for (int i = 0; i < n; i++) {
+            final DvsFramer.DvsFrame frame = frames.get(i);
+            if ((frame.getWidth() != width) || (frame.getHeight() != height)) {
+                throw new IllegalArgumentException("frame " + i + " is " + frame.getWidth() + "x" + frame.getHeight() + " but frame 0 is " + width + "x" + height);
+            }
+            flipToNHWC(frame.getImage(), width, height, numChannels, batch, i * frameLength);
+        }
+        float[][] outputs;
+        try (Tensor<Float> imageTensor = Tensor.create(new long[]{n, height, width, numChannels}, FloatBuffer.wrap(batch));) {
+            outputs = TensorFlow.executeGraph(executionGraph, imageTensor, processor.getInputLayerName(), processor.getOutputLayerName(), n);
+        } catch (IllegalArgumentException | IllegalStateException ex) {
+            if (batchWarningCount-- > 0) {
+                log.log(Level.WARNING, "batch of " + n + " frames failed, processing them one by one", ex);
+            }
+            return super.processDvsFrames(frames);
+        }
+        if (outputs == null) {
+            log.warning("graph does not output a batch of " + n + " frames, processing frames one by one from now on");
+            batchUnsupported = true;
+            return super.processDvsFrames(frames);
+        }
+        outputLayer = new OutputLayer(outputs[n - 1]);
+        processingTimeNs = System.nanoTime() - startTime;
+        setBatchStatistics(n, 0, processingTimeNs); // the operations are not counted for TensorFlow
+        fireMadeDecision();
+        return outputs;
+    }
+
     private Output<Float> normalizedImageOutput = null; // used to reference the graph
 
     @Override
@@ -129,7 +197,7 @@ public class DavisCNNTensorFlow extends AbstractDavisCNN {
 
         float[] results = TensorFlow.executeGraph(executionGraph, normalizedImage, processor.getInputLayerName(), processor.getOutputLayerName());
         outputLayer = new OutputLayer(results);
-        getSupport().firePropertyChange(EVENT_MADE_DECISION, null, this);
+        fireMadeDecision();
         return results;
     }
 
@@ -154,33 +222,16 @@ public class DavisCNNTensorFlow extends AbstractDavisCNN {
 
         // TODO super hack brute force to flip image vertically because tobi cannot see how to flip an image in TensorFlow.
         // Also, make RGB frame from gray dvs image by cloning the gray value to each channel in WHC order
-        final float[] origarray = pixbuf.array();
-        FloatBuffer flipped = FloatBuffer.allocate(pixbuf.limit() * numChannels);
-        final float[] flippedarray = flipped.array();
-        // prepare rgb scaling factors to make RGB channels from grayscale. each channel has different weighting
-        float[] rgb = null;
-        if (processor.isMakeRGBFrames()) {
-            rgb = new float[]{1, 1, 1};
-        } else {
-            rgb = new float[]{1};
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                final int origIdx = x + width * y;
-                for (int c = 0; c < numChannels; c++) {
-                    final int newIdx = c + numChannels * (x + (width * (height - y - 1)));
-                    flippedarray[newIdx] = ((origarray[origIdx] * rgb[c]));
-                }
-            }
-        }
-        flipped = FloatBuffer.wrap(flippedarray);
+        final float[] flippedarray = new float[pixbuf.limit() * numChannels];
+        flipToNHWC(pixbuf.array(), width, height, numChannels, flippedarray, 0);
+        FloatBuffer flipped = FloatBuffer.wrap(flippedarray);
 
         try (Tensor<Float> imageTensor = Tensor.create(new long[]{1, height, width, numChannels}, flipped);) { // use NHWC order according to last post above
 //            int numElements = imageTensor.numElements();
 //            long[] shape = imageTensor.shape();
             float[] output = TensorFlow.executeGraph(executionGraph, imageTensor, processor.getInputLayerName(), processor.getOutputLayerName());
             outputLayer = new OutputLayer(output);
-            getSupport().firePropertyChange(EVENT_MADE_DECISION, null, this);
+            fireMadeDecision();
             return output;
         } catch (IllegalArgumentException ex) {
             StringBuilder msg = new StringBuilder("<html>Caught exception <p>" + ex.toString() + "<p>Did you set inputLayerName and outputLayerName in the property group <i>2. Analysis</i>?</p>");
@@ -195,6 +246,26 @@ public class DavisCNNTensorFlow extends AbstractDavisCNN {
         }
     }
 
+    // flips the gray frame vertically into dest, cloning the gray value to each channel in HWC order
+    private void flipToNHWC(float[] origarray, int width, int height, int numChannels, float[] dest, int destOffset) {
+        // prepare rgb scaling factors to make RGB channels from grayscale. each channel has different weighting
+        float[] rgb = null;
+        if (numChannels == 3) {
+            rgb = new float[]{1, 1, 1};
+        } else {
+            rgb = new float[]{1};
+        }
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int origIdx = x + width * y;
+                for (int c = 0; c < numChannels; c++) {
+                    final int newIdx = c + numChannels * (x + (width * (height - y - 1)));
+                    dest[destOffset + newIdx] = ((origarray[origIdx] * rgb[c]));
+                }
+            }
+        }
+    }
+
     @Override
     public float[] processInputPatchFrame(AEFrameChipRenderer frame, int offX, int offY) {
         throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
@@ -19,6 +19,7 @@
 package ch.unizh.ini.jaer.projects.npp;
 
 import java.beans.PropertyChangeEvent;
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import com.jogamp.opengl.GLAutoDrawable;
@@ -26,6 +27,7 @@ import com.jogamp.opengl.GLAutoDrawable;
 import net.sf.jaer.Description;
 import net.sf.jaer.DevelopmentStatus;
 import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventprocessing.FilterChain;
 import net.sf.jaer.graphics.AEFrameChipRenderer;
 
@@ -45,6 +47,11 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
     private float alpha = getFloat("alpha", 0.2f);
 
     private int filterx = 0, filtery = 0;  // Output location
+    private boolean batchInference = getBoolean("batchInference", true);
+    private int maxBatchSize = getInt("maxBatchSize", 64);
+    // ROIs filled since the last batch, and copies of them, since an ROI is cleared by its next event
+    private final ArrayList<DvsFramerROIGenerator.ROI> batchRois = new ArrayList<DvsFramerROIGenerator.ROI>();
+    private final ArrayList<DvsFramer.DvsFrame> batchFrames = new ArrayList<DvsFramer.DvsFrame>();
 
     public DavisWhatWhereCNNProcessor(AEChip chip) {
         super(chip);
@@ -55,6 +62,8 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
         chain.add(dvsSubsampler); // only for control, we iterate with it here using the events we recieve
         setEnclosedFilterChain(chain);
         setPropertyTooltip(disp, "alpha", "how opaque the overlay of ROI processing results is drawn");
+        setPropertyTooltip(anal, "batchInference", "collect the ROIs that fill during a packet and run the CNN on all of them together, rather than on each ROI as it fills");
+        setPropertyTooltip(anal, "maxBatchSize", "largest number of ROIs in a batch; a batch is processed when it reaches this size even before the end of the packet");
         initFilter();
 
     }
@@ -94,9 +103,17 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
 //    }
 
     @Override
-    public void resetFilter() {
+    public synchronized EventPacket<?> filterPacket(EventPacket<?> in) {
+        super.filterPacket(in);
+        processBatch(); // the ROIs that filled during this packet
+        return in;
+    }
+
+    @Override
+    public synchronized void resetFilter() {
         super.resetFilter();
         dvsSubsampler.resetFilter();
+        batchRois.clear();
     }
 
     @Override
@@ -115,18 +132,16 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
                     startTime = System.nanoTime();
                 }
                 DvsFramerROIGenerator.ROI roi = (DvsFramerROIGenerator.ROI) evt.getNewValue();
+                if (batchInference) {
+                    addToBatch(roi);
+                    if (batchRois.size() >= maxBatchSize) {
+                        processBatch();
+                    }
+                    break;
+                }
                 apsDvsNet.processDvsFrame(roi); // generates PropertyChange EVENT_MADE_DECISION
                 float[] activations = Arrays.copyOf(apsDvsNet.getOutputLayer().getActivations(), apsDvsNet.getOutputLayer().getNumUnits());
-                roi.setActivations(activations);
-                float[] rgba = Arrays.copyOf(activations, 4);
-                // alpha starts at 0, so fully transparent
-                if (apsDvsNet.getOutputLayer().getMaxActivatedUnit()!= 3) { // background
-                    rgba[3] = alpha; // set very tranparent and show decision as rgb
-                } else {
-                    Arrays.fill(rgba, 0); // don't show background at all
-                }
-
-                roi.setRgba(rgba); // for now just render 4-tuple as RGBA
+                setDecision(roi, activations, apsDvsNet.getOutputLayer().getMaxActivatedUnit());
 
                 if (measurePerformance) {
                     long dt = System.nanoTime() - startTime;
@@ -142,6 +157,59 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
 
     }
 
+    private void addToBatch(DvsFramerROIGenerator.ROI roi) {
+        final int i = batchRois.size();
+        batchRois.add(roi);
+        if (i < batchFrames.size()) {
+            roi.copyTo(batchFrames.get(i));
+        } else {
+            batchFrames.add(roi.copyTo(null));
+        }
+    }
+
+    /**
+     * Runs the CNN on all the ROIs collected since the last batch and sets
+     * their decisions.
+     */
+    private void processBatch() {
+        final int n = batchRois.size();
+        if ((n == 0) || (apsDvsNet == null)) {
+            batchRois.clear();
+            return;
+        }
+        float[][] outputs = apsDvsNet.processDvsFrames(batchFrames.subList(0, n)); // generates PropertyChange EVENT_MADE_DECISION
+        for (int i = 0; i < n; i++) {
+            float[] activations = outputs[i];
+            if (activations == null) {
+                continue;
+            }
+            int maxActivatedUnit = 0;
+            for (int k = 1; k < activations.length; k++) {
+                if (activations[k] > activations[maxActivatedUnit]) {
+                    maxActivatedUnit = k;
+                }
+            }
+            setDecision(batchRois.get(i), activations, maxActivatedUnit);
+        }
+        batchRois.clear();
+        if (measurePerformance) {
+            performanceString = String.format("Batch processing time: %.1fms (%.1f ROIs/s); %s", 1e-6f * apsDvsNet.getBatchProcessingTimeNs(), n / (1e-9f * apsDvsNet.getBatchProcessingTimeNs()), apsDvsNet.getBatchPerformanceString());
+        }
+    }
+
+    private void setDecision(DvsFramerROIGenerator.ROI roi, float[] activations, int maxActivatedUnit) {
+        roi.setActivations(activations);
+        float[] rgba = Arrays.copyOf(activations, 4);
+        // alpha starts at 0, so fully transparent
+        if (maxActivatedUnit != 3) { // background
+            rgba[3] = alpha; // set very tranparent and show decision as rgb
+        } else {
+            Arrays.fill(rgba, 0); // don't show background at all
+        }
+
+        roi.setRgba(rgba); // for now just render 4-tuple as RGBA
+    }
+
     /**
      * @return the alpha
      */
@@ -162,4 +230,40 @@ public class DavisWhatWhereCNNProcessor extends AbstractDavisCNNProcessor {
         putFloat("alpha", alpha);
     }
 
+    /**
+     * @return the batchInference
+     */
+    public boolean isBatchInference() {
+        return batchInference;
+    }
+
+    /**
+     * @param batchInference the batchInference to set
+     */
+    synchronized public void setBatchInference(boolean batchInference) {
+        this.batchInference = batchInference;
+        putBoolean("batchInference", batchInference);
+        if (!batchInference) {
+            processBatch();
+        }
+    }
+
+    /**
+     * @return the maxBatchSize
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize the maxBatchSize to set
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            maxBatchSize = 1;
+        }
+        this.maxBatchSize = maxBatchSize;
+        putInt("maxBatchSize", maxBatchSize);
+    }
+
 }
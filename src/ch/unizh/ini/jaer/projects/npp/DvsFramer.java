@@ -342,6 +342,41 @@ abstract public class DvsFramer extends EventFilter2D  {
             filled = false;
         }
 
+        /**
+         * Copies this frame into another frame, e.g. to hand a filled frame to
+         * another thread while this frame is cleared and accumulates the next
+         * one.
+         *
+         * @param dest the frame to copy to, or null to allocate a new one. Its
+         * memory is reallocated if the size differs.
+         * @return the copy
+         */
+        public DvsFrame copyTo(DvsFrame dest) {
+            if (dest == null) {
+                dest = new DvsFrame();
+            }
+            dest.width = width;
+            dest.height = height;
+            dest.nPixels = nPixels;
+            if (pixmap == null) {
+                dest.pixmap = null;
+                dest.eventSum = null;
+            } else {
+                if (dest.pixmap == null || dest.pixmap.length != pixmap.length) {
+                    dest.pixmap = new float[pixmap.length];
+                    dest.eventSum = new int[eventSum.length];
+                }
+                System.arraycopy(pixmap, 0, dest.pixmap, 0, pixmap.length);
+                System.arraycopy(eventSum, 0, dest.eventSum, 0, eventSum.length);
+            }
+            dest.accumulatedEventCount = accumulatedEventCount;
+            dest.mostOffCount = mostOffCount;
+            dest.mostOnCount = mostOnCount;
+            dest.sparsity = sparsity;
+            dest.filled = filled;
+            return dest;
+        }
+
         /**
          * Adds event of polarity <code>p</code> to location <code>x,y</code> in
          * the DVS frame.
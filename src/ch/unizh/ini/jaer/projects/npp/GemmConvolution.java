@@ -0,0 +1,309 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package ch.unizh.ini.jaer.projects.npp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes a convolutional layer as a matrix multiplication (im2col + GEMM).
+ * <p>
+ * The input maps are first unrolled into a matrix with one row per input map
+ * and kernel coordinate and one column per output pixel. Each output map is
+ * then the product of its packed kernel weights with this matrix. The
+ * multiplication is blocked over output pixels, so that a tile of the
+ * unrolled input stays in cache while four output maps are accumulated from
+ * it, and it is split over the output maps on a fork-join pool.
+ * <p>
+ * All arrays use the layouts of DavisCNNPureJava: maps are stored one after
+ * the other, each by column (index = dim*x + y), and kernels are indexed as in
+ * {@link DavisCNNPureJava.ConvLayer#k(int, int, int, int)}. An instance keeps
+ * its buffers between calls and is meant to be used by one layer at a time.
+ */
+public class GemmConvolution {
+
+    /**
+     * Output pixels per tile; 4 output rows plus one row of the unrolled input
+     * of this length fit easily in L1 cache
+     */
+    private static final int PIXEL_BLOCK = 256;
+    /**
+     * Smallest number of output maps computed by one fork-join task
+     */
+    private static final int MIN_MAPS_PER_TASK = 4;
+    /**
+     * Layers with fewer multiply-accumulates than this are computed on the
+     * calling thread
+     */
+    private static final long MIN_PARALLEL_MACS = 1 << 18;
+    /**
+     * Largest number of values of the unrolled input of a batch, 16MB of floats
+     */
+    private static final long MAX_BATCH_COLS = 1 << 22;
+
+    private final ForkJoinPool pool;
+    private float[] weights = null; // nOutputMaps rows of nRows packed kernel weights
+    private float[] cols = null; // nRows rows of nPixels unrolled input values
+    private int nInputMaps, nOutputMaps, kernelDim, nRows, nPixels;
+
+    /**
+     * Constructs a new instance that uses the common fork-join pool.
+     */
+    public GemmConvolution() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param pool the pool to split the output maps over
+     */
+    public GemmConvolution(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Packs the kernels into one row of weights per output map. Call once
+     * when the kernels are loaded, and again whenever they change.
+     *
+     * @param kernels the kernels, in DavisCNNPureJava.ConvLayer order
+     * @param nInputMaps number of input maps
+     * @param nOutputMaps number of output maps
+     * @param kernelDim kernel size
+     * @param flip true to mirror the kernels in x and y, as for the matlab
+     * convention of DeepLearnToolbox networks
+     */
+    public void setKernels(float[] kernels, int nInputMaps, int nOutputMaps, int kernelDim, boolean flip) {
+        this.nInputMaps = nInputMaps;
+        this.nOutputMaps = nOutputMaps;
+        this.kernelDim = kernelDim;
+        final int singleKernelLength = kernelDim * kernelDim;
+        nRows = nInputMaps * singleKernelLength;
+        if ((weights == null) || (weights.length != (nOutputMaps * nRows))) {
+            weights = new float[nOutputMaps * nRows];
+        }
+        for (int outputMap = 0; outputMap < nOutputMaps; outputMap++) {
+            int w = outputMap * nRows;
+            for (int inputMap = 0; inputMap < nInputMaps; inputMap++) {
+                final int kernelStart = (inputMap * singleKernelLength * nOutputMaps) + (singleKernelLength * outputMap);
+                for (int x = 0; x < kernelDim; x++) {
+                    for (int y = 0; y < kernelDim; y++) {
+                        final int kx = flip ? kernelDim - x - 1 : x, ky = flip ? kernelDim - y - 1 : y;
+                        weights[w++] = kernels[kernelStart + (kernelDim * kx) + ky];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the kernels packed by setKernels, one row of weights per output
+     * map, in the row order of the unrolled input
+     */
+    float[] getPackedKernels() {
+        return weights;
+    }
+
+    /**
+     * Unrolls the input maps. Output pixel x,y reads input pixel
+     * x+kx-offset,y+ky-offset for kernel coordinate kx,ky; input pixels
+     * outside 0..maxInputCoordinate read as zero.
+     *
+     * @param input the input activations
+     * @param inputMapStride distance between input maps in input; 0 if all
+     * input maps read the same map
+     * @param inputMapDim size of a square input map
+     * @param outputMapDim size of a square output map
+     * @param offset 0 for valid convolution, kernelDim/2 for zero padding
+     * @param maxInputCoordinate the largest input coordinate that is read,
+     * inputMapDim-1 to read all of the input map
+     */
+    public void unroll(float[] input, int inputMapStride, int inputMapDim, int outputMapDim, int offset, int maxInputCoordinate) {
+        allocateCols(outputMapDim * outputMapDim);
+        unroll(input, 0, inputMapStride, inputMapDim, outputMapDim, offset, maxInputCoordinate);
+    }
+
+    /**
+     * Unrolls the input maps of several inputs side by side, so that one call
+     * to multiply computes the layer for all of them and each packed kernel
+     * weight is loaded once for the whole batch. The output of input i is then
+     * found in each output map at pixels i*outputMapDim*outputMapDim and on.
+     *
+     * @param inputs the input activations
+     * @param firstInput the index in inputs of the first input to unroll
+     * @param nInputs the number of inputs to unroll
+     * @param inputMapStride see {@link #unroll(float[], int, int, int, int, int)}
+     * @param inputMapDim size of a square input map
+     * @param outputMapDim size of a square output map
+     * @param offset 0 for valid convolution, kernelDim/2 for zero padding
+     * @param maxInputCoordinate the largest input coordinate that is read
+     */
+    public void unroll(float[][] inputs, int firstInput, int nInputs, int inputMapStride, int inputMapDim, int outputMapDim, int offset, int maxInputCoordinate) {
+        final int outputMapLength = outputMapDim * outputMapDim;
+        allocateCols(nInputs * outputMapLength);
+        for (int i = 0; i < nInputs; i++) {
+            unroll(inputs[firstInput + i], i * outputMapLength, inputMapStride, inputMapDim, outputMapDim, offset, maxInputCoordinate);
+        }
+    }
+
+    /**
+     * @param outputMapLength the number of pixels of a single output map
+     * @return how many inputs can be unrolled together without the unrolled
+     * matrix growing beyond MAX_BATCH_COLS values; at least 1
+     */
+    public int getMaxBatchSize(int outputMapLength) {
+        return (int) Math.max(1, MAX_BATCH_COLS / ((long) nRows * outputMapLength));
+    }
+
+    private void allocateCols(int nPixels) {
+        this.nPixels = nPixels;
+        if ((cols == null) || (cols.length < (nRows * nPixels))) {
+            cols = new float[nRows * nPixels];
+        }
+    }
+
+    // unrolls one input into the columns starting at firstColumn
+    private void unroll(float[] input, int firstColumn, int inputMapStride, int inputMapDim, int outputMapDim, int offset, int maxInputCoordinate) {
+        int r = 0;
+        for (int inputMap = 0; inputMap < nInputMaps; inputMap++) {
+            final int mapStart = inputMap * inputMapStride;
+            for (int kx = 0; kx < kernelDim; kx++) {
+                for (int ky = 0; ky < kernelDim; ky++, r++) {
+                    int c = (r * nPixels) + firstColumn;
+                    for (int xo = 0; xo < outputMapDim; xo++) {
+                        final int xi = (xo + kx) - offset;
+                        if ((xi < 0) || (xi > maxInputCoordinate)) {
+                            for (int yo = 0; yo < outputMapDim; yo++) {
+                                cols[c++] = 0;
+                            }
+                            continue;
+                        }
+                        final int column = mapStart + (inputMapDim * xi);
+                        for (int yo = 0; yo < outputMapDim; yo++) {
+                            final int yi = (yo + ky) - offset;
+                            cols[c++] = ((yi < 0) || (yi > maxInputCoordinate)) ? 0 : input[column + yi];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies the packed kernels with the unrolled input. The output maps
+     * are overwritten; biases and nonlinearity are left to the caller.
+     *
+     * @param output the output activations, nOutputMaps maps of the output
+     * map size passed to unroll, times the number of inputs unrolled
+     */
+    public void multiply(float[] output) {
+        final long macs = (long) nOutputMaps * nRows * nPixels;
+        if ((macs < MIN_PARALLEL_MACS) || (pool.getParallelism() < 2) || (nOutputMaps < (2 * MIN_MAPS_PER_TASK))) {
+            multiply(output, 0, nOutputMaps);
+        } else {
+            final int mapsPerTask = Math.max(MIN_MAPS_PER_TASK, nOutputMaps / (2 * pool.getParallelism()));
+            pool.invoke(new MultiplyTask(output, 0, nOutputMaps, mapsPerTask));
+        }
+    }
+
+    /**
+     * @return the number of multiply-accumulates of one call to multiply
+     */
+    public long getMacCount() {
+        return (long) nOutputMaps * nRows * nPixels;
+    }
+
+    private class MultiplyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        final float[] output;
+        final int firstMap, endMap, mapsPerTask;
+
+        MultiplyTask(float[] output, int firstMap, int endMap, int mapsPerTask) {
+            this.output = output;
+            this.firstMap = firstMap;
+            this.endMap = endMap;
+            this.mapsPerTask = mapsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if ((endMap - firstMap) <= mapsPerTask) {
+                multiply(output, firstMap, endMap);
+                return;
+            }
+            int split = firstMap + ((((endMap - firstMap) / 2) + 3) & ~3); // keep the 4-map groups of the left half whole
+            if (split >= endMap) {
+                split = (firstMap + endMap) / 2;
+            }
+            invokeAll(new MultiplyTask(output, firstMap, split, mapsPerTask), new MultiplyTask(output, split, endMap, mapsPerTask));
+        }
+    }
+
+    private void multiply(float[] output, int firstMap, int endMap) {
+        for (int p0 = 0; p0 < nPixels; p0 += PIXEL_BLOCK) {
+            final int p1 = Math.min(nPixels, p0 + PIXEL_BLOCK);
+            int map = firstMap;
+            for (; (map + 4) <= endMap; map += 4) {
+                multiply4(output, map, p0, p1);
+            }
+            for (; map < endMap; map++) {
+                multiply1(output, map, p0, p1);
+            }
+        }
+    }
+
+    // accumulates 4 output maps over pixels p0..p1 so that each value of the unrolled input is loaded once for all of them
+    private void multiply4(float[] output, int map, int p0, int p1) {
+        final int o0 = map * nPixels, o1 = o0 + nPixels, o2 = o1 + nPixels, o3 = o2 + nPixels;
+        final int w0 = map * nRows, w1 = w0 + nRows, w2 = w1 + nRows, w3 = w2 + nRows;
+        for (int p = p0; p < p1; p++) {
+            output[o0 + p] = 0;
+            output[o1 + p] = 0;
+            output[o2 + p] = 0;
+            output[o3 + p] = 0;
+        }
+        for (int r = 0; r < nRows; r++) {
+            final float a0 = weights[w0 + r], a1 = weights[w1 + r], a2 = weights[w2 + r], a3 = weights[w3 + r];
+            final int c = r * nPixels;
+            for (int p = p0; p < p1; p++) {
+                final float v = cols[c + p];
+                output[o0 + p] += a0 * v;
+                output[o1 + p] += a1 * v;
+                output[o2 + p] += a2 * v;
+                output[o3 + p] += a3 * v;
+            }
+        }
+    }
+
+    private void multiply1(float[] output, int map, int p0, int p1) {
+        final int o = map * nPixels, w = map * nRows;
+        for (int p = p0; p < p1; p++) {
+            output[o + p] = 0;
+        }
+        for (int r = 0; r < nRows; r++) {
+            final float a = weights[w + r];
+            if (a == 0) {
+                continue;
+            }
+            final int c = r * nPixels;
+            for (int p = p0; p < p1; p++) {
+                output[o + p] += a * cols[c + p];
+            }
+        }
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package ch.unizh.ini.jaer.projects.npp;
+
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.ActivationFunction;
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.ConvLayer;
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.Layer;
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.OutputOrInnerProductFullyConnectedLayer;
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.PoolingType;
+import ch.unizh.ini.jaer.projects.npp.DavisCNNPureJava.SubsamplingLayer;
+import ch.unizh.ini.jaer.projects.npp.DvsFramer.DvsFrame;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Int8 version of a DavisCNNPureJava network.
+ * <p>
+ * Weights are quantized symmetrically to int8 with one scale per layer and
+ * activations with one scale per layer output, which is found by calibration
+ * on recorded DvsFrames. Conv, pooling and inner product layers then run in
+ * integer arithmetic: int8 products are accumulated in int32, biases are added
+ * as int32 and the sums are rescaled to the int8 output with a fixed point
+ * multiplier. Only sigmoid layers go through float, and the output layer
+ * produces float activations so that the network output looks the same as in
+ * the float path.
+ * <p>
+ * The network is quantized as it is when {@link #calibrate(java.util.List)} is
+ * called; calibrate again after loading another network or changing
+ * zeroPadding.
+ */
+public class QuantizedCNN {
+
+    private static final Logger log = Logger.getLogger("QuantizedCNN");
+    private static final int QMAX = 127;
+    private static final int PIXEL_BLOCK = 256;
+
+    private final DavisCNNPureJava net;
+    private final List<QLayer> qLayers = new ArrayList<QLayer>();
+    private float inputScale = 1;
+    private byte[] input = null;
+    private float[] outputs = null;
+    private boolean calibrated = false;
+    private long operationCount = 0;
+    private Comparison lastComparison = null;
+
+    /**
+     * Accuracy of the int8 network compared to the float network on the same
+     * frames.
+     */
+    public static class Comparison {
+
+        /**
+         * Number of frames compared
+         */
+        public int numFrames;
+        /**
+         * Fraction of frames for which both networks have the same most active
+         * output unit
+         */
+        public float top1Agreement;
+        /**
+         * Mean and max absolute difference of the output activations
+         */
+        public float meanAbsError, maxAbsError;
+
+        @Override
+        public String toString() {
+            return String.format("int8 vs float on %d frames: top-1 agreement %.1f%%, output error mean %.4f max %.4f", numFrames, 100 * top1Agreement, meanAbsError, maxAbsError);
+        }
+    }
+
+    /**
+     * Constructs a new, uncalibrated, quantized network.
+     *
+     * @param net the float network
+     */
+    public QuantizedCNN(DavisCNNPureJava net) {
+        this.net = net;
+    }
+
+    /**
+     * Runs the float network on the frames to find the activation ranges,
+     * quantizes the network and compares it to the float network on the same
+     * frames.
+     *
+     * @param frames recorded DVS frames, typical of the input
+     * @return the comparison of the quantized with the float network
+     * @throws IllegalStateException if there are no frames or the network has
+     * a layer that cannot be quantized
+     */
+    synchronized public Comparison calibrate(List<DvsFrame> frames) {
+        if (frames == null || frames.isEmpty()) {
+            throw new IllegalStateException("no frames to calibrate with");
+        }
+        calibrated = false;
+        final Layer[] layers = net.layers;
+        final float[] maxAbs = new float[net.nLayers];
+        final ArrayList<float[]> floatOutputs = new ArrayList<float[]>(frames.size());
+        for (DvsFrame frame : frames) {
+            floatOutputs.add(net.computeFloat(frame).clone());
+            for (int i = 0; i < net.nLayers; i++) {
+                maxAbs[i] = Math.max(maxAbs[i], maxAbs(layers[i].activations));
+            }
+        }
+        quantize(maxAbs);
+        calibrated = true;
+        lastComparison = compare(frames, floatOutputs);
+        log.info(lastComparison.toString());
+        return lastComparison;
+    }
+
+    /**
+     * Compares the quantized with the float network.
+     *
+     * @param frames the frames to run both networks on
+     * @return the comparison
+     */
+    synchronized public Comparison compare(List<DvsFrame> frames) {
+        final ArrayList<float[]> floatOutputs = new ArrayList<float[]>(frames.size());
+        for (DvsFrame frame : frames) {
+            floatOutputs.add(net.computeFloat(frame).clone());
+        }
+        lastComparison = compare(frames, floatOutputs);
+        return lastComparison;
+    }
+
+    private Comparison compare(List<DvsFrame> frames, List<float[]> floatOutputs) {
+        final Comparison c = new Comparison();
+        double sumError = 0;
+        int n = 0, agree = 0;
+        for (int f = 0; f < frames.size(); f++) {
+            final float[] ref = floatOutputs.get(f);
+            final float[] q = net.computeQuantized(frames.get(f), this);
+            if (argMax(ref) == argMax(q)) {
+                agree++;
+            }
+            for (int i = 0; i < ref.length; i++) {
+                final float e = Math.abs(ref[i] - q[i]);
+                sumError += e;
+                n++;
+                if (e > c.maxAbsError) {
+                    c.maxAbsError = e;
+                }
+            }
+        }
+        c.numFrames = frames.size();
+        c.top1Agreement = c.numFrames == 0 ? 0 : (float) agree / c.numFrames;
+        c.meanAbsError = n == 0 ? 0 : (float) (sumError / n);
+        return c;
+    }
+
+    /**
+     * Computes the output activations from the float input activations.
+     *
+     * @param inputActivations the input layer activations
+     * @return the output activations before softmax, reused on the next call
+     */
+    synchronized public float[] process(float[] inputActivations) {
+        if (!calibrated) {
+            throw new IllegalStateException("not calibrated");
+        }
+        operationCount = 0;
+        final float r = 1 / inputScale;
+        for (int i = 0; i < input.length; i++) {
+            input[i] = clamp(Math.round(inputActivations[i] * r));
+        }
+        byte[] in = input;
+        for (QLayer l : qLayers) {
+            l.compute(in);
+            operationCount += l.operations;
+            in = l.out;
+        }
+        return outputs;
+    }
+
+    /**
+     * @return true if calibrated, i.e. ready to process
+     */
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /**
+     * @return the comparison from the last calibration or comparison, or null
+     */
+    public Comparison getLastComparison() {
+        return lastComparison;
+    }
+
+    /**
+     * @return the number of operations (a MAC is 2) of the last call to
+     * process
+     */
+    public long getOperationCount() {
+        return operationCount;
+    }
+
+    /**
+     * @return the bytes taken by the int8 weights and int32 biases
+     */
+    public int getWeightBytes() {
+        int n = 0;
+        for (QLayer l : qLayers) {
+            n += l.weightBytes();
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QuantizedCNN{calibrated=%s, layers=%d, weightBytes=%d, %s}", calibrated, qLayers.size(), getWeightBytes(), lastComparison);
+    }
+
+    private void quantize(float[] maxAbs) {
+        qLayers.clear();
+        final Layer[] layers = net.layers;
+        inputScale = scale(maxAbs[0]);
+        int dim = net.inputLayer.height, maps = 1, length = net.inputLayer.nUnits;
+        if (net.inputLayer.width != dim || dim * dim != length) {
+            throw new IllegalStateException("can only quantize networks with square single channel input; input layer is " + net.inputLayer);
+        }
+        input = new byte[length];
+        boolean fromInputLayer = true;
+        float inScale = inputScale;
+        for (int i = 1; i < net.nLayers; i++) {
+            final Layer l = layers[i];
+            final QLayer q;
+            if (l instanceof ConvLayer) {
+                q = new QConv((ConvLayer) l, fromInputLayer, maps, dim, inScale, scale(maxAbs[i]));
+                dim = ((QConv) q).outDim;
+                maps = ((QConv) q).nOut;
+            } else if (l instanceof SubsamplingLayer) {
+                q = new QPool((SubsamplingLayer) l, maps, dim, inScale);
+                dim = ((QPool) q).outDim;
+            } else if (l instanceof OutputOrInnerProductFullyConnectedLayer) {
+                q = new QFullyConnected((OutputOrInnerProductFullyConnectedLayer) l, length, inScale, scale(maxAbs[i]), false);
+                maps = q.out.length;
+                dim = 1;
+            } else {
+                throw new IllegalStateException("cannot quantize layer " + l);
+            }
+            qLayers.add(q);
+            length = q.out.length;
+            inScale = q.outScale;
+            fromInputLayer = false;
+        }
+        final QFullyConnected o = new QFullyConnected(net.outputLayer, length, inScale, 1, true);
+        qLayers.add(o);
+        outputs = o.floatOut;
+    }
+
+    /**
+     * A quantized layer.
+     */
+    private abstract class QLayer {
+
+        byte[] out;
+        float outScale;
+        long operations;
+
+        abstract void compute(byte[] in);
+
+        int weightBytes() {
+            return 0;
+        }
+    }
+
+    private class QConv extends QLayer {
+
+        final int nIn, nOut, kernelDim, inDim, outDim, offset, maxCoord, inStride, nRows, nPixels;
+        final byte[] weights;
+        final int[] biases;
+        final int multiplier, shift;
+        final float accScale;
+        final ActivationFunction activationFunction;
+        final byte[] cols;
+        final int[] acc = new int[4 * PIXEL_BLOCK];
+
+        QConv(ConvLayer l, boolean fromInputLayer, int maps, int dim, float inScale, float outScale) {
+            nIn = l.getNumInputMaps();
+            nOut = l.getNumOutputMaps();
+            kernelDim = l.getKernelDim();
+            if ((kernelDim % 2) != 1 || (!fromInputLayer && maps != nIn)) {
+                throw new IllegalStateException("cannot quantize conv layer with kernel size " + kernelDim + " and " + maps + " input maps: " + l);
+            }
+            final boolean zeroPadding = net.isZeroPadding();
+            final int half = kernelDim / 2;
+            inDim = dim;
+            outDim = zeroPadding ? dim : (dim - kernelDim) + 1;
+            offset = zeroPadding ? half : 0;
+            maxCoord = zeroPadding ? dim - 2 * half : dim - 1; // same input pixels as ConvLayer.conv()
+            inStride = fromInputLayer ? 0 : dim * dim;
+            nRows = nIn * kernelDim * kernelDim;
+            nPixels = outDim * outDim;
+            activationFunction = l.getActivationFunction();
+            // pack the kernels in the order of GemmConvolution, flipped as in ConvLayer.conv()
+            final GemmConvolution packer = new GemmConvolution();
+            packer.setKernels(l.getKernels(), nIn, nOut, kernelDim, !zeroPadding && !net.getNettype().equals("caffe_net"));
+            final float[] packed = packer.getPackedKernels();
+            final float weightScale = scale(maxAbs(l.getKernels()));
+            weights = new byte[packed.length];
+            for (int i = 0; i < packed.length; i++) {
+                weights[i] = clamp(Math.round(packed[i] / weightScale));
+            }
+            accScale = inScale * weightScale;
+            biases = quantizeBiases(l.getBiases(), accScale, nOut);
+            this.outScale = outScale;
+            final int[] ms = fixedPoint(accScale / outScale);
+            multiplier = ms[0];
+            shift = ms[1];
+            out = new byte[nOut * nPixels];
+            cols = new byte[nRows * nPixels];
+            operations = 2L * nOut * nRows * nPixels;
+        }
+
+        @Override
+        void compute(byte[] in) {
+            int c = 0;
+            for (int inputMap = 0; inputMap < nIn; inputMap++) {
+                final int mapStart = inputMap * inStride;
+                for (int kx = 0; kx < kernelDim; kx++) {
+                    for (int ky = 0; ky < kernelDim; ky++) {
+                        for (int xo = 0; xo < outDim; xo++) {
+                            final int xi = (xo + kx) - offset;
+                            final boolean xValid = (xi >= 0) && (xi <= maxCoord);
+                            final int column = mapStart + (inDim * xi);
+                            for (int yo = 0; yo < outDim; yo++) {
+                                final int yi = (yo + ky) - offset;
+                                cols[c++] = (!xValid || (yi < 0) || (yi > maxCoord)) ? 0 : in[column + yi];
+                            }
+                        }
+                    }
+                }
+            }
+            for (int p0 = 0; p0 < nPixels; p0 += PIXEL_BLOCK) {
+                final int p1 = Math.min(nPixels, p0 + PIXEL_BLOCK), n = p1 - p0;
+                int map = 0;
+                for (; (map + 4) <= nOut; map += 4) { // 4 output maps per pass over the unrolled input, as in GemmConvolution
+                    final int w0 = map * nRows, w1 = w0 + nRows, w2 = w1 + nRows, w3 = w2 + nRows;
+                    final int b0 = biases[map], b1 = biases[map + 1], b2 = biases[map + 2], b3 = biases[map + 3];
+                    for (int p = 0; p < n; p++) {
+                        acc[p] = b0;
+                        acc[p + PIXEL_BLOCK] = b1;
+                        acc[p + 2 * PIXEL_BLOCK] = b2;
+                        acc[p + 3 * PIXEL_BLOCK] = b3;
+                    }
+                    for (int r = 0; r < nRows; r++) {
+                        final int a0 = weights[w0 + r], a1 = weights[w1 + r], a2 = weights[w2 + r], a3 = weights[w3 + r];
+                        final int cr = (r * nPixels) + p0;
+                        for (int p = 0; p < n; p++) {
+                            final int v = cols[cr + p];
+                            acc[p] += a0 * v;
+                            acc[p + PIXEL_BLOCK] += a1 * v;
+                            acc[p + 2 * PIXEL_BLOCK] += a2 * v;
+                            acc[p + 3 * PIXEL_BLOCK] += a3 * v;
+                        }
+                    }
+                    for (int m = 0; m < 4; m++) {
+                        activate(map + m, p0, n, m * PIXEL_BLOCK);
+                    }
+                }
+                for (; map < nOut; map++) {
+                    final int w = map * nRows;
+                    final int bias = biases[map];
+                    for (int p = 0; p < n; p++) {
+                        acc[p] = bias;
+                    }
+                    for (int r = 0; r < nRows; r++) {
+                        final int a = weights[w + r];
+                        if (a == 0) {
+                            continue;
+                        }
+                        final int cr = (r * nPixels) + p0;
+                        for (int p = 0; p < n; p++) {
+                            acc[p] += a * cols[cr + p];
+                        }
+                    }
+                    activate(map, p0, n, 0);
+                }
+            }
+        }
+
+        // writes the n sums of output map map starting at pixel p0 from acc[start]
+        private void activate(int map, int p0, int n, int start) {
+            final int o = (map * nPixels) + p0;
+            for (int p = 0; p < n; p++) {
+                out[o + p] = QuantizedCNN.activate(acc[start + p], activationFunction, multiplier, shift, accScale, outScale);
+            }
+        }
+
+        @Override
+        int weightBytes() {
+            return weights.length + 4 * biases.length;
+        }
+    }
+
+    private class QPool extends QLayer {
+
+        final int nMaps, inDim, outDim, poolDim, inLength, outLength;
+        final PoolingType poolingType;
+
+        QPool(SubsamplingLayer l, int maps, int dim, float inScale) {
+            nMaps = maps;
+            inDim = dim;
+            poolDim = l.averageOverDim;
+            outDim = dim / poolDim;
+            inLength = dim * dim;
+            outLength = inLength / (poolDim * poolDim);
+            poolingType = l.getPoolingType();
+            outScale = inScale; // max and average of int8 values need no rescaling
+            out = new byte[nMaps * outLength];
+            operations = (long) nMaps * outDim * outDim * poolDim * poolDim;
+        }
+
+        @Override
+        void compute(byte[] in) {
+            final int n = poolDim * poolDim;
+            for (int map = 0; map < nMaps; map++) {
+                for (int xo = 0; xo < outDim; xo++) {
+                    for (int yo = 0; yo < outDim; yo++) {
+                        int sumOrMax = 0; // starts at zero like SubsamplingLayer
+                        for (int xi = xo * poolDim; xi < (xo + 1) * poolDim; xi++) {
+                            final int column = (map * inLength) + (inDim * xi);
+                            for (int yi = yo * poolDim; yi < (yo + 1) * poolDim; yi++) {
+                                final int v = in[column + yi];
+                                if (poolingType == PoolingType.Max) {
+                                    if (v > sumOrMax) {
+                                        sumOrMax = v;
+                                    }
+                                } else if (poolingType == PoolingType.Average) {
+                                    sumOrMax += v;
+                                }
+                            }
+                        }
+                        if (poolingType == PoolingType.Average) {
+                            sumOrMax = (sumOrMax >= 0 ? sumOrMax + (n / 2) : sumOrMax - (n / 2)) / n;
+                        }
+                        out[(map * outLength) + (xo * outDim) + yo] = (byte) sumOrMax;
+                    }
+                }
+            }
+        }
+    }
+
+    private class QFullyConnected extends QLayer {
+
+        final int nUnits, nIn;
+        final byte[] weights;
+        final int[] biases;
+        final int multiplier, shift;
+        final float accScale;
+        final ActivationFunction activationFunction;
+        final boolean floatOutput;
+        final float[] floatOut;
+
+        QFullyConnected(OutputOrInnerProductFullyConnectedLayer l, int inputLength, float inScale, float outScale, boolean floatOutput) {
+            nUnits = l.biases.length;
+            nIn = inputLength;
+            if (l.weights.length != nUnits * nIn) {
+                throw new IllegalStateException("fully connected layer has " + l.weights.length + " weights but " + nUnits + " units with " + nIn + " inputs; check zeroPadding");
+            }
+            activationFunction = l.activationFunction == ActivationFunction.Undefined ? ActivationFunction.Sigmoid : l.activationFunction;
+            this.floatOutput = floatOutput;
+            final float weightScale = scale(maxAbs(l.weights));
+            weights = new byte[l.weights.length];
+            for (int unit = 0; unit < nUnits; unit++) { // store the weights of each unit contiguously
+                for (int w = 0; w < nIn; w++) {
+                    weights[(unit * nIn) + w] = clamp(Math.round(l.weights[unit + (nUnits * w)] / weightScale));
+                }
+            }
+            accScale = inScale * weightScale;
+            biases = quantizeBiases(l.biases, accScale, nUnits);
+            this.outScale = outScale;
+            final int[] ms = fixedPoint(accScale / outScale);
+            multiplier = ms[0];
+            shift = ms[1];
+            out = new byte[nUnits];
+            floatOut = floatOutput ? new float[nUnits] : null;
+            operations = 2L * nUnits * nIn;
+        }
+
+        @Override
+        void compute(byte[] in) {
+            for (int unit = 0; unit < nUnits; unit++) {
+                int acc = biases[unit];
+                final int w = unit * nIn;
+                for (int i = 0; i < nIn; i++) {
+                    acc += weights[w + i] * in[i];
+                }
+                if (floatOutput) {
+                    final float v = acc * accScale;
+                    switch (activationFunction) {
+                        case Sigmoid:
+                            floatOut[unit] = (float) (1.0 / (1.0 + Math.exp(-v)));
+                            break;
+                        case ReLu:
+                            floatOut[unit] = v < 0 ? 0 : v;
+                            break;
+                        default:
+                            floatOut[unit] = v;
+                    }
+                } else {
+                    out[unit] = activate(acc, activationFunction, multiplier, shift, accScale, outScale);
+                }
+            }
+        }
+
+        @Override
+        int weightBytes() {
+            return weights.length + 4 * biases.length;
+        }
+    }
+
+    // rescales an int32 sum to the int8 output and applies the activation function
+    private static byte activate(int acc, ActivationFunction activationFunction, int multiplier, int shift, float accScale, float outScale) {
+        switch (activationFunction) {
+            case ReLu:
+                return acc <= 0 ? 0 : clamp(rescale(acc, multiplier, shift));
+            case Sigmoid:
+                return clamp(Math.round((float) (1.0 / (1.0 + Math.exp(-acc * accScale))) / outScale));
+            default:
+                return clamp(rescale(acc, multiplier, shift));
+        }
+    }
+
+    // computes round(acc * multiplier / 2^shift)
+    private static int rescale(int acc, int multiplier, int shift) {
+        if (shift > 62) {
+            return 0;
+        }
+        final long p = (long) acc * multiplier;
+        if (shift <= 0) {
+            return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, p << -shift));
+        }
+        return (int) ((p + (1L << (shift - 1))) >> shift);
+    }
+
+    // represents a positive real multiplier as multiplier/2^shift with a 31 bit multiplier
+    private static int[] fixedPoint(double m) {
+        if (!(m > 0) || Double.isInfinite(m)) {
+            return new int[]{0, 0};
+        }
+        final int exponent = Math.getExponent(m) + 1; // m = fraction * 2^exponent with fraction in [0.5,1)
+        long multiplier = Math.round(Math.scalb(m, 31 - exponent));
+        int shift = 31 - exponent;
+        if (multiplier == (1L << 31)) {
+            multiplier >>= 1;
+            shift--;
+        }
+        return new int[]{(int) multiplier, shift};
+    }
+
+    private static int[] quantizeBiases(float[] biases, float accScale, int n) {
+        final int[] q = new int[n];
+        for (int i = 0; i < n && i < biases.length; i++) {
+            q[i] = (int) Math.max(Integer.MIN_VALUE / 2, Math.min(Integer.MAX_VALUE / 2, Math.round((double) biases[i] / accScale)));
+        }
+        return q;
+    }
+
+    private static byte clamp(int v) {
+        return (byte) (v > QMAX ? QMAX : (v < -QMAX ? -QMAX : v));
+    }
+
+    private static float scale(float maxAbs) {
+        return maxAbs > 0 ? maxAbs / QMAX : 1f / QMAX;
+    }
+
+    private static float maxAbs(float[] a) {
+        float m = 0;
+        if (a != null) {
+            for (float f : a) {
+                if (Math.abs(f) > m) {
+                    m = Math.abs(f);
+                }
+            }
+        }
+        return m;
+    }
+
+    private static int argMax(float[] a) {
+        int k = -1;
+        float m = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] > m) {
+                m = a[i];
+                k = i;
+            }
+        }
+        return k;
+    }
+}
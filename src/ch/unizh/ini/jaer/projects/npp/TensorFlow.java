@@ -19,6 +19,7 @@
 package ch.unizh.ini.jaer.projects.npp;
 
 import java.util.Arrays;
+import java.util.logging.Logger;
 import org.tensorflow.DataType;
 import org.tensorflow.Graph;
 import org.tensorflow.Output;
@@ -34,6 +35,8 @@ import org.tensorflow.types.UInt8;
  */
 public class TensorFlow {
 
+    private static final Logger log = Logger.getLogger("TensorFlow");
+
     public static int maxIndex(float[] probabilities) {
         int best = 0;
         for (int i = 1; i < probabilities.length; ++i) {
@@ -96,6 +99,31 @@ public class TensorFlow {
 //        }
     }
 
+    /**
+     * Executes the graph on a batch of images and returns the output of each.
+     *
+     * @param graph the graph
+     * @param images the images, a tensor of shape [batchSize H W C]
+     * @param inputLayerName the name of the input placeholder
+     * @param outputLayerName the name of the output
+     * @param batchSize the number of images
+     * @return the outputs, one array per image, or null if the graph does not
+     * output a [batchSize N] tensor, i.e. it has no batch dimension
+     */
+    public static float[][] executeGraph(Graph graph, Tensor<Float> images, String inputLayerName, String outputLayerName, int batchSize) {
+        try (Session s = new Session(graph);
+                Tensor<Float> result = s.runner().feed(inputLayerName, images).fetch(outputLayerName).run().get(0).expect(Float.class)) {
+            final long[] rshape = result.shape();
+            if (result.numDimensions() != 2 || rshape[0] != batchSize) {
+                log.warning(String.format("Expected model to produce a [%d N] shaped tensor where N is the number of labels, instead it produced one with shape %s",
+                        batchSize, Arrays.toString(rshape)));
+                return null;
+            }
+            int nlabels = (int) rshape[1];
+            return result.copyTo(new float[batchSize][nlabels]);
+        }
+    }
+
     // In the fullness of time, equivalents of the methods of this class should be auto-generated from
     // the OpDefs linked into libtensorflow_jni.so. That would match what is done in other languages
     // like Python, C++ and Go.
@@ -47,6 +47,9 @@ import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.event.OutputEventIterator;
 import net.sf.jaer.event.TypedEvent;
 import net.sf.jaer.eventio.AEFileInputStream;
+import net.sf.jaer.eventprocessing.EventProcessingPerformanceMeter;
+import net.sf.jaer.eventprocessing.FilterChain;
+import net.sf.jaer.eventprocessing.FilterMetrics;
 import net.sf.jaer.graphics.AEFrameChipRenderer;
 import net.sf.jaer.graphics.ChipRendererDisplayMethodRGBA;
 import net.sf.jaer.graphics.DisplayMethod;
@@ -387,10 +390,120 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
 
         protected int autoshotEventsSinceLastShot = 0; // autoshot counter
 
+        /**
+         * Number of IMUSample holders recycled in allocation-free extraction.
+         * Consumers that keep references to IMUSamples see them overwritten
+         * after this many more samples.
+         */
+        protected static final int IMU_SAMPLE_POOL_SIZE = 1024;
+        protected boolean allocationFreeExtractionEnabled = getPrefs().getBoolean("DavisEventExtractor.allocationFreeExtractionEnabled", false);
+        private IMUSample[] imuSamplePool = null;
+        private int imuSamplePoolIndex = 0;
+        private final EventRaw tmpRawEvent = new EventRaw();
+        private EventProcessingPerformanceMeter perf = null;
+        private FilterMetrics metrics = null;
+        private int perfEventsIn = 0;
+
         public DavisEventExtractor(final DavisBaseCamera chip) {
             super(chip);
         }
 
+        /**
+         * Returns the next IMUSample from the ring of recycled samples
+         *
+         * @return the sample, to be overwritten
+         */
+        protected IMUSample nextPooledImuSample() {
+            if (imuSamplePool == null) {
+                imuSamplePool = new IMUSample[IMU_SAMPLE_POOL_SIZE];
+                final short[] empty = new short[IMUSample.SIZE_EVENTS];
+                for (int k = 0; k < imuSamplePool.length; k++) {
+                    imuSamplePool[k] = new IMUSample(0, empty);
+                }
+            }
+            final IMUSample s = imuSamplePool[imuSamplePoolIndex];
+            imuSamplePoolIndex = (imuSamplePoolIndex + 1) % imuSamplePool.length;
+            return s;
+        }
+
+        /**
+         * Writes an IMU event holding the sample to the output. In
+         * allocation-free mode the output packet's own event object is reused,
+         * otherwise a new ApsDvsEvent replaces it.
+         *
+         * @param outItr the output iterator
+         * @param sample the sample
+         */
+        protected void writeImuEvent(final OutputEventIterator outItr, final IMUSample sample) {
+            if (allocationFreeExtractionEnabled) {
+                final ApsDvsEvent imuEvent = nextApsDvsEvent(outItr);
+                imuEvent.setTimestamp(sample.getTimestampUs());
+                imuEvent.setImuSample(sample);
+            } else {
+                final ApsDvsEvent imuEvent = new ApsDvsEvent(); // this davis event holds the IMUSample
+                imuEvent.setTimestamp(sample.getTimestampUs());
+                imuEvent.setImuSample(sample);
+                outItr.writeToNextOutput(imuEvent);
+            }
+        }
+
+        /**
+         * Returns true if extraction reuses the output events and a ring of
+         * IMUSamples rather than allocating new objects for each IMU sample.
+         *
+         * @return the allocationFreeExtractionEnabled
+         */
+        public boolean isAllocationFreeExtractionEnabled() {
+            return allocationFreeExtractionEnabled;
+        }
+
+        /**
+         * Sets allocation-free extraction. Filters that hold on to IMUSamples
+         * or IMU events across packets must copy them when this is enabled.
+         *
+         * @param allocationFreeExtractionEnabled the
+         * allocationFreeExtractionEnabled to set
+         */
+        synchronized public void setAllocationFreeExtractionEnabled(final boolean allocationFreeExtractionEnabled) {
+            this.allocationFreeExtractionEnabled = allocationFreeExtractionEnabled;
+            getPrefs().putBoolean("DavisEventExtractor.allocationFreeExtractionEnabled", allocationFreeExtractionEnabled);
+        }
+
+        /**
+         * Starts the performance meter if the chip's FilterChain is measuring
+         * performance.
+         *
+         * @param in the raw packet
+         */
+        protected void startPerformanceMeasurement(final AEPacketRaw in) {
+            final FilterChain fc = getChip().getFilterChain();
+            if ((fc == null) || !fc.isMeasurePerformanceEnabled()) {
+                return;
+            }
+            if (perf == null) {
+                perf = new EventProcessingPerformanceMeter(getClass().getSimpleName());
+            }
+            perfEventsIn = in == null ? 0 : in.getNumEvents();
+            perf.setMeasureAllocation(fc.isMeasureAllocationEnabled());
+            perf.start(perfEventsIn);
+        }
+
+        /**
+         * Stops the performance meter if it was started and records the
+         * measurement in the FilterChain's metrics registry.
+         */
+        protected void stopPerformanceMeasurement() {
+            final FilterChain fc = getChip().getFilterChain();
+            if ((perf == null) || (fc == null) || !fc.isMeasurePerformanceEnabled()) {
+                return;
+            }
+            perf.stop();
+            if (metrics == null) {
+                metrics = fc.getMetricsRegistry().metricsFor(this, getClass().getSimpleName());
+            }
+            metrics.record(perf, perfEventsIn, out.getSize(), false);
+        }
+
         int lastImuTs = 0; // DEBUG
 
         /**
@@ -414,6 +527,7 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
             if (in == null) {
                 return out;
             }
+            startPerformanceMeasurement(in);
             final int n = in.getNumEvents(); // addresses.length;
             final int sx1 = getChip().getSizeX() - 1;
             final boolean rollingShutter = !getDavisConfig().isGlobalShutter();
@@ -436,14 +550,12 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
                     if (IMUSample.extractSampleTypeCode(data) == 0) { // / only start getting an IMUSample at code 0,
                         // the first sample type
                         try {
-                            final IMUSample possibleSample = IMUSample.constructFromAEPacketRaw(in, i, incompleteIMUSampleException);
+                            final IMUSample possibleSample = IMUSample.constructFromAEPacketRaw(in, i, incompleteIMUSampleException,
+                                    allocationFreeExtractionEnabled ? nextPooledImuSample() : null);
                             i += IMUSample.SIZE_EVENTS - 1;
                             incompleteIMUSampleException = null;
                             imuSample = possibleSample; // asking for sample from AEChip now gives this value
-                            final ApsDvsEvent imuEvent = new ApsDvsEvent(); // this davis event holds the IMUSample
-                            imuEvent.setTimestamp(imuSample.getTimestampUs());
-                            imuEvent.setImuSample(imuSample);
-                            outItr.writeToNextOutput(imuEvent); // also write the event out to the next output event
+                            writeImuEvent(outItr, imuSample); // also write the event out to the next output event
                             // System.out.println("lastImu dt="+(imuSample.timestamp-lastImuTs));
                             // lastImuTs=imuSample.timestamp;
                             continue;
@@ -573,6 +685,7 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
                 autoshotEventsSinceLastShot = 0;
             }
 
+            stopPerformanceMeasurement();
             return out;
         } // extractPacket
 
@@ -614,7 +727,6 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
             raw.setNumEvents(0);
             final Iterator evItr = apsDVSpacket.fullIterator();
             int k = 0;
-            final EventRaw tmpRawEvent = new EventRaw();
 
             while (evItr.hasNext()) {
                 final ApsDvsEvent e = (ApsDvsEvent) evItr.next();
@@ -719,6 +831,7 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
             if (in == null) {
                 return out;
             }
+            startPerformanceMeasurement(in);
             final int n = in.getNumEvents(); // addresses.length;
             final int sx1 = ((isDVSQuarterOfAPS) ? (getChip().getSizeX() / 2) : (getChip().getSizeX())) - 1;
             final boolean rollingShutter = !getDavisConfig().isGlobalShutter();
@@ -741,14 +854,12 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
                     if (IMUSample.extractSampleTypeCode(data) == 0) { // / only start getting an IMUSample at code 0,
                         // the first sample type
                         try {
-                            final IMUSample possibleSample = IMUSample.constructFromAEPacketRaw(in, i, incompleteIMUSampleException);
+                            final IMUSample possibleSample = IMUSample.constructFromAEPacketRaw(in, i, incompleteIMUSampleException,
+                                    allocationFreeExtractionEnabled ? nextPooledImuSample() : null);
                             i += IMUSample.SIZE_EVENTS - 1;
                             incompleteIMUSampleException = null;
                             imuSample = possibleSample; // asking for sample from AEChip now gives this value
-                            final ApsDvsEvent imuEvent = new ApsDvsEvent(); // this davis event holds the IMUSample
-                            imuEvent.setTimestamp(imuSample.getTimestampUs());
-                            imuEvent.setImuSample(imuSample);
-                            outItr.writeToNextOutput(imuEvent); // also write the event out to the next output event
+                            writeImuEvent(outItr, imuSample); // also write the event out to the next output event
                             // System.out.println("lastImu dt="+(imuSample.timestamp-lastImuTs));
                             // lastImuTs=imuSample.timestamp;
                             continue;
@@ -962,6 +1073,7 @@ abstract public class DavisBaseCamera extends DavisChip implements RemoteControl
                 autoshotEventsSinceLastShot = 0;
             }
 
+            stopPerformanceMeasurement();
             return out;
         } // extractPacket
 
@@ -159,7 +159,11 @@ public class DavisColorRenderer extends AEFrameChipRenderer {
 			idx1 = getPixMapIndex(e.x + 1, e.y);
 			idx2 = getPixMapIndex(e.x, e.y + 1);
 			idx3 = getPixMapIndex(e.x + 1, e.y + 1);
+			markEventPixel(idx1);
+			markEventPixel(idx2);
+			markEventPixel(idx3);
 		}
+		markEventPixel(index);
 
 		// Change colors of DVS if SeparatyAPSByColor is selected: instead of Red/Green
 		// for all, each quarter has its own color based on the pixel color.
@@ -242,11 +242,34 @@ public class IMUSample {
      */
     public static IMUSample constructFromAEPacketRaw(final AEPacketRaw packet, final int start,
             final IncompleteIMUSampleException previousException) throws IncompleteIMUSampleException, BadIMUDataException {
+        return constructFromAEPacketRaw(packet, start, previousException, null);
+    }
+
+    /**
+     * Like {@link #constructFromAEPacketRaw(net.sf.jaer.aemonitor.AEPacketRaw, int, eu.seebetter.ini.chips.davis.imu.IMUSample.IncompleteIMUSampleException) }
+     * but fills an existing sample rather than allocating a new one, for
+     * allocation-free extraction.
+     *
+     * @param packet the packet.
+     * @param start the starting index where the sample starts.
+     * @param previousException null ordinarily, or a previous exception if the
+     * sample was not completed. The partial sample of the exception is
+     * completed in preference to reuse.
+     * @param reuse the sample to overwrite, or null to allocate a new one.
+     * @return the sample
+     * @throws IncompleteIMUSampleException if the packet is too short to
+     * contain the entire sample.
+     * @throws BadIMUDataException if bogus data was detected in the sample.
+     */
+    public static IMUSample constructFromAEPacketRaw(final AEPacketRaw packet, final int start,
+            final IncompleteIMUSampleException previousException, final IMUSample reuse) throws IncompleteIMUSampleException, BadIMUDataException {
         IMUSample sample;
         int startingCode = 0;
         if (previousException != null) {
             sample = previousException.partialSample;
             startingCode = previousException.nextCode;
+        } else if (reuse != null) {
+            sample = reuse;
         } else {
             sample = new IMUSample();
         }
@@ -0,0 +1,299 @@
+package net.sf.jaer.aemonitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer ring of AEPacketRaw that hands
+ * captured events from an acquisition thread (e.g. CypressFX3.AEReader) to a
+ * consumer thread (e.g. AEViewer.ViewLoop) without either thread ever taking a
+ * lock. It replaces the two-buffer swap of {@link AEPacketRawPool}, in which
+ * the acquisition thread holds the pool monitor while translating and the
+ * consumer must wait for it to swap.
+ * <p>
+ * The producer writes into {@link #writeBuffer()} and calls
+ * {@link #publish()} after each transfer from the device. The consumer calls
+ * {@link #drainTo(net.sf.jaer.aemonitor.AEPacketRaw) } to collect all
+ * published packets into its own packet. Slots between the consumer position
+ * (head) and the producer position (tail) belong to the consumer, the slot at
+ * the tail belongs to the producer, so no slot is ever touched by both
+ * threads at the same time. The head and tail are only written by their
+ * owning thread, with ordered writes that publish the slot contents.
+ * <p>
+ * When all slots are published and the consumer has not collected them, the
+ * {@link FullPolicy} decides what happens to the next transfer. The counters
+ * record published, consumed and dropped packets and events, how often the
+ * ring was full and how long the producer blocked.
+ */
+public class AEPacketRawRing {
+
+    /** What the producer does with a transfer when the ring is full. */
+    public enum FullPolicy {
+
+        /**
+         * Keep appending following transfers to the current write buffer
+         * until a slot frees up. Bursts are absorbed up to the capacity of
+         * one slot; after that the hardware interface sets the overrun flag
+         * and drops the newest events, as the double buffer did.
+         */
+        COALESCE,
+        /** Discard the transfer just written and reuse the write buffer. */
+        DROP_NEWEST,
+        /**
+         * Wait until the consumer frees a slot. This applies backpressure to
+         * the device, whose FIFOs fill up in turn.
+         */
+        BLOCK
+    }
+
+    /** Minimum number of slots; one for the producer and one to publish. */
+    public static final int MIN_SLOTS = 2;
+    private static final long BLOCK_PARK_NS = 50000;
+    private final AEPacketRaw[] slots;
+    private final AtomicLong head = new AtomicLong(0), tail = new AtomicLong(0);
+    private volatile FullPolicy fullPolicy = FullPolicy.COALESCE;
+    // producer-side counters, only written by the producer
+    private volatile long publishedPacketCount = 0, publishedEventCount = 0, fullCount = 0, droppedPacketCount = 0,
+            droppedEventCount = 0, overrunPacketCount = 0, blockedNs = 0;
+    private volatile int maxOccupancy = 0;
+    // consumer-side counters, only written by the consumer
+    private volatile long consumedPacketCount = 0, consumedEventCount = 0;
+
+    /**
+     * Constructs a new ring.
+     *
+     * @param numSlots the number of packets, at least {@link #MIN_SLOTS}
+     * @param initialCapacity the initial capacity in events of each packet.
+     * The hardware interface enlarges them as needed.
+     */
+    public AEPacketRawRing(int numSlots, int initialCapacity) {
+        if (numSlots < MIN_SLOTS) {
+            throw new IllegalArgumentException("numSlots=" + numSlots + " but must be at least " + MIN_SLOTS);
+        }
+        slots = new AEPacketRaw[numSlots];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new AEPacketRaw(initialCapacity);
+        }
+    }
+
+    private AEPacketRaw slot(long position) {
+        return slots[(int) (position % slots.length)];
+    }
+
+    /**
+     * Returns the packet the producer writes to. Only call from the producer
+     * thread. It stays the same until {@link #publish()} returns true.
+     *
+     * @return the packet being filled
+     */
+    public AEPacketRaw writeBuffer() {
+        return slot(tail.get());
+    }
+
+    /**
+     * Publishes the write buffer to the consumer and makes the next empty slot
+     * the write buffer. Only call from the producer thread, after each
+     * transfer.
+     *
+     * @return true if the write buffer was replaced by an empty one or
+     * emptied, so the producer must restart writing at event 0; false if the
+     * events stay in the current write buffer, either because there were none
+     * or because the ring is full and the policy is COALESCE.
+     */
+    public boolean publish() {
+        final long t = tail.get();
+        final AEPacketRaw w = slot(t);
+        if ((w.getNumEvents() == 0) && !w.overrunOccuredFlag) {
+            return false;
+        }
+        if ((t - head.get()) >= (slots.length - 1)) {
+            fullCount++;
+            switch (fullPolicy) {
+                case COALESCE:
+                    return false;
+                case DROP_NEWEST:
+                    droppedPacketCount++;
+                    droppedEventCount += w.getNumEvents();
+                    w.clear();
+                    w.overrunOccuredFlag = false;
+                    return true;
+                case BLOCK:
+                    final long startNs = System.nanoTime();
+                    while ((t - head.get()) >= (slots.length - 1)) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            blockedNs += System.nanoTime() - startNs;
+                            return false; // keep the events, producer is shutting down
+                        }
+                        LockSupport.parkNanos(BLOCK_PARK_NS);
+                    }
+                    blockedNs += System.nanoTime() - startNs;
+                    break;
+            }
+        }
+        if (w.overrunOccuredFlag) {
+            overrunPacketCount++;
+        }
+        w.systemModificationTimeNs = System.nanoTime();
+        publishedPacketCount++;
+        publishedEventCount += w.getNumEvents();
+        final AEPacketRaw next = slot(t + 1); // free, because t+1-head < number of slots
+        next.clear();
+        next.overrunOccuredFlag = false;
+        next.lastCaptureIndex = 0;
+        next.lastCaptureLength = 0;
+        final int occupancy = (int) ((t + 1) - head.get());
+        if (occupancy > maxOccupancy) {
+            maxOccupancy = occupancy;
+        }
+        tail.lazySet(t + 1); // publishes contents of w to consumer
+        return true;
+    }
+
+    /**
+     * Copies the events of all published packets, in order, into dest and
+     * frees their slots. Only call from the consumer thread.
+     *
+     * @param dest the consumer's packet, which is cleared first. Its
+     * overrunOccuredFlag is set if any of the collected packets overran.
+     * @return dest
+     */
+    public AEPacketRaw drainTo(AEPacketRaw dest) {
+        final long h = head.get();
+        final long t = tail.get();
+        int n = 0;
+        dest.clear();
+        dest.overrunOccuredFlag = false;
+        for (long i = h; i < t; i++) {
+            final AEPacketRaw s = slot(i);
+            final int ne = s.getNumEvents();
+            dest.ensureCapacity(n + ne);
+            System.arraycopy(s.getAddresses(), 0, dest.getAddresses(), n, ne);
+            System.arraycopy(s.getTimestamps(), 0, dest.getTimestamps(), n, ne);
+            n += ne;
+            dest.overrunOccuredFlag |= s.overrunOccuredFlag;
+            dest.systemModificationTimeNs = s.systemModificationTimeNs;
+        }
+        dest.setNumEvents(n);
+        dest.lastCaptureIndex = 0;
+        dest.lastCaptureLength = n;
+        consumedPacketCount += t - h;
+        consumedEventCount += n;
+        head.lazySet(t); // hands slots back to producer
+        return dest;
+    }
+
+    /**
+     * Returns the number of published packets waiting for the consumer.
+     *
+     * @return the number of packets
+     */
+    public int getOccupancy() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns the number of slots.
+     *
+     * @return the number of slots
+     */
+    public int getNumSlots() {
+        return slots.length;
+    }
+
+    /**
+     * @return the fullPolicy
+     */
+    public FullPolicy getFullPolicy() {
+        return fullPolicy;
+    }
+
+    /**
+     * Sets the policy for transfers that arrive when the ring is full. Can be
+     * called from any thread.
+     *
+     * @param fullPolicy the fullPolicy to set
+     */
+    public void setFullPolicy(FullPolicy fullPolicy) {
+        this.fullPolicy = fullPolicy;
+    }
+
+    /**
+     * @return the number of packets published to the consumer
+     */
+    public long getPublishedPacketCount() {
+        return publishedPacketCount;
+    }
+
+    /**
+     * @return the number of events published to the consumer
+     */
+    public long getPublishedEventCount() {
+        return publishedEventCount;
+    }
+
+    /**
+     * @return the number of packets collected by the consumer
+     */
+    public long getConsumedPacketCount() {
+        return consumedPacketCount;
+    }
+
+    /**
+     * @return the number of events collected by the consumer
+     */
+    public long getConsumedEventCount() {
+        return consumedEventCount;
+    }
+
+    /**
+     * @return the number of times a transfer found the ring full
+     */
+    public long getFullCount() {
+        return fullCount;
+    }
+
+    /**
+     * @return the number of transfers discarded by the DROP_NEWEST policy
+     */
+    public long getDroppedPacketCount() {
+        return droppedPacketCount;
+    }
+
+    /**
+     * @return the number of events discarded by the DROP_NEWEST policy
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount;
+    }
+
+    /**
+     * @return the number of published packets in which the hardware interface
+     * dropped events because the packet reached its maximum capacity
+     */
+    public long getOverrunPacketCount() {
+        return overrunPacketCount;
+    }
+
+    /**
+     * @return the total time in ns the producer was blocked by the BLOCK
+     * policy
+     */
+    public long getBlockedNs() {
+        return blockedNs;
+    }
+
+    /**
+     * @return the largest number of slots in use by the consumer and producer
+     * together
+     */
+    public int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AEPacketRawRing %d slots, policy %s: %d/%d packets published/consumed (%d/%d events), max occupancy %d, full %d times, %d packets (%d events) dropped, %d overruns, blocked %.1f ms",
+                slots.length, fullPolicy, publishedPacketCount, consumedPacketCount, publishedEventCount, consumedEventCount,
+                maxOccupancy, fullCount, droppedPacketCount, droppedEventCount, overrunPacketCount, blockedNs * 1e-6f);
+    }
+}
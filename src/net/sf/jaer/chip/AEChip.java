@@ -24,6 +24,7 @@ import java.util.prefs.BackingStoreException;
 
 import net.sf.jaer.Description;
 import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.eventio.AEArchiveInputStream;
 import net.sf.jaer.eventio.AEDataFile;
 import net.sf.jaer.eventio.AEFileInputStream;
 import net.sf.jaer.eventio.AEFileOutputStream;
@@ -442,7 +443,7 @@ public class AEChip extends Chip2D {
      * @throws IOException on any IO exception
      */
     public AEFileInputStream constuctFileInputStream(File file) throws IOException {
-        AEFileInputStream stream = new AEFileInputStream(file, this);
+        AEFileInputStream stream = AEArchiveInputStream.isArchiveFile(file) ? new AEArchiveInputStream(file, this) : new AEFileInputStream(file, this);
         aeInputStream = stream;
         return stream;
     }
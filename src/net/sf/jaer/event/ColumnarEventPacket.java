@@ -0,0 +1,293 @@
+package net.sf.jaer.event;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * A structure-of-arrays view of an {@link EventPacket}. The commonly-used event
+ * fields (timestamp, x, y and type/polarity) are held in primitive columns so
+ * that per-event filter loops walk contiguous memory rather than dereferencing
+ * one event object per event.
+ * <p>
+ * The columnar packet is a view bound to a source <code>EventPacket</code>.
+ * {@link #gather(net.sf.jaer.event.EventPacket)} iterates over the source
+ * packet with its normal input iterator (so that e.g. APS samples in an
+ * {@link ApsDvsEventPacket}, events already filtered out and the time limiter
+ * are handled exactly as for an ordinary filter) and fills the columns. The
+ * event objects themselves are not copied; only references to them are kept
+ * so that {@link #scatterFilteredOut()} can write the
+ * {@link #filteredOut} bits back onto the source events. Existing callers of
+ * <code>EventFilter2D.filterPacket</code> therefore see the same packet they
+ * would have seen with object-based processing.
+ * <p>
+ * Columnar processing only supports filtering in place, i.e. setting
+ * <code>filteredOut</code>. Filters that change timestamps or addresses or
+ * that write new output packets must use the normal object-based API.
+ *
+ * @see net.sf.jaer.eventprocessing.ColumnarEventFilter
+ */
+public class ColumnarEventPacket implements Iterable<BasicEvent> {
+
+    static final Logger log = Logger.getLogger(ColumnarEventPacket.class.getName());
+    /**
+     * Default capacity in events for new ColumnarEventPackets
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 4096;
+    private int capacity = 0;
+    /**
+     * The number of events in the columns (0 to size-1)
+     */
+    public int size = 0;
+    /**
+     * Event timestamps
+     */
+    public int[] timestamps;
+    /**
+     * Event x addresses
+     */
+    public short[] x;
+    /**
+     * Event y addresses
+     */
+    public short[] y;
+    /**
+     * Event types, e.g. polarity 0 for Off and 1 for On for PolarityEvent
+     *
+     * @see BasicEvent#getType()
+     */
+    public byte[] type;
+    /**
+     * Set bits mark events that are filtered out. All bits are clear after
+     * gather, since the source iterator already skips filtered-out events.
+     */
+    public final BitSet filteredOut = new BitSet(DEFAULT_INITIAL_CAPACITY);
+    /**
+     * Set bits mark special events
+     *
+     * @see BasicEvent#isSpecial()
+     */
+    public final BitSet special = new BitSet(DEFAULT_INITIAL_CAPACITY);
+    /**
+     * References to the source events, used to write back filteredOut
+     */
+    private BasicEvent[] events;
+    private EventPacket<?> sourcePacket = null;
+
+    /**
+     * Constructs a new empty ColumnarEventPacket with default capacity.
+     */
+    public ColumnarEventPacket() {
+        allocate(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Fills the columns from the events that the input iterator of the packet
+     * returns, and binds this view to the packet.
+     *
+     * @param packet the source packet
+     * @return this packet, for convenience
+     */
+    public ColumnarEventPacket gather(final EventPacket<?> packet) {
+        sourcePacket = packet;
+        filteredOut.clear();
+        special.clear();
+        int n = 0;
+        final Iterator<? extends BasicEvent> itr = packet.inputIterator();
+        while (itr.hasNext()) {
+            final BasicEvent e = itr.next();
+            if (e == null) {
+                break; // this can occur if we are supplied packet that has data (e.g. APS samples) but no events
+            }
+            if (n >= capacity) {
+                allocate(capacity * 2);
+            }
+            events[n] = e;
+            timestamps[n] = e.timestamp;
+            x[n] = e.x;
+            y[n] = e.y;
+            type[n] = (byte) e.getType();
+            if (e.isSpecial()) {
+                special.set(n);
+            }
+            n++;
+        }
+        size = n;
+        return this;
+    }
+
+    /**
+     * Writes the filteredOut bits back onto the source events.
+     */
+    public void scatterFilteredOut() {
+        final BasicEvent[] ev = events;
+        for (int i = filteredOut.nextSetBit(0); (i >= 0) && (i < size); i = filteredOut.nextSetBit(i + 1)) {
+            ev[i].setFilteredOut(true);
+        }
+    }
+
+    /**
+     * Sets size to zero and unbinds the source packet, releasing the
+     * references to its events.
+     */
+    public void clear() {
+        size = 0;
+        sourcePacket = null;
+        filteredOut.clear();
+        special.clear();
+    }
+
+    /**
+     * Ensures the columns have room for n events, retaining existing content.
+     *
+     * @param n capacity in events
+     */
+    public final void allocate(final int n) {
+        if (n <= capacity) {
+            return;
+        }
+        if (capacity > 0) {
+            log.info("enlarging capacity of " + this + " to " + n + " events");
+        }
+        timestamps = grow(timestamps, n);
+        x = grow(x, n);
+        y = grow(y, n);
+        type = grow(type, n);
+        final BasicEvent[] ne = new BasicEvent[n];
+        if (events != null) {
+            System.arraycopy(events, 0, ne, 0, size);
+        }
+        events = ne;
+        capacity = n;
+    }
+
+    private int[] grow(final int[] a, final int n) {
+        final int[] b = new int[n];
+        if (a != null) {
+            System.arraycopy(a, 0, b, 0, size);
+        }
+        return b;
+    }
+
+    private short[] grow(final short[] a, final int n) {
+        final short[] b = new short[n];
+        if (a != null) {
+            System.arraycopy(a, 0, b, 0, size);
+        }
+        return b;
+    }
+
+    private byte[] grow(final byte[] a, final int n) {
+        final byte[] b = new byte[n];
+        if (a != null) {
+            System.arraycopy(a, 0, b, 0, size);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the number of events in the columns.
+     *
+     * @return size in events
+     */
+    final public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns capacity of the columns in events
+     *
+     * @return capacity
+     */
+    final public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the packet this view was last gathered from.
+     *
+     * @return the source packet, or null if not bound
+     */
+    public EventPacket<?> getSourcePacket() {
+        return sourcePacket;
+    }
+
+    /**
+     * Returns the source event at index k, for filters that need access to
+     * extended event fields.
+     *
+     * @param k the index
+     * @return the event
+     * @throws ArrayIndexOutOfBoundsException if out of bounds of packet.
+     */
+    final public BasicEvent getEvent(final int k) {
+        if (k >= size) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        return events[k];
+    }
+
+    /**
+     * Returns true if event k is either special or filtered out, i.e. should
+     * be skipped by a noise filter.
+     *
+     * @param k the index
+     * @return true to skip event
+     */
+    final public boolean isSkipped(final int k) {
+        return special.get(k) || filteredOut.get(k);
+    }
+
+    /**
+     * Returns true if the source packet's time limiter has timed out.
+     *
+     * @return true if timed out
+     * @see EventPacket#isTimedOut()
+     */
+    final public boolean isTimedOut() {
+        return (sourcePacket != null) && sourcePacket.isTimedOut();
+    }
+
+    /**
+     * Returns the number of events that are not filtered out.
+     *
+     * @return size not counting filteredOut events
+     */
+    public int getSizeNotFilteredOut() {
+        return size - filteredOut.cardinality();
+    }
+
+    /**
+     * Iterates over the source events that are not filtered out.
+     *
+     * @return the iterator
+     */
+    @Override
+    public Iterator<BasicEvent> iterator() {
+        return new Iterator<BasicEvent>() {
+            int cursor = filteredOut.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            @Override
+            public BasicEvent next() {
+                final BasicEvent e = events[cursor];
+                cursor = filteredOut.nextClearBit(cursor + 1);
+                return e;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ColumnarEventPacket #" + hashCode() + " with size=" + size + " capacity=" + capacity + " filteredOut=" + filteredOut.cardinality();
+    }
+}
@@ -0,0 +1,775 @@
+package net.sf.jaer.eventio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.util.EngineeringFormat;
+
+import static net.sf.jaer.eventio.AEArchiveOutputStream.*;
+
+/**
+ * Reads the columnar compressed archive files written by
+ * {@link AEArchiveOutputStream}. It is an AEFileInputStream so that AEPlayer,
+ * the player controls and the batch processors can use it in place of an
+ * AEDAT file stream; {@link AEChip#constuctFileInputStream(java.io.File) }
+ * returns one for files with the extension
+ * {@link AEDataFile#ARCHIVE_FILE_EXTENSION}.
+ * <p>
+ * The block index is read from the end of the file, or rebuilt from the block
+ * headers if the file was not closed properly. Only the block that contains
+ * the current position is decoded, into two int arrays, so reading is a copy
+ * from these arrays and decoding costs a few ns per event. Seeking by time
+ * uses the minimum and maximum timestamps of the blocks and decodes only the
+ * block that contains the timestamp.
+ * <p>
+ * Positions are event numbers as for AEDAT files, and the reading methods
+ * fire the same property changes. The timestamp reset bitmask is not
+ * supported; archives are meant to hold already cleaned up recordings.
+ */
+public class AEArchiveInputStream extends AEFileInputStream {
+
+    static final Logger log = Logger.getLogger("net.sf.jaer.eventio");
+    /** Number of blocks reported as one chunk by {@link #getChunkSizeEvents() } */
+    public static final int BLOCKS_PER_CHUNK = 64;
+    private final FileChannel channel;
+    private final ArrayList<String> header = new ArrayList<String>();
+    private long dataStart = 0;
+
+    // block index
+    private int numBlocks = 0;
+    private long numEvents = 0;
+    private long[] blockOffset = new long[0], blockFirstEvent = new long[0];
+    private int[] blockNumEvents = new int[0], blockMinTs = new int[0], blockMaxTs = new int[0], blockFirstTs = new int[0], blockLastTs = new int[0];
+
+    // decoded block
+    private int decodedBlock = -1;
+    private int[] decodedAddr = new int[0], decodedTs = new int[0];
+    private ByteBuffer readBuf = ByteBuffer.allocate(0);
+    private final ByteBuffer headerBuf = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+    private byte[] inflated = new byte[0];
+    private long[] words = new long[0];
+    private final Inflater inflater = new Inflater();
+
+    private long position = 0, markIn = 0, markOut = 0;
+    private int mostRecentTimestamp, currentStartTimestamp, firstTimestamp, lastTimestamp;
+    private int timestampResetBitmask = 0;
+    private boolean initFired = false;
+
+    /**
+     * Opens an archive file.
+     *
+     * @param f the file
+     * @param chip the chip the file was recorded from
+     * @throws IOException if the file cannot be read or is not an archive
+     */
+    public AEArchiveInputStream(File f, AEChip chip) throws IOException {
+        this(new FileInputStream(f), f, chip);
+    }
+
+    private AEArchiveInputStream(FileInputStream in, File f, AEChip chip) throws IOException {
+        super(in, chip);
+        channel = in.getChannel();
+        setFile(f);
+        try {
+            readArchiveHeader(f);
+            if (!readIndex()) {
+                log.warning(f + " has no block index, probably its writer was not closed; rebuilding index from block headers");
+                rebuildIndex();
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (numBlocks > 0) {
+            firstTimestamp = blockFirstTs[0];
+            lastTimestamp = blockLastTs[numBlocks - 1];
+        }
+        mostRecentTimestamp = firstTimestamp;
+        currentStartTimestamp = firstTimestamp;
+        clearMarks();
+        setRepeat(true);
+        log.info("opened " + this);
+    }
+
+    /**
+     * Returns true if the file has the archive file extension.
+     *
+     * @param f the file
+     * @return true for archives
+     */
+    public static boolean isArchiveFile(File f) {
+        return (f != null) && f.getName().toLowerCase().endsWith(AEDataFile.ARCHIVE_FILE_EXTENSION);
+    }
+
+    /**
+     * Reads the ASCII header lines up to the end of header line and stores
+     * them, without the comment character, for {@link #getHeader() }.
+     */
+    private void readArchiveHeader(File f) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(f));
+        try {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = 0;
+            int c;
+            while ((c = is.read()) != -1) {
+                offset++;
+                if (c != '\n') {
+                    line.write(c);
+                    continue;
+                }
+                String s = new String(line.toByteArray(), StandardCharsets.ISO_8859_1).trim();
+                line.reset();
+                if (header.isEmpty() && !s.startsWith(AEDataFile.COMMENT_CHAR + AEDataFile.ARCHIVE_FILE_FORMAT_HEADER)) {
+                    throw new IOException(f + " is not an archive file, first line is " + s);
+                }
+                if (s.length() > 0 && s.charAt(0) == AEDataFile.COMMENT_CHAR) {
+                    s = s.substring(1);
+                }
+                if (s.equalsIgnoreCase(AEDataFile.END_OF_HEADER_STRING)) {
+                    dataStart = offset;
+                    return;
+                }
+                header.add(s);
+            }
+            throw new IOException(f + " has no end of header line \"" + AEDataFile.END_OF_HEADER_STRING + "\"");
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads the block index from the trailer.
+     *
+     * @return false if there is no valid trailer
+     */
+    private boolean readIndex() throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < (dataStart + TRAILER_BYTES)) {
+            return false;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        readFully(trailer, fileSize - TRAILER_BYTES);
+        final long indexOffset = trailer.getLong();
+        final int n = trailer.getInt();
+        final long events = trailer.getLong();
+        if ((trailer.getInt() != END_MAGIC) || (n < 0) || (indexOffset < dataStart)
+                || ((indexOffset + ((long) n * INDEX_ENTRY_BYTES) + TRAILER_BYTES) != fileSize)) {
+            return false;
+        }
+        ByteBuffer index = ByteBuffer.allocate(n * INDEX_ENTRY_BYTES);
+        readFully(index, indexOffset);
+        allocateIndex(n);
+        for (int i = 0; i < n; i++) {
+            blockOffset[i] = index.getLong();
+            blockFirstEvent[i] = index.getLong();
+            blockNumEvents[i] = index.getInt();
+            blockMinTs[i] = index.getInt();
+            blockMaxTs[i] = index.getInt();
+            blockFirstTs[i] = index.getInt();
+            blockLastTs[i] = index.getInt();
+        }
+        numBlocks = n;
+        numEvents = events;
+        return true;
+    }
+
+    /**
+     * Rebuilds the block index by reading the block headers, up to the first
+     * incomplete block.
+     */
+    private void rebuildIndex() throws IOException {
+        final long fileSize = channel.size();
+        long offset = dataStart;
+        numBlocks = 0;
+        numEvents = 0;
+        allocateIndex(64);
+        while ((offset + BLOCK_HEADER_BYTES) <= fileSize) {
+            headerBuf.clear();
+            readFully(headerBuf, offset);
+            if (headerBuf.getInt(0) != BLOCK_MAGIC) {
+                break;
+            }
+            final long end = offset + BLOCK_HEADER_BYTES + headerBuf.getInt(36);
+            if (end > fileSize) {
+                break;
+            }
+            if (numBlocks == blockOffset.length) {
+                growIndex(numBlocks * 2);
+            }
+            blockOffset[numBlocks] = offset;
+            blockFirstEvent[numBlocks] = numEvents;
+            blockNumEvents[numBlocks] = headerBuf.getInt(4);
+            blockMinTs[numBlocks] = headerBuf.getInt(8);
+            blockMaxTs[numBlocks] = headerBuf.getInt(12);
+            blockFirstTs[numBlocks] = headerBuf.getInt(16);
+            blockLastTs[numBlocks] = headerBuf.getInt(20);
+            numEvents += blockNumEvents[numBlocks];
+            numBlocks++;
+            offset = end;
+        }
+    }
+
+    private void allocateIndex(int n) {
+        blockOffset = new long[n];
+        blockFirstEvent = new long[n];
+        blockNumEvents = new int[n];
+        blockMinTs = new int[n];
+        blockMaxTs = new int[n];
+        blockFirstTs = new int[n];
+        blockLastTs = new int[n];
+    }
+
+    private void growIndex(int n) {
+        blockOffset = Arrays.copyOf(blockOffset, n);
+        blockFirstEvent = Arrays.copyOf(blockFirstEvent, n);
+        blockNumEvents = Arrays.copyOf(blockNumEvents, n);
+        blockMinTs = Arrays.copyOf(blockMinTs, n);
+        blockMaxTs = Arrays.copyOf(blockMaxTs, n);
+        blockFirstTs = Arrays.copyOf(blockFirstTs, n);
+        blockLastTs = Arrays.copyOf(blockLastTs, n);
+    }
+
+    private void readFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, offset);
+            if (n < 0) {
+                throw new EOFException("unexpected end of archive at byte " + offset);
+            }
+            offset += n;
+        }
+        buf.flip();
+    }
+
+    /**
+     * Returns the block that contains the event.
+     *
+     * @param event the event number, 0 to size()-1
+     * @return the block number
+     */
+    private int blockOf(long event) {
+        int b = Arrays.binarySearch(blockFirstEvent, 0, numBlocks, event);
+        return b >= 0 ? b : (-b - 2);
+    }
+
+    /**
+     * Decodes a block into decodedAddr and decodedTs, unless it is already
+     * decoded.
+     */
+    private void decodeBlock(int b) throws IOException {
+        if (b == decodedBlock) {
+            return;
+        }
+        decodedBlock = -1;
+        headerBuf.clear();
+        readFully(headerBuf, blockOffset[b]);
+        if (headerBuf.getInt() != BLOCK_MAGIC) {
+            throw new IOException("corrupt archive, no block header at byte " + blockOffset[b]);
+        }
+        final int n = headerBuf.getInt();
+        headerBuf.position(24);
+        final int tsDeltaBase = headerBuf.getInt(), addrBase = headerBuf.getInt();
+        final int tsBits = headerBuf.get(), addrBits = headerBuf.get(), addrShift = headerBuf.get(), flags = headerBuf.get();
+        final int payloadBytes = headerBuf.getInt(), packedBytes = headerBuf.getInt();
+        final int firstTs = blockFirstTs[b];
+
+        if (readBuf.capacity() < payloadBytes) {
+            readBuf = ByteBuffer.allocate(payloadBytes);
+        }
+        readBuf.clear().limit(payloadBytes);
+        readFully(readBuf, blockOffset[b] + BLOCK_HEADER_BYTES);
+        ByteBuffer packedBuf = readBuf;
+        if ((flags & FLAG_DEFLATED) != 0) {
+            if (inflated.length < packedBytes) {
+                inflated = new byte[packedBytes];
+            }
+            inflater.reset();
+            inflater.setInput(readBuf.array(), 0, payloadBytes);
+            try {
+                if (inflater.inflate(inflated, 0, packedBytes) != packedBytes) {
+                    throw new IOException("corrupt archive, block " + b + " inflated to fewer than " + packedBytes + " bytes");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt archive, can't inflate block " + b + ": " + e.toString());
+            }
+            packedBuf = ByteBuffer.wrap(inflated, 0, packedBytes);
+        }
+        final int numWords = packedBytes / 8;
+        if (words.length < numWords) {
+            words = new long[numWords];
+        }
+        packedBuf.asLongBuffer().get(words, 0, numWords);
+
+        if (decodedTs.length < n) {
+            decodedTs = new int[n];
+            decodedAddr = new int[n];
+        }
+        final int[] ts = decodedTs, addr = decodedAddr;
+        final long[] w = words;
+        // timestamps
+        ts[0] = firstTs;
+        if (tsBits == 0) {
+            for (int i = 1; i < n; i++) {
+                ts[i] = ts[i - 1] + tsDeltaBase;
+            }
+        } else {
+            final long mask = (1L << tsBits) - 1;
+            long bitPos = 0;
+            for (int i = 1; i < n; i++, bitPos += tsBits) {
+                ts[i] = ts[i - 1] + tsDeltaBase + (int) unpack(w, bitPos, tsBits, mask);
+            }
+        }
+        // addresses
+        if (addrBits == 0) {
+            Arrays.fill(addr, 0, n, addrBase);
+        } else {
+            final long mask = (1L << addrBits) - 1;
+            long bitPos = (long) numWords(n - 1, tsBits) * 64;
+            for (int i = 0; i < n; i++, bitPos += addrBits) {
+                addr[i] = addrBase ^ (((int) unpack(w, bitPos, addrBits, mask)) << addrShift);
+            }
+        }
+        decodedBlock = b;
+    }
+
+    private static long unpack(long[] w, long bitPos, int bits, long mask) {
+        final int i = (int) (bitPos >>> 6), shift = (int) (bitPos & 63);
+        long v = w[i] >>> shift;
+        if ((shift + bits) > 64) {
+            v |= w[i + 1] << (64 - shift);
+        }
+        return v & mask;
+    }
+
+    /**
+     * Returns the timestamp of an event, decoding its block if needed.
+     */
+    private int timestampAt(long event) throws IOException {
+        final int b = blockOf(event);
+        decodeBlock(b);
+        return decodedTs[(int) (event - blockFirstEvent[b])];
+    }
+
+    private static boolean isWrappedTime(int read, int prevRead, int dt) {
+        return ((dt > 0) && (read <= 0) && (prevRead > 0)) || ((dt < 0) && (read >= 0) && (prevRead < 0));
+    }
+
+    @Override
+    synchronized public AEPacketRaw readPacketByNumber(int n) throws IOException {
+        if (!initFired) {
+            initFired = true;
+            fireInitPropertyChange();
+        }
+        final int cap = packet.getCapacity();
+        final boolean forwards = n >= 0;
+        n = Math.min(Math.abs(n), cap);
+        final int[] addr = packet.getAddresses(), ts = packet.getTimestamps();
+        final long oldPosition = position;
+        final boolean check = isNonMonotonicTimeExceptionsChecked();
+        int count = 0;
+        done:
+        while (count < n) {
+            if (forwards ? (position >= markOut) : (position <= markIn)) {
+                if (atEnd(forwards, count)) {
+                    continue;
+                }
+                break;
+            }
+            final long e = forwards ? position : (position - 1);
+            final int b = blockOf(e);
+            decodeBlock(b);
+            int i = (int) (e - blockFirstEvent[b]);
+            final int m = (int) Math.min(n - count, forwards
+                    ? Math.min(blockNumEvents[b] - i, markOut - position)
+                    : Math.min(i + 1, position - markIn));
+            for (int k = 0; k < m; k++) {
+                final int t = decodedTs[i];
+                final int dir = forwards ? 1 : -1;
+                if (isWrappedTime(t, mostRecentTimestamp, dir)) {
+                    getSupport().firePropertyChange(AEInputStream.EVENT_WRAPPED_TIME, mostRecentTimestamp, t);
+                    mostRecentTimestamp = t;
+                    break done;
+                }
+                if (check && (forwards ? (t < mostRecentTimestamp) : (t > mostRecentTimestamp))) {
+                    getSupport().firePropertyChange(AEInputStream.EVENT_NON_MONOTONIC_TIMESTAMP, mostRecentTimestamp, t);
+                    mostRecentTimestamp = t;
+                    break done;
+                }
+                addr[count] = decodedAddr[i];
+                ts[count] = t;
+                count++;
+                mostRecentTimestamp = t;
+                currentStartTimestamp = t;
+                if (forwards) {
+                    position++;
+                    i++;
+                } else {
+                    position--;
+                    i--;
+                }
+            }
+        }
+        packet.setNumEvents(count);
+        getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, position);
+        return packet;
+    }
+
+    @Override
+    synchronized public AEPacketRaw readPacketByTime(int dt) throws IOException {
+        if (!initFired) {
+            initFired = true;
+            fireInitPropertyChange();
+        }
+        final boolean forwards = dt >= 0;
+        final int startTimestamp = mostRecentTimestamp;
+        final int endTimestamp = currentStartTimestamp + dt;
+        currentStartTimestamp = endTimestamp;
+        final boolean bigWrap = isWrappedTime(endTimestamp, startTimestamp, dt);
+        final int cap = packet.getCapacity();
+        final int[] addr = packet.getAddresses(), ts = packet.getTimestamps();
+        final long oldPosition = position;
+        final boolean check = isNonMonotonicTimeExceptionsChecked();
+        int count = 0;
+        done:
+        while (count < cap) {
+            if (forwards ? (position >= markOut) : (position <= markIn)) {
+                atEnd(forwards, count);
+                break;
+            }
+            final long e = forwards ? position : (position - 1);
+            final int b = blockOf(e);
+            // skip decoding when the whole block is after the end of the packet
+            if (forwards && !bigWrap && (count > 0) && (blockMinTs[b] > endTimestamp) && (blockFirstEvent[b] == e)) {
+                break;
+            }
+            decodeBlock(b);
+            int i = (int) (e - blockFirstEvent[b]);
+            final int m = (int) Math.min(cap - count, forwards
+                    ? Math.min(blockNumEvents[b] - i, markOut - position)
+                    : Math.min(i + 1, position - markIn));
+            for (int k = 0; k < m; k++) {
+                final int t = decodedTs[i];
+                if (isWrappedTime(t, mostRecentTimestamp, dt)) {
+                    log.info("timestamp wrapped from " + mostRecentTimestamp + " to " + t);
+                    getSupport().firePropertyChange(AEInputStream.EVENT_WRAPPED_TIME, mostRecentTimestamp, t);
+                    currentStartTimestamp = t;
+                    mostRecentTimestamp = t;
+                    break done;
+                }
+                if (!bigWrap && (forwards ? (t > endTimestamp) : ((t < endTimestamp) && (count > 0)))) {
+                    break done;
+                }
+                if (forwards ? (t < mostRecentTimestamp) : (t > mostRecentTimestamp)) {
+                    if (check) {
+                        getSupport().firePropertyChange(AEInputStream.EVENT_NON_MONOTONIC_TIMESTAMP, mostRecentTimestamp, t);
+                        currentStartTimestamp = t;
+                        mostRecentTimestamp = t;
+                        break done;
+                    } else if (forwards ? (t < startTimestamp) : (t > startTimestamp)) {
+                        currentStartTimestamp = t; // time jumped, e.g. timestamp reset during recording; resynchronize
+                    }
+                }
+                addr[count] = decodedAddr[i];
+                ts[count] = t;
+                count++;
+                mostRecentTimestamp = t;
+                if (forwards) {
+                    position++;
+                    i++;
+                } else {
+                    position--;
+                    i--;
+                }
+            }
+        }
+        packet.setNumEvents(count);
+        getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, position);
+        return packet;
+    }
+
+    /**
+     * Handles reaching markOut (reading forwards) or markIn (reading
+     * backwards): fires EVENT_EOF and either wraps around, if repeat is set,
+     * or throws EOFException if no event was read.
+     *
+     * @return true if the position wrapped around
+     */
+    private boolean atEnd(boolean forwards, int count) throws IOException {
+        getSupport().firePropertyChange(AEInputStream.EVENT_EOF, null, position);
+        if (isRepeat() && (markOut > markIn)) {
+            if (forwards) {
+                rewind();
+            } else {
+                position = markOut;
+                mostRecentTimestamp = timestampAt(markOut - 1);
+                currentStartTimestamp = mostRecentTimestamp;
+            }
+            return true;
+        }
+        if (count == 0) {
+            throw new EOFException("reached end of archive");
+        }
+        return false;
+    }
+
+    @Override
+    synchronized public void rewind() throws IOException {
+        final long oldPosition = position;
+        position = markIn;
+        mostRecentTimestamp = (markIn == 0 || markIn >= numEvents) ? firstTimestamp : timestampAt(markIn);
+        currentStartTimestamp = mostRecentTimestamp;
+        getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, position);
+        getSupport().firePropertyChange(AEInputStream.EVENT_REWIND, oldPosition, position);
+    }
+
+    @Override
+    public long size() {
+        return numEvents;
+    }
+
+    /**
+     * Returns the number of events in BLOCKS_PER_CHUNK blocks, which is the
+     * granularity used by the sharded batch processor to split files.
+     *
+     * @return the chunk size in events
+     */
+    @Override
+    public long getChunkSizeEvents() {
+        return numBlocks == 0 ? 1 : (long) blockNumEvents[0] * BLOCKS_PER_CHUNK;
+    }
+
+    @Override
+    public int getNumChunks() {
+        return Math.max(1, (numBlocks + BLOCKS_PER_CHUNK - 1) / BLOCKS_PER_CHUNK);
+    }
+
+    /**
+     * @return the number of blocks in the archive
+     */
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    @Override
+    synchronized public void position(long event) {
+        position = Math.max(0, Math.min(event, numEvents));
+    }
+
+    @Override
+    synchronized public long position() {
+        return position;
+    }
+
+    @Override
+    synchronized public float getFractionalPosition() {
+        return numEvents == 0 ? 0 : (float) position / numEvents;
+    }
+
+    @Override
+    synchronized public void setFractionalPosition(float frac) {
+        position((long) (frac * numEvents));
+        if (position < numEvents) {
+            try {
+                mostRecentTimestamp = timestampAt(position);
+                currentStartTimestamp = mostRecentTimestamp;
+            } catch (IOException e) {
+                log.warning(e.toString());
+            }
+        }
+    }
+
+    @Override
+    public long setMarkIn() {
+        long here = position;
+        if (here > markOut) {
+            return markIn;
+        }
+        here = Math.max(0, here - MARK_OFFSET_EVENTS);
+        long old = markIn;
+        markIn = here;
+        getSupport().firePropertyChange(AEInputStream.EVENT_MARK_IN_SET, old, markIn);
+        return markIn;
+    }
+
+    @Override
+    public long setMarkOut() {
+        long here = position;
+        if (here <= markIn) {
+            return markOut;
+        }
+        long old = markOut;
+        markOut = here;
+        getSupport().firePropertyChange(AEInputStream.EVENT_MARK_OUT_SET, old, markOut);
+        return markIn;
+    }
+
+    @Override
+    synchronized public void clearMarks() {
+        long[] oldMarks = {markIn, markOut};
+        markIn = 0;
+        markOut = numEvents;
+        long[] newMarks = {markIn, markOut};
+        getSupport().firePropertyChange(AEInputStream.EVENT_MARKS_CLEARED, oldMarks, newMarks);
+    }
+
+    @Override
+    public long getMarkInPosition() {
+        return markIn;
+    }
+
+    @Override
+    public long getMarkOutPosition() {
+        return markOut;
+    }
+
+    @Override
+    public boolean isMarkInSet() {
+        return markIn != 0;
+    }
+
+    @Override
+    public boolean isMarkOutSet() {
+        return markOut != numEvents;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        channel.close();
+        inflater.end();
+    }
+
+    @Override
+    public int getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    @Override
+    public int getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    @Override
+    public int getDurationUs() {
+        return lastTimestamp - firstTimestamp;
+    }
+
+    @Override
+    synchronized public int getCurrentStartTimestamp() {
+        return currentStartTimestamp;
+    }
+
+    @Override
+    public void setCurrentStartTimestamp(int currentStartTimestamp) {
+        this.currentStartTimestamp = currentStartTimestamp;
+    }
+
+    @Override
+    public int getMostRecentTimestamp() {
+        return mostRecentTimestamp;
+    }
+
+    @Override
+    public void setMostRecentTimestamp(int mostRecentTimestamp) {
+        this.mostRecentTimestamp = mostRecentTimestamp;
+    }
+
+    @Override
+    public ArrayList<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * Archives have no timestamp index file; seeking by time uses the block
+     * headers.
+     *
+     * @return null
+     */
+    @Override
+    public AEFileIndex getTimestampIndex() {
+        return null;
+    }
+
+    /**
+     * Does nothing, since archives are indexed by their block headers.
+     */
+    @Override
+    public void startIndexing() {
+    }
+
+    @Override
+    public int getTimestampResetBitmask() {
+        return timestampResetBitmask;
+    }
+
+    /**
+     * Stores the bitmask, which is ignored by archives.
+     *
+     * @param timestampResetBitmask the bitmask
+     */
+    @Override
+    public void setTimestampResetBitmask(int timestampResetBitmask) {
+        if (timestampResetBitmask != 0) {
+            log.warning("timestamp reset bitmask " + timestampResetBitmask + " is not supported for archive " + getFile() + ", ignoring it");
+        }
+        this.timestampResetBitmask = timestampResetBitmask;
+    }
+
+    /**
+     * Positions the stream at the first event whose timestamp is at least
+     * timestamp. The first block whose maximum timestamp is at least
+     * timestamp is found from the block index and only this block is decoded.
+     *
+     * @param timestamp the timestamp
+     * @return true if such an event was found, false if timestamp is after the
+     * last event, in which case the position is unchanged
+     */
+    @Override
+    synchronized public boolean positionAtTimestamp(int timestamp) {
+        final long oldPosition = position;
+        for (int b = 0; b < numBlocks; b++) {
+            if (blockMaxTs[b] < timestamp) {
+                continue;
+            }
+            try {
+                decodeBlock(b);
+            } catch (IOException e) {
+                log.log(Level.WARNING, "couldn't decode block " + b, e);
+                return false;
+            }
+            for (int i = 0; i < blockNumEvents[b]; i++) {
+                if (decodedTs[i] >= timestamp) {
+                    position = blockFirstEvent[b] + i;
+                    mostRecentTimestamp = decodedTs[i];
+                    currentStartTimestamp = decodedTs[i];
+                    getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, position);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        EngineeringFormat fmt = new EngineeringFormat();
+        return "AEArchiveInputStream " + (getFile() == null ? "" : getFile().getName()) + " with size=" + fmt.format(size())
+                + " events in " + numBlocks + " blocks, firstTimestamp=" + firstTimestamp + " lastTimestamp=" + lastTimestamp
+                + " duration=" + fmt.format(getDurationUs() / 1e6f) + " s";
+    }
+}
@@ -0,0 +1,506 @@
+package net.sf.jaer.eventio;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.zip.Deflater;
+
+import ml.options.Options;
+import ml.options.Options.Multiplicity;
+import ml.options.Options.Separator;
+import net.sf.jaer.aemonitor.AEConstants;
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import static net.sf.jaer.graphics.AEViewer.DEFAULT_CHIP_CLASS;
+import static net.sf.jaer.graphics.AEViewer.prefs;
+
+/**
+ * Writes raw events to a columnar compressed archive file, which is several
+ * times smaller than an AEDAT file with its 8 bytes per event and can be
+ * played back in AEPlayer through {@link AEArchiveInputStream}.
+ * <p>
+ * The file starts with the same ASCII header as an AEDAT file (chip class and
+ * preferences), but with the first line "#!AER-ARCH1.0". The events follow in
+ * blocks of up to {@link #getBlockSizeEvents()} events. Each block has a fixed
+ * size header with the number of events, the minimum and maximum timestamp
+ * (so that readers can seek and skip blocks by time without decoding them),
+ * the first and last timestamp and the parameters of the two columns:
+ * <ul>
+ * <li>Timestamps are stored as the differences to the previous timestamp,
+ * minus the smallest difference in the block, bit-packed with the width of the
+ * largest remaining value. Monotonic timestamps with a steady event rate need
+ * about 8 to 12 bits per event.
+ * <li>Addresses are XOR'ed with the first address of the block and shifted
+ * right to the lowest bit that varies in the block, then bit-packed with the
+ * width of the bits that vary. Bits that are constant within the block, such
+ * as the event type bits of DVS events, cost nothing.
+ * </ul>
+ * The packed columns are optionally compressed with a fast Deflater, which
+ * is only kept if it makes the block smaller. An index of all blocks and a
+ * trailer follow the last block; a file whose writer was not closed can still
+ * be read by scanning the block headers.
+ * <p>
+ * From the command line an AEDAT file can be converted to an archive:
+ * <pre>
+ * java net.sf.jaer.eventio.AEArchiveOutputStream -aechip=eu.seebetter.ini.chips.davis.DAVIS240C input.aedat [output.aearch]
+ * </pre>
+ *
+ * @see AEArchiveInputStream
+ */
+public class AEArchiveOutputStream extends AEOutputStream implements AEDataFile {
+
+    /** Default number of events per block */
+    public static final int DEFAULT_BLOCK_SIZE_EVENTS = 1 << 14;
+    /** Marks the start of each block, "AEB1" */
+    static final int BLOCK_MAGIC = 0x41454231;
+    /** Marks the end of the trailer, "AEAF" */
+    static final int END_MAGIC = 0x41454146;
+    /** Block flag set if the packed columns are deflated */
+    static final int FLAG_DEFLATED = 1;
+    /**
+     * Size of the block header: magic, numEvents, minTs, maxTs, firstTs,
+     * lastTs, tsDeltaBase, addrBase, tsBits, addrBits, addrShift, flags,
+     * payloadBytes, packedBytes
+     */
+    static final int BLOCK_HEADER_BYTES = (8 * 4) + 4 + (2 * 4);
+    /**
+     * Size of an index entry: block file offset, first event number,
+     * numEvents, minTs, maxTs, firstTs, lastTs
+     */
+    static final int INDEX_ENTRY_BYTES = (2 * 8) + (5 * 4);
+    /** Size of the trailer: index offset, number of blocks, number of events, end magic */
+    static final int TRAILER_BYTES = 8 + 4 + 8 + 4;
+
+    public static final String USAGE = "java AEArchiveOutputStream [-aechip=aechipclassname (fully qualified class name, e.g. eu.seebetter.ini.chips.davis.DAVIS240C)] "
+            + "[-blocksize=16384] [-nodeflate] "
+            + "inputFile.aedat [outputfile.aearch]"
+            + "\n"
+            + "Note arguments values are assigned with =, not space"
+            + "\n"
+            + "If outputfile is not provided its name is generated from the input file with the extension " + ARCHIVE_FILE_EXTENSION;
+
+    private final int blockSizeEvents;
+    private boolean deflateEnabled = true;
+    private final int[] addrs, timestamps;
+    private int numBuffered = 0;
+    private long[] packed = new long[0];
+    private ByteBuffer packedBuf = ByteBuffer.allocate(0);
+    private byte[] deflated = new byte[0];
+    private final ByteBuffer headerBuf = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+    private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+    private long bytesWritten = 0, numEvents = 0;
+    private int numBlocks = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a new archive with the default block size and writes the
+     * header.
+     *
+     * @param os the output stream, e.g. from
+     * <code>new BufferedOutputStream(new FileOutputStream(File f)</code>.
+     * @param chip the chip whose class and preferences are written to the
+     * header, or null
+     * @throws IOException if the header cannot be written
+     */
+    public AEArchiveOutputStream(OutputStream os, AEChip chip) throws IOException {
+        this(os, chip, DEFAULT_BLOCK_SIZE_EVENTS);
+    }
+
+    /**
+     * Creates a new archive and writes the header.
+     *
+     * @param os the output stream, e.g. from
+     * <code>new BufferedOutputStream(new FileOutputStream(File f)</code>.
+     * @param chip the chip whose class and preferences are written to the
+     * header, or null
+     * @param blockSizeEvents the number of events per block. Larger blocks
+     * compress slightly better but seeking must decode more events.
+     * @throws IOException if the header cannot be written
+     */
+    public AEArchiveOutputStream(OutputStream os, AEChip chip, int blockSizeEvents) throws IOException {
+        super(os);
+        if (blockSizeEvents < 1) {
+            throw new IllegalArgumentException("blockSizeEvents=" + blockSizeEvents + " must be positive");
+        }
+        this.blockSizeEvents = blockSizeEvents;
+        addrs = new int[blockSizeEvents];
+        timestamps = new int[blockSizeEvents];
+        writeHeader(chip);
+    }
+
+    /**
+     * Writes the header. The chip specific part is taken from the header an
+     * AEFileOutputStream writes, without its format lines.
+     */
+    private void writeHeader(AEChip chip) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        appendHeaderLine(sb, ARCHIVE_FILE_FORMAT_HEADER + ARCHIVE_FILE_VERSION_NUMBER);
+        appendHeaderLine(sb, " This is a columnar compressed AE archive file - do not edit");
+        appendHeaderLine(sb, " Data format is blocks of delta coded timestamps and bit-packed addresses, see " + getClass().getName());
+        appendHeaderLine(sb, " Block size: " + blockSizeEvents + " events");
+        if (chip != null) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(200000);
+            new AEFileOutputStream(bos, chip, DATA_FILE_VERSION_NUMBER).flush(); // not closed, it has no channel to close
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bos.toByteArray()), StandardCharsets.ISO_8859_1));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(COMMENT_CHAR + DATA_FILE_FORMAT_HEADER)
+                        || line.startsWith("# This is a raw AE data file")
+                        || line.startsWith("# Data format is")) {
+                    continue;
+                }
+                sb.append(line).append("\r\n");
+            }
+        } else {
+            appendHeaderLine(sb, " Timestamps tick: " + AEConstants.TICK_DEFAULT_US + " us");
+            appendHeaderLine(sb, " Creation date: " + new Date());
+            appendHeaderLine(sb, END_OF_HEADER_STRING);
+        }
+        byte[] b = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        write(b, 0, b.length);
+        bytesWritten += b.length;
+    }
+
+    private static void appendHeaderLine(StringBuilder sb, String s) {
+        sb.append(COMMENT_CHAR).append(s).append("\r\n");
+    }
+
+    /**
+     * Appends the events of the packet to the archive. Blocks are written
+     * whenever they are full.
+     *
+     * @param ae a raw packet, null or empty packets are ignored
+     * @throws IOException if a block cannot be written
+     */
+    @Override
+    synchronized public void writePacket(AEPacketRaw ae) throws IOException {
+        if (ae == null) {
+            return;
+        }
+        if (closed) {
+            throw new IOException("archive is closed");
+        }
+        final int n = ae.getNumEvents();
+        final int[] a = ae.getAddresses(), t = ae.getTimestamps();
+        int i = 0;
+        while (i < n) {
+            int m = Math.min(n - i, blockSizeEvents - numBuffered);
+            System.arraycopy(a, i, addrs, numBuffered, m);
+            System.arraycopy(t, i, timestamps, numBuffered, m);
+            numBuffered += m;
+            i += m;
+            if (numBuffered == blockSizeEvents) {
+                writeBlock();
+            }
+        }
+        wrotePacket = true;
+    }
+
+    /**
+     * Encodes and writes the buffered events as one block.
+     */
+    private void writeBlock() throws IOException {
+        final int n = numBuffered;
+        if (n == 0) {
+            return;
+        }
+        final int firstTs = timestamps[0], lastTs = timestamps[n - 1], addrBase = addrs[0];
+        int minTs = firstTs, maxTs = firstTs, minDelta = 0, maxDelta = 0, varyingAddrBits = 0;
+        if (n > 1) {
+            minDelta = maxDelta = timestamps[1] - timestamps[0];
+        }
+        for (int i = 0; i < n; i++) {
+            final int ts = timestamps[i];
+            if (ts < minTs) {
+                minTs = ts;
+            } else if (ts > maxTs) {
+                maxTs = ts;
+            }
+            if (i > 0) {
+                final int d = ts - timestamps[i - 1];
+                if (d < minDelta) {
+                    minDelta = d;
+                } else if (d > maxDelta) {
+                    maxDelta = d;
+                }
+            }
+            varyingAddrBits |= addrs[i] ^ addrBase;
+        }
+        final int tsBits = 64 - Long.numberOfLeadingZeros((long) maxDelta - minDelta);
+        final int addrShift = varyingAddrBits == 0 ? 0 : Integer.numberOfTrailingZeros(varyingAddrBits);
+        final int addrBits = 32 - Integer.numberOfLeadingZeros(varyingAddrBits >>> addrShift);
+        final int tsWords = numWords(n - 1, tsBits), numWords = tsWords + numWords(n, addrBits);
+
+        if (packed.length < numWords) {
+            packed = new long[numWords];
+            packedBuf = ByteBuffer.allocate(numWords * 8);
+            deflated = new byte[(numWords * 8) + 1024];
+        }
+        Arrays.fill(packed, 0, numWords, 0);
+        if (tsBits > 0) {
+            long bitPos = 0;
+            for (int i = 1; i < n; i++, bitPos += tsBits) {
+                pack(packed, bitPos, tsBits, ((long) (timestamps[i] - timestamps[i - 1])) - minDelta);
+            }
+        }
+        if (addrBits > 0) {
+            long bitPos = (long) tsWords * 64;
+            final long mask = (1L << addrBits) - 1;
+            for (int i = 0; i < n; i++, bitPos += addrBits) {
+                pack(packed, bitPos, addrBits, ((addrs[i] ^ addrBase) >>> addrShift) & mask);
+            }
+        }
+        packedBuf.clear();
+        for (int i = 0; i < numWords; i++) {
+            packedBuf.putLong(packed[i]);
+        }
+        final int packedBytes = numWords * 8;
+        byte[] payload = packedBuf.array();
+        int payloadBytes = packedBytes, flags = 0;
+        if (deflateEnabled && (packedBytes > 0)) {
+            deflater.reset();
+            deflater.setInput(payload, 0, packedBytes);
+            deflater.finish();
+            int len = deflater.deflate(deflated, 0, deflated.length);
+            if (deflater.finished() && (len < packedBytes)) {
+                payload = deflated;
+                payloadBytes = len;
+                flags |= FLAG_DEFLATED;
+            }
+        }
+
+        headerBuf.clear();
+        headerBuf.putInt(BLOCK_MAGIC).putInt(n).putInt(minTs).putInt(maxTs).putInt(firstTs).putInt(lastTs).putInt(minDelta).putInt(addrBase);
+        headerBuf.put((byte) tsBits).put((byte) addrBits).put((byte) addrShift).put((byte) flags);
+        headerBuf.putInt(payloadBytes).putInt(packedBytes);
+        write(headerBuf.array(), 0, BLOCK_HEADER_BYTES);
+        write(payload, 0, payloadBytes);
+
+        indexEntry.clear();
+        indexEntry.putLong(bytesWritten).putLong(numEvents).putInt(n).putInt(minTs).putInt(maxTs).putInt(firstTs).putInt(lastTs);
+        index.write(indexEntry.array(), 0, INDEX_ENTRY_BYTES);
+
+        bytesWritten += BLOCK_HEADER_BYTES + payloadBytes;
+        numEvents += n;
+        numBlocks++;
+        numBuffered = 0;
+    }
+
+    /**
+     * Returns the number of 64 bit words needed to pack n values of the given
+     * width.
+     */
+    static int numWords(int n, int bits) {
+        return n <= 0 ? 0 : (int) ((((long) n * bits) + 63) >>> 6);
+    }
+
+    /**
+     * Packs the low bits of value at bit position bitPos, little endian
+     * within and across words.
+     */
+    private static void pack(long[] words, long bitPos, int bits, long value) {
+        final int w = (int) (bitPos >>> 6), shift = (int) (bitPos & 63);
+        words[w] |= value << shift;
+        if ((shift + bits) > 64) {
+            words[w + 1] |= value >>> (64 - shift);
+        }
+    }
+
+    /**
+     * Writes the last block, the block index and the trailer and closes the
+     * stream.
+     *
+     * @throws IOException if the archive cannot be completed
+     */
+    @Override
+    synchronized public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBlock();
+            final long indexOffset = bytesWritten;
+            index.writeTo(this);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            trailer.putLong(indexOffset).putInt(numBlocks).putLong(numEvents).putInt(END_MAGIC);
+            write(trailer.array(), 0, TRAILER_BYTES);
+            bytesWritten += index.size() + TRAILER_BYTES;
+        } finally {
+            closed = true;
+            deflater.end();
+            super.close();
+        }
+        log.info(toString());
+    }
+
+    /**
+     * @return the number of events per block
+     */
+    public int getBlockSizeEvents() {
+        return blockSizeEvents;
+    }
+
+    /**
+     * @return true if blocks are deflated when that makes them smaller
+     */
+    public boolean isDeflateEnabled() {
+        return deflateEnabled;
+    }
+
+    /**
+     * Sets whether blocks are additionally deflated. Deflating saves another
+     * 10-30% of storage for typical DVS recordings but makes decoding about
+     * twice as slow. Takes effect from the next block.
+     *
+     * @param deflateEnabled true to deflate
+     */
+    synchronized public void setDeflateEnabled(boolean deflateEnabled) {
+        this.deflateEnabled = deflateEnabled;
+    }
+
+    /**
+     * @return the number of events written so far, including buffered ones
+     */
+    synchronized public long getNumEvents() {
+        return numEvents + numBuffered;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    synchronized public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the average number of bytes per event of the written blocks,
+     * including block headers
+     */
+    synchronized public float getBytesPerEvent() {
+        return numEvents == 0 ? 0 : (float) bytesWritten / numEvents;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AEArchiveOutputStream: %d events in %d blocks, %d bytes (%.2f bytes/event, %.1fx smaller than AEDAT)",
+                numEvents, numBlocks, bytesWritten, getBytesPerEvent(),
+                bytesWritten == 0 ? 0 : (float) (numEvents * AEFileInputStream.EVENT32_SIZE) / bytesWritten);
+    }
+
+    /**
+     * Converts an AEDAT file to an archive.
+     *
+     * @param input the AEDAT file
+     * @param output the archive file to write
+     * @param chip the chip the file was recorded from
+     * @param blockSizeEvents the number of events per block
+     * @param deflate true to deflate the blocks
+     * @return the number of events written
+     * @throws IOException on error reading or writing
+     */
+    public static long convert(File input, File output, AEChip chip, int blockSizeEvents, boolean deflate) throws IOException {
+        AEFileInputStream ais = null;
+        AEArchiveOutputStream aos = null;
+        try {
+            ais = new AEFileInputStream(input, chip);
+            ais.setNonMonotonicTimeExceptionsChecked(false);
+            ais.setRepeat(false);
+            aos = new AEArchiveOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16), chip, blockSizeEvents);
+            aos.setDeflateEnabled(deflate);
+            final long end = Math.min(ais.size(), ais.getMarkOutPosition()); // readEventForwards returns null at markOut when not repeating
+            ais.position(0);
+            while (ais.position() < end) {
+                AEPacketRaw raw;
+                try {
+                    raw = ais.readPacketByNumber((int) Math.min(1 << 16, end - ais.position()));
+                } catch (EOFException e) {
+                    break;
+                }
+                if (raw.getNumEvents() == 0) {
+                    break;
+                }
+                aos.writePacket(raw);
+            }
+            return aos.getNumEvents();
+        } finally {
+            if (ais != null) {
+                ais.close();
+            }
+            if (aos != null) {
+                aos.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        Options opt = new Options(args, 1, 2);
+        opt.getSet().addOption("aechip", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("blocksize", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("nodeflate", Multiplicity.ZERO_OR_ONE);
+        if (!opt.check()) {
+            System.err.println(opt.getCheckErrors());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+        String inpfilename = opt.getSet().getData().get(0);
+        File inpfile = new File(inpfilename);
+        String outfilename;
+        if (opt.getSet().getData().size() == 2) {
+            outfilename = opt.getSet().getData().get(1);
+        } else {
+            int i = inpfilename.toLowerCase().lastIndexOf(DATA_FILE_EXTENSION);
+            outfilename = (i > 0 ? inpfilename.substring(0, i) : inpfilename) + ARCHIVE_FILE_EXTENSION;
+            System.out.println("Writing to output file " + outfilename);
+        }
+
+        String chipname = prefs.get("AEViewer.aeChipClassName", DEFAULT_CHIP_CLASS);
+        if (opt.getSet().isSet("aechip")) {
+            chipname = opt.getSet().getOption("aechip").getResultValue(0);
+        }
+        AEChip chip = null;
+        try {
+            System.out.println("constructing AEChip " + chipname);
+            Class chipClass = Class.forName(chipname);
+            chip = (AEChip) chipClass.getConstructor().newInstance();
+        } catch (Exception ex) {
+            System.err.println("Could not construct instance of aechip=" + chipname + ": " + ex.toString());
+            System.exit(1);
+        }
+
+        int blockSize = DEFAULT_BLOCK_SIZE_EVENTS;
+        if (opt.getSet().isSet("blocksize")) {
+            try {
+                blockSize = Integer.parseInt(opt.getSet().getOption("blocksize").getResultValue(0));
+            } catch (NumberFormatException e) {
+                System.err.println("Bad blocksize argument: " + e.toString());
+                System.exit(1);
+            }
+        }
+
+        try {
+            long t0 = System.nanoTime();
+            long n = convert(inpfile, new File(outfilename), chip, blockSize, !opt.getSet().isSet("nodeflate"));
+            long dt = System.nanoTime() - t0;
+            File outfile = new File(outfilename);
+            System.out.println(String.format("Wrote %d events to %s in %.2f s: %d bytes from %d bytes (%.1fx smaller)",
+                    n, outfile, dt * 1e-9, outfile.length(), inpfile.length(), (float) inpfile.length() / outfile.length()));
+        } catch (IOException e) {
+            System.err.println("Couldn't convert " + inpfile + " : " + e.toString());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
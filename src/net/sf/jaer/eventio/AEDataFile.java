@@ -30,6 +30,12 @@ public interface AEDataFile {
     /** file extension for index files that contain information about a set of related data files, ".adidx", including '.'. */
     public static final String INDEX_FILE_EXTENSION = ".aeidx"; // changed from .dat Apr 2010
     public static final String OLD_INDEX_FILE_EXTENSION = ".index"; // changed from .dat Apr 2010
+    /** file extension appended to a data file name for its timestamp index sidecar file, e.g. "rec.aedat.tsidx", including '.'.
+     * @see AEFileIndex */
+    public static final String TIMESTAMP_INDEX_FILE_EXTENSION = ".tsidx";
+    /** file extension for columnar compressed archive files, ".aearch", including '.'.
+     * @see AEArchiveOutputStream */
+    public static final String ARCHIVE_FILE_EXTENSION = ".aearch";
     /** Used to mark end of header block after 15.11.2016. Next line starts binary data. */
     public static final String END_OF_HEADER_STRING="End Of ASCII Header";
 
@@ -41,6 +47,10 @@ public interface AEDataFile {
     public static final String DATA_FILE_FORMAT_HEADER = "!AER-DAT";
     /** The most recent format version number string */
     public static final String DATA_FILE_VERSION_NUMBER = "2.0";
+    /** The format header of archive files, whose first line reads e.g. "#!AER-ARCH1.0" */
+    public static final String ARCHIVE_FILE_FORMAT_HEADER = "!AER-ARCH";
+    /** The most recent archive format version number string */
+    public static final String ARCHIVE_FILE_VERSION_NUMBER = "1.0";
     /** Format used for log file names */
     public static DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH-mm-ssZ"); //e.g. Tmpdiff128-   2007-04-04T11-32-21-0700    -0 ants molting swarming.dat
     /** end of line (EOL) ending (the "windows type") used in data files */
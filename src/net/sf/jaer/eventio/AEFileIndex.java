@@ -0,0 +1,512 @@
+package net.sf.jaer.eventio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A timestamp index of an AER-DAT-1.0 or 2.0 data file, used by
+ * AEFileInputStream to seek to a timestamp with a binary search rather than
+ * by reading all events up to it.
+ * <p>
+ * The index holds an entry every strideEvents events with the event position
+ * (and thus byte offset) and the timestamp as AEFileInputStream returns it,
+ * i.e. after subtracting the offset memorized at timestamp reset events (see
+ * {@link AEFileInputStream#setTimestampResetBitmask(int)}). It also holds a
+ * {@link Marker} at each timestamp wrap and each timestamp reset event, and
+ * an additional entry at each marker, so that the timestamps within the
+ * entries between two markers are monotonic and can be binary searched.
+ * <p>
+ * The index is stored in a sidecar file next to the data file, named by
+ * appending {@link AEDataFile#TIMESTAMP_INDEX_FILE_EXTENSION} to the data file
+ * name. It is rebuilt when the data file length or modification time, or the
+ * timestamp reset bitmask, changes. If the sidecar cannot be written, the
+ * index is only kept in memory.
+ */
+public class AEFileIndex {
+
+    static final Logger log = Logger.getLogger("AEFileIndex");
+    /**
+     * Default number of events between index entries
+     */
+    public static final int DEFAULT_STRIDE_EVENTS = 4096;
+    private static final int MAGIC = 0x41455453; // "AETS"
+    private static final int VERSION = 1;
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    private static final HashMap<String, IndexLock> LOCKS = new HashMap<String, IndexLock>(); // by data file path, while it is being loaded or built
+
+    /**
+     * Types of timestamp discontinuities
+     */
+    public enum MarkerType {
+        /**
+         * The int32 timestamp wrapped around from positive to negative
+         */
+        WRAP,
+        /**
+         * An event matched the timestamp reset bitmask, so following
+         * timestamps start again from zero
+         */
+        RESET
+    };
+
+    /**
+     * A timestamp discontinuity in the file.
+     */
+    public static class Marker {
+
+        private final long position;
+        private final MarkerType type;
+        private final int timestampBefore, timestampAfter;
+
+        Marker(long position, MarkerType type, int timestampBefore, int timestampAfter) {
+            this.position = position;
+            this.type = type;
+            this.timestampBefore = timestampBefore;
+            this.timestampAfter = timestampAfter;
+        }
+
+        /**
+         * Returns the position of the first event after the discontinuity
+         *
+         * @return the position in events
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the type of discontinuity
+         *
+         * @return the type
+         */
+        public MarkerType getType() {
+            return type;
+        }
+
+        /**
+         * Returns the timestamp of the last event before the discontinuity
+         *
+         * @return the timestamp
+         */
+        public int getTimestampBefore() {
+            return timestampBefore;
+        }
+
+        /**
+         * Returns the timestamp of the first event after the discontinuity
+         *
+         * @return the timestamp
+         */
+        public int getTimestampAfter() {
+            return timestampAfter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s at event %d: %d -> %d", type, position, timestampBefore, timestampAfter);
+        }
+    }
+
+    private final File dataFile;
+    private final long fileLength, lastModified;
+    private final int headerOffset, eventSizeBytes, strideEvents, timestampResetBitmask;
+    private long numEvents = 0;
+    private int lastTimestamp = 0;
+    private int numEntries = 0;
+    private long[] positions = new long[1024];
+    private int[] timestamps = new int[1024];
+    private int[] timestampOffsets = new int[1024];
+    private final ArrayList<Marker> markers = new ArrayList<Marker>();
+
+    private AEFileIndex(File dataFile, int headerOffset, int eventSizeBytes, int strideEvents, int timestampResetBitmask) {
+        this.dataFile = dataFile;
+        this.fileLength = dataFile.length();
+        this.lastModified = dataFile.lastModified();
+        this.headerOffset = headerOffset;
+        this.eventSizeBytes = eventSizeBytes;
+        this.strideEvents = strideEvents;
+        this.timestampResetBitmask = timestampResetBitmask;
+    }
+
+    /**
+     * Returns the sidecar index file for a data file.
+     *
+     * @param dataFile the data file
+     * @return the sidecar file
+     */
+    public static File getIndexFile(File dataFile) {
+        return new File(dataFile.getPath() + AEDataFile.TIMESTAMP_INDEX_FILE_EXTENSION);
+    }
+
+    /**
+     * Loads the index of the data file from its sidecar, or builds it by
+     * reading the whole file and tries to store the sidecar if there is no
+     * valid sidecar. Building can be cancelled by interrupting the calling
+     * thread.
+     *
+     * @param dataFile the data file
+     * @param headerOffset the byte offset of the first event
+     * @param eventSizeBytes 6 for AER-DAT-1.0 and 8 for AER-DAT-2.0
+     * @param timestampResetBitmask the bitmask for timestamp reset events, or
+     * 0 for none
+     * @return the index
+     * @throws IOException if the data file cannot be read, or
+     * InterruptedIOException if building was interrupted
+     */
+    public static AEFileIndex loadOrBuild(File dataFile, int headerOffset, int eventSizeBytes, int timestampResetBitmask) throws IOException {
+        // streams opened on the same file at the same time, e.g. by ShardedFilterChainBatchProcessor, wait for the first one to build the index and then load it
+        String key = dataFile.getAbsolutePath();
+        IndexLock lock;
+        synchronized (LOCKS) {
+            lock = LOCKS.get(key);
+            if (lock == null) {
+                lock = new IndexLock();
+                LOCKS.put(key, lock);
+            }
+            lock.users++;
+        }
+        try {
+            synchronized (lock) {
+                return loadOrBuildLocked(dataFile, headerOffset, eventSizeBytes, timestampResetBitmask);
+            }
+        } finally {
+            synchronized (LOCKS) {
+                if (--lock.users == 0) {
+                    LOCKS.remove(key);
+                }
+            }
+        }
+    }
+
+    // serializes indexing of one file; removed from LOCKS when its last user is done
+    private static final class IndexLock {
+
+        int users = 0;
+    }
+
+    private static AEFileIndex loadOrBuildLocked(File dataFile, int headerOffset, int eventSizeBytes, int timestampResetBitmask) throws IOException {
+        AEFileIndex index = new AEFileIndex(dataFile, headerOffset, eventSizeBytes, DEFAULT_STRIDE_EVENTS, timestampResetBitmask);
+        File indexFile = getIndexFile(dataFile);
+        if (indexFile.isFile()) {
+            try {
+                if (index.load(indexFile)) {
+                    log.info("loaded " + index);
+                    return index;
+                }
+                log.info(indexFile + " is out of date, rebuilding it");
+            } catch (IOException e) {
+                log.warning("couldn't load " + indexFile + ", rebuilding it: " + e.toString());
+            }
+            index = new AEFileIndex(dataFile, headerOffset, eventSizeBytes, DEFAULT_STRIDE_EVENTS, timestampResetBitmask); // discard partially loaded content
+        }
+        long startMs = System.currentTimeMillis();
+        index.build();
+        log.info("built " + index + " in " + (System.currentTimeMillis() - startMs) + " ms");
+        try {
+            index.save(indexFile);
+        } catch (IOException e) {
+            log.info("couldn't store index to " + indexFile + ", keeping it in memory only: " + e.toString());
+        }
+        return index;
+    }
+
+    private void build() throws IOException {
+        FileInputStream fis = new FileInputStream(dataFile);
+        FileChannel channel = fis.getChannel();
+        try {
+            ByteBuffer buf = ByteBuffer.allocateDirect((READ_BUFFER_BYTES / eventSizeBytes) * eventSizeBytes); // big endian like the mapped buffer of AEFileInputStream
+            channel.position(headerOffset);
+            long pos = 0;
+            int offset = 0, prevTs = 0;
+            boolean first = true;
+            while (channel.read(buf) > 0 || buf.position() > 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("interrupted while indexing " + dataFile);
+                }
+                buf.flip();
+                while (buf.remaining() >= eventSizeBytes) {
+                    int addr = eventSizeBytes == AEFileInputStream.EVENT32_SIZE ? buf.getInt() : (buf.getShort() & 0xffff);
+                    int ts = buf.getInt();
+                    MarkerType type = null;
+                    if ((addr & timestampResetBitmask) != 0) {
+                        offset = ts;
+                        type = MarkerType.RESET;
+                    }
+                    ts -= offset;
+                    if ((type == null) && !first && (ts <= 0) && (prevTs > 0)) {
+                        type = MarkerType.WRAP; // same test as AEFileInputStream uses for WrappedTimeException
+                    }
+                    if (type != null && !first) {
+                        markers.add(new Marker(pos, type, prevTs, ts));
+                        addEntry(pos, ts, offset);
+                    } else if ((pos % strideEvents) == 0) {
+                        addEntry(pos, ts, offset);
+                    }
+                    prevTs = ts;
+                    first = false;
+                    pos++;
+                }
+                buf.compact();
+                if (channel.position() >= channel.size() && buf.position() < eventSizeBytes) {
+                    break;
+                }
+            }
+            numEvents = pos;
+            lastTimestamp = prevTs;
+        } finally {
+            channel.close();
+            fis.close();
+        }
+    }
+
+    private void addEntry(long pos, int ts, int offset) {
+        if (numEntries > 0 && positions[numEntries - 1] == pos) {
+            return;
+        }
+        if (numEntries == positions.length) {
+            int n = positions.length * 2;
+            long[] p = new long[n];
+            int[] t = new int[n], o = new int[n];
+            System.arraycopy(positions, 0, p, 0, numEntries);
+            System.arraycopy(timestamps, 0, t, 0, numEntries);
+            System.arraycopy(timestampOffsets, 0, o, 0, numEntries);
+            positions = p;
+            timestamps = t;
+            timestampOffsets = o;
+        }
+        positions[numEntries] = pos;
+        timestamps[numEntries] = ts;
+        timestampOffsets[numEntries] = offset;
+        numEntries++;
+    }
+
+    private void save(File indexFile) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileLength);
+            out.writeLong(lastModified);
+            out.writeInt(headerOffset);
+            out.writeInt(eventSizeBytes);
+            out.writeInt(strideEvents);
+            out.writeInt(timestampResetBitmask);
+            out.writeLong(numEvents);
+            out.writeInt(lastTimestamp);
+            out.writeInt(numEntries);
+            for (int i = 0; i < numEntries; i++) {
+                out.writeLong(positions[i]);
+                out.writeInt(timestamps[i]);
+                out.writeInt(timestampOffsets[i]);
+            }
+            out.writeInt(markers.size());
+            for (Marker m : markers) {
+                out.writeLong(m.position);
+                out.writeByte(m.type.ordinal());
+                out.writeInt(m.timestampBefore);
+                out.writeInt(m.timestampAfter);
+            }
+        } finally {
+            out.close();
+        }
+        // rename so that another stream opening the same file never reads a partial index
+        indexFile.delete();
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("couldn't rename " + tmp + " to " + indexFile);
+        }
+    }
+
+    /**
+     * Loads the sidecar, returning false if it does not match the data file
+     * and settings of this index.
+     */
+    private boolean load(File indexFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != fileLength || in.readLong() != lastModified
+                    || in.readInt() != headerOffset || in.readInt() != eventSizeBytes
+                    || in.readInt() != strideEvents || in.readInt() != timestampResetBitmask) {
+                return false;
+            }
+            numEvents = in.readLong();
+            lastTimestamp = in.readInt();
+            int n = in.readInt();
+            positions = new long[Math.max(n, 1)];
+            timestamps = new int[Math.max(n, 1)];
+            timestampOffsets = new int[Math.max(n, 1)];
+            for (int i = 0; i < n; i++) {
+                positions[i] = in.readLong();
+                timestamps[i] = in.readInt();
+                timestampOffsets[i] = in.readInt();
+            }
+            numEntries = n;
+            int nm = in.readInt();
+            for (int i = 0; i < nm; i++) {
+                long pos = in.readLong();
+                MarkerType type = MarkerType.values()[in.readByte()];
+                markers.add(new Marker(pos, type, in.readInt(), in.readInt()));
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Finds the index entry from which to read forwards to reach the first
+     * event with a timestamp of at least timestamp. The timestamps between
+     * markers are searched in file order and the first range that contains
+     * the timestamp is used.
+     *
+     * @param timestamp the timestamp as returned by AEFileInputStream
+     * @return the entry number, or -1 if the timestamp is after the last
+     * event of every range
+     */
+    public int findEntry(int timestamp) {
+        int start = 0;
+        for (int m = 0; m <= markers.size(); m++) {
+            int end; // entry of the next marker, exclusive
+            int endTimestamp;
+            if (m < markers.size()) {
+                end = entryAtPosition(markers.get(m).position);
+                endTimestamp = markers.get(m).timestampBefore;
+            } else {
+                end = numEntries;
+                endTimestamp = lastTimestamp;
+            }
+            if (start < end && timestamp <= endTimestamp) {
+                if (timestamp <= timestamps[start]) {
+                    return start;
+                }
+                // binary search for last entry in [start,end) with timestamps<=timestamp
+                int lo = start, hi = end - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (timestamps[mid] <= timestamp) {
+                        lo = mid;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+                return lo;
+            }
+            start = end;
+        }
+        return -1;
+    }
+
+    private int entryAtPosition(long pos) {
+        int lo = 0, hi = numEntries - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (positions[mid] < pos) {
+                lo = mid + 1;
+            } else if (positions[mid] > pos) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the event position of an entry
+     *
+     * @param entry the entry number
+     * @return the position in events
+     */
+    public long getPosition(int entry) {
+        return positions[entry];
+    }
+
+    /**
+     * Returns the byte offset in the data file of an entry
+     *
+     * @param entry the entry number
+     * @return the offset in bytes from the start of the file
+     */
+    public long getByteOffset(int entry) {
+        return headerOffset + (positions[entry] * eventSizeBytes);
+    }
+
+    /**
+     * Returns the timestamp of the event of an entry
+     *
+     * @param entry the entry number
+     * @return the timestamp after subtracting the reset offset
+     */
+    public int getTimestamp(int entry) {
+        return timestamps[entry];
+    }
+
+    /**
+     * Returns the timestamp reset offset in effect at an entry, which
+     * AEFileInputStream must restore when it seeks to the entry
+     *
+     * @param entry the entry number
+     * @return the offset that is subtracted from raw timestamps
+     */
+    public int getTimestampOffset(int entry) {
+        return timestampOffsets[entry];
+    }
+
+    /**
+     * Returns the number of entries
+     *
+     * @return the number of entries
+     */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * Returns the number of events in the indexed file
+     *
+     * @return the number of events
+     */
+    public long getNumEvents() {
+        return numEvents;
+    }
+
+    /**
+     * Returns the timestamp wrap and reset markers in file order
+     *
+     * @return the markers
+     */
+    public List<Marker> getMarkers() {
+        return Collections.unmodifiableList(markers);
+    }
+
+    /**
+     * Returns the timestamp reset bitmask this index was built with
+     *
+     * @return the bitmask
+     */
+    public int getTimestampResetBitmask() {
+        return timestampResetBitmask;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AEFileIndex of %s with %d events, %d entries every %d events, %d markers",
+                dataFile.getName(), numEvents, numEntries, strideEvents, markers.size());
+    }
+}
@@ -88,6 +88,15 @@ import net.sf.jaer.util.EngineeringFormat;
  * zero at this point. (A timestamp offset is memorized and subtracted from
  * subsequent timestamps read from the file.) This allow synchronization using,
  * e.g. bit 15 of the address space.
+ * <p>
+ * <strong>Timestamp index.</strong> For AER-DAT-1.0 and 2.0 files,
+ * {@link #positionAtTimestamp(int)} seeks to a timestamp with a binary search
+ * in an {@link AEFileIndex} and a short forward scan, rather than reading all
+ * events from the start of the file. The index is loaded from its sidecar file,
+ * or built, only when it is first needed: on the first positionAtTimestamp, or
+ * in the background after {@link #startIndexing()}, which AEPlayer calls when
+ * it opens a file for playback. Streams that only read a file sequentially,
+ * e.g. batch processing or file previews, never read it for indexing.
  *
  * @author tobi
  * @see net.sf.jaer.eventio.AEDataFile
@@ -168,7 +177,7 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
     /**
      * the packet used for reading events.
      */
-    private AEPacketRaw packet = new AEPacketRaw(MAX_BUFFER_SIZE_EVENTS);
+    protected AEPacketRaw packet = new AEPacketRaw(MAX_BUFFER_SIZE_EVENTS);
     private EventRaw tmpEvent = new EventRaw();
     /**
      * The memory-mapped byte buffer pointing to the file.
@@ -190,6 +199,12 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
     private int timestampOffset = 0; // set by nonzero bitmask result on address to that events timestamp, subtracted
     // from all timestamps
 
+    private static boolean timestampIndexingEnabled = true;
+    private volatile AEFileIndex timestampIndex = null; // loaded or built by indexingThread
+    private Thread indexingThread = null;
+    private boolean indexingRequested = false; // set by startIndexing or positionAtTimestamp
+    private volatile int indexingGeneration = 0; // incremented by stopIndexing, so that a cancelled indexingThread does not publish its index
+
     /**
      * The AEChip object associated with this stream. This field was added for
      * supported jAER 3.0 format files to support translating bit locations in
@@ -231,6 +246,22 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
         setFile(f);
     }
 
+    /**
+     * Constructor for subclasses that read other file formats. It only opens
+     * the stream and sets the chip; the header is not parsed and no timestamp
+     * index is built, so subclasses must override the reading, positioning
+     * and marking methods.
+     *
+     * @param in the stream of the file
+     * @param chip the chip the file was recorded from
+     * @see AEArchiveInputStream
+     */
+    protected AEFileInputStream(FileInputStream in, AEChip chip) {
+        super(in);
+        this.chip = chip;
+        this.fileInputStream = in;
+    }
+
     @Override
     public String toString() {
         EngineeringFormat fmt = new EngineeringFormat();
@@ -854,6 +885,36 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
         }
     }
 
+    /**
+     * Returns the number of events in each memory mapped chunk of the file.
+     * Chunk n starts at event position n*getChunkSizeEvents().
+     *
+     * @return the chunk size in events
+     */
+    public long getChunkSizeEvents() {
+        return chunkSizeBytes / eventSizeBytes;
+    }
+
+    /**
+     * Returns the number of memory mapped chunks of the file, including the
+     * last partial chunk.
+     *
+     * @return the number of chunks, at least 1
+     */
+    public int getNumChunks() {
+        return numChunks;
+    }
+
+    /**
+     * Returns true if the file is in jAER 3.x format, for which positions are
+     * not simple event offsets into the file.
+     *
+     * @return true for AER-DAT-3.x files
+     */
+    public boolean isJaer3Enabled() {
+        return jaer3EnableFlg;
+    }
+
     /**
      * set position in events from start of file
      *
@@ -1021,9 +1082,12 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
 
     @Override
     public void close() throws IOException {
+        stopIndexing();
         super.close();
-        fileChannel.close();
-        fileChannel=null;
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
         System.gc();
         System.runFinalization(); // try to free memory mapped file buffers so file can be deleted....
     }
@@ -1631,7 +1695,175 @@ public class AEFileInputStream extends DataInputStream implements AEFileInputStr
      * @param timestampResetBitmask the timestampResetBitmask to set
      */
     public void setTimestampResetBitmask(int timestampResetBitmask) {
+        int old = this.timestampResetBitmask;
         this.timestampResetBitmask = timestampResetBitmask;
+        if (old != timestampResetBitmask) {
+            // the index depends on the reset events
+            synchronized (this) {
+                stopIndexing();
+                timestampIndex = null;
+                if (indexingRequested) {
+                    startIndexing();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts a background thread that loads or builds the timestamp index for
+     * the file, so that it is ready when the file is first seeked by time,
+     * e.g. when a file is opened for interactive playback. Does nothing if the
+     * index is already available or being built.
+     */
+    synchronized public void startIndexing() {
+        indexingRequested = true;
+        if (!timestampIndexingEnabled || (file == null) || jaer3EnableFlg) {
+            return;
+        }
+        if ((timestampIndex != null) || ((indexingThread != null) && indexingThread.isAlive())) {
+            return;
+        }
+        final File dataFile = file;
+        final int offset = headerOffset, size = eventSizeBytes, bitmask = timestampResetBitmask, generation = indexingGeneration;
+        indexingThread = new Thread("AEFileIndex " + file.getName()) {
+            @Override
+            public void run() {
+                try {
+                    AEFileIndex index = AEFileIndex.loadOrBuild(dataFile, offset, size, bitmask);
+                    if (generation == indexingGeneration) {
+                        timestampIndex = index;
+                    }
+                } catch (IOException e) {
+                    if (!isInterrupted()) {
+                        log.warning("couldn't index " + dataFile + ": " + e.toString());
+                    }
+                }
+            }
+        };
+        indexingThread.setDaemon(true);
+        indexingThread.setPriority(Thread.MIN_PRIORITY);
+        indexingThread.start();
+    }
+
+    synchronized private void stopIndexing() {
+        indexingGeneration++;
+        if (indexingThread != null) {
+            indexingThread.interrupt();
+            indexingThread = null;
+        }
+    }
+
+    /**
+     * Returns the timestamp index of the file.
+     *
+     * @return the index, or null if it is not (yet) available
+     */
+    public AEFileIndex getTimestampIndex() {
+        return timestampIndex;
+    }
+
+    // returns the index, waiting for the indexing thread or building it here if it was never started; null if there is none
+    synchronized private AEFileIndex awaitTimestampIndex() {
+        indexingRequested = true;
+        if ((timestampIndex != null) || !timestampIndexingEnabled || (file == null) || jaer3EnableFlg) {
+            return timestampIndex;
+        }
+        Thread t = indexingThread;
+        if ((t != null) && t.isAlive()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            try {
+                timestampIndex = AEFileIndex.loadOrBuild(file, headerOffset, eventSizeBytes, timestampResetBitmask);
+            } catch (IOException e) {
+                log.warning("couldn't index " + file + ": " + e.toString());
+            }
+        }
+        return timestampIndex;
+    }
+
+    /**
+     * Positions the stream at the first event whose timestamp is at least
+     * timestamp, so that the next read starts with it. If the file has
+     * timestamp wraps or resets, the first range of monotonic timestamps that
+     * contains timestamp is used. The first call loads or builds the timestamp
+     * index, which takes one pass over the file unless its sidecar exists; if
+     * indexing is disabled or fails, the file is searched from the start.
+     *
+     * @param timestamp the timestamp, as returned by the read methods
+     * @return true if such an event was found, false if timestamp is after
+     * the last event, in which case the position is unchanged
+     */
+    synchronized public boolean positionAtTimestamp(int timestamp) {
+        long oldPosition = position();
+        int oldOffset = timestampOffset, oldMostRecentTimestamp = mostRecentTimestamp;
+        AEFileIndex index = awaitTimestampIndex();
+        if (index != null) {
+            int entry = index.findEntry(timestamp);
+            if (entry < 0) {
+                return false;
+            }
+            position(index.getPosition(entry));
+            timestampOffset = index.getTimestampOffset(entry);
+            mostRecentTimestamp = index.getTimestamp(entry);
+        } else {
+            log.info("no timestamp index for " + file + ", searching from start of file");
+            position(0);
+            timestampOffset = 0;
+            mostRecentTimestamp = firstTimestamp;
+        }
+        // scan forwards, at most the stride of the index
+        for (long n = size() - position; n > 0; n--) {
+            long pos = position;
+            int ts;
+            try {
+                EventRaw ev = readEventForwards();
+                if (ev == null) {
+                    break;
+                }
+                ts = ev.timestamp;
+            } catch (NonMonotonicTimeException e) {
+                ts = e.getCurrentTimestamp();
+                position(pos + 1); // the exception is thrown before position is incremented
+            } catch (IOException e) {
+                break;
+            }
+            if (ts >= timestamp) {
+                position(pos);
+                mostRecentTimestamp = ts;
+                currentStartTimestamp = ts;
+                getSupport().firePropertyChange(AEInputStream.EVENT_POSITION, oldPosition, position());
+                return true;
+            }
+        }
+        position(oldPosition);
+        timestampOffset = oldOffset;
+        mostRecentTimestamp = oldMostRecentTimestamp;
+        return false;
+    }
+
+    /**
+     * Returns whether AEFileInputStreams load or build a timestamp index when
+     * seeking by time
+     *
+     * @return true if enabled (default)
+     */
+    public static boolean isTimestampIndexingEnabled() {
+        return timestampIndexingEnabled;
+    }
+
+    /**
+     * Sets whether AEFileInputStreams load or build a timestamp index when
+     * seeking by time, e.g. to avoid writing sidecar files next to read-only
+     * data.
+     *
+     * @param yes true to enable
+     */
+    public static void setTimestampIndexingEnabled(boolean yes) {
+        timestampIndexingEnabled = yes;
     }
 
 }
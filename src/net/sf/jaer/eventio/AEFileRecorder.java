@@ -0,0 +1,411 @@
+package net.sf.jaer.eventio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.aemonitor.AEPacketRawRing;
+import net.sf.jaer.chip.AEChip;
+
+/**
+ * Records raw packets to AEDAT 2.0 files on a background writer thread, so
+ * that a slow disk never stalls the thread that calls
+ * {@link #writePacket(net.sf.jaer.aemonitor.AEPacketRaw) }, e.g. the
+ * AEViewer.ViewLoop.
+ * <p>
+ * writePacket only copies the packet into a preallocated
+ * {@link AEPacketRawRing} and returns. The writer thread drains the ring into
+ * a large direct ByteBuffer that is written to the file channel when it is
+ * full, or when the ring has been idle for {@link #FLUSH_INTERVAL_MS}. If the
+ * writer falls so far behind that the ring is full, the newest packets are
+ * dropped and counted instead of blocking the caller; see
+ * {@link #getDroppedPacketCount() }.
+ * <p>
+ * The recording can be split into several files: a new file, with the same
+ * header and a numbered suffix, is started at a packet boundary when the
+ * current file reaches {@link #getRotateSizeBytes() } or has been written for
+ * {@link #getRotateIntervalMs() }. Rotation is disabled by default.
+ *
+ * @see AEFileOutputStream
+ */
+public class AEFileRecorder {
+
+    static final Logger log = Logger.getLogger("net.sf.jaer.eventio");
+    /** Default number of packets the ring holds */
+    public static final int DEFAULT_RING_SLOTS = 32;
+    /** Default initial capacity in events of each ring slot */
+    public static final int DEFAULT_SLOT_CAPACITY_EVENTS = 1 << 15;
+    /** Default size of the direct write buffer in bytes */
+    public static final int DEFAULT_WRITE_BUFFER_BYTES = 1 << 22;
+    /** Time in ms after which buffered events are written when no new packets arrive */
+    public static final long FLUSH_INTERVAL_MS = 250;
+    private static final long IDLE_PARK_NS = 1000000;
+    private static final int SIZE_EVENT = (Integer.SIZE / 8) * 2;
+
+    private final File file;
+    private final AEChip chip;
+    private final String dataFileVersionNumber;
+    private final AEPacketRawRing ring;
+    private final ByteBuffer writeBuffer;
+    private final Thread writerThread;
+    private final ArrayList<File> files = new ArrayList<File>();
+    private volatile boolean closed = false;
+    private volatile IOException error = null;
+    private volatile long rotateSizeBytes = 0, rotateIntervalMs = 0;
+
+    // only accessed by the writer thread
+    private FileChannel channel = null;
+    private long fileBytes = 0, fileOpenedMs = 0, lastFlushMs = 0;
+    private boolean fileHasEvents = false;
+    private final AEPacketRaw drained = new AEPacketRaw(DEFAULT_SLOT_CAPACITY_EVENTS);
+
+    private volatile long writtenEventCount = 0, writtenBytes = 0, writeNs = 0;
+
+    /**
+     * Opens the first file, writes its header and starts the writer thread.
+     *
+     * @param file the file to record to. Rotated files get the suffix -001,
+     * -002, ... before the extension.
+     * @param chip the chip, whose class and preferences are written to each
+     * header
+     * @param dataFileVersionNum the AEDAT version number, only "2.0" is
+     * supported
+     * @param ringSlots the number of packets the ring can hold before packets
+     * are dropped
+     * @throws IOException if the file cannot be created
+     */
+    public AEFileRecorder(File file, AEChip chip, String dataFileVersionNum, int ringSlots) throws IOException {
+        if (!AEDataFile.DATA_FILE_VERSION_NUMBER.equals(dataFileVersionNum)) {
+            throw new IOException("AEFileRecorder only writes AEDAT " + AEDataFile.DATA_FILE_VERSION_NUMBER + ", not " + dataFileVersionNum);
+        }
+        this.file = file;
+        this.chip = chip;
+        this.dataFileVersionNumber = dataFileVersionNum;
+        ring = new AEPacketRawRing(Math.max(AEPacketRawRing.MIN_SLOTS, ringSlots), DEFAULT_SLOT_CAPACITY_EVENTS);
+        ring.setFullPolicy(AEPacketRawRing.FullPolicy.DROP_NEWEST);
+        writeBuffer = ByteBuffer.allocateDirect(DEFAULT_WRITE_BUFFER_BYTES);
+        openFile(file); // on the caller thread, so that it gets the exception
+        writerThread = new Thread("AEFileRecorder " + file.getName()) {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.NORM_PRIORITY + 1);
+        writerThread.start();
+    }
+
+    /**
+     * Opens a recorder with the default ring size.
+     *
+     * @param file the file to record to
+     * @param chip the chip
+     * @param dataFileVersionNum the AEDAT version number, only "2.0" is
+     * supported
+     * @throws IOException if the file cannot be created
+     */
+    public AEFileRecorder(File file, AEChip chip, String dataFileVersionNum) throws IOException {
+        this(file, chip, dataFileVersionNum, DEFAULT_RING_SLOTS);
+    }
+
+    /**
+     * Queues a copy of the packet for writing. Never blocks on I/O; if the
+     * ring is full the packet is dropped and counted. Only call from one
+     * thread at a time.
+     *
+     * @param ae the packet, null or empty packets are ignored
+     * @return false if the packet was dropped or the recorder is closed or
+     * failed
+     */
+    synchronized public boolean writePacket(AEPacketRaw ae) {
+        if (closed || (error != null)) {
+            return false;
+        }
+        if ((ae == null) || (ae.getNumEvents() == 0)) {
+            return true;
+        }
+        final int n = ae.getNumEvents();
+        final AEPacketRaw w = ring.writeBuffer();
+        w.ensureCapacity(n);
+        System.arraycopy(ae.getAddresses(), 0, w.getAddresses(), 0, n);
+        System.arraycopy(ae.getTimestamps(), 0, w.getTimestamps(), 0, n);
+        w.setNumEvents(n);
+        final long dropped = ring.getDroppedPacketCount();
+        ring.publish();
+        if (ring.getDroppedPacketCount() != dropped) {
+            if ((dropped % 100) == 0) {
+                log.warning("writer of " + file.getName() + " can't keep up, dropped " + (dropped + 1) + " packets so far");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                final boolean closing = closed; // read before draining, so nothing published before close is missed
+                ring.drainTo(drained);
+                final int n = drained.getNumEvents();
+                if (n > 0) {
+                    writeEvents(drained.getAddresses(), drained.getTimestamps(), n);
+                } else if (closing) {
+                    break;
+                } else {
+                    if ((writeBuffer.position() > 0) && ((System.currentTimeMillis() - lastFlushMs) > FLUSH_INTERVAL_MS)) {
+                        flush();
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NS);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+            log.log(Level.WARNING, "recording to " + file + " failed, stopping recording", e);
+        } finally {
+            try {
+                closeFile();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+                log.warning("couldn't close " + currentFile() + ": " + e.toString());
+            }
+        }
+    }
+
+    private void writeEvents(int[] addr, int[] ts, int n) throws IOException {
+        if (isRotationDue()) {
+            closeFile();
+            openFile(rotatedFile(files.size()));
+        }
+        int i = 0;
+        if (!fileHasEvents) {
+            // the first event must not start with the comment char, or it is read as part of the header
+            while ((i < n) && ((addr[i] >>> 16) == (AEDataFile.COMMENT_CHAR & 0xFFFF))) {
+                i++;
+            }
+            fileHasEvents = i < n;
+        }
+        for (; i < n; i++) {
+            if (writeBuffer.remaining() < SIZE_EVENT) {
+                flush();
+            }
+            writeBuffer.putInt(addr[i]);
+            writeBuffer.putInt(ts[i]);
+        }
+        writtenEventCount += n;
+    }
+
+    private boolean isRotationDue() {
+        if (!fileHasEvents) {
+            return false;
+        }
+        return ((rotateSizeBytes > 0) && ((fileBytes + writeBuffer.position()) >= rotateSizeBytes))
+                || ((rotateIntervalMs > 0) && ((System.currentTimeMillis() - fileOpenedMs) >= rotateIntervalMs));
+    }
+
+    private void flush() throws IOException {
+        final long startNs = System.nanoTime();
+        writeBuffer.flip();
+        final int len = writeBuffer.remaining();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        fileBytes += len;
+        writtenBytes += len;
+        writeNs += System.nanoTime() - startNs;
+        lastFlushMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Creates the file and writes the same header as AEFileOutputStream.
+     */
+    private void openFile(File f) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(200000);
+        new AEFileOutputStream(bos, chip, dataFileVersionNumber).flush(); // only used to format the header, not closed since it has no channel
+        FileOutputStream fos = new FileOutputStream(f);
+        channel = fos.getChannel();
+        ByteBuffer header = ByteBuffer.wrap(bos.toByteArray());
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        synchronized (files) {
+            files.add(f);
+        }
+        fileBytes = bos.size();
+        writtenBytes += bos.size();
+        fileOpenedMs = System.currentTimeMillis();
+        lastFlushMs = fileOpenedMs;
+        fileHasEvents = false;
+        if (files.size() > 1) {
+            log.info("rotated recording to " + f);
+        }
+    }
+
+    private void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns the name of rotated file number i, i.e. the file name with
+     * suffix -00i before the extension.
+     */
+    private File rotatedFile(int i) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final String base = dot > 0 ? name.substring(0, dot) : name, ext = dot > 0 ? name.substring(dot) : "";
+        return new File(file.getParentFile(), String.format("%s-%03d%s", base, i, ext));
+    }
+
+    private File currentFile() {
+        synchronized (files) {
+            return files.isEmpty() ? file : files.get(files.size() - 1);
+        }
+    }
+
+    /**
+     * Stops accepting packets, waits until the writer thread has written all
+     * queued packets and closes the file.
+     *
+     * @throws IOException if writing failed at any time during the recording
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        log.info(toString());
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * @return the error that stopped the writer thread, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * @return true after close() was called
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the files written so far, the first one first
+     */
+    public List<File> getFiles() {
+        synchronized (files) {
+            return new ArrayList<File>(files);
+        }
+    }
+
+    /**
+     * @return the size in bytes at which a new file is started, or 0
+     */
+    public long getRotateSizeBytes() {
+        return rotateSizeBytes;
+    }
+
+    /**
+     * Sets the size at which a new file is started.
+     *
+     * @param rotateSizeBytes the size in bytes, 0 to disable
+     */
+    public void setRotateSizeBytes(long rotateSizeBytes) {
+        this.rotateSizeBytes = Math.max(0, rotateSizeBytes);
+    }
+
+    /**
+     * @return the time in ms after which a new file is started, or 0
+     */
+    public long getRotateIntervalMs() {
+        return rotateIntervalMs;
+    }
+
+    /**
+     * Sets the time after which a new file is started.
+     *
+     * @param rotateIntervalMs the time in ms, 0 to disable
+     */
+    public void setRotateIntervalMs(long rotateIntervalMs) {
+        this.rotateIntervalMs = Math.max(0, rotateIntervalMs);
+    }
+
+    /**
+     * @return the number of packets dropped because the ring was full
+     */
+    public long getDroppedPacketCount() {
+        return ring.getDroppedPacketCount();
+    }
+
+    /**
+     * @return the number of events dropped because the ring was full
+     */
+    public long getDroppedEventCount() {
+        return ring.getDroppedEventCount();
+    }
+
+    /**
+     * @return the number of events handed to the writer thread
+     */
+    public long getWrittenEventCount() {
+        return writtenEventCount;
+    }
+
+    /**
+     * @return the number of bytes written to all files, including headers
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    /**
+     * @return the ring the packets are queued in, e.g. for its occupancy
+     */
+    public AEPacketRawRing getRing() {
+        return ring;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AEFileRecorder %s: %d events, %d bytes in %d files, %.1f ms writing, %d packets (%d events) dropped, max ring occupancy %d/%d",
+                file.getName(), writtenEventCount, writtenBytes, getFiles().size(), writeNs * 1e-6f,
+                ring.getDroppedPacketCount(), ring.getDroppedEventCount(), ring.getMaxOccupancy(), ring.getNumSlots());
+    }
+}
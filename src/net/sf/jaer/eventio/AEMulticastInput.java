@@ -1,18 +1,16 @@
 package net.sf.jaer.eventio;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.Exchanger;
 import java.util.logging.Logger;
 
 import net.sf.jaer.aemonitor.AEPacketRaw;
-import net.sf.jaer.aemonitor.EventRaw;
 
 /** 
  * Receives input via multicast datagram packets from a server. This input is a Thread that reads the MulticastSocket in the background and
@@ -25,8 +23,6 @@ import net.sf.jaer.aemonitor.EventRaw;
 public class AEMulticastInput extends Thread {
     MulticastSocket socket = null;
     InetAddress address = null;
-    ByteArrayInputStream bis=null;
-    DataInputStream dis=null;
     boolean printedHost=false;
     volatile boolean stopMe=false;
     static int EVENT_BUFFER_SIZE=2048;
@@ -88,25 +84,22 @@ public class AEMulticastInput extends Thread {
         }
     }
     
-    AEPacketRaw packet=null;
     byte[] buf=null;
+    ByteBuffer byteBuffer=null; // wraps buf to decode the datagrams
     DatagramPacket datagram;
     int packetCounter=0;
     int packetSequenceNumber=0;
-    EventRaw eventRaw=new EventRaw();
     
-    /** adds to the buffer from received packets */
+    /** adds to the buffer from received packets. The events of each datagram are decoded in bulk into the
+     * address and timestamp arrays of the packet, big endian as sent by AEMulticastOutput. */
     private void addToBuffer(AEPacketRaw packet){
         if(buf==null){
             buf=new byte[AENetworkInterfaceConstants.DATAGRAM_BUFFER_SIZE_BYTES];
+            byteBuffer=ByteBuffer.wrap(buf); // big endian
         }
         if(datagram==null){
             datagram=new DatagramPacket(buf,buf.length);
         }
-        if(bis==null){
-            bis=new ByteArrayInputStream(buf);
-            dis=new DataInputStream(bis);
-        }
         try{
             socket.receive(datagram); // blocks until datagram received
             if(!printedHost){
@@ -116,13 +109,13 @@ public class AEMulticastInput extends Thread {
                 socket.connect(addr);
             }
             if(datagram.getLength()<Integer.SIZE/8){
-                log.warning(String.format("DatagramPacket only has %d bytes, and thus doesn't even have sequence number, returning empty packet",datagram.getLength()));
-                packet.setNumEvents(0);
+                log.warning(String.format("DatagramPacket only has %d bytes, and thus doesn't even have sequence number, ignoring it",datagram.getLength()));
+                return;
             }
             packetCounter++;
             int nEventsInPacket=(datagram.getLength()-Integer.SIZE/8)/AENetworkInterfaceConstants.EVENT_SIZE_BYTES;
-            dis.reset();
-            packetSequenceNumber=dis.readInt();
+            byteBuffer.clear();
+            packetSequenceNumber=byteBuffer.getInt();
             if(packetSequenceNumber!=packetCounter){
                 log.warning(
                         String.format("Dropped %d packets. (Incoming packet sequence number (%d) doesn't match expected packetCounter (%d), resetting packetCounter to match present incoming sequence number)",
@@ -132,23 +125,21 @@ public class AEMulticastInput extends Thread {
                         ));
                 packetCounter=packetSequenceNumber;
             }
-//            short[] addr=packet.getAddresses();
-//            int[] ts=packet.getTimestamps();
-            for(int i=0;i<nEventsInPacket;i++){
-                eventRaw.address=dis.readInt();
-                eventRaw.timestamp=dis.readInt();
-                packet.addEvent(eventRaw);
-//                addr[i]=dis.readShort();
-//                ts[i]=dis.readInt();
+            final int start=packet.getNumEvents();
+            packet.ensureCapacity(start+nEventsInPacket);
+            final int[] addr=packet.getAddresses();
+            final int[] ts=packet.getTimestamps();
+            for(int i=start;i<start+nEventsInPacket;i++){
+                addr[i]=byteBuffer.getInt();
+                ts[i]=byteBuffer.getInt();
             }
-//            packet.setNumEvents(nEventsInPacket);
+            packet.setNumEvents(start+nEventsInPacket);
         }catch(IOException e){
             e.printStackTrace();
             log.warning(e.getMessage());
             packet.setNumEvents(0);
             close();
         }
-//        return packet;
     }
     
     @Override public String toString(){
@@ -14,22 +14,40 @@ package net.sf.jaer.eventio;
 import java.beans.PropertyChangeSupport;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.EventExtractor2D;
+
 /**
- * Following is target functionality (right now this class only opens a single socket to most recent client connecting to it
-and events are only streamed to this one socket): This server socket allows a source host to listen for connections from other hosts and open AESockets to them to allow
-streaming AE data to them, so as a server, we stream events to the clients.
-These stream socket connections transmit data reliably.
+ * This server socket allows a source host to listen for connections from other hosts and to stream AE data to them,
+so as a server, we stream events to the clients. These stream socket connections transmit data reliably, in the stream
+format of {@link AESocket}.
+<p>
+Any number of clients can receive events from a single server. One thread runs a java.nio Selector that accepts clients
+and writes to them. {@link #writePacket} encodes each packet once into a shared buffer and queues that buffer for every client,
+so the acquisition or viewer thread that calls it never blocks on the network. Each client has its own bounded queue
+({@link #setMaxQueuedBytes}); when a slow client's queue is full, its new packets are dropped or it is disconnected,
+according to the {@link #setOverflowPolicy overflow policy}, without delaying the other clients.
 <p>
-Multile clients can recieve events from a single server through the use of java.nio channels and selectors.
+A client can send a line of text with an {@link AESubscription}, e.g. "subscribe roi=0,0,31,31 types=1 maxrate=100000",
+to receive only the events in some regions of interest or of some types, or at a limited rate. The events are then
+selected for that client before encoding, so they never take up its queue or network bandwidth; the packets of clients
+without a subscription are still encoded once for all of them. A subscribed client's stream has its own time reference.
 <p>
-The AESocket's are manufactured when a client connects to the AEViewer. The AESocket's are built with options that are
-set using the AEServerSocketOptionsDialog.
 This AEServerSocket is a Thread and it must be started after construction to allow incoming connections.
 <p>
  * AEServerSocket has PropertyChangeSupport; see the {@link #getSupport() } method for change event information.
@@ -43,91 +61,423 @@ public class AEServerSocket extends Thread {
     public static final int DEFAULT_BUFFERED_STREAM_SIZE_BYTES = 8192;
     public static final int DEFAULT_SEND_BUFFER_SIZE_BYTES = 8192;
     public static final int DEFAULT_RECIEVE_BUFFER_SIZE_BYTES = 8192;
-    private ServerSocket serverSocket;
-    private AESocket socket = null;
+    /** The default limit of bytes queued for one client */
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 1 << 22;
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int MAX_LINE_LENGTH = 1024; // longer subscription lines are cut
+
+    /** What is done with a client whose queue is full */
+    public enum OverflowPolicy {
+        /** New packets are dropped for the client until its queue drains */
+        DropPackets,
+        /** The client is disconnected */
+        Disconnect
+    };
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private final CopyOnWriteArrayList<Client> clients = new CopyOnWriteArrayList<Client>();
+    private final ConcurrentLinkedQueue<Client> serviceRequests = new ConcurrentLinkedQueue<Client>(); // clients with new packets or to disconnect
+    private final ConcurrentLinkedQueue<EncodedPacket> bufferPool = new ConcurrentLinkedQueue<EncodedPacket>();
+    private volatile boolean resetTimestampReference = true;
+    private final AESocket.TimestampReference timestampReference = new AESocket.TimestampReference(); // of the shared stream
+    private volatile boolean closing = false;
     private int bufferedStreamSize = prefs.getInt("AEServerSocket.bufferedStreamSize", DEFAULT_BUFFERED_STREAM_SIZE_BYTES);
     private int sendBufferSize = prefs.getInt("AEServerSocket.sendBufferSize", DEFAULT_SEND_BUFFER_SIZE_BYTES);
     private int port = prefs.getInt("AEServerSocket.port", AENetworkInterfaceConstants.STREAM_PORT);
     private int receiveBufferSize = prefs.getInt("AEServerSocket.receiveBufferSize", DEFAULT_RECIEVE_BUFFER_SIZE_BYTES);
     private boolean flushPackets = prefs.getBoolean("AESocket.flushPackets", true);
     private boolean useBufferedStreams = prefs.getBoolean("AEServerSocket.useBufferedStreams", true);
+    private volatile int maxQueuedBytes = prefs.getInt("AEServerSocket.maxQueuedBytes", DEFAULT_MAX_QUEUED_BYTES);
+    private volatile OverflowPolicy overflowPolicy = loadOverflowPolicy();
+    private final boolean swapBytesEnabled = AESocket.prefs.getBoolean("AESocket.swapBytesEnabled", AESocketSettings.DEFAULT_SWAPBYTES_ENABLED); // same format as AESocket.writePacket
     private Thread T = null;
 
     /** Creates a new instance of AEServerSocket. This Thread must be started to serve connections.
-    @throws java.net.BindException when the socket is already bound (probably by another viewer)
+    @throws java.io.IOException if the server channel or selector cannot be opened
      */
     public AEServerSocket() throws java.io.IOException {
         T = this;
-        serverSocket = new ServerSocket();
-        serverSocket.setReceiveBufferSize(receiveBufferSize);
-        /*}catch(java.net.BindException be){
-        log.warning("server socket already bound to port (probably from another AEViewer)");
-         */
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReceiveBufferSize(receiveBufferSize);
+        selector = Selector.open();
         setName("AEServerSocket port=" + port);
     }
 
     public String toString() {
-        return "AEServerSocket on port=" + port;
+        return "AEServerSocket on port=" + port + " with " + clients.size() + " clients";
     }
 
-    /** Accepts incoming connections and manufactures AESocket's for them. Currently only a single
-     * client is supported.
+    /** Binds the port, then accepts incoming connections and writes the queued packets to the clients until the
+     * server socket is closed.
      */
     public void run() {
-        if (serverSocket == null) {
-            return; // port was already bound
+        if (serverChannel == null) {
+            return;
         }
-        while (!isInterrupted()) {
-            try {
-                if (!serverSocket.isBound()) {
+        try {
+            serverChannel.socket().bind(new InetSocketAddress(port)); // FIXME TODO, if we have a port here that is already in use, then we can't use the ServerSocket options dialog to change it!!
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            log.info("bound " + this);
+        } catch (IOException ioe) {
+            log.warning("couldn't bind AEServerSocket to port " + port + " : " + ioe + "; this run() will break. A new AEServerSocket should be contructed.");
+            closeChannels();
+            return;
+        }
+        try {
+            while (!isInterrupted() && !closing) {
+                selector.select();
+                Client c;
+                while ((c = serviceRequests.poll()) != null) {
+                    c.service();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
                     try {
-                        serverSocket.bind(new InetSocketAddress(port)); // FIXME TODO, if we have a port here that is already in use, then we can't use the ServerSocket options dialog to change it!!
-                        log.info("bound " + this);
-                    } catch (IOException ioe) {
-                        log.warning("couldn't bind AEServerSocket to port " + port + " : " + ioe+ "; this run() will break. A new AEServerSocket should be contructed.");
-                        break;
+                        if (key.isReadable()) {
+                            client.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.write();
+                        }
+                    } catch (IOException e) {
+                        client.disconnect(e.toString());
                     }
                 }
-                Socket newSocket = serverSocket.accept(); // makes a new socket to the connecting client
-                if (socket != null) {
-                    log.info("closing existing stream TCP output socket " + socket + " to accept a new connection"); // TODO multiple clients should be possible
-                    try {
-                        socket.close();
-                    } catch (IOException ioe) {
-                        log.warning("while closing old socket caught " + ioe.getMessage());
+            }
+        } catch (IOException e) {
+            if (!closing) {
+                log.warning(e.toString() + ": AEServerSocket on port " + port + " stops serving clients");
+            }
+        } catch (ClosedSelectorException e) {
+            // closed while selecting
+        }
+        closeChannels();
+    }
+
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setSendBufferSize(sendBufferSize);
+            if (channel.socket().getSendBufferSize() != getSendBufferSize()) {
+                log.warning("accepted connection and asked for sendBufferSize=" + getSendBufferSize() + " but only got sendBufferSize=" + channel.socket().getSendBufferSize());
+            }
+            Client client = new Client(channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            if (clients.isEmpty()) {
+                resetTimestampReference = true; // the first client sees time start at zero, as before
+            }
+            clients.add(client);
+            log.info("accepted incoming stream TCP socket request to send events to " + client + "; now serving " + clients.size() + " clients");
+            getSupport().firePropertyChange("clientconnected", null, client);
+        } catch (IOException e) {
+            log.warning("could not accept connection: " + e.toString());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e2) {
+                }
+            }
+        }
+    }
+
+    /** Sends a packet to all connected clients. The packet is encoded before returning, so it can be reused
+     * afterwards; it is written to the clients by the server thread as their sockets can take it. Returns doing
+     * nothing if there are no clients or the packet is null or empty.
+     * <p>
+     * Subscriptions of clients are applied without a chip, so their regions of interest and types are ignored;
+     * use {@link #writePacket(AEPacketRaw, EventExtractor2D)} to apply them.
+     *
+     * @param packet the packet
+     */
+    public void writePacket(AEPacketRaw packet) {
+        writePacket(packet, null);
+    }
+
+    /** Sends a packet to all connected clients, applying the subscription of each client that sent one.
+     *
+     * @param packet the packet
+     * @param extractor the event extractor of the chip, used to find the pixel and type of the addresses
+     * for the subscriptions; may be null
+     * @see #writePacket(AEPacketRaw)
+     */
+    public void writePacket(AEPacketRaw packet, EventExtractor2D extractor) {
+        if ((packet == null) || (packet.getNumEvents() == 0) || clients.isEmpty()) {
+            return;
+        }
+        if (resetTimestampReference) {
+            resetTimestampReference = false;
+            timestampReference.reset();
+        }
+        EncodedPacket shared = null; // encoded on demand for the clients without a subscription
+        for (Client c : clients) {
+            final AESubscription s = c.subscription;
+            if (s == null) {
+                if (shared == null) {
+                    shared = encode(packet, timestampReference);
+                }
+                c.offer(shared);
+                continue;
+            }
+            if (s != c.appliedSubscription) {
+                c.appliedSubscription = s;
+                c.timestampReference.reset();
+            }
+            AEPacketRaw selected = s.apply(packet, extractor);
+            if (selected == null) {
+                continue;
+            }
+            EncodedPacket p = encode(selected, c.timestampReference);
+            c.offer(p);
+            release(p);
+        }
+        if (shared != null) {
+            release(shared);
+        }
+    }
+
+    // encodes a packet into a pooled buffer, which is held by the caller until it releases it
+    private EncodedPacket encode(AEPacketRaw packet, AESocket.TimestampReference reference) {
+        EncodedPacket p = obtainBuffer(packet.getNumEvents() * AENetworkInterfaceConstants.EVENT_SIZE_BYTES);
+        AESocket.encodePacket(packet, p.data, swapBytesEnabled, reference);
+        p.refs.set(1);
+        return p;
+    }
+
+    /** @return true if at least one client is connected */
+    public boolean hasClients() {
+        return !clients.isEmpty();
+    }
+
+    /** @return the number of connected clients */
+    public int getNumClients() {
+        return clients.size();
+    }
+
+    /** @return a snapshot of the connected clients */
+    public ArrayList<Client> getClients() {
+        return new ArrayList<Client>(clients);
+    }
+
+    private EncodedPacket obtainBuffer(int capacity) {
+        EncodedPacket p = bufferPool.poll();
+        if (p == null) {
+            p = new EncodedPacket();
+        }
+        if ((p.data == null) || (p.data.capacity() < capacity)) {
+            p.data = ByteBuffer.allocateDirect(Math.max(capacity, bufferedStreamSize));
+        }
+        return p;
+    }
+
+    private void release(EncodedPacket p) {
+        if ((p.refs.decrementAndGet() == 0) && (bufferPool.size() < MAX_POOLED_BUFFERS)) {
+            bufferPool.offer(p);
+        }
+    }
+
+    /** A packet encoded once in the stream format and shared by the queues of all clients;
+     * it returns to the pool when the last client has written it.
+     */
+    private static final class EncodedPacket {
+
+        ByteBuffer data;
+        final AtomicInteger refs = new AtomicInteger();
+    }
+
+    /** A connected client with its queue of packets to send. The queue is filled by
+     * {@link AEServerSocket#writePacket} and drained by the server thread.
+     */
+    public final class Client {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final String name;
+        private final ArrayDeque<EncodedPacket> queue = new ArrayDeque<EncodedPacket>();
+        private int queuedBytes = 0;
+        private int headPosition = 0; // bytes of the head of queue already sent
+        private boolean serviceRequested = false, disconnectRequested = false;
+        private volatile long packetsSent = 0, bytesSent = 0, packetsDropped = 0;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(256);
+        private final StringBuilder line = new StringBuilder(); // the text received since the last newline
+        private volatile AESubscription subscription = null; // set by the server thread, null for all events
+        // used only by the thread that writes packets
+        private AESubscription appliedSubscription = null;
+        private final AESocket.TimestampReference timestampReference = new AESocket.TimestampReference();
+
+        private Client(SocketChannel channel) {
+            this.channel = channel;
+            name = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        // queues a packet, called by the thread that writes packets
+        private synchronized void offer(EncodedPacket p) {
+            if (disconnectRequested) {
+                return;
+            }
+            final int n = p.data.limit();
+            if (!queue.isEmpty() && ((queuedBytes + n) > maxQueuedBytes)) {
+                packetsDropped++;
+                if (overflowPolicy == OverflowPolicy.Disconnect) {
+                    disconnectRequested = true;
+                    requestService();
+                }
+                return;
+            }
+            p.refs.incrementAndGet();
+            queue.add(p);
+            queuedBytes += n;
+            requestService();
+        }
+
+        private void requestService() {
+            if (!serviceRequested) {
+                serviceRequested = true;
+                serviceRequests.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // called on the server thread for a client that requested service
+        private void service() {
+            boolean disconnect;
+            synchronized (this) {
+                serviceRequested = false;
+                disconnect = disconnectRequested;
+            }
+            if (disconnect) {
+                disconnect("its queue of " + queuedBytes + " bytes overflowed");
+            } else if (key.isValid()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        // writes queued packets until the queue is empty or the socket cannot take more
+        private void write() throws IOException {
+            while (true) {
+                EncodedPacket head;
+                synchronized (this) {
+                    head = queue.peek();
+                    if (head == null) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        return;
                     }
                 }
-                newSocket.setSendBufferSize(sendBufferSize);
-                if (newSocket.getSendBufferSize() != getSendBufferSize()) {
-                    log.warning("accepted connection and asked for sendBufferSize=" + getSendBufferSize() + " but only got sendBufferSize=" + newSocket.getSendBufferSize());
+                ByteBuffer b = head.data.duplicate();
+                b.position(headPosition);
+                bytesSent += channel.write(b);
+                if (b.hasRemaining()) {
+                    headPosition = b.position();
+                    return;
                 }
-                AESocket aeSocket = new AESocket(newSocket);
-                aeSocket.setFlushPackets(isFlushPackets());
-                aeSocket.setUseBufferedStreams(isUseBufferedStreams());
-                AESocket oldSocket = aeSocket;
+                headPosition = 0;
                 synchronized (this) {
-                    setSocket(aeSocket);
+                    queue.poll();
+                    queuedBytes -= head.data.limit();
                 }
-                log.info("accepted incoming stream TCP socket request to send events on socket " + newSocket);
-                getSupport().firePropertyChange("clientconnected", oldSocket, aeSocket);
-            }catch(SocketException se){
-                log.info("socket closed gracefully? caught "+ se.toString());
-                break;
+                packetsSent++;
+                release(head);
+            }
+        }
+
+        // reads the subscription lines that the client sends and notices when it closes the connection
+        private void read() throws IOException {
+            readBuffer.clear();
+            if (channel.read(readBuffer) < 0) {
+                disconnect("connection closed by client");
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                final char c = (char) (readBuffer.get() & 0xff);
+                if (c == '\n') {
+                    subscribe(line.toString().trim());
+                    line.setLength(0);
+                } else if (line.length() < MAX_LINE_LENGTH) {
+                    line.append(c);
+                }
+            }
+        }
+
+        private void subscribe(String s) {
+            if (s.isEmpty()) {
+                return;
+            }
+            try {
+                AESubscription sub = AESubscription.parse(s);
+                subscription = sub.isPassThrough() ? null : sub;
+                log.info(this + " subscribed with \"" + sub + "\"");
+            } catch (IllegalArgumentException e) {
+                log.warning("ignoring line from " + this + ": " + e.getMessage());
+            }
+        }
+
+        /** @return the subscription that the client sent, or null if it receives all events */
+        public AESubscription getSubscription() {
+            return subscription;
+        }
+
+        private void disconnect(String reason) {
+            if (!clients.remove(this)) {
+                return;
+            }
+            key.cancel();
+            try {
+                channel.close();
             } catch (IOException e) {
-                if (!isInterrupted()) {
-                    log.warning(e.toString() + ": AEServerSocket on port " + port + " may already be bound by another viewer");
+                log.warning("while closing " + this + " caught " + e);
+            }
+            synchronized (this) {
+                disconnectRequested = true;
+                EncodedPacket p;
+                while ((p = queue.poll()) != null) {
+                    release(p);
                 }
-                break;
+                queuedBytes = 0;
             }
+            log.info("disconnected " + this + ": " + reason + "; now serving " + clients.size() + " clients");
+            getSupport().firePropertyChange("clientdisconnected", this, null);
         }
-    }
 
-    synchronized public AESocket getAESocket() {
-        return socket;
-    }
+        /** @return the number of packets completely sent to this client */
+        public long getPacketsSent() {
+            return packetsSent;
+        }
+
+        /** @return the number of bytes sent to this client */
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        /** @return the number of packets dropped because the client's queue was full */
+        public long getPacketsDropped() {
+            return packetsDropped;
+        }
+
+        /** @return the number of bytes waiting to be sent */
+        public synchronized int getQueuedBytes() {
+            return queuedBytes;
+        }
 
-    public void setSocket(AESocket socket) {
-        this.socket = socket;
+        @Override
+        public String toString() {
+            return "client " + name + " (" + packetsSent + " packets sent, " + packetsDropped + " dropped)";
+        }
     }
 
     /** Tests class by constructing a socket and starting the thread */
@@ -141,6 +491,9 @@ public class AEServerSocket extends Thread {
         }
     }
 
+    /** Sets the initial size of the buffers that packets are encoded into
+     * @param bufferedStreamSize the size in bytes
+     */
     public void setBufferedStreamSize(int bufferedStreamSize) {
         this.bufferedStreamSize = bufferedStreamSize;
         prefs.putInt("AEServerSocket.bufferedStreamSize", bufferedStreamSize);
@@ -177,6 +530,9 @@ public class AEServerSocket extends Thread {
         return port;
     }
 
+    /** Packets are always written to the clients as soon as their sockets can take them; kept for the options dialog
+     * @return the flushPackets preference
+     */
     public boolean isFlushPackets() {
         return flushPackets;
     }
@@ -186,25 +542,87 @@ public class AEServerSocket extends Thread {
         prefs.putBoolean("AESocket.flushPackets", flushPackets);
     }
 
-    /** shuts down the server socket thread and closes the server socket */
+    /**
+     * @return the limit of bytes queued for each client
+     */
+    public int getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Sets the limit of bytes queued for each client; a packet that does not fit is handled according to the
+     * {@link #setOverflowPolicy overflow policy}. A packet is always queued for a client whose queue is empty.
+     *
+     * @param maxQueuedBytes the limit in bytes
+     */
+    public void setMaxQueuedBytes(int maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        prefs.putInt("AEServerSocket.maxQueuedBytes", maxQueuedBytes);
+    }
+
+    /**
+     * @return what is done with a client whose queue is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @param overflowPolicy what is done with a client whose queue is full
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        prefs.put("AEServerSocket.overflowPolicy", overflowPolicy.toString());
+    }
+
+    // a stale or corrupt preference must not keep the server from starting
+    private static OverflowPolicy loadOverflowPolicy() {
+        String s = prefs.get("AEServerSocket.overflowPolicy", OverflowPolicy.DropPackets.toString());
+        try {
+            return OverflowPolicy.valueOf(s);
+        } catch (IllegalArgumentException e) {
+            log.warning("ignoring unknown AEServerSocket.overflowPolicy=" + s + ", using " + OverflowPolicy.DropPackets);
+            return OverflowPolicy.DropPackets;
+        }
+    }
+
+    /** shuts down the server socket thread, disconnects the clients and closes the server socket */
     public void close() throws IOException {
         log.info("closing AEServerSocket thread");
-//        T.interrupt();
-//        try {
-//            T.join(50,0); // wait some ms for server thread to die
-//        } catch (InterruptedException ex) {
-//            log.info("interrupted during thread shutdown");
-//        }
-        serverSocket.close();
-        try {
-            T.join(1000);
-        } catch (InterruptedException ex) {
-            log.info("join after server socket close was interrupted");
+        closing = true;
+        if (T.isAlive()) {
+            selector.wakeup();
+            try {
+                T.join(1000);
+            } catch (InterruptedException ex) {
+                log.info("join after server socket close was interrupted");
+            }
+        } else {
+            closeChannels();
         }
         log.info("closed server socket");
     }
 
+    // closes the clients, the server channel and the selector
+    private void closeChannels() {
+        for (Client c : clients) {
+            c.disconnect("server socket closing");
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            log.warning("while closing server channel caught " + e);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.warning("while closing selector caught " + e);
+        }
+    }
+
     /**
+     * Packets are encoded into buffers of at least {@link #getBufferedStreamSize()} bytes; kept for the options dialog
+     *
      * @return the useBufferedStreams
      */
     public boolean isUseBufferedStreams() {
@@ -221,7 +639,8 @@ public class AEServerSocket extends Thread {
     /**
      * PropertyChange events are fired as follows:
      * <ul>
-     * <li> "clientconnected" - when a client has connected to us.
+     * <li> "clientconnected" - when a client has connected to us; the new value is the {@link Client}.
+     * <li> "clientdisconnected" - when a client has disconnected or was disconnected; the old value is the {@link Client}.
      * </ul>
 
      * @return the support.
@@ -7,22 +7,22 @@
  * and open the template in the editor.
  */
 package net.sf.jaer.eventio;
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
 
 import net.sf.jaer.aemonitor.AEPacketRaw;
-import net.sf.jaer.aemonitor.EventRaw;
 
 /**
  * Streams in or out packets of events from or to a stream socket
@@ -43,7 +43,7 @@ import net.sf.jaer.aemonitor.EventRaw;
 public class AESocket implements AESocketSettings{
     Selector selector=null;
     SocketChannel channel=null;
-    private static int t0_ref = -1;
+    private static final TimestampReference sharedTimestampReference=new TimestampReference();
 
 
     private int receiveBufferSize=prefs.getInt("AESocket.receiveBufferSize",DEFAULT_RECEIVE_BUFFER_SIZE_BYTES);
@@ -78,9 +78,8 @@ public class AESocket implements AESocketSettings{
     // the packet used for reading events
 
     private AEPacketRaw packet=new AEPacketRaw(MAX_PACKET_SIZE_EVENTS);
-    EventRaw tmpEvent=new EventRaw();
-    private DataInputStream dis;
     private DataOutputStream dos;
+    private ByteBuffer writeBuffer=null; // packet encoded for writePacket
 
     /** Creates a new instance of AESocket  using an existing Socket.
      @param s the socket to use.
@@ -110,7 +109,14 @@ public class AESocket implements AESocketSettings{
         setPort(port);
     }
     public AESocket(){
-        socket=new Socket();
+        try{
+            channel=SocketChannel.open(); // so that packets can be read into direct buffers
+            socket=channel.socket();
+        }catch(IOException e){
+            log.warning("could not open socket channel, using a plain socket: "+e);
+            channel=null;
+            socket=new Socket();
+        }
     }
     public void setReceiveBufferSize(int sizeBytes){
         //        if (sizeBytes < 256) {
@@ -151,52 +157,125 @@ public class AESocket implements AESocketSettings{
         return bufferedStreamSize;
     }
     
-    /** returns events from AESocket. An IOException closes the socket. A timeout just return the whatever events have
-     * been received. An EOF exception returns events that have been recieved.
-     @return the read packet
+    /** Returns the events received since the last call. Everything buffered is decoded at once into the
+     * packet's address and timestamp arrays; if nothing has arrived, the call waits at most SO_TIMEOUT ms
+     * and returns an empty packet on timeout. Incomplete events and headers are kept for the next call.
+     * <p>
+     * The stream is a sequence of blocks, each a header of HEADER_INTS little endian ints, the 5th being the
+     * number of events, followed by that many events of address and timestamp.
+     @return the read packet, reused on the next call
+     @throws EOFException if the connection was closed and no events remain
+     @throws IOException on other errors, which should close the socket
      */
-    int nTmp = 0;
-    int nEventCapacity =0;
-    int nTmpCount = 0;
     public synchronized AEPacketRaw readPacket() throws IOException{
-        checkDataInputStream();
-
-        //        int n = dis.available() / AENetworkInterface.EVENT_SIZE_BYTES;
         packet.setNumEvents(0);
+        checkReadBuffer();
+        boolean open=fillReadBuffer();
+        decodeReadBuffer();
+        if(packet.getNumEvents()==0 && readBuffer.position()==0 && open){
+            // nothing decodable yet; wait a little for more data, like the socket timeout used to
+            if(channel!=null && !channel.isBlocking()){
+                selector.select(SO_TIMEOUT);
+                selector.selectedKeys().clear();
+            }
+            open=fillReadBuffer();
+            decodeReadBuffer();
+        }
+        if(!open && packet.getNumEvents()==0){
+            throw new EOFException("connection closed by "+socket.getRemoteSocketAddress());
+        }
+        return packet;
+    }
+
+    /** the number of ints in the header of each block of events */
+    public static final int HEADER_INTS=7;
+    private static final int HEADER_MAGIC=0x10001;
+    private ByteBuffer readBuffer=null; // received bytes not yet decoded, in write mode between calls
+    private int blockEvents=0; // events in the current block
+    private int blockEventsRead=0; // events of the current block already decoded
+
+    // allocates the read buffer; direct if the socket has a channel, which is switched to non-blocking reads
+    private void checkReadBuffer() throws IOException{
+        if(readBuffer!=null) return;
+        int size=Math.max(bufferedStreamSize, receiveBufferSize);
+        size=Math.max(size-size%AENetworkInterfaceConstants.EVENT_SIZE_BYTES, 4*HEADER_INTS);
+        if(channel!=null){
+            channel.configureBlocking(false);
+            selector=Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            readBuffer=ByteBuffer.allocateDirect(size);
+        }else{
+            readBuffer=ByteBuffer.allocate(size); // stream input needs an array
+        }
+        readBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
 
+    /** reads whatever is available without waiting more than SO_TIMEOUT
+     @return false if the connection was closed by the other side
+     */
+    private boolean fillReadBuffer() throws IOException{
+        if(!readBuffer.hasRemaining()) return true; // decode first
+        if(channel!=null){
+            return channel.read(readBuffer)>=0;
+        }
         try{
-            if(((nTmpCount != 0) && (nTmpCount < nEventCapacity)) || ((nTmpCount == 0) && (nEventCapacity != 0))){
-                while(nTmpCount < nEventCapacity){
-                    packet.addEvent(readEventForwards());
-                    nTmpCount += 1;
+            int n=socket.getInputStream().read(readBuffer.array(), readBuffer.arrayOffset()+readBuffer.position(), readBuffer.remaining());
+            if(n<0) return false;
+            readBuffer.position(readBuffer.position()+n);
+        }catch(SocketTimeoutException e){
+            // no data yet
+        }
+        return true;
+    }
+
+    /** decodes all complete headers and events in the read buffer into packet */
+    private void decodeReadBuffer(){
+        readBuffer.flip();
+        final boolean swap=isSwapBytesEnabled();
+        while(true){
+            if(blockEventsRead>=blockEvents){
+                if(readBuffer.remaining()<4*HEADER_INTS) break;
+                int magic=readBuffer.getInt();
+                if(magic!=HEADER_MAGIC){
+                    log.warning("!!!!!!!!!!The first byte of the packet is not 0x10001, is" + magic);
                 }
+                readBuffer.getInt(); // eventsize
+                readBuffer.getInt(); // eventoffset
+                readBuffer.getInt(); // eventoverflow
+                blockEvents=readBuffer.getInt(); // eventcapacity
+                readBuffer.getInt(); // eventnumber
+                readBuffer.getInt(); // eventvalid
+                blockEventsRead=0;
+                continue;
             }
-            else{
-                nTmp = swapByteOrder(dis.readInt());
-                if(nTmp != 0x10001)
-                {
-                    log.warning("!!!!!!!!!!The first byte of the packet is not 0x10001, is" + nTmp);
+            int n=Math.min(blockEvents-blockEventsRead, readBuffer.remaining()/AENetworkInterfaceConstants.EVENT_SIZE_BYTES);
+            n=Math.min(n, MAX_PACKET_SIZE_EVENTS-packet.getNumEvents());
+            if(n<=0) break;
+            final int start=packet.getNumEvents();
+            packet.ensureCapacity(start+n);
+            final int[] a=packet.getAddresses(), t=packet.getTimestamps();
+            int ts=mostRecentTimestamp;
+            for(int i=start;i<start+n;i++){
+                int addr;
+                if(swap){ // timestamp first, normalized in big endian order as before
+                    ts=Integer.reverseBytes(sharedTimestampReference.normalize(Integer.reverseBytes(readBuffer.getInt())));
+                    addr=readBuffer.getInt();
+                }else{
+                    addr=readBuffer.getInt();
+                    ts=readBuffer.getInt();
                 }
-                nTmp = swapByteOrder(dis.readInt());     //eventsize
-                nTmp = swapByteOrder(dis.readInt());     //eventoffset
-                nTmp = swapByteOrder(dis.readInt());     //eventoverflow
-                nTmpCount = 0;
-                nEventCapacity = swapByteOrder(dis.readInt());     //eventcapacity
-                nTmp = swapByteOrder(dis.readInt());     //eventnumber
-                nTmp = swapByteOrder(dis.readInt());     //eventvalid
+                //          x_addr                          y_addr          on_off event
+                a[i] = ((addr & 0xfe0000) >> 16) + ((addr  & 0x1fc) << 6) + ((addr & 2) >> 1);     //just for DVS128 data format convertion
+                // a[i] = ((addr & 0x7fe0000) >> 5) + ((addr  & 0x7fc) << 20) + ((addr & 2) >> 1);     //just for DAVIS data format convertion
+                t[i]=ts;
             }
-            return packet;
-        }catch(EOFException e){
-            return packet;
-        }/*catch(SocketTimeoutException eto){
-            // ok, this packet done
-            return packet;
-        }catch(IOException e2){ // removed since other errors should be handled by the user
-            log.warning(e2.toString()+" closing socket");
-            close();
-            return packet;
-        }*/
+            mostRecentTimestamp=ts;
+            packet.setNumEvents(start+n);
+            blockEventsRead+=n;
+        }
+        readBuffer.compact();
     }
+
     /** Writes the packet to the stream. Returns doing nothing if packet is null or empty.
      *
      * @param p the packet
@@ -205,68 +284,97 @@ public class AESocket implements AESocketSettings{
     public synchronized void writePacket(AEPacketRaw packet) throws IOException{
         if(packet==null) return;
 
-        checkDataOutputStream();
         int n=packet.getNumEvents();
         if(n==0) return;
 
-        int[] a=packet.getAddresses();
-        int[] ts=packet.getTimestamps();
-        for(int i=0;i<n;i++){
-            if (this.isSwapBytesEnabled()){
-            dos.writeInt(swapByteOrder(normalize(ts[i])));
-            dos.writeInt(swapByteOrder(a[i]));
-            } else {
-            dos.writeInt(normalize(ts[i]));
-            dos.writeInt(a[i]);
+        if(writeBuffer==null || writeBuffer.capacity()<n*AENetworkInterfaceConstants.EVENT_SIZE_BYTES){
+            writeBuffer=ByteBuffer.allocate(n*AENetworkInterfaceConstants.EVENT_SIZE_BYTES);
+        }
+        encodePacket(packet, writeBuffer, isSwapBytesEnabled());
+        if(channel!=null && !channel.isBlocking()){ // the socket was also read, which made the channel non-blocking
+            SelectionKey key=channel.keyFor(selector);
+            while(writeBuffer.hasRemaining()){
+                if(channel.write(writeBuffer)==0){
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    selector.select(CONNECTION_TIMEOUT_MS);
+                    selector.selectedKeys().clear();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
             }
-            
-            
+            return;
         }
+        checkDataOutputStream();
+        dos.write(writeBuffer.array(), 0, writeBuffer.limit());
         if(flushPackets){
             dos.flush();
         }
     }
 
-    private int normalize(int t){
-        int tt = 0;
-        if (t0_ref == -1) {
-            t0_ref = t;
-            tt = 0;
-            log.info("starting time at "+t0_ref);
-        } else {
-            tt = t-t0_ref;
-        }
+    /** Encodes a packet in the stream format written by {@link #writePacket}, with timestamps
+     * relative to the time reference shared by all AESockets.
+     * @param packet the packet
+     * @param buf the buffer, which must hold packet.getNumEvents()*EVENT_SIZE_BYTES bytes; it is cleared,
+     * filled and flipped, and its byte order is set
+     * @param swapBytes true to write little endian values
+     * @return buf
+     */
+    static ByteBuffer encodePacket(AEPacketRaw packet, ByteBuffer buf, boolean swapBytes){
+        return encodePacket(packet, buf, swapBytes, sharedTimestampReference);
+    }
 
-        if(this.isISIEnabled()){
-            t0_ref=t;
-            if(tt>100000){
-            log.info("warning: very large isi "+tt);
-            }
+    /** Encodes a packet in the stream format written by {@link #writePacket}.
+     * @param packet the packet
+     * @param buf the buffer, which must hold packet.getNumEvents()*EVENT_SIZE_BYTES bytes; it is cleared,
+     * filled and flipped, and its byte order is set
+     * @param swapBytes true to write little endian values
+     * @param reference the time reference of the stream the packet is written to
+     * @return buf
+     */
+    static ByteBuffer encodePacket(AEPacketRaw packet, ByteBuffer buf, boolean swapBytes, TimestampReference reference){
+        int n=packet.getNumEvents();
+        int[] a=packet.getAddresses();
+        int[] ts=packet.getTimestamps();
+        buf.clear();
+        buf.order(swapBytes? ByteOrder.LITTLE_ENDIAN: ByteOrder.BIG_ENDIAN);
+        for(int i=0;i<n;i++){
+            buf.putInt(reference.normalize(ts[i]));
+            buf.putInt(a[i]);
         }
-        return tt;
-
+        buf.flip();
+        return buf;
     }
-    private static int swapByteOrder(int value) {
-        int b1 = (value >> 0) & 0xff;
-        int b2 = (value >> 8) & 0xff;
-        int b3 = (value >> 16) & 0xff;
-        int b4 = (value >> 24) & 0xff;
 
-        return b1 << 24 | b2 << 16 | b3 << 8 | b4 << 0;
-    }
+    /** The time zero of the timestamps of one stream; with ISI enabled, each timestamp
+     * is written relative to the one before it.
+     */
+    static final class TimestampReference{
+        private int t0_ref = -1;
 
-    //    byte[] tmpBuffer=new byte[0];
+        /** Makes the next timestamp the new time zero, as when a new client connects. */
+        void reset(){
+            t0_ref=-1;
+        }
 
-    private void checkDataInputStream() throws IOException{
-        if(dis==null){
-            if(useBufferedStreams){
-                dis=new java.io.DataInputStream(new BufferedInputStream(socket.getInputStream(),bufferedStreamSize));
-            }else{
-                dis=new java.io.DataInputStream((socket.getInputStream()));
+        int normalize(int t){
+            int tt = 0;
+            if (t0_ref == -1) {
+                t0_ref = t;
+                tt = 0;
+                log.info("starting time at "+t0_ref);
+            } else {
+                tt = t-t0_ref;
+            }
+
+            if(isiEnabled){
+                t0_ref=t;
+                if(tt>100000){
+                log.info("warning: very large isi "+tt);
+                }
             }
+            return tt;
         }
-    //        socket.getInputStream().read(tmpBuffer, 0, 0); // should throw exception if remote side has closed socket
     }
+
     private void checkDataOutputStream() throws IOException{
         if(dos==null){
             if(useBufferedStreams){
@@ -277,42 +385,6 @@ public class AESocket implements AESocketSettings{
         }
     }
 
-    /** reads next event, but if there is a timeout, socket is closed
-     @return the raw event
-     */
-    private EventRaw readEventForwards() throws IOException{
-        int ts=0;
-        int addr=0;
-        byte pTmp[] = new byte[2000];
-        if(isSwapBytesEnabled()){
-            ts=this.swapByteOrder(normalize(dis.readInt()));
-            addr=this.swapByteOrder(dis.readInt());
-        } else {
-            // dis.read(pTmp);
-            addr=this.swapByteOrder(dis.readInt());
-            ts=this.swapByteOrder((dis.readInt()));
-            // ts=normalize(dis.readInt());
-            // addr=dis.readInt();
-        }
-        // check for non-monotonic increasing timestamps, if we get one, reset our notion of the starting time
-        if(isWrappedTime(ts,mostRecentTimestamp,1)){
-        //                throw new WrappedTimeException(ts,mostRecentTimestamp);
-        }
-        if(ts<mostRecentTimestamp){
-//            log.warning("AEInputStream.readEventForwards returned ts="+ts+" which goes backwards in time (mostRecentTimestamp="+mostRecentTimestamp+")");
-        //                throw new NonMonotonicTimeException(ts,mostRecentTimestamp);
-        }
-        // tmpEvent.address=addr;
-        // tmpEvent.timestamp=ts;
-        //                        x_addr                          y_addr          on_off event
-        tmpEvent.address = ((addr & 0xfe0000) >> 16) + ((addr  & 0x1fc) << 6) + ((addr & 2) >> 1);     //just for DVS128 data format convertion
-        // tmpEvent.address = ((addr & 0x7fe0000) >> 5) + ((addr  & 0x7fc) << 20) + ((addr & 2) >> 1);     //just for DAVIS data format convertion
-        tmpEvent.timestamp=ts;
-        mostRecentTimestamp=ts;
-        // System.out.printf("timestamp = %d,%x\n",ts,addr);
-        return tmpEvent;
-    }
-
     /** @return returns the most recent timestamp
      */
     public int getMostRecentTimestamp(){
@@ -448,9 +520,15 @@ public class AESocket implements AESocketSettings{
     /** Closes the AESocket and nulls the data input and output streams */
     public synchronized void close() throws IOException{
         socket.close();
-        dis=null;
+        if(selector!=null){
+            selector.close();
+            selector=null;
+        }
+        readBuffer=null;
+        blockEvents=0;
+        blockEventsRead=0;
         dos=null;
-        t0_ref=-1;
+        sharedTimestampReference.reset();
     }
     public String getHost(){
         return hostname;
@@ -535,10 +613,9 @@ public class AESocket implements AESocketSettings{
      */
     @Override
     synchronized public void setUseBufferedStreams(boolean useBufferedStreams){
-        if(useBufferedStreams!=this.useBufferedStreams && (dis!=null || dos!=null)){
-            dis=null; // so that buffering is enabled or disabled next time read or write happens
-            dos=null;
-            log.info("nulled data input and data output streams to change to useBufferedStreams="+useBufferedStreams);
+        if(useBufferedStreams!=this.useBufferedStreams && dos!=null){
+            dos=null; // so that buffering is enabled or disabled next time write happens
+            log.info("nulled data output stream to change to useBufferedStreams="+useBufferedStreams);
         }
         this.useBufferedStreams=useBufferedStreams;
         prefs.putBoolean("AESocket.useBufferedStreams",useBufferedStreams);
@@ -0,0 +1,271 @@
+package net.sf.jaer.eventio;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.EventExtractor2D;
+
+/**
+ * Describes the part of the event stream that a remote consumer wants, so that
+ * the sender can drop the rest before encoding. A subscription is written as
+ * one line of text, e.g.
+ * <pre>
+ * subscribe roi=0,0,63,63 roi=64,0,127,31 types=1 maxrate=200000 slice=10000
+ * </pre>
+ * <ul>
+ * <li>roi=x0,y0,x1,y1 - an inclusive rectangle of pixels; may be repeated, an
+ * event is kept if it is in any of them. Without roi all pixels are kept.
+ * <li>types=t0,t1,... - the cell types to keep, e.g. 0 for OFF and 1 for ON
+ * polarity. Without types all types are kept.
+ * <li>maxrate=r - the maximum events per second; when the events that pass
+ * the roi and types arrive faster, they are decimated uniformly to this rate.
+ * <li>slice=us - events are collected and sent together once they span this
+ * many us, so that slow consumers get fewer, larger packets.
+ * </ul>
+ * Clients of {@link AEServerSocket} send the line after connecting; the
+ * subscription of {@link AEUnicastOutput} is set on the sender. Pixel
+ * addresses are decoded with the EventExtractor2D of the chip; without one,
+ * roi and types cannot be applied and are ignored.
+ * <p>
+ * A subscription keeps the state of its decimation and slice, so each stream
+ * needs its own instance, used by one thread.
+ */
+public class AESubscription {
+
+    /**
+     * The first word of a subscription line
+     */
+    public static final String KEYWORD = "subscribe";
+    private final ArrayList<int[]> rois = new ArrayList<int[]>(); // x0,y0,x1,y1 inclusive
+    private long typeMask = -1; // bit t set to keep type t
+    private float maxEventRate = 0; // events/s, 0 for no limit
+    private int sliceUs = 0; // 0 for no aggregation
+    // state
+    private final AEPacketRaw out = new AEPacketRaw(1024);
+    private boolean sliceStarted = false;
+    private int sliceStartTimestamp = 0;
+    private boolean rateStarted = false;
+    private int lastTimestamp = 0;
+    private float decimationAccumulator = 0;
+
+    /**
+     * Parses a subscription line.
+     *
+     * @param line the line, starting with {@link #KEYWORD}
+     * @return the subscription
+     * @throws IllegalArgumentException if the line cannot be parsed
+     */
+    public static AESubscription parse(String line) {
+        String[] words = line.trim().split("\\s+");
+        if ((words.length == 0) || !words[0].equalsIgnoreCase(KEYWORD)) {
+            throw new IllegalArgumentException("subscription must start with \"" + KEYWORD + "\": " + line);
+        }
+        AESubscription s = new AESubscription();
+        for (int i = 1; i < words.length; i++) {
+            int eq = words[i].indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("expected key=value but got " + words[i]);
+            }
+            String key = words[i].substring(0, eq).toLowerCase(Locale.ROOT), value = words[i].substring(eq + 1);
+            try {
+                switch (key) {
+                    case "roi":
+                        String[] c = value.split(",");
+                        if (c.length != 4) {
+                            throw new IllegalArgumentException("roi needs x0,y0,x1,y1 but got " + value);
+                        }
+                        s.addRoi(Integer.parseInt(c[0]), Integer.parseInt(c[1]), Integer.parseInt(c[2]), Integer.parseInt(c[3]));
+                        break;
+                    case "types":
+                        long mask = 0;
+                        for (String t : value.split(",")) {
+                            int type = Integer.parseInt(t);
+                            if ((type < 0) || (type > 63)) {
+                                throw new IllegalArgumentException("type " + type + " must be between 0 and 63");
+                            }
+                            mask |= 1L << type;
+                        }
+                        s.setTypeMask(mask);
+                        break;
+                    case "maxrate":
+                        s.setMaxEventRate(Float.parseFloat(value));
+                        break;
+                    case "slice":
+                        s.setSliceUs(Integer.parseInt(value));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown subscription key " + key);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad number in " + words[i]);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Adds a region of interest
+     *
+     * @param x0 the left pixel
+     * @param y0 the bottom pixel
+     * @param x1 the right pixel, inclusive
+     * @param y1 the top pixel, inclusive
+     */
+    public void addRoi(int x0, int y0, int x1, int y1) {
+        rois.add(new int[]{Math.min(x0, x1), Math.min(y0, y1), Math.max(x0, x1), Math.max(y0, y1)});
+    }
+
+    /**
+     * @param typeMask bit t set to keep events of cell type t; -1 for all
+     */
+    public void setTypeMask(long typeMask) {
+        this.typeMask = typeMask;
+    }
+
+    /**
+     * @param maxEventRate the maximum events per second, 0 for no limit
+     */
+    public void setMaxEventRate(float maxEventRate) {
+        this.maxEventRate = Math.max(0, maxEventRate);
+    }
+
+    /**
+     * @param sliceUs the time span in us of the packets to send, 0 to send
+     * each packet as it comes
+     */
+    public void setSliceUs(int sliceUs) {
+        this.sliceUs = Math.max(0, sliceUs);
+    }
+
+    /**
+     * @return true if the subscription keeps all events and sends every
+     * packet, so that it need not be applied
+     */
+    public boolean isPassThrough() {
+        return rois.isEmpty() && (typeMask == -1) && (maxEventRate == 0) && (sliceUs == 0);
+    }
+
+    /**
+     * Applies the subscription to a packet.
+     *
+     * @param in the packet from the source
+     * @param extractor decodes the pixel and type of the addresses; may be
+     * null, in which case roi and types are not applied
+     * @return the events to send, or null if there is nothing to send yet. The
+     * packet is reused by the next call.
+     */
+    public AEPacketRaw apply(AEPacketRaw in, EventExtractor2D extractor) {
+        if (!sliceStarted) {
+            out.setNumEvents(0);
+        }
+        final int n = in.getNumEvents();
+        if (n == 0) {
+            return null;
+        }
+        final int[] a = in.getAddresses(), t = in.getTimestamps();
+        final boolean select = (extractor != null) && (!rois.isEmpty() || (typeMask != -1));
+        final int first = out.getNumEvents();
+        out.ensureCapacity(first + n);
+        final int[] oa = out.getAddresses(), ot = out.getTimestamps();
+        int m = first;
+        for (int i = 0; i < n; i++) {
+            if (select && !isSelected(a[i], extractor)) {
+                continue;
+            }
+            oa[m] = a[i];
+            ot[m] = t[i];
+            m++;
+        }
+        if (maxEventRate > 0) {
+            m = decimate(oa, ot, first, m, t[n - 1]);
+        }
+        lastTimestamp = t[n - 1];
+        rateStarted = true;
+        out.setNumEvents(m);
+        if (sliceUs > 0) {
+            if (!sliceStarted) {
+                sliceStarted = true;
+                sliceStartTimestamp = t[0];
+            }
+            final int span = t[n - 1] - sliceStartTimestamp;
+            if ((span >= 0) && (span < sliceUs)) {
+                return null; // keep collecting; a jump back in time ends the slice
+            }
+            sliceStarted = false;
+        }
+        return m == 0 ? null : out;
+    }
+
+    private boolean isSelected(int address, EventExtractor2D extractor) {
+        if (typeMask != -1) {
+            int type = extractor.getTypeFromAddress(address);
+            if ((type < 0) || (type > 63) || ((typeMask & (1L << type)) == 0)) {
+                return false;
+            }
+        }
+        if (rois.isEmpty()) {
+            return true;
+        }
+        final int x = extractor.getXFromAddress(address), y = extractor.getYFromAddress(address);
+        for (int[] r : rois) {
+            if ((x >= r[0]) && (y >= r[1]) && (x <= r[2]) && (y <= r[3])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // keeps every 1/p-th of the events from..to-1, where p is the budget over the rate of the selected events
+    private int decimate(int[] a, int[] t, int from, int to, int endTimestamp) {
+        final int count = to - from;
+        if (count == 0) {
+            return to;
+        }
+        final long dtUs = rateStarted ? ((long) endTimestamp - lastTimestamp) : ((long) endTimestamp - t[from]);
+        if (dtUs <= 0) {
+            return to; // cannot estimate the rate
+        }
+        final float rate = (count * 1e6f) / dtUs;
+        if (rate <= maxEventRate) {
+            return to;
+        }
+        final float keep = maxEventRate / rate;
+        int m = from;
+        for (int i = from; i < to; i++) {
+            decimationAccumulator += keep;
+            if (decimationAccumulator >= 1) {
+                decimationAccumulator -= 1;
+                a[m] = a[i];
+                t[m] = t[i];
+                m++;
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(KEYWORD);
+        for (int[] r : rois) {
+            sb.append(" roi=").append(r[0]).append(',').append(r[1]).append(',').append(r[2]).append(',').append(r[3]);
+        }
+        if (typeMask != -1) {
+            sb.append(" types=");
+            String sep = "";
+            for (int i = 0; i < 64; i++) {
+                if ((typeMask & (1L << i)) != 0) {
+                    sb.append(sep).append(i);
+                    sep = ",";
+                }
+            }
+        }
+        if (maxEventRate > 0) {
+            sb.append(" maxrate=").append(maxEventRate);
+        }
+        if (sliceUs > 0) {
+            sb.append(" slice=").append(sliceUs);
+        }
+        return sb.toString();
+    }
+}
@@ -25,6 +25,7 @@ import java.util.prefs.Preferences;
 
 import net.sf.jaer.aemonitor.AEPacketRaw;
 import net.sf.jaer.aemonitor.EventRaw;
+import net.sf.jaer.chip.EventExtractor2D;
 import net.sf.jaer.util.ByteSwapper;
 
 /**
@@ -68,6 +69,8 @@ public class AEUnicastOutput implements AEUnicastSettings {
     private boolean timestampsEnabled = prefs.getBoolean("AEUnicastOutput.timestampsEnabled", true);
     private boolean localTimestampsEnabled = prefs.getBoolean("AEUnicastOutput.localTimestampsEnabled", false);
     private boolean spinnakerProtocolEnabled = prefs.getBoolean("AEUnicastOutput.spinnakerProtocolEnabled", false);
+    private AESubscription subscription = null; // null to send all events
+    private EventExtractor2D eventExtractor = null; // decodes pixels for the subscription
 
 //    /** Creates a new instance, binding any available local port (since we will be just sending from here)
 //     * and using the last host and port.
@@ -91,6 +94,11 @@ public class AEUnicastOutput implements AEUnicastSettings {
      * @see #setPort
      */
     public AEUnicastOutput() {
+        try {
+            setSubscription(prefs.get("AEUnicastOutput.subscription", ""));
+        } catch (IllegalArgumentException e) {
+            log.warning("ignoring stored subscription: " + e.getMessage());
+        }
     }
 
     /**
@@ -184,6 +192,12 @@ public class AEUnicastOutput implements AEUnicastSettings {
         if (ae == null) {
             return;
         }
+        if (subscription != null) {
+            ae = subscription.apply(ae, eventExtractor);
+            if (ae == null) {
+                return;
+            }
+        }
         int nEvents = ae.getNumEvents();
         if (nEvents == 0) {
             return;
@@ -630,6 +644,43 @@ public class AEUnicastOutput implements AEUnicastSettings {
         return use4ByteAddrTs;
     }
 
+    /**
+     * Sets the events to send. A UDP receiver cannot send its subscription
+     * back as clients of AEServerSocket do, so it is set here on the sender.
+     *
+     * @param subscription an {@link AESubscription} line, e.g. "subscribe
+     * roi=0,0,31,31 maxrate=100000", or null or empty to send all events
+     * @throws IllegalArgumentException if the subscription cannot be parsed;
+     * the current subscription is kept
+     */
+    synchronized public void setSubscription(String subscription) {
+        if ((subscription == null) || subscription.trim().isEmpty()) {
+            this.subscription = null;
+        } else {
+            AESubscription s = AESubscription.parse(subscription);
+            this.subscription = s.isPassThrough() ? null : s;
+        }
+        prefs.put("AEUnicastOutput.subscription", this.subscription == null ? "" : this.subscription.toString());
+    }
+
+    /**
+     * @return the subscription line, or an empty string if all events are
+     * sent
+     */
+    public String getSubscription() {
+        return subscription == null ? "" : subscription.toString();
+    }
+
+    /**
+     * Sets the event extractor used to find the pixel and type of the
+     * addresses for the regions of interest and types of the subscription.
+     *
+     * @param eventExtractor the extractor of the chip, or null
+     */
+    synchronized public void setEventExtractor(EventExtractor2D eventExtractor) {
+        this.eventExtractor = eventExtractor;
+    }
+
     private int swab(int v) {
         if (swapBytesEnabled) {
             return ByteSwapper.swap(v);
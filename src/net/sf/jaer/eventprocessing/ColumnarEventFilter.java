@@ -0,0 +1,27 @@
+package net.sf.jaer.eventprocessing;
+
+import net.sf.jaer.event.ColumnarEventPacket;
+
+/**
+ * An EventFilter2D that can also filter a {@link ColumnarEventPacket} in place.
+ * When consecutive enabled filters in a {@link FilterChain} implement this
+ * interface, the chain gathers the columns once, runs all of these filters on
+ * the primitive columns, and only then writes the filteredOut flags back to
+ * the event objects.
+ * <p>
+ * Implementations may only set bits in {@link ColumnarEventPacket#filteredOut};
+ * they must not change timestamps, addresses or types, since the columns are
+ * shared by the following columnar filters. The result must be the same as
+ * calling <code>filterPacket</code>.
+ *
+ * @see FilterChain#setColumnarProcessingEnabled(boolean)
+ */
+public interface ColumnarEventFilter {
+
+    /**
+     * Filters the columns in place by setting filteredOut bits.
+     *
+     * @param columns the columnar view of the packet
+     */
+    void filterColumns(ColumnarEventPacket columns);
+}
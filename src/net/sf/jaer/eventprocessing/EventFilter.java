@@ -66,6 +66,11 @@ public abstract class EventFilter extends Observable implements HasPropertyToolt
     public static final String TOOLTIP_GROUP_GLOBAL = PropertyTooltipSupport.TOOLTIP_GROUP_GLOBAL;
 
     public EventProcessingPerformanceMeter perf;
+    /**
+     * The metrics of this filter in its FilterChain's FilterMetricsRegistry,
+     * set on the first measured packet
+     */
+    public FilterMetrics metrics;
     /**
      * The preferences for this filter, by default in the EventFilter package
      * node
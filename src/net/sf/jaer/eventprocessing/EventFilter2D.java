@@ -136,6 +136,38 @@ abstract public class EventFilter2D extends EventFilter implements PropertyChang
      */
     public abstract EventPacket<?> filterPacket(EventPacket<?> in);
 
+    /**
+     * The timestamp map of the FilterChain that runs this filter, set by the
+     * chain before each filterPacket call; null if no enabled filter of the
+     * chain uses it.
+     */
+    PixelTimestampMap sharedTimestampMap = null;
+
+    /**
+     * Returns the per-pixel timestamp map that the FilterChain running this
+     * filter updates with each input packet before any filter runs. Filters
+     * that only need the last event time at each pixel can use it instead of
+     * keeping their own map; they must return true from
+     * {@link #usesSharedTimestampMap()}.
+     *
+     * @return the map, or null if there is none, e.g. in
+     * FilterChain.ProcessingMode.PIPELINED or when the filter is not in a
+     * chain
+     */
+    protected PixelTimestampMap getSharedTimestampMap() {
+        return sharedTimestampMap;
+    }
+
+    /**
+     * Subclasses that read {@link #getSharedTimestampMap()} return true while
+     * they use it, so that the FilterChain maintains the map.
+     *
+     * @return false by default
+     */
+    public boolean usesSharedTimestampMap() {
+        return false;
+    }
+
     /**
      * Subclasses should call this super initializer
      */
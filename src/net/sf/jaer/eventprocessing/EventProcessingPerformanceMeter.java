@@ -12,10 +12,19 @@
 
 package net.sf.jaer.eventprocessing;
 
+import java.lang.management.ManagementFactory;
+
 import net.sf.jaer.event.EventPacket;
 
 /**
  * Measures cost of event processing.
+ * <p>
+ * On JVMs that support per-thread allocation counting
+ * (com.sun.management.ThreadMXBean, e.g. HotSpot), the meter can also measure
+ * the bytes allocated by the measuring thread between start and stop, to find
+ * the stages that cause garbage collections. Allocation measurement is off by
+ * default because reading the counter costs about as much as a cheap filter;
+ * turn it on with {@link #setMeasureAllocation(boolean)}.
  
  * @author tobi
  */
@@ -32,6 +41,12 @@ public class EventProcessingPerformanceMeter {
     float thisNspe=0, nspeSum=0,nspeSq=0; // summary stats for ns per event
     EventFilter filter;
     String filterClassName;
+    long startAllocatedBytes, allocatedBytes=0, allocatedBytesSum=0, allocatedEventsSum=0;
+    int allocatedPacketsSum=0;
+    private boolean measureAllocation=false;
+    private boolean allocationMeasured=false; // true if the last start/stop measured allocation
+    private static final com.sun.management.ThreadMXBean threadMXBean=initThreadMXBean();
+    private static boolean allocationCountingEnabled=false;
     
     /** Creates a new instance of EventProcessingPerformanceMeter */
     public EventProcessingPerformanceMeter(EventFilter f) {
@@ -39,19 +54,90 @@ public class EventProcessingPerformanceMeter {
         filterClassName=f.getClass().getSimpleName();
     }
     
+    /** Creates a new instance of EventProcessingPerformanceMeter for a processing stage that is not an EventFilter,
+     * e.g. an EventExtractor2D
+     * @param name the name printed by toString
+     */
+    public EventProcessingPerformanceMeter(String name) {
+        this.filter=null;
+        filterClassName=name;
+    }
+    
+    private static com.sun.management.ThreadMXBean initThreadMXBean(){
+        try{
+            java.lang.management.ThreadMXBean b=ManagementFactory.getThreadMXBean();
+            if(b instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)b).isThreadAllocatedMemorySupported()){
+                return (com.sun.management.ThreadMXBean)b;
+            }
+        }catch(Throwable t){ // not a HotSpot JVM
+        }
+        return null;
+    }
+    
+    // turns on the JVM's counting on first use, so it costs nothing unless someone measures allocation
+    private static synchronized void enableAllocationCounting(){
+        if(threadMXBean==null || allocationCountingEnabled) return;
+        try{
+            threadMXBean.setThreadAllocatedMemoryEnabled(true);
+            allocationCountingEnabled=true;
+        }catch(UnsupportedOperationException | SecurityException e){
+        }
+    }
+    
+    private long currentThreadAllocatedBytes(){
+        return allocationMeasured? threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()): 0;
+    }
+    
+    /** Returns true if allocated bytes can be measured on this JVM
+     * @return true if supported
+     */
+    public static boolean isAllocationMeasurementSupported(){
+        return threadMXBean!=null;
+    }
+    
+    /** Returns true if this meter measures allocated bytes
+     * @return true if allocation measurement was turned on and is supported
+     */
+    public boolean isMeasureAllocation(){
+        return measureAllocation && allocationCountingEnabled;
+    }
+    
+    /** Turns measurement of the bytes allocated between start and stop on or off.
+     * Takes effect on the next start.
+     * @param measureAllocation true to measure; ignored if not supported by the JVM
+     */
+    public void setMeasureAllocation(boolean measureAllocation){
+        if(measureAllocation && !this.measureAllocation){
+            enableAllocationCounting();
+        }
+        this.measureAllocation=measureAllocation;
+    }
+    
     public void start(EventPacket packet){
         this.packet=packet;
         size=packet.getSize();
+        allocationMeasured=isMeasureAllocation();
+        startAllocatedBytes=currentThreadAllocatedBytes();
         startTimeNs=System.nanoTime();
     }
     
     public void start(int nEvents){
         size=nEvents;
+        allocationMeasured=isMeasureAllocation();
+        startAllocatedBytes=currentThreadAllocatedBytes();
         startTimeNs=System.nanoTime();
     }
     
     public void stop(){
         endTimeNs=System.nanoTime();
+        if(allocationMeasured){
+            allocatedBytes=currentThreadAllocatedBytes()-startAllocatedBytes;
+            allocatedBytesSum+=allocatedBytes;
+            allocatedEventsSum+=size;
+            allocatedPacketsSum++;
+        }else{
+            allocatedBytes=0;
+        }
         durationNs=endTimeNs-startTimeNs;
         thisNspe=size==0? 0: durationNs/size;
         nspeSum+=thisNspe;
@@ -86,7 +172,45 @@ public class EventProcessingPerformanceMeter {
         return std*SPNS;
     }
     
+    /** Returns true if the last start and stop measured allocated bytes
+     * @return true if measured
+     */
+    public boolean isAllocationMeasured(){
+        return allocationMeasured;
+    }
+    
+    /** Returns the bytes allocated by the measuring thread between the last start and stop
+     * @return bytes, or 0 if not measured
+     */
+    public long getAllocatedBytes(){
+        return allocatedBytes;
+    }
+    
+    /** Returns the bytes allocated per event between the last start and stop
+     * @return bytes per event
+     */
+    public float bytesPerEvent(){
+        return size==0? 0: (float)allocatedBytes/size;
+    }
+    
+    /** Returns the average bytes allocated per event since the statistics were reset
+     * @return bytes per event
+     */
+    public float avgBytesPerEvent(){
+        return allocatedEventsSum==0? 0: (float)allocatedBytesSum/allocatedEventsSum;
+    }
+    
+    /** Returns the average bytes allocated per packet (start and stop) since the statistics were reset
+     * @return bytes per packet
+     */
+    public float avgBytesPerPacket(){
+        return allocatedPacketsSum==0? 0: (float)allocatedBytesSum/allocatedPacketsSum;
+    }
+    
     public void resetStatistics(){
+        allocatedBytesSum = 0;
+        allocatedEventsSum = 0;
+        allocatedPacketsSum = 0;
         nSamples = 0;
         thisNspe = 0;
         nspeSum = 0;
@@ -109,6 +233,9 @@ public class EventProcessingPerformanceMeter {
                 NSPS*stdErrSecPerEvent(),
                 nSamples
                 );
+        if(allocationMeasured){
+            s+=String.format("%8.1f bytes/event, %10d bytes/packet allocated (Average %8.1f bytes/event, %10.0f bytes/packet), ", bytesPerEvent(), allocatedBytes, avgBytesPerEvent(), avgBytesPerPacket());
+        }
         return s;
     }
     
@@ -6,6 +6,7 @@ package net.sf.jaer.eventprocessing;
 import java.beans.PropertyChangeSupport;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
@@ -19,6 +20,7 @@ import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.event.ColumnarEventPacket;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.util.ClassChooserDialog;
 
@@ -68,6 +70,7 @@ public class FilterChain extends LinkedList<EventFilter2D> {
 
     private PropertyChangeSupport support = new PropertyChangeSupport(this);
     private boolean measurePerformanceEnabled = false;
+    private boolean measureAllocationEnabled;
     volatile private boolean resetPerformanceMeasurementStatistics = false; // flag to reset everyone on this cycle
     static final Logger log = Logger.getLogger("FilterChain");
     AEChip chip;
@@ -84,6 +87,18 @@ public class FilterChain extends LinkedList<EventFilter2D> {
     private int timeLimitMs;
 
     private boolean timedOut = false;
+    private final FilterMetricsRegistry metricsRegistry;
+
+    private boolean columnarProcessingEnabled;
+    /**
+     * Shared columnar view used by consecutive ColumnarEventFilter's
+     */
+    private ColumnarEventPacket columns = null;
+    /**
+     * Per-pixel timestamp map shared by the filters that use it; null if none
+     * does
+     */
+    private PixelTimestampMap sharedTimestampMap = null;
 
     /**
      * The updateIntervalMs is used by EventFilter2D's to ensure maximum update
@@ -113,12 +128,21 @@ public class FilterChain extends LinkedList<EventFilter2D> {
      * graphics this processing can cause threading problems, e.g. if the
      * annotation modifies the graphics buffer while the image is being
      * rendered.
+     * <p>
+     * PIPELINED processing is called from the rendering cycle like RENDERING,
+     * but each filter runs on its own worker thread, so that packet N+1 can be
+     * processed by one filter while packet N is processed by the next one. The
+     * output lags the input by up to the pipeline depth.
+     *
+     * @see FilterChainPipeline
      */
     public enum ProcessingMode {
 
-        RENDERING, ACQUISITION
+        RENDERING, ACQUISITION, PIPELINED
     };
     private ProcessingMode processingMode = ProcessingMode.RENDERING;
+    private FilterChainPipeline pipeline = null;
+    private int pipelineQueueDepth;
 
     /**
      * Creates a new instance of FilterChain. Use
@@ -134,6 +158,14 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         timeLimitEnabled = chip.getPrefs().getBoolean("FilterChain.timeLimitEnabled", false);
         timeLimitMs = chip.getPrefs().getInt("FilterChain.timeLimitMs", 10);
         updateIntervalMs = chip.getPrefs().getFloat("FilterChain.updateIntervalMs", 10);
+        columnarProcessingEnabled = chip.getPrefs().getBoolean("FilterChain.columnarProcessingEnabled", true);
+        pipelineQueueDepth = chip.getPrefs().getInt("FilterChain.pipelineQueueDepth", 4);
+        measureAllocationEnabled = chip.getPrefs().getBoolean("FilterChain.measureAllocationEnabled", false);
+        metricsRegistry = new FilterMetricsRegistry(chip.getClass().getSimpleName());
+        String metricsFile = chip.getPrefs().get("FilterChain.metricsExportFile", "");
+        metricsRegistry.setExportFile(metricsFile.isEmpty() ? null : new File(metricsFile));
+        metricsRegistry.setExportIntervalMs(chip.getPrefs().getLong("FilterChain.metricsExportIntervalMs", FilterMetricsRegistry.DEFAULT_EXPORT_INTERVAL_MS));
+        metricsRegistry.setJmxEnabled(chip.getPrefs().getBoolean("FilterChain.metricsJmxEnabled", false));
 
         setTimeLimitEnabled(timeLimitEnabled);
         setTimeLimitMs(timeLimitMs);
@@ -150,6 +182,9 @@ public class FilterChain extends LinkedList<EventFilter2D> {
      * resets all the filters
      */
     public void reset() {
+        if (sharedTimestampMap != null) {
+            sharedTimestampMap.reset();
+        }
         for (EventFilter2D f : this) {
             f.resetFilter();
         }
@@ -163,6 +198,8 @@ public class FilterChain extends LinkedList<EventFilter2D> {
      * @see EventFilter#cleanup()
      */
     public void cleanup() {
+        shutdownPipeline();
+        metricsRegistry.stop();
         for (EventFilter f : this) {
             f.cleanup();
         }
@@ -174,6 +211,11 @@ public class FilterChain extends LinkedList<EventFilter2D> {
      * timeLimitEnabled=true then the timeLimiter is started on the first
      * packet. Any subsequent input iterator for events will then timeout when
      * the time limit has been reached.
+     * <p>
+     * If columnarProcessingEnabled=true, then runs of consecutive enabled
+     * filters that implement {@link ColumnarEventFilter} share one
+     * {@link ColumnarEventPacket} that is gathered before the first of them and
+     * written back to the event objects after the last of them.
      *
      * @param in the input packet of events
      * @return the resulting output.
@@ -182,6 +224,15 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         if (!filteringEnabled || size() == 0) {
             return in;
         }
+        if (processingMode == ProcessingMode.PIPELINED && in != null) {
+            if (pipeline == null || !pipeline.matchesChain()) {
+                shutdownPipeline();
+                pipeline = new FilterChainPipeline(this, pipelineQueueDepth);
+            }
+            if (resetPerformanceMeasurementStatistics) {
+                pipeline.resetStatistics();
+            }
+        }
         EventPacket out;
         if (timeLimitEnabled) {
             if (chip.getAeViewer().isPaused()) {
@@ -199,30 +250,114 @@ public class FilterChain extends LinkedList<EventFilter2D> {
                     f.perf.resetStatistics();
                 }
             }
+            metricsRegistry.reset();
             log.info("compute performance statistics reset");
             resetPerformanceMeasurementStatistics = false;
         }
+        if (pipeline != null && processingMode == ProcessingMode.PIPELINED) {
+            in.setTimeLimitEnabled(false); // packets are timed per stage, not for whole chain
+            setSharedTimestampMap(null); // stages run concurrently on different packets
+            return pipeline.process(in);
+        }
+        updateSharedTimestampMap(in);
+        boolean columnsGathered = false;
         for (EventFilter2D f : this) {
             if (!f.isFilterEnabled() || in == null) {
                 continue;  // tobi added so that each filter doesn't need to check if enabled and non-null packet
             }
+            int nIn = 0;
             if (measurePerformanceEnabled) {
                 if (f.perf == null) {
                     f.perf = new EventProcessingPerformanceMeter(f);
                 }
+                nIn = in.getSizeNotFilteredOut();
+                f.perf.setMeasureAllocation(measureAllocationEnabled);
                 f.perf.start(in);
             }
-            out = f.filterPacket(in);
+            if (columnarProcessingEnabled && (f instanceof ColumnarEventFilter)) {
+                if (!columnsGathered) {
+                    if (columns == null) {
+                        columns = new ColumnarEventPacket();
+                    }
+                    columns.gather(in);
+                    columnsGathered = true;
+                }
+                ((ColumnarEventFilter) f).filterColumns(columns);
+                out = in;
+            } else {
+                if (columnsGathered) {
+                    columns.scatterFilteredOut();
+                    columnsGathered = false;
+                }
+                out = f.filterPacket(in);
+            }
             timedOut = in.isTimedOut();
             if (measurePerformanceEnabled && f.perf != null) {
                 f.perf.stop();
-                System.out.println(f.perf);
+                if (f.metrics == null) {
+                    f.metrics = metricsRegistry.metricsFor(f);
+                }
+                f.metrics.record(f.perf, nIn, out == null ? 0 : out.getSizeNotFilteredOut(), timedOut);
             }
             in = out;
         }
+        if (columnsGathered) {
+            columns.scatterFilteredOut();
+            columns.clear();
+        }
         return in;
     }
 
+    /**
+     * Adds the input packet to the shared timestamp map if an enabled filter
+     * uses it, (re)allocating the map if needed, and hands the map to the
+     * filters.
+     *
+     * @param in the input packet of the chain
+     */
+    private void updateSharedTimestampMap(EventPacket in) {
+        boolean used = false;
+        if (in != null) {
+            for (EventFilter2D f : this) {
+                if (f.isFilterEnabled() && f.usesSharedTimestampMap()) {
+                    used = true;
+                    break;
+                }
+            }
+        }
+        if (!used || chip.getSizeX() <= 0 || chip.getSizeY() <= 0) {
+            setSharedTimestampMap(null);
+            return;
+        }
+        PixelTimestampMap map = sharedTimestampMap;
+        if (map == null || map.getSizeX() != chip.getSizeX() || map.getSizeY() != chip.getSizeY()) {
+            map = new PixelTimestampMap(chip.getSizeX(), chip.getSizeY());
+        }
+        map.update(in);
+        setSharedTimestampMap(map);
+    }
+
+    private void setSharedTimestampMap(PixelTimestampMap map) {
+        if (map == null && sharedTimestampMap == null) {
+            return;
+        }
+        sharedTimestampMap = map;
+        for (EventFilter2D f : this) {
+            f.sharedTimestampMap = map;
+        }
+    }
+
+    /**
+     * Returns the per-pixel timestamp map that the chain updates with each
+     * input packet while an enabled filter uses it.
+     *
+     * @return the map, or null if no enabled filter uses it
+     * @see EventFilter2D#getSharedTimestampMap()
+     */
+    public PixelTimestampMap getSharedTimestampMap() {
+        return sharedTimestampMap;
+    }
+
     /**
      * @param filterClass the class to search for
      * @return the first filter with class filterClass, or null if there is none
@@ -310,6 +445,56 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         getSupport().firePropertyChange("processingmode", this.processingMode, processingMode);
         this.processingMode = processingMode;
         chip.getPrefs().put("FilterChain.processingMode", processingMode.toString());
+        if (processingMode != ProcessingMode.PIPELINED) {
+            shutdownPipeline();
+        }
+    }
+
+    /**
+     * Returns the pipeline used in PIPELINED processing mode, e.g. to obtain
+     * the per-stage queue depth and stall time.
+     *
+     * @return the pipeline, or null if it has not been started
+     * @see ProcessingMode#PIPELINED
+     */
+    public FilterChainPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Stops the workers of the PIPELINED processing mode, if they are running.
+     * They are started again by the next filterPacket.
+     */
+    synchronized public void shutdownPipeline() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+            pipeline = null;
+        }
+    }
+
+    /**
+     * Returns the capacity in packets of each stage queue in PIPELINED mode.
+     *
+     * @return the queue depth
+     */
+    public int getPipelineQueueDepth() {
+        return pipelineQueueDepth;
+    }
+
+    /**
+     * Sets the capacity in packets of each stage queue in PIPELINED mode.
+     * Deeper queues absorb bursts but add latency. The pipeline is restarted
+     * on the next packet.
+     *
+     * @param pipelineQueueDepth the queue depth, at least 1
+     */
+    synchronized public void setPipelineQueueDepth(int pipelineQueueDepth) {
+        if (pipelineQueueDepth < 1) {
+            pipelineQueueDepth = 1;
+        }
+        this.pipelineQueueDepth = pipelineQueueDepth;
+        chip.getPrefs().putInt("FilterChain.pipelineQueueDepth", pipelineQueueDepth);
+        shutdownPipeline();
     }
 
     /**
@@ -332,12 +517,111 @@ public class FilterChain extends LinkedList<EventFilter2D> {
         return any;
     }
 
+    /**
+     * Returns whether filters implementing ColumnarEventFilter are run on a
+     * shared ColumnarEventPacket.
+     *
+     * @return true if enabled
+     */
+    public boolean isColumnarProcessingEnabled() {
+        return columnarProcessingEnabled;
+    }
+
+    /**
+     * Enables/disables running filters that implement ColumnarEventFilter on
+     * a shared ColumnarEventPacket instead of calling their filterPacket.
+     *
+     * @param columnarProcessingEnabled true to enable
+     * @see ColumnarEventFilter
+     */
+    synchronized public void setColumnarProcessingEnabled(boolean columnarProcessingEnabled) {
+        this.columnarProcessingEnabled = columnarProcessingEnabled;
+        chip.getPrefs().putBoolean("FilterChain.columnarProcessingEnabled", columnarProcessingEnabled);
+    }
+
     public boolean isMeasurePerformanceEnabled() {
         return measurePerformanceEnabled;
     }
 
+    /**
+     * Enables measuring the cost of each filter. The measurements are held in
+     * the {@link #getMetricsRegistry() metrics registry}, which exports them
+     * periodically while measurement is enabled.
+     *
+     * @param measurePerformanceEnabled true to measure
+     */
     synchronized public void setMeasurePerformanceEnabled(boolean measurePerformanceEnabled) {
         this.measurePerformanceEnabled = measurePerformanceEnabled;
+        if (measurePerformanceEnabled) {
+            metricsRegistry.start();
+        } else {
+            metricsRegistry.stop();
+        }
+    }
+
+    public boolean isMeasureAllocationEnabled() {
+        return measureAllocationEnabled;
+    }
+
+    /**
+     * Enables measuring the bytes allocated by each filter while performance
+     * is measured, using the JVM's per-thread allocation counter. The bytes per
+     * event and per packet of each filter are shown in its FilterPanel and
+     * exported with the other metrics. Off by default because reading the
+     * counter adds its own cost to every filter invocation; has no effect on
+     * JVMs without per-thread allocation counting.
+     *
+     * @param measureAllocationEnabled true to measure
+     * @see EventProcessingPerformanceMeter#isAllocationMeasurementSupported()
+     */
+    synchronized public void setMeasureAllocationEnabled(boolean measureAllocationEnabled) {
+        if (measureAllocationEnabled && !EventProcessingPerformanceMeter.isAllocationMeasurementSupported()) {
+            log.warning("this JVM cannot count allocated bytes per thread; allocation will not be measured");
+        }
+        this.measureAllocationEnabled = measureAllocationEnabled;
+        chip.getPrefs().putBoolean("FilterChain.measureAllocationEnabled", measureAllocationEnabled);
+    }
+
+    /**
+     * Returns the registry of filter cost metrics of this chain
+     *
+     * @return the registry
+     */
+    public FilterMetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets the file that filter metrics are appended to as CSV while
+     * performance is measured.
+     *
+     * @param file the file, or null to log a summary instead
+     */
+    public void setMetricsExportFile(File file) {
+        metricsRegistry.setExportFile(file);
+        chip.getPrefs().put("FilterChain.metricsExportFile", file == null ? "" : file.getPath());
+    }
+
+    /**
+     * Sets the interval at which filter metrics are exported. Takes effect the
+     * next time performance measurement is enabled.
+     *
+     * @param intervalMs the interval in ms
+     */
+    public void setMetricsExportIntervalMs(long intervalMs) {
+        metricsRegistry.setExportIntervalMs(intervalMs);
+        chip.getPrefs().putLong("FilterChain.metricsExportIntervalMs", metricsRegistry.getExportIntervalMs());
+    }
+
+    /**
+     * Sets whether filter metrics are published as JMX MBeans while performance
+     * is measured.
+     *
+     * @param jmxEnabled true to publish
+     */
+    public void setMetricsJmxEnabled(boolean jmxEnabled) {
+        metricsRegistry.setJmxEnabled(jmxEnabled);
+        chip.getPrefs().putBoolean("FilterChain.metricsJmxEnabled", jmxEnabled);
     }
 
     /**
@@ -0,0 +1,536 @@
+package net.sf.jaer.eventprocessing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.logging.Logger;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import ml.options.Options;
+import ml.options.Options.Multiplicity;
+import ml.options.Options.Separator;
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.chip.EventExtractor2D;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.eventio.AEArchiveInputStream;
+import net.sf.jaer.eventio.AEDataFile;
+import net.sf.jaer.eventio.AEFileInputStream;
+import net.sf.jaer.eventio.AEFileOutputStream;
+import net.sf.jaer.eventio.AEOutputStream;
+import static net.sf.jaer.graphics.AEViewer.DEFAULT_CHIP_CLASS;
+import static net.sf.jaer.graphics.AEViewer.prefs;
+
+/**
+ * Runs a recorded AEDAT file through a chip's FilterChain without AEViewer,
+ * i.e. without rendering, frame rate throttling or the real-time packet time
+ * limit. Packets are read with AEFileInputStream, extracted by the chip's
+ * EventExtractor2D, filtered, reconstructed to raw events and written with
+ * AEFileOutputStream as fast as the filters allow. This is meant for
+ * reprocessing datasets offline.
+ * <p>
+ * The filters and their settings are the ones stored in the chip's
+ * Preferences, optionally after importing a filter settings XML file saved
+ * from the FilterFrame <i>File/Save settings</i> menu. Each filter is enabled
+ * or disabled according to its stored filterEnabled preference, as FilterFrame
+ * does on startup. Imported settings are undone with
+ * {@link ImportedFilterSettings#restore()} when the run ends, so a batch run
+ * does not change the settings that jAER uses.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java net.sf.jaer.eventprocessing.FilterChainBatchProcessor -aechip=eu.seebetter.ini.chips.davis.DAVIS240C -filters=filterSettings/denoise.xml input.aedat output.aedat
+ * </pre> See {@link #USAGE}. The script filter-chain-batch-processor.sh in
+ * the jAER root folder sets up the classpath. Constructing an AEChip still
+ * constructs its (never shown) ChipCanvas, so a display (or e.g. Xvfb) must
+ * be available.
+ */
+public class FilterChainBatchProcessor {
+
+    static final Logger log = Logger.getLogger("FilterChainBatchProcessor");
+    /**
+     * Default number of events read per packet
+     */
+    public static final int DEFAULT_PACKET_SIZE_EVENTS = 1 << 16;
+
+    public static final String USAGE = "java FilterChainBatchProcessor [-aechip=aechipclassname (fully qualified class name, e.g. eu.seebetter.ini.chips.davis.DAVIS240C)] "
+            + "[-filters=filterSettings.xml] [-numevents=65536] "
+            + "inputFile.aedat [outputfile.aedat]"
+            + "\n"
+            + "Note arguments values are assigned with =, not space"
+            + "\n"
+            + "If outputfile is not provided its name is generated from the input file with appended -filtered.aedat"
+            + "\n"
+            + "If -filters is not provided the filters and settings last used for this chip class are used";
+
+    private final AEChip chip;
+    private int packetSizeEvents = DEFAULT_PACKET_SIZE_EVENTS;
+    private long eventsIn = 0, eventsOut = 0, packetCount = 0, elapsedNs = 0;
+
+    /**
+     * Constructs a new processor for the FilterChain of the chip.
+     *
+     * @param chip the chip, which supplies the extractor and FilterChain
+     */
+    public FilterChainBatchProcessor(AEChip chip) {
+        this.chip = chip;
+    }
+
+    /**
+     * Imports a filter settings XML file into the user Preferences. This must
+     * be called before constructing the chip, since the chip constructs its
+     * FilterChain from the Preferences. The Preferences node that the file
+     * holds, e.g. the node of the chip, is saved first so that the settings
+     * can be restored after the run.
+     *
+     * @param f the XML file exported by FilterFrame
+     * @return the import, whose {@link ImportedFilterSettings#restore()}
+     * must be called when the run ends
+     * @throws IOException if the file cannot be read
+     * @throws InvalidPreferencesFormatException if the file is not a
+     * Preferences XML document
+     */
+    public static ImportedFilterSettings importFilterSettings(File f) throws IOException, InvalidPreferencesFormatException {
+        byte[] xml = Files.readAllBytes(f.toPath());
+        ImportedFilterSettings imported = new ImportedFilterSettings(getImportedNodePath(xml));
+        try {
+            Preferences.importPreferences(new ByteArrayInputStream(xml));
+        } catch (IOException | InvalidPreferencesFormatException | RuntimeException e) {
+            imported.restore(); // undo a partial import
+            throw e;
+        }
+        log.info("imported preferences from " + f + " into " + imported.path);
+        return imported;
+    }
+
+    /**
+     * Returns the path of the node that an exported XML document holds: the
+     * deepest node above which each node has no entries and a single child,
+     * e.g. the chip node for the XML that FilterFrame saves.
+     */
+    private static String getImportedNodePath(byte[] xml) throws IOException, InvalidPreferencesFormatException {
+        Element e;
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setValidating(false);
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            db.setEntityResolver(new EntityResolver() {
+                @Override
+                public InputSource resolveEntity(String publicId, String systemId) {
+                    return new InputSource(new StringReader("")); // don't fetch the preferences DTD
+                }
+            });
+            e = firstChild(db.parse(new ByteArrayInputStream(xml)).getDocumentElement(), "root");
+        } catch (ParserConfigurationException ex) {
+            throw new IOException(ex);
+        } catch (SAXException ex) {
+            throw new InvalidPreferencesFormatException(ex);
+        }
+        if ((e == null) || !"user".equals(e.getAttribute("type"))) {
+            throw new InvalidPreferencesFormatException("not a user Preferences document");
+        }
+        StringBuilder path = new StringBuilder();
+        while (true) {
+            Element map = firstChild(e, "map");
+            if ((map != null) && (firstChild(map, "entry") != null)) {
+                break;
+            }
+            Element child = firstChild(e, "node");
+            if ((child == null) || (nextSibling(child, "node") != null)) {
+                break;
+            }
+            path.append('/').append(child.getAttribute("name"));
+            e = child;
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+
+    private static Element firstChild(Element e, String name) {
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if ((n instanceof Element) && n.getNodeName().equals(name)) {
+                return (Element) n;
+            }
+        }
+        return null;
+    }
+
+    private static Element nextSibling(Element e, String name) {
+        for (Node n = e.getNextSibling(); n != null; n = n.getNextSibling()) {
+            if ((n instanceof Element) && n.getNodeName().equals(name)) {
+                return (Element) n;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The user Preferences as they were before
+     * {@link FilterChainBatchProcessor#importFilterSettings(java.io.File)}.
+     */
+    public static class ImportedFilterSettings {
+
+        private final String path;
+        private final byte[] saved; // exported subtree, or null if the node did not exist
+
+        private ImportedFilterSettings(String path) throws IOException {
+            this.path = path;
+            try {
+                if (Preferences.userRoot().nodeExists(path)) {
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    Preferences.userRoot().node(path).exportSubtree(bos);
+                    saved = bos.toByteArray();
+                } else {
+                    saved = null;
+                }
+            } catch (BackingStoreException e) {
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * Restores the node that was imported, with its children, to its
+         * state before the import, undoing the import and any settings the
+         * run changed under it.
+         */
+        public void restore() {
+            try {
+                if (path.equals("/")) {
+                    log.warning("settings were imported into the root node, cannot restore it");
+                    return;
+                }
+                if (Preferences.userRoot().nodeExists(path)) {
+                    Preferences.userRoot().node(path).removeNode();
+                }
+                if (saved != null) {
+                    Preferences.importPreferences(new ByteArrayInputStream(saved));
+                }
+                Preferences.userRoot().flush();
+                log.info("restored preferences of " + path);
+            } catch (Exception e) {
+                log.warning("could not restore preferences of " + path + ": " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Processes the whole input file through the enabled filters of the
+     * chip's FilterChain.
+     *
+     * @param input the AEDAT input file
+     * @param output the AEDAT output file, or null to only run the filters
+     * @throws IOException on error reading or writing
+     * @see #processRange
+     */
+    public void process(File input, File output) throws IOException {
+        AEFileInputStream ais = null;
+        AEFileOutputStream aos = null;
+        resetCounters();
+        long startNs = System.nanoTime();
+        try {
+            ais = openInputStream(input);
+            if (output != null) {
+                aos = new AEFileOutputStream(new FileOutputStream(output), chip, AEDataFile.DATA_FILE_VERSION_NUMBER);
+            }
+            processRange(ais, 0, 0, ais.size(), aos);
+        } finally {
+            elapsedNs = System.nanoTime() - startNs;
+            if (ais != null) {
+                ais.close();
+            }
+            if (aos != null) {
+                aos.close();
+            }
+        }
+        log.info(toString());
+    }
+
+    /**
+     * Opens the file for batch reading, i.e. without repeat and without
+     * exceptions on non-monotonic timestamps.
+     *
+     * @param input the AEDAT file
+     * @return the stream
+     * @throws IOException if the file cannot be opened
+     */
+    AEFileInputStream openInputStream(File input) throws IOException {
+        AEFileInputStream ais = AEArchiveInputStream.isArchiveFile(input) ? new AEArchiveInputStream(input, chip) : new AEFileInputStream(input, chip);
+        ais.setNonMonotonicTimeExceptionsChecked(false); // to avoid wrap and big wrap exceptions, possibly, in long recordings
+        ais.setRepeat(false);
+        return ais;
+    }
+
+    /**
+     * Processes the events from position start up to end (exclusive) of the
+     * stream and writes them to out. If warmupStart&lt;start, the events from
+     * warmupStart to start are first run through the filters to let their
+     * state converge, and their output is discarded.
+     * <p>
+     * The processing mode and time limit of the chain are temporarily set to
+     * RENDERING and disabled so that every event is processed and every output
+     * packet is written, and are restored afterwards.
+     *
+     * @param ais the input stream
+     * @param warmupStart the position in events to start filtering from
+     * @param start the position of the first event that is written
+     * @param end the position after the last event
+     * @param out the output stream, or null to only run the filters
+     * @throws IOException on error reading or writing
+     */
+    public void processRange(AEFileInputStream ais, long warmupStart, long start, long end, AEOutputStream out) throws IOException {
+        FilterChain filterChain = chip.getFilterChain();
+        for (EventFilter f : filterChain) {
+            f.setPreferredEnabledState();
+        }
+        boolean oldTimeLimitEnabled = filterChain.isTimeLimitEnabled();
+        FilterChain.ProcessingMode oldProcessingMode = filterChain.getProcessingMode();
+        filterChain.setTimeLimitEnabled(false);
+        if (oldProcessingMode == FilterChain.ProcessingMode.PIPELINED) {
+            filterChain.setProcessingMode(FilterChain.ProcessingMode.RENDERING); // the pipeline would hold back the last packets
+        }
+        try {
+            EventExtractor2D extractor = chip.getEventExtractor();
+            end = Math.min(end, ais.getMarkOutPosition()); // readEventForwards returns null at markOut when not repeating
+            ais.position(warmupStart);
+            while (ais.position() < end) {
+                long pos = ais.position();
+                boolean warmingUp = pos < start;
+                // packets end exactly at start and end, since reading past the end either rewinds or throws EOFException and loses the last packet
+                int n = (int) Math.min(packetSizeEvents, (warmingUp ? start : end) - pos);
+                AEPacketRaw raw;
+                try {
+                    raw = ais.readPacketByNumber(n);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (raw.getNumEvents() == 0) {
+                    break;
+                }
+                EventPacket cooked = extractor.extractPacket(raw);
+                EventPacket filtered = filterChain.filterPacket(cooked);
+                if (warmingUp) {
+                    continue;
+                }
+                eventsIn += raw.getNumEvents();
+                packetCount++;
+                if (out == null) {
+                    eventsOut += filtered.getSizeNotFilteredOut();
+                    continue;
+                }
+                AEPacketRaw outRaw = extractor.reconstructRawPacket(filtered);
+                if (outRaw == null) {
+                    log.warning("extractor " + extractor + " could not reconstruct raw packet from " + filtered + ", not writing it");
+                    continue;
+                }
+                out.writePacket(outRaw);
+                eventsOut += outRaw.getNumEvents();
+            }
+        } finally {
+            filterChain.setTimeLimitEnabled(oldTimeLimitEnabled);
+            if (filterChain.getProcessingMode() != oldProcessingMode) {
+                filterChain.setProcessingMode(oldProcessingMode);
+            }
+        }
+    }
+
+    /**
+     * Zeros the event, packet and time counters.
+     */
+    public void resetCounters() {
+        eventsIn = 0;
+        eventsOut = 0;
+        packetCount = 0;
+        elapsedNs = 0;
+    }
+
+    /**
+     * Returns the chip
+     *
+     * @return the chip
+     */
+    public AEChip getChip() {
+        return chip;
+    }
+
+    /**
+     * Returns the number of events read per packet
+     *
+     * @return the packet size in events
+     */
+    public int getPacketSizeEvents() {
+        return packetSizeEvents;
+    }
+
+    /**
+     * Sets the number of events read per packet. Larger packets amortize the
+     * per-packet filter overhead.
+     *
+     * @param packetSizeEvents the packet size in events, limited to
+     * AEFileInputStream.MAX_BUFFER_SIZE_EVENTS
+     */
+    public void setPacketSizeEvents(int packetSizeEvents) {
+        if (packetSizeEvents < 1) {
+            packetSizeEvents = 1;
+        } else if (packetSizeEvents > AEFileInputStream.MAX_BUFFER_SIZE_EVENTS) {
+            packetSizeEvents = AEFileInputStream.MAX_BUFFER_SIZE_EVENTS;
+        }
+        this.packetSizeEvents = packetSizeEvents;
+    }
+
+    /**
+     * Returns the number of events read since the counters were reset, not
+     * counting warm-up events
+     *
+     * @return the input event count
+     */
+    public long getEventsIn() {
+        return eventsIn;
+    }
+
+    /**
+     * Returns the number of events written (or passed by the filters, if there
+     * was no output file) since the counters were reset
+     *
+     * @return the output event count
+     */
+    public long getEventsOut() {
+        return eventsOut;
+    }
+
+    /**
+     * Returns the number of packets processed since the counters were reset
+     *
+     * @return the packet count
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * Returns the wall clock time of the last process call
+     *
+     * @return the time in ns
+     */
+    public long getElapsedNs() {
+        return elapsedNs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("FilterChainBatchProcessor: %d packets, %d events in, %d events out in %.3f s, %.2f Meps",
+                packetCount, eventsIn, eventsOut, elapsedNs * 1e-9, elapsedNs == 0 ? 0 : (1e3 * eventsIn) / elapsedNs);
+    }
+
+    public static void main(String[] args) {
+        Options opt = new Options(args, 1, 2);
+        opt.getSet().addOption("aechip", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("filters", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("numevents", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        if (!opt.check()) {
+            System.err.println(opt.getCheckErrors());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+        if (opt.getSet().getData().size() > 2) {
+            System.err.println("too many input/output file arguments (only one or two allowed)");
+            System.exit(1);
+        }
+
+        String inpfilename = opt.getSet().getData().get(0);
+        if (!(inpfilename.toLowerCase().endsWith("aedat"))) {
+            System.err.println("Warning: Input filename does not end with aedat: " + inpfilename);
+        }
+        File inpfile = new File(inpfilename);
+        String outfilename = null;
+        if (opt.getSet().getData().size() == 2) {
+            outfilename = opt.getSet().getData().get(1);
+        } else {
+            int i = inpfilename.toLowerCase().lastIndexOf(".aedat");
+            outfilename = (i > 0 ? inpfilename.substring(0, i) : inpfilename) + "-filtered.aedat";
+            System.out.println("Writing to output file " + outfilename);
+        }
+        File outfile = new File(outfilename);
+
+        ImportedFilterSettings importedSettings = null;
+        if (opt.getSet().isSet("filters")) {
+            File f = new File(opt.getSet().getOption("filters").getResultValue(0));
+            try {
+                importedSettings = importFilterSettings(f);
+            } catch (Exception e) {
+                System.err.println("Couldn't import filter settings from " + f + " : " + e.toString());
+                System.exit(1);
+            }
+        }
+        int status = run(opt, chipnameOf(opt), inpfile, outfile);
+        if (importedSettings != null) {
+            importedSettings.restore();
+        }
+        System.exit(status);
+    }
+
+    private static String chipnameOf(Options opt) {
+        String chipname = prefs.get("AEViewer.aeChipClassName", DEFAULT_CHIP_CLASS);
+        if (opt.getSet().isSet("aechip")) {
+            chipname = opt.getSet().getOption("aechip").getResultValue(0);
+        }
+        return chipname;
+    }
+
+    // processes the file and returns the exit status
+    private static int run(Options opt, String chipname, File inpfile, File outfile) {
+        AEChip chip = null;
+        try {
+            System.out.println("constructing AEChip " + chipname);
+            Class chipClass = Class.forName(chipname);
+            chip = (AEChip) chipClass.getConstructor().newInstance();
+        } catch (Exception ex) {
+            System.err.println("Could not construct instance of aechip=" + chipname + ": " + ex.toString());
+            return 1;
+        }
+
+        FilterChainBatchProcessor processor = new FilterChainBatchProcessor(chip);
+        if (opt.getSet().isSet("numevents")) {
+            try {
+                processor.setPacketSizeEvents(Integer.parseInt(opt.getSet().getOption("numevents").getResultValue(0)));
+            } catch (NumberFormatException e) {
+                System.err.println("Bad numevents argument: " + e.toString());
+                return 1;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder("Enabled filters:");
+        for (EventFilter2D f : chip.getFilterChain()) {
+            f.setPreferredEnabledState();
+            if (f.isFilterEnabled()) {
+                sb.append(" ").append(f.getClass().getSimpleName());
+            }
+        }
+        System.out.println(sb.toString());
+
+        try {
+            processor.process(inpfile, outfile);
+        } catch (IOException e) {
+            System.err.println("Couldn't process " + inpfile + " from working directory " + System.getProperty("user.dir") + " : " + e.toString());
+            return 1;
+        }
+        System.out.println(processor.toString());
+        chip.getFilterChain().cleanup();
+        return 0;
+    }
+}
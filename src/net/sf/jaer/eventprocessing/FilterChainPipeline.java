@@ -0,0 +1,434 @@
+package net.sf.jaer.eventprocessing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.event.OutputEventIterator;
+
+/**
+ * Runs the filters of a FilterChain as a pipeline, one worker thread per
+ * filter, for FilterChain.ProcessingMode.PIPELINED. Stages are connected by
+ * bounded queues, so packet N+1 can be in stage 1 while packet N is in stage
+ * 2. Each filter still sees every packet in order on a single thread, so
+ * filter state is consistent.
+ * <p>
+ * Filters reuse their output packets and extractors reuse theirs, so packets
+ * are copied into recycled packets where ownership passes between threads: on
+ * submission of the input packet, and after a stage whose filter returned a
+ * different packet than it was given. Filters that filter in place (by setting
+ * filteredOut) hand the same packet on without copying, and the packet that
+ * leaves the last stage is returned as it is, so events are copied once on the
+ * way through unless a filter makes its own output packet.
+ * <p>
+ * {@link #process(net.sf.jaer.event.EventPacket)} submits a packet and returns
+ * all packets that completed the pipeline since the last call, concatenated.
+ * The output therefore lags the input by up to the pipeline depth. If nothing
+ * completed, an empty packet is returned, so that no event is passed
+ * downstream twice.
+ * <p>
+ * Per-stage queue depth, busy time and stall time (time blocked on a full
+ * downstream queue) are available from {@link #getStages()}.
+ *
+ * @see FilterChain#setProcessingMode(net.sf.jaer.eventprocessing.FilterChain.ProcessingMode)
+ */
+public class FilterChainPipeline {
+
+    static final Logger log = Logger.getLogger("FilterChain");
+    private final FilterChain chain;
+    private final ArrayList<EventFilter2D> filters;
+    private final ArrayList<Stage> stages = new ArrayList<Stage>();
+    private final ArrayBlockingQueue<EventPacket<?>> output;
+    private final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<? extends BasicEvent>, ConcurrentLinkedQueue<EventPacket<?>>>> pool
+            = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<? extends BasicEvent>, ConcurrentLinkedQueue<EventPacket<?>>>>();
+    private EventPacket<?> result = null; // the last returned packet if it came from the pipeline, recycled on the next call
+    private EventPacket<?> empty = null;
+    private volatile boolean running = true;
+    private long submitStallNs = 0;
+    private long submittedCount = 0;
+
+    /**
+     * Constructs the pipeline and starts one worker per filter in the chain.
+     *
+     * @param chain the chain whose filters form the stages
+     * @param queueDepth the capacity in packets of each stage's input queue
+     */
+    public FilterChainPipeline(FilterChain chain, int queueDepth) {
+        this.chain = chain;
+        this.filters = new ArrayList<EventFilter2D>(chain);
+        output = new ArrayBlockingQueue<EventPacket<?>>(queueDepth);
+        for (int i = 0; i < filters.size(); i++) {
+            stages.add(new Stage(i, filters.get(i), queueDepth));
+        }
+        for (int i = 0; i < stages.size(); i++) {
+            stages.get(i).next = i < stages.size() - 1 ? stages.get(i + 1).input : output;
+            stages.get(i).start();
+        }
+        log.info("started " + this);
+    }
+
+    /**
+     * Returns true if this pipeline was built from the same filters, in the
+     * same order, as the chain now holds.
+     *
+     * @return true if pipeline matches chain
+     */
+    boolean matchesChain() {
+        if (filters.size() != chain.size()) {
+            return false;
+        }
+        int i = 0;
+        for (EventFilter2D f : chain) {
+            if (f != filters.get(i++)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Submits a copy of the packet to the first stage, blocking if its queue
+     * is full, and returns the packets that completed the pipeline since the
+     * last call.
+     *
+     * @param in the input packet, which may be reused by the caller after
+     * return
+     * @return the concatenated completed packets, or an empty packet if none
+     * completed. The returned packet is owned by the pipeline and is valid
+     * until the next call.
+     */
+    public EventPacket<?> process(EventPacket<?> in) {
+        if (stages.isEmpty()) {
+            return in;
+        }
+        if (result != null) {
+            recycle(result); // the caller is done with it
+            result = null;
+        }
+        EventPacket<?> copy = obtain(in);
+        copyInto(copy, in);
+        long startNs = System.nanoTime();
+        try {
+            stages.get(0).input.put(copy);
+        } catch (InterruptedException e) {
+            recycle(copy);
+            return getEmpty(in);
+        }
+        submitStallNs += System.nanoTime() - startNs;
+        submittedCount++;
+
+        EventPacket<?> p = output.poll();
+        if (p == null) {
+            return getEmpty(in);
+        }
+        // return the first completed packet itself and append any others to it
+        result = p;
+        while ((p = output.poll()) != null) {
+            appendCopy(result, p);
+            result.systemModificationTimeNs = p.systemModificationTimeNs;
+            result.setRawPacket(p.getRawPacket());
+            recycle(p);
+        }
+        return result;
+    }
+
+    private EventPacket<?> getEmpty(EventPacket<?> template) {
+        if ((empty == null) || (empty.getClass() != template.getClass()) || (empty.getEventClass() != template.getEventClass())) {
+            empty = template.constructNewPacket();
+        }
+        empty.outputIterator(); // resets empty
+        return empty;
+    }
+
+    /**
+     * Stops all workers. Packets in flight are discarded.
+     */
+    public void shutdown() {
+        running = false;
+        for (Stage s : stages) {
+            s.interrupt();
+        }
+        for (Stage s : stages) {
+            try {
+                s.join(1000);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        log.info("shut down " + this);
+    }
+
+    /**
+     * Returns the pipeline stages, one per filter, in chain order.
+     *
+     * @return the stages
+     */
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * Returns the total time in ns that the caller of process was blocked
+     * because the first stage queue was full.
+     *
+     * @return stall time in ns
+     */
+    public long getSubmitStallNs() {
+        return submitStallNs;
+    }
+
+    /**
+     * Returns the number of packets submitted.
+     *
+     * @return packet count
+     */
+    public long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    /**
+     * Resets the statistics of all stages.
+     */
+    public void resetStatistics() {
+        submitStallNs = 0;
+        submittedCount = 0;
+        for (Stage s : stages) {
+            s.resetStatistics();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("FilterChainPipeline with %d stages, %d packets submitted, submit stall %.1f ms",
+                stages.size(), submittedCount, submitStallNs * 1e-6f));
+        for (Stage s : stages) {
+            sb.append("\n    ").append(s.toString());
+        }
+        return sb.toString();
+    }
+
+    private EventPacket<?> obtain(EventPacket<?> template) {
+        ConcurrentLinkedQueue<EventPacket<?>> q = freeQueue(template);
+        EventPacket<?> p = q.poll();
+        if (p == null) {
+            p = template.constructNewPacket();
+        }
+        p.setTimeLimitEnabled(false);
+        return p;
+    }
+
+    private void recycle(EventPacket<?> p) {
+        freeQueue(p).offer(p);
+    }
+
+    private ConcurrentLinkedQueue<EventPacket<?>> freeQueue(EventPacket<?> p) {
+        ConcurrentHashMap<Class<? extends BasicEvent>, ConcurrentLinkedQueue<EventPacket<?>>> m = pool.get(p.getClass());
+        if (m == null) {
+            pool.putIfAbsent(p.getClass(), new ConcurrentHashMap<Class<? extends BasicEvent>, ConcurrentLinkedQueue<EventPacket<?>>>());
+            m = pool.get(p.getClass());
+        }
+        ConcurrentLinkedQueue<EventPacket<?>> q = m.get(p.getEventClass());
+        if (q == null) {
+            m.putIfAbsent(p.getEventClass(), new ConcurrentLinkedQueue<EventPacket<?>>());
+            q = m.get(p.getEventClass());
+        }
+        return q;
+    }
+
+    private void copyInto(EventPacket<?> dest, EventPacket<?> src) {
+        dest.outputIterator(); // resets dest
+        appendCopy(dest, src);
+        dest.systemModificationTimeNs = src.systemModificationTimeNs;
+        dest.setRawPacket(src.getRawPacket());
+    }
+
+    /**
+     * Appends copies of all events in src, including filteredOut ones and
+     * e.g. APS samples, to dest. copyFrom also copies the filteredOut flag.
+     */
+    private void appendCopy(EventPacket<?> dest, EventPacket<?> src) {
+        OutputEventIterator<?> itr = dest.getOutputIterator(); // appends after the last event
+        BasicEvent[] data = src.getElementData();
+        int n = src.getSize();
+        for (int i = 0; i < n; i++) {
+            itr.nextOutput().copyFrom(data[i]);
+        }
+    }
+
+    /**
+     * One filter running on its own worker thread.
+     */
+    public class Stage extends Thread {
+
+        private final int index;
+        private final EventFilter2D filter;
+        private final ArrayBlockingQueue<EventPacket<?>> input;
+        private ArrayBlockingQueue<EventPacket<?>> next;
+        private volatile long processedCount = 0, busyNs = 0, stallNs = 0, copiedCount = 0;
+
+        Stage(int index, EventFilter2D filter, int queueDepth) {
+            super("FilterChain stage " + index + ": " + filter.getClass().getSimpleName());
+            setDaemon(true);
+            this.index = index;
+            this.filter = filter;
+            this.input = new ArrayBlockingQueue<EventPacket<?>>(queueDepth);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                EventPacket<?> in;
+                try {
+                    in = input.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                long startNs = System.nanoTime();
+                EventPacket<?> out = in;
+                if (filter.isFilterEnabled()) {
+                    boolean measure = chain.isMeasurePerformanceEnabled();
+                    int nIn = 0;
+                    if (measure) {
+                        if (filter.perf == null) {
+                            filter.perf = new EventProcessingPerformanceMeter(filter);
+                        }
+                        nIn = in.getSizeNotFilteredOut();
+                        filter.perf.setMeasureAllocation(chain.isMeasureAllocationEnabled());
+                        filter.perf.start(in);
+                    }
+                    try {
+                        out = filter.filterPacket(in);
+                    } catch (Exception e) {
+                        log.log(Level.WARNING, "Caught " + e + " in " + getName() + ", disabling filter", e);
+                        filter.setFilterEnabled(false);
+                        out = in;
+                    }
+                    if (measure && (filter.perf != null)) {
+                        filter.perf.stop();
+                        if (filter.metrics == null) {
+                            filter.metrics = chain.getMetricsRegistry().metricsFor(filter);
+                        }
+                        filter.metrics.record(filter.perf, nIn, out == null ? 0 : out.getSizeNotFilteredOut(), false);
+                    }
+                }
+                if (out == null) {
+                    recycle(in);
+                    continue;
+                }
+                if (out != in) {
+                    // the filter owns out and will reuse it, so pass on a copy
+                    EventPacket<?> copy = obtain(out);
+                    copyInto(copy, out);
+                    recycle(in);
+                    out = copy;
+                    copiedCount++;
+                }
+                long endNs = System.nanoTime();
+                busyNs += endNs - startNs;
+                try {
+                    next.put(out);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                stallNs += System.nanoTime() - endNs;
+                processedCount++;
+            }
+        }
+
+        /**
+         * Returns the stage position in the chain
+         *
+         * @return the index, 0 for first filter
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the filter of this stage
+         *
+         * @return the filter
+         */
+        public EventFilter2D getFilter() {
+            return filter;
+        }
+
+        /**
+         * Returns the number of packets waiting in the input queue of this
+         * stage
+         *
+         * @return the queue depth in packets
+         */
+        public int getQueueDepth() {
+            return input.size();
+        }
+
+        /**
+         * Returns the capacity of the input queue of this stage
+         *
+         * @return the capacity in packets
+         */
+        public int getQueueCapacity() {
+            return input.size() + input.remainingCapacity();
+        }
+
+        /**
+         * Returns the total time in ns this stage was blocked because the
+         * next stage's queue was full.
+         *
+         * @return the stall time in ns
+         */
+        public long getStallNs() {
+            return stallNs;
+        }
+
+        /**
+         * Returns the total time in ns this stage spent filtering and copying.
+         *
+         * @return the busy time in ns
+         */
+        public long getBusyNs() {
+            return busyNs;
+        }
+
+        /**
+         * Returns the number of packets this stage has passed on.
+         *
+         * @return the packet count
+         */
+        public long getProcessedCount() {
+            return processedCount;
+        }
+
+        /**
+         * Returns the number of packets that had to be copied because the
+         * filter returned its own output packet.
+         *
+         * @return the copy count
+         */
+        public long getCopiedCount() {
+            return copiedCount;
+        }
+
+        void resetStatistics() {
+            processedCount = 0;
+            busyNs = 0;
+            stallNs = 0;
+            copiedCount = 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("stage %d %s: queue %d/%d, %d packets (%d copied), busy %.1f ms, stalled %.1f ms",
+                    index, filter.getClass().getSimpleName(), getQueueDepth(), getQueueCapacity(), processedCount, copiedCount,
+                    busyNs * 1e-6f, stallNs * 1e-6f);
+        }
+    }
+}
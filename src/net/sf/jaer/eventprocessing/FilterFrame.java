@@ -26,6 +26,7 @@ import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.KeyStroke;
+import javax.swing.Timer;
 import javax.swing.border.Border;
 import javax.swing.border.LineBorder;
 import javax.swing.border.TitledBorder;
@@ -62,6 +63,7 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
      */
     public static final String LAST_FILTER_SELECTED_KEY = "FilterFrame.lastFilterSelected";
     private JButton resetStatisticsButton = null;
+    private Timer performanceDisplayTimer = null; // refreshes the filter panels' allocation figures while measuring
     private Border selectedBorder = new LineBorder(Color.red);
 
     /**
@@ -98,11 +100,15 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
             case ACQUISITION:
                 acquisitionModeMenuItem.setSelected(true);
                 break;
+            case PIPELINED:
+                pipelinedModeMenuItem.setSelected(true);
+                break;
             default:
 
         }
         if (filterChain != null) {
             filterChain.setMeasurePerformanceEnabled(measurePerformanceCheckBoxMenuItem.isSelected());
+            measureAllocationCheckBoxMenuItem.setSelected(filterChain.isMeasureAllocationEnabled());
         }
         // recent files tracks recently used files *and* folders. recentFiles adds the anonymous listener
         // built here to open the selected file
@@ -206,8 +212,10 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
         modeMenu = new javax.swing.JMenu();
         renderingModeMenuItem = new javax.swing.JRadioButtonMenuItem();
         acquisitionModeMenuItem = new javax.swing.JRadioButtonMenuItem();
+        pipelinedModeMenuItem = new javax.swing.JRadioButtonMenuItem();
         jSeparator1 = new javax.swing.JSeparator();
         measurePerformanceCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
+        measureAllocationCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
         resetPerformanceMeasurementMI = new javax.swing.JMenuItem();
         jSeparator3 = new javax.swing.JSeparator();
         limitTimeCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
@@ -413,11 +421,22 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
             }
         });
         modeMenu.add(acquisitionModeMenuItem);
+
+        modeButtonGroup.add(pipelinedModeMenuItem);
+        pipelinedModeMenuItem.setMnemonic('l');
+        pipelinedModeMenuItem.setText("Process pipelined on rendering cycle");
+        pipelinedModeMenuItem.setToolTipText("Process events on rendering cycle with each filter on its own thread, so that successive packets are processed concurrently by successive filters");
+        pipelinedModeMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                pipelinedModeMenuItemActionPerformed(evt);
+            }
+        });
+        modeMenu.add(pipelinedModeMenuItem);
         modeMenu.add(jSeparator1);
 
         measurePerformanceCheckBoxMenuItem.setMnemonic('p');
         measurePerformanceCheckBoxMenuItem.setText("Measure filter processing time");
-        measurePerformanceCheckBoxMenuItem.setToolTipText("Enables instrumentation of filter performance. Filter processing time statistics are printed to System.out. They appear in netbeans IDE console, for example, but not in built-in jAER console, which does not show System.out.");
+        measurePerformanceCheckBoxMenuItem.setToolTipText("Enables instrumentation of filter performance. Filter latency, ns/event, event counts and timeouts are collected per filter and periodically logged, appended as CSV to the FilterChain.metricsExportFile, or published as JMX MBeans.");
         measurePerformanceCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
             public void actionPerformed(java.awt.event.ActionEvent evt) {
                 measurePerformanceCheckBoxMenuItemActionPerformed(evt);
@@ -425,6 +444,15 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
         });
         modeMenu.add(measurePerformanceCheckBoxMenuItem);
 
+        measureAllocationCheckBoxMenuItem.setText("Measure filter allocations");
+        measureAllocationCheckBoxMenuItem.setToolTipText("<html>While filter processing time is measured, also measures the bytes allocated by each filter with the JVM's per-thread allocation counter.<br>Bytes per event and per packet are shown in each filter panel and added to the filter metrics.<br>Use it to find the filters that cause garbage collection pauses; it adds some cost to each filter.");
+        measureAllocationCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                measureAllocationCheckBoxMenuItemActionPerformed(evt);
+            }
+        });
+        modeMenu.add(measureAllocationCheckBoxMenuItem);
+
         resetPerformanceMeasurementMI.setMnemonic('s');
         resetPerformanceMeasurementMI.setText("Reset performance measurement statistics");
         resetPerformanceMeasurementMI.setToolTipText("Resets the statsitics after next processing cycle");
@@ -575,8 +603,38 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
                 toolBar1.remove(resetStatisticsButton);
                 validate();
             }
+            setPerformanceDisplayTimerRunning(measurePerformanceCheckBoxMenuItem.isSelected());
 	}//GEN-LAST:event_measurePerformanceCheckBoxMenuItemActionPerformed
 
+	private void measureAllocationCheckBoxMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_measureAllocationCheckBoxMenuItemActionPerformed
+            filterChain.setMeasureAllocationEnabled(measureAllocationCheckBoxMenuItem.isSelected());
+            filterChain.resetResetPerformanceMeasurementStatistics(); // don't average over packets that were not measured
+	}//GEN-LAST:event_measureAllocationCheckBoxMenuItemActionPerformed
+
+    // starts or stops the periodic update of the filter panels' performance figures
+    private void setPerformanceDisplayTimerRunning(boolean yes) {
+        if (yes) {
+            if (performanceDisplayTimer == null) {
+                performanceDisplayTimer = new Timer(1000, new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        for (FilterPanel p : filterPanels) {
+                            p.updatePerformanceDisplay();
+                        }
+                    }
+                });
+            }
+            performanceDisplayTimer.start();
+        } else {
+            if (performanceDisplayTimer != null) {
+                performanceDisplayTimer.stop();
+            }
+            for (FilterPanel p : filterPanels) {
+                p.updatePerformanceDisplay();
+            }
+        }
+    }
+
 	private void acquisitionModeMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_acquisitionModeMenuItemActionPerformed
             filterChain.setProcessingMode(FilterChain.ProcessingMode.ACQUISITION);
 	}//GEN-LAST:event_acquisitionModeMenuItemActionPerformed
@@ -585,6 +643,10 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
             filterChain.setProcessingMode(FilterChain.ProcessingMode.RENDERING);
 	}//GEN-LAST:event_renderingModeMenuItemActionPerformed
 
+	private void pipelinedModeMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_pipelinedModeMenuItemActionPerformed
+            filterChain.setProcessingMode(FilterChain.ProcessingMode.PIPELINED);
+	}//GEN-LAST:event_pipelinedModeMenuItemActionPerformed
+
     /**
      * renews contents by newing all filters, thus filling them with preference
      * values. This is how preferences can replace values without using
@@ -857,6 +919,8 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
                 acquisitionModeMenuItem.setSelected(true);
             } else if (evt.getNewValue() == FilterChain.ProcessingMode.RENDERING) {
                 renderingModeMenuItem.setSelected(true);
+            } else if (evt.getNewValue() == FilterChain.ProcessingMode.PIPELINED) {
+                pipelinedModeMenuItem.setSelected(true);
             }
         }
     }
@@ -960,10 +1024,12 @@ public class FilterFrame<PanelType extends FilterPanel> extends javax.swing.JFra
     private javax.swing.JCheckBoxMenuItem limitTimeCheckBoxMenuItem;
     private javax.swing.JMenuItem loadMenuItem;
     private javax.swing.JMenuBar mainMenuBar;
+    private javax.swing.JCheckBoxMenuItem measureAllocationCheckBoxMenuItem;
     private javax.swing.JCheckBoxMenuItem measurePerformanceCheckBoxMenuItem;
     private javax.swing.ButtonGroup modeButtonGroup;
     private javax.swing.JMenu modeMenu;
     private javax.swing.JButton overviewButton;
+    private javax.swing.JRadioButtonMenuItem pipelinedModeMenuItem;
     private javax.swing.JRadioButtonMenuItem renderingModeMenuItem;
     private javax.swing.JButton resetAllButton;
     private javax.swing.JMenuItem resetPerformanceMeasurementMI;
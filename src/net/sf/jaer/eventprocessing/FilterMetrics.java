@@ -0,0 +1,245 @@
+package net.sf.jaer.eventprocessing;
+
+/**
+ * Accumulated cost metrics of one processing stage, normally an EventFilter in
+ * a FilterChain: histograms of packet latency, ns per event and packet size,
+ * and counts of packets, events in and out, time-limiter timeouts and, when
+ * allocation is measured, allocated bytes per event and per packet. Obtained from a {@link FilterMetricsRegistry}.
+ * <p>
+ * Each FilterMetrics is recorded by one thread at a time (the thread that
+ * runs its filter) and can be read by any thread.
+ */
+public class FilterMetrics implements FilterMetricsMBean {
+
+    private final String name;
+    private final LogLinearHistogram latencyNs = new LogLinearHistogram();
+    private final LogLinearHistogram nsPerEvent = new LogLinearHistogram();
+    private final LogLinearHistogram packetSize = new LogLinearHistogram();
+    private final LogLinearHistogram bytesPerPacket = new LogLinearHistogram();
+    private volatile long packetCount = 0, eventsIn = 0, eventsOut = 0, timeoutCount = 0, allocatedBytes = 0, allocatedEvents = 0;
+    private volatile boolean resetPending = false;
+
+    FilterMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records the processing of one packet.
+     *
+     * @param durationNs the processing time in ns
+     * @param nIn the number of events in the input packet, not counting
+     * filtered out events
+     * @param nOut the number of events in the output packet, not counting
+     * filtered out events
+     * @param timedOut true if the packet time limiter timed out
+     * @param allocated the bytes allocated during processing, negative if not
+     * measured
+     */
+    public void record(long durationNs, int nIn, int nOut, boolean timedOut, long allocated) {
+        if (resetPending) {
+            clear();
+        }
+        latencyNs.record(durationNs);
+        if (nIn > 0) {
+            nsPerEvent.record(durationNs / nIn);
+        }
+        packetSize.record(nIn);
+        eventsIn += nIn;
+        eventsOut += nOut;
+        if (timedOut) {
+            timeoutCount++;
+        }
+        if (allocated >= 0) {
+            bytesPerPacket.record(allocated);
+            allocatedBytes += allocated;
+            allocatedEvents += nIn;
+        }
+        packetCount++;
+    }
+
+    /**
+     * Records the processing of one packet measured by a performance meter.
+     *
+     * @param perf the meter, after stop()
+     * @param nIn the number of events in the input packet, not counting
+     * filtered out events
+     * @param nOut the number of events in the output packet
+     * @param timedOut true if the packet time limiter timed out
+     */
+    public void record(EventProcessingPerformanceMeter perf, int nIn, int nOut, boolean timedOut) {
+        record(perf.durationNs, nIn, nOut, timedOut, perf.isAllocationMeasured() ? perf.getAllocatedBytes() : -1);
+    }
+
+    private void clear() {
+        latencyNs.reset();
+        nsPerEvent.reset();
+        packetSize.reset();
+        bytesPerPacket.reset();
+        packetCount = 0;
+        eventsIn = 0;
+        eventsOut = 0;
+        timeoutCount = 0;
+        allocatedBytes = 0;
+        allocatedEvents = 0;
+        resetPending = false;
+    }
+
+    /**
+     * Resets the metrics. The histograms are cleared by the recording thread
+     * on the next packet.
+     */
+    @Override
+    public void reset() {
+        resetPending = true;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    @Override
+    public long getEventsIn() {
+        return eventsIn;
+    }
+
+    @Override
+    public long getEventsOut() {
+        return eventsOut;
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    @Override
+    public double getLatencyMeanUs() {
+        return latencyNs.getMean() * 1e-3;
+    }
+
+    @Override
+    public double getLatencyP50Us() {
+        return latencyNs.getValueAtPercentile(50) * 1e-3;
+    }
+
+    @Override
+    public double getLatencyP99Us() {
+        return latencyNs.getValueAtPercentile(99) * 1e-3;
+    }
+
+    @Override
+    public double getLatencyMaxUs() {
+        return latencyNs.getMax() * 1e-3;
+    }
+
+    @Override
+    public double getNsPerEventMean() {
+        final long n = eventsIn;
+        return n == 0 ? 0 : (latencyNs.getMean() * latencyNs.getCount()) / n;
+    }
+
+    @Override
+    public double getNsPerEventP99() {
+        return nsPerEvent.getValueAtPercentile(99);
+    }
+
+    @Override
+    public double getPacketSizeMean() {
+        return packetSize.getMean();
+    }
+
+    @Override
+    public long getPacketSizeMax() {
+        return packetSize.getMax();
+    }
+
+    @Override
+    public double getAllocatedBytesPerEvent() {
+        final long n = allocatedEvents;
+        return n == 0 ? 0 : (double) allocatedBytes / n;
+    }
+
+    @Override
+    public double getAllocatedBytesPerPacketMean() {
+        return bytesPerPacket.getMean();
+    }
+
+    @Override
+    public long getAllocatedBytesPerPacketMax() {
+        return bytesPerPacket.getMax();
+    }
+
+    /**
+     * @return true if allocation was measured for any packet since the last
+     * reset
+     */
+    public boolean isAllocationMeasured() {
+        return bytesPerPacket.getCount() > 0;
+    }
+
+    /**
+     * @return the latency histogram in ns
+     */
+    public LogLinearHistogram getLatencyHistogram() {
+        return latencyNs;
+    }
+
+    /**
+     * @return the histogram of ns per event of each packet
+     */
+    public LogLinearHistogram getNsPerEventHistogram() {
+        return nsPerEvent;
+    }
+
+    /**
+     * @return the histogram of input packet sizes in events
+     */
+    public LogLinearHistogram getPacketSizeHistogram() {
+        return packetSize;
+    }
+
+    /**
+     * @return the histogram of bytes allocated per packet, empty unless
+     * allocation is measured
+     */
+    public LogLinearHistogram getAllocatedBytesPerPacketHistogram() {
+        return bytesPerPacket;
+    }
+
+    /**
+     * Returns the column names of {@link #toCsv()}
+     *
+     * @return the header line
+     */
+    public static String csvHeader() {
+        return "name,packets,eventsIn,eventsOut,timeouts,latencyMeanUs,latencyP50Us,latencyP99Us,latencyMaxUs,nsPerEventMean,nsPerEventP99,packetSizeMean,packetSizeMax,bytesPerEvent,bytesPerPacketMean,bytesPerPacketMax";
+    }
+
+    /**
+     * Returns the metrics as comma separated values
+     *
+     * @return the line, without line terminator
+     */
+    public String toCsv() {
+        return String.format("%s,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f,%.1f,%d,%.2f,%.1f,%d", name, packetCount, eventsIn, eventsOut, timeoutCount,
+                getLatencyMeanUs(), getLatencyP50Us(), getLatencyP99Us(), getLatencyMaxUs(), getNsPerEventMean(), getNsPerEventP99(),
+                getPacketSizeMean(), getPacketSizeMax(), getAllocatedBytesPerEvent(), getAllocatedBytesPerPacketMean(), getAllocatedBytesPerPacketMax());
+    }
+
+    @Override
+    public String toString() {
+        String s = String.format("%s: %d packets, %d/%d events in/out, %d timeouts, latency mean %.1f p50 %.1f p99 %.1f max %.1f us, %.1f ns/event (p99 %.1f), packet size mean %.0f max %d",
+                name, packetCount, eventsIn, eventsOut, timeoutCount, getLatencyMeanUs(), getLatencyP50Us(), getLatencyP99Us(), getLatencyMaxUs(),
+                getNsPerEventMean(), getNsPerEventP99(), getPacketSizeMean(), getPacketSizeMax());
+        if (isAllocationMeasured()) {
+            s += String.format(", allocated %.1f bytes/event, %.0f bytes/packet (max %d)", getAllocatedBytesPerEvent(), getAllocatedBytesPerPacketMean(), getAllocatedBytesPerPacketMax());
+        }
+        return s;
+    }
+}
@@ -0,0 +1,42 @@
+package net.sf.jaer.eventprocessing;
+
+/**
+ * JMX management interface of {@link FilterMetrics}, so that filter cost can be
+ * watched with jconsole or any other JMX client.
+ */
+public interface FilterMetricsMBean {
+
+    public String getName();
+
+    public long getPacketCount();
+
+    public long getEventsIn();
+
+    public long getEventsOut();
+
+    public long getTimeoutCount();
+
+    public double getLatencyMeanUs();
+
+    public double getLatencyP50Us();
+
+    public double getLatencyP99Us();
+
+    public double getLatencyMaxUs();
+
+    public double getNsPerEventMean();
+
+    public double getNsPerEventP99();
+
+    public double getPacketSizeMean();
+
+    public long getPacketSizeMax();
+
+    public double getAllocatedBytesPerEvent();
+
+    public double getAllocatedBytesPerPacketMean();
+
+    public long getAllocatedBytesPerPacketMax();
+
+    public void reset();
+}
@@ -0,0 +1,262 @@
+package net.sf.jaer.eventprocessing;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the {@link FilterMetrics} of the filters of a FilterChain (and of other
+ * processing stages such as event extractors) and exports them periodically,
+ * instead of printing every measurement to the console.
+ * <p>
+ * While started, the registry appends one CSV line per stage to the export
+ * file every export interval. If JMX export is enabled, each FilterMetrics is
+ * also registered as an MBean named
+ * <code>net.sf.jaer:type=FilterMetrics,chip=...,name=...</code>. If neither is
+ * configured, a summary is logged every interval.
+ *
+ * @see FilterChain#setMeasurePerformanceEnabled(boolean)
+ */
+public class FilterMetricsRegistry {
+
+    static final Logger log = Logger.getLogger("FilterChain");
+    /** Default export interval in ms */
+    public static final long DEFAULT_EXPORT_INTERVAL_MS = 10000;
+    private final String chipName;
+    private final IdentityHashMap<Object, FilterMetrics> byOwner = new IdentityHashMap<Object, FilterMetrics>();
+    private final CopyOnWriteArrayList<FilterMetrics> metrics = new CopyOnWriteArrayList<FilterMetrics>();
+    private final IdentityHashMap<FilterMetrics, ObjectName> mbeanNames = new IdentityHashMap<FilterMetrics, ObjectName>();
+    private File exportFile = null;
+    private long exportIntervalMs = DEFAULT_EXPORT_INTERVAL_MS;
+    private boolean jmxEnabled = false;
+    private Timer timer = null;
+
+    /**
+     * Constructs a new registry.
+     *
+     * @param chipName the name used to label the exported metrics, e.g. the
+     * chip class name
+     */
+    public FilterMetricsRegistry(String chipName) {
+        this.chipName = chipName;
+    }
+
+    /**
+     * Returns the metrics of a stage, creating them on first use. Stages are
+     * identified by object identity.
+     *
+     * @param owner the stage, e.g. an EventFilter
+     * @param name the name to export the metrics under
+     * @return the metrics
+     */
+    synchronized public FilterMetrics metricsFor(Object owner, String name) {
+        FilterMetrics m = byOwner.get(owner);
+        if (m == null) {
+            m = new FilterMetrics(name);
+            byOwner.put(owner, m);
+            metrics.add(m);
+            if (jmxEnabled && (timer != null)) {
+                registerMBean(m);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Returns the metrics of a filter, creating them on first use.
+     *
+     * @param filter the filter
+     * @return the metrics
+     */
+    public FilterMetrics metricsFor(EventFilter filter) {
+        return metricsFor(filter, filter.getClass().getSimpleName());
+    }
+
+    /**
+     * @return all metrics, in order of creation
+     */
+    public List<FilterMetrics> getMetrics() {
+        return new ArrayList<FilterMetrics>(metrics);
+    }
+
+    /**
+     * Resets all metrics.
+     */
+    public void reset() {
+        for (FilterMetrics m : metrics) {
+            m.reset();
+        }
+    }
+
+    /**
+     * Starts periodic export. Does nothing if already started.
+     */
+    synchronized public void start() {
+        if (timer != null) {
+            return;
+        }
+        timer = new Timer("FilterMetricsRegistry export " + chipName, true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                exportNow();
+            }
+        }, exportIntervalMs, exportIntervalMs);
+        if (jmxEnabled) {
+            for (FilterMetrics m : metrics) {
+                registerMBean(m);
+            }
+        }
+    }
+
+    /**
+     * Stops periodic export, exports a last time and unregisters the MBeans.
+     */
+    synchronized public void stop() {
+        if (timer == null) {
+            return;
+        }
+        timer.cancel();
+        timer = null;
+        exportNow();
+        unregisterMBeans();
+    }
+
+    /**
+     * @return true if periodic export is running
+     */
+    synchronized public boolean isStarted() {
+        return timer != null;
+    }
+
+    /**
+     * Exports the current metrics to the export file, or logs them if there
+     * is no export file and JMX is disabled.
+     */
+    synchronized public void exportNow() {
+        if (metrics.isEmpty()) {
+            return;
+        }
+        if (exportFile != null) {
+            final boolean writeHeader = !exportFile.exists() || (exportFile.length() == 0);
+            PrintWriter w = null;
+            try {
+                w = new PrintWriter(new FileWriter(exportFile, true));
+                if (writeHeader) {
+                    w.println("timeMs,chip," + FilterMetrics.csvHeader());
+                }
+                final long now = System.currentTimeMillis();
+                for (FilterMetrics m : metrics) {
+                    w.println(now + "," + chipName + "," + m.toCsv());
+                }
+            } catch (IOException e) {
+                log.warning("could not export filter metrics to " + exportFile + ": " + e);
+            } finally {
+                if (w != null) {
+                    w.close();
+                }
+            }
+        } else if (!jmxEnabled) {
+            final StringBuilder sb = new StringBuilder("filter metrics for " + chipName);
+            for (FilterMetrics m : metrics) {
+                sb.append("\n    ").append(m.toString());
+            }
+            log.info(sb.toString());
+        }
+    }
+
+    private void registerMBean(FilterMetrics m) {
+        if (mbeanNames.containsKey(m)) {
+            return;
+        }
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName("net.sf.jaer:type=FilterMetrics,chip=" + ObjectName.quote(chipName)
+                    + ",name=" + ObjectName.quote(m.getName() + "@" + Integer.toHexString(System.identityHashCode(m))));
+            server.registerMBean(m, name);
+            mbeanNames.put(m, name);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "could not register MBean for " + m.getName(), e);
+        }
+    }
+
+    private void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : mbeanNames.values()) {
+            try {
+                server.unregisterMBean(name);
+            } catch (Exception e) {
+                log.warning("could not unregister MBean " + name + ": " + e);
+            }
+        }
+        mbeanNames.clear();
+    }
+
+    /**
+     * @return the file the metrics are appended to, or null
+     */
+    synchronized public File getExportFile() {
+        return exportFile;
+    }
+
+    /**
+     * Sets the file the metrics are appended to as CSV.
+     *
+     * @param exportFile the file, or null to not export to a file
+     */
+    synchronized public void setExportFile(File exportFile) {
+        this.exportFile = exportFile;
+    }
+
+    /**
+     * @return the export interval in ms
+     */
+    synchronized public long getExportIntervalMs() {
+        return exportIntervalMs;
+    }
+
+    /**
+     * Sets the export interval. Takes effect on the next start.
+     *
+     * @param exportIntervalMs the interval in ms, at least 100
+     */
+    synchronized public void setExportIntervalMs(long exportIntervalMs) {
+        this.exportIntervalMs = Math.max(100, exportIntervalMs);
+    }
+
+    /**
+     * @return true if metrics are registered as MBeans while started
+     */
+    synchronized public boolean isJmxEnabled() {
+        return jmxEnabled;
+    }
+
+    /**
+     * Sets whether metrics are registered as MBeans while started.
+     *
+     * @param jmxEnabled true to enable
+     */
+    synchronized public void setJmxEnabled(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        if (!jmxEnabled) {
+            unregisterMBeans();
+        } else if (timer != null) {
+            for (FilterMetrics m : metrics) {
+                registerMBean(m);
+            }
+        }
+    }
+}
@@ -209,6 +209,7 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
     private JComponent ungroupedControls = null;
     private JPanel inheritedPanel = null;
     private float DEFAULT_REAL_VALUE = 0.01f; // value jumped to from zero on key or wheel up
+    private JLabel allocationLabel = null; // bytes allocated by the filter, shown while measured
 
     /**
      * Creates new form FilterPanel
@@ -223,6 +224,11 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
         initComponents();
         Dimension d = enableResetControlsHelpPanel.getPreferredSize();
         enableResetControlsHelpPanel.setMaximumSize(new Dimension(1000, d.height)); // keep from stretching
+        allocationLabel = new JLabel();
+        allocationLabel.setFont(allocationLabel.getFont().deriveFont(fontSize));
+        allocationLabel.setToolTipText("Bytes allocated by this filter per event and per packet, averaged since the performance statistics were reset");
+        allocationLabel.setVisible(false);
+        enableResetControlsHelpPanel.add(allocationLabel);
         String cn = getFilter().getClass().getName();
         int lastdot = cn.lastIndexOf('.');
         String name = cn.substring(lastdot + 1);
@@ -1671,6 +1677,27 @@ public class FilterPanel extends javax.swing.JPanel implements PropertyChangeLis
 
     }
 
+    /**
+     * Shows the bytes per event and per packet allocated by the filter if the
+     * FilterChain measures its allocation, or hides them otherwise. Called
+     * periodically by the FilterFrame while performance is measured.
+     */
+    public void updatePerformanceDisplay() {
+        if (allocationLabel == null) {
+            return;
+        }
+        EventProcessingPerformanceMeter perf = getFilter().perf;
+        boolean show = (perf != null) && perf.isMeasureAllocation() && getFilter().isFilterEnabled()
+                && (getFilter().getChip().getFilterChain() != null) && getFilter().getChip().getFilterChain().isMeasurePerformanceEnabled();
+        if (show) {
+            allocationLabel.setText(String.format("%.1f B/ev, %.0f B/pkt", perf.avgBytesPerEvent(), perf.avgBytesPerPacket()));
+        }
+        if (show != allocationLabel.isVisible()) {
+            allocationLabel.setVisible(show);
+            enableResetControlsHelpPanel.revalidate();
+        }
+    }
+
     void toggleControlsVisible() {
         controlsVisible = !controlsVisible;
         setControlsVisible(controlsVisible);
@@ -0,0 +1,129 @@
+package net.sf.jaer.eventprocessing;
+
+/**
+ * Fixed-size histogram of non-negative long values, e.g. latencies in ns or
+ * packet sizes in events, in the style of an HDR histogram: each power of two
+ * is split into {@link #SUB_BUCKETS} linear buckets, so every recorded value
+ * is known to about 3% over the whole range of long, with constant memory and
+ * no allocation when recording.
+ * <p>
+ * Recording is meant to be done by a single thread. Other threads can read
+ * the statistics at any time, e.g. to export them, but may then see a
+ * histogram that is a few samples inconsistent.
+ */
+public class LogLinearHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    /** Number of linear buckets per power of two */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private final long[] counts = new long[((64 - SUB_BUCKET_BITS) + 1) * SUB_BUCKETS];
+    private volatile long count = 0;
+    private long sum = 0, min = Long.MAX_VALUE, max = 0;
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)]++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        count++;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) * SUB_BUCKETS) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /** Returns the largest value that falls in the bucket */
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index / SUB_BUCKETS) - 1;
+        final long sub = (index % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the value below or at which the given percentage of the recorded
+     * values fall, to the resolution of the buckets.
+     *
+     * @param percentile the percentile, 0-100
+     * @return the value, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil((Math.min(100, Math.max(0, percentile)) / 100) * n));
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if none
+     */
+    public double getMean() {
+        final long n = count;
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    /**
+     * @return the smallest recorded value, or 0 if none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Clears the histogram. Should be called by the recording thread.
+     */
+    public void reset() {
+        java.util.Arrays.fill(counts, 0);
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.1f min=%d p50=%d p90=%d p99=%d max=%d", count, getMean(), getMin(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+    }
+}
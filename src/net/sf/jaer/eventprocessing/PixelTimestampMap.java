@@ -0,0 +1,221 @@
+package net.sf.jaer.eventprocessing;
+
+import java.util.Arrays;
+
+import net.sf.jaer.event.ApsDvsEvent;
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.event.PolarityEvent;
+
+/**
+ * The timestamp of the last event of each polarity at each pixel, shared by the
+ * filters of a FilterChain so that each of them does not keep and update its
+ * own map.
+ * <p>
+ * The FilterChain updates the map once with each input packet before any
+ * filter runs. So that a filter still sees only the past of each event, the
+ * map also links the events of the current packet at each pixel in time order.
+ * A query for the last timestamp before an event's timestamp returns at once
+ * if the packet has no later event at the pixel. Otherwise it moves a cursor
+ * of the pixel forward along the pixel's events; since a filter queries in
+ * time order, each cursor passes each event once per filter, so that the
+ * queries cost O(1) amortized even at a hot pixel. Timestamps are
+ * stored in one flat array, both polarities of a pixel next to each other and
+ * pixels in rows of x. The map resets itself when time jumps back by more than
+ * {@link #MAX_BACKWARDS_US}, e.g. after a rewind of a recording.
+ * <p>
+ * The map holds all DVS events of the chain's input packet, including those
+ * that filters before the querying filter remove, at their input addresses.
+ * Filters use it through {@link EventFilter2D#getSharedTimestampMap()}.
+ * <p>
+ * It serves filters that read the last event time of the event's own pixel.
+ * Filters whose map holds something else keep their own map: the
+ * BackgroundActivityFilter writes each time to the neighbors, so one read
+ * there would take eight queries here; the DisparityFilter writes times of one
+ * eye into the map of the other at shifted addresses; and the
+ * AbstractMotionFlowIMU map is subsampled and read over whole neighborhoods by
+ * the flow methods.
+ */
+public class PixelTimestampMap {
+
+    /**
+     * Returned for pixels that had no event since the map was reset
+     */
+    public static final int NO_TIMESTAMP = Integer.MIN_VALUE;
+    /**
+     * A timestamp this much earlier than the latest one resets the map
+     */
+    public static final int MAX_BACKWARDS_US = 1000000;
+
+    private final int sizeX, sizeY;
+    private final int[] lastTimestamps; // latest timestamp for each pixel and polarity, including the current packet
+    // the events of the current packet, linked in time order for each pixel and polarity
+    private final int[] timestampsBeforePacket; // latest timestamp before the current packet
+    private final int[] first, last; // index of the first and latest event of the current packet
+    private final int[] cursor; // index of the latest event before the last query, -1 if before the first event
+    private final int[] packetSerials; // the above are valid only where this equals packetSerial
+    private int[] eventTimestamps = new int[1024], nextEvent = new int[1024];
+    private int numEvents = 0;
+    private int packetSerial = 0;
+    private int latestTimestamp = NO_TIMESTAMP;
+
+    /**
+     * Constructs a new map with no events.
+     *
+     * @param sizeX the number of pixels in x
+     * @param sizeY the number of pixels in y
+     */
+    public PixelTimestampMap(int sizeX, int sizeY) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        lastTimestamps = new int[2 * sizeX * sizeY];
+        timestampsBeforePacket = new int[lastTimestamps.length];
+        first = new int[lastTimestamps.length];
+        last = new int[lastTimestamps.length];
+        cursor = new int[lastTimestamps.length];
+        packetSerials = new int[lastTimestamps.length];
+        reset();
+    }
+
+    /**
+     * Forgets all events.
+     */
+    public void reset() {
+        Arrays.fill(lastTimestamps, NO_TIMESTAMP);
+        Arrays.fill(packetSerials, 0);
+        packetSerial = 1;
+        numEvents = 0;
+        latestTimestamp = NO_TIMESTAMP;
+    }
+
+    // invalidates the links of the events so far
+    private void nextPacketSerial() {
+        if (++packetSerial == 0) { // wrapped; no stale link may look valid
+            Arrays.fill(packetSerials, 0);
+            packetSerial = 1;
+        }
+    }
+
+    /**
+     * Adds the DVS events of a packet. Events that are filtered out or special
+     * and APS or IMU samples are skipped. The time limit of the packet is not
+     * used.
+     *
+     * @param in the packet
+     */
+    public void update(EventPacket<?> in) {
+        nextPacketSerial();
+        numEvents = 0;
+        final int n = in.getSize();
+        final BasicEvent[] events = (BasicEvent[]) in.getElementData();
+        for (int i = 0; i < n; i++) {
+            final BasicEvent e = events[i];
+            if ((e == null) || e.isFilteredOut() || e.isSpecial() || ((e instanceof ApsDvsEvent) && !((ApsDvsEvent) e).isDVSEvent())) {
+                continue;
+            }
+            if ((e.x < 0) || (e.x >= sizeX) || (e.y < 0) || (e.y >= sizeY)) {
+                continue;
+            }
+            if ((latestTimestamp != NO_TIMESTAMP) && ((long) e.timestamp < ((long) latestTimestamp - MAX_BACKWARDS_US))) {
+                Arrays.fill(lastTimestamps, NO_TIMESTAMP); // rewind or timestamp reset
+                nextPacketSerial();
+                latestTimestamp = NO_TIMESTAMP;
+            }
+            if ((latestTimestamp == NO_TIMESTAMP) || (e.timestamp > latestTimestamp)) {
+                latestTimestamp = e.timestamp;
+            }
+            final int polarity = ((e instanceof PolarityEvent) && (((PolarityEvent) e).polarity == PolarityEvent.Polarity.On)) ? 1 : 0;
+            final int cell = cell(e.x, e.y, polarity);
+            if (numEvents >= eventTimestamps.length) {
+                final int capacity = 2 * eventTimestamps.length;
+                eventTimestamps = Arrays.copyOf(eventTimestamps, capacity);
+                nextEvent = Arrays.copyOf(nextEvent, capacity);
+            }
+            eventTimestamps[numEvents] = e.timestamp;
+            nextEvent[numEvents] = -1;
+            if (packetSerials[cell] == packetSerial) {
+                nextEvent[last[cell]] = numEvents;
+            } else {
+                packetSerials[cell] = packetSerial;
+                timestampsBeforePacket[cell] = lastTimestamps[cell];
+                first[cell] = numEvents;
+                cursor[cell] = -1;
+            }
+            last[cell] = numEvents;
+            lastTimestamps[cell] = e.timestamp;
+            numEvents++;
+        }
+    }
+
+    private int cell(int x, int y, int polarity) {
+        return (((y * sizeX) + x) << 1) | polarity;
+    }
+
+    /**
+     * Returns the timestamp of the latest event at a pixel that is earlier than
+     * a timestamp, e.g. that of the event being filtered. Events of the current
+     * packet at or after the timestamp are ignored; events of earlier packets
+     * always count as earlier. Takes O(1) time amortized over queries in time
+     * order, e.g. those of one filter for the events of a packet.
+     *
+     * @param x the pixel x, 0 to sizeX-1
+     * @param y the pixel y, 0 to sizeY-1
+     * @param polarity 0 for Off, 1 for On
+     * @param timestamp the timestamp
+     * @return the timestamp, or NO_TIMESTAMP
+     */
+    public int getLastTimestampBefore(int x, int y, int polarity, int timestamp) {
+        final int cell = cell(x, y, polarity);
+        if ((packetSerials[cell] != packetSerial) || (lastTimestamps[cell] < timestamp)) {
+            return lastTimestamps[cell]; // no event of the packet at or after timestamp
+        }
+        int j = cursor[cell];
+        if ((j >= 0) && (eventTimestamps[j] >= timestamp)) {
+            j = -1; // query earlier than the last one, e.g. by the next filter; start over
+        }
+        for (int next = j < 0 ? first[cell] : nextEvent[j]; (next >= 0) && (eventTimestamps[next] < timestamp); next = nextEvent[next]) {
+            j = next;
+        }
+        cursor[cell] = j;
+        return j < 0 ? timestampsBeforePacket[cell] : eventTimestamps[j];
+    }
+
+    /**
+     * Returns the timestamp of the latest event of either polarity at a pixel
+     * that is earlier than a timestamp.
+     *
+     * @param x the pixel x, 0 to sizeX-1
+     * @param y the pixel y, 0 to sizeY-1
+     * @param timestamp the timestamp
+     * @return the timestamp, or NO_TIMESTAMP
+     * @see #getLastTimestampBefore(int, int, int, int)
+     */
+    public int getLastTimestampBefore(int x, int y, int timestamp) {
+        return Math.max(getLastTimestampBefore(x, y, 0, timestamp), getLastTimestampBefore(x, y, 1, timestamp));
+    }
+
+    /**
+     * @param x the pixel x, 0 to sizeX-1
+     * @param y the pixel y, 0 to sizeY-1
+     * @param polarity 0 for Off, 1 for On
+     * @return the timestamp of the latest event at the pixel, including those
+     * of the whole current packet, or NO_TIMESTAMP
+     */
+    public int getLastTimestamp(int x, int y, int polarity) {
+        return lastTimestamps[cell(x, y, polarity)];
+    }
+
+    /**
+     * @return the number of pixels in x
+     */
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    /**
+     * @return the number of pixels in y
+     */
+    public int getSizeY() {
+        return sizeY;
+    }
+}
@@ -0,0 +1,694 @@
+package net.sf.jaer.eventprocessing;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import ml.options.Options;
+import ml.options.Options.Multiplicity;
+import ml.options.Options.Separator;
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.eventio.AEDataFile;
+import net.sf.jaer.eventio.AEFileIndex;
+import net.sf.jaer.eventio.AEFileInputStream;
+import net.sf.jaer.eventio.AEFileOutputStream;
+import net.sf.jaer.eventio.AEOutputStream;
+import static net.sf.jaer.graphics.AEViewer.DEFAULT_CHIP_CLASS;
+import static net.sf.jaer.graphics.AEViewer.prefs;
+
+/**
+ * Reprocesses recordings through a FilterChain in parallel. AEFileInputStream
+ * is synchronized and filters are stateful, so a
+ * {@link FilterChainBatchProcessor} processes one recording on one thread.
+ * This class instead splits each recording into shards, i.e. consecutive
+ * time ranges that start and end at the memory mapped chunk boundaries of
+ * AEFileInputStream, and processes the shards of all recordings concurrently
+ * on a ForkJoinPool.
+ * <p>
+ * Each worker has its own AEChip (and thus its own extractor and FilterChain)
+ * and opens its own AEFileInputStream on the file. Since a filter starting in
+ * the middle of a recording has not yet built up its state (e.g. the
+ * last-timestamp maps of noise filters or the clusters of a tracker), each
+ * shard can start filtering warmupEvents before its start, or, if warmupUs is
+ * set, at the event warmupUs before its first timestamp, which is found with
+ * {@link AEFileInputStream#positionAtTimestamp(int)} from the timestamp index
+ * of the file. The output of the warm-up events is discarded; it is written by
+ * the previous shard.
+ * <p>
+ * Each shard writes its output to a temporary file next to the output file of
+ * its recording. As soon as all shards of a recording are done, their outputs
+ * are merged into the output AEDAT file in timestamp order and deleted, while
+ * the shards of later recordings are still processed, so the temporary files
+ * only ever hold the output of the recordings in progress. Since shards are
+ * disjoint consecutive time ranges, timestamp order is the shard order, which
+ * also stays correct across timestamp wraps in long recordings.
+ * <p>
+ * AER-DAT-3.x files cannot be positioned by event offset and are processed as
+ * a single shard.
+ *
+ * @see FilterChainBatchProcessor
+ */
+public class ShardedFilterChainBatchProcessor {
+
+    static final Logger log = Logger.getLogger("FilterChainBatchProcessor");
+    /**
+     * Default number of events filtered before the start of each shard
+     */
+    public static final int DEFAULT_WARMUP_EVENTS = 100000;
+    private static final int MERGE_BUFFER_EVENTS = 1 << 16;
+
+    public static final String USAGE = "java ShardedFilterChainBatchProcessor [-aechip=aechipclassname (fully qualified class name, e.g. eu.seebetter.ini.chips.davis.DAVIS240C)] "
+            + "[-filters=filterSettings.xml] [-numevents=65536] [-threads=(number of processors)] [-shards=(number of threads)] [-warmup=100000] [-warmupus=0] "
+            + "input.aedat|inputFolder [outputfile.aedat|outputFolder]"
+            + "\n"
+            + "Note arguments values are assigned with =, not space"
+            + "\n"
+            + "If a folder is given, all .aedat files in it are processed. If no output is provided, output file names are generated from the input files with appended -filtered.aedat"
+            + "\n"
+            + "If -filters is not provided the filters and settings last used for this chip class are used";
+
+    private final Class<? extends AEChip> chipClass;
+    private final int parallelism;
+    private int shardsPerFile;
+    private int warmupEvents = DEFAULT_WARMUP_EVENTS;
+    private int warmupUs = 0;
+    private int packetSizeEvents = FilterChainBatchProcessor.DEFAULT_PACKET_SIZE_EVENTS;
+    private final LinkedBlockingQueue<FilterChainBatchProcessor> processors = new LinkedBlockingQueue<FilterChainBatchProcessor>();
+    private long eventsIn = 0, eventsOut = 0, elapsedNs = 0;
+
+    /**
+     * Constructs a new sharded processor and constructs one chip per worker
+     * thread. The chips are all constructed before any processing, so that
+     * they all see the same filter Preferences.
+     *
+     * @param chipClass the AEChip class, which must have a no-argument
+     * constructor
+     * @param parallelism the number of worker threads, e.g.
+     * Runtime.getRuntime().availableProcessors()
+     * @throws Exception if a chip cannot be constructed
+     */
+    public ShardedFilterChainBatchProcessor(Class<? extends AEChip> chipClass, int parallelism) throws Exception {
+        if (parallelism < 1) {
+            parallelism = 1;
+        }
+        this.chipClass = chipClass;
+        this.parallelism = parallelism;
+        this.shardsPerFile = parallelism;
+        for (int i = 0; i < parallelism; i++) {
+            processors.add(new FilterChainBatchProcessor(chipClass.getConstructor().newInstance()));
+        }
+    }
+
+    /**
+     * One time range of a recording, processed by one worker.
+     */
+    public static class Shard {
+
+        private final File file;
+        private final int index;
+        private final long warmupStart, start, end;
+        private int startTimestamp, endTimestamp;
+        private File outputFile, outputDir;
+        private long eventsIn, eventsOut, elapsedNs;
+        private int inputIndex;
+
+        Shard(File file, int index, long warmupStart, long start, long end) {
+            this.file = file;
+            this.index = index;
+            this.warmupStart = warmupStart;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns the recording of this shard
+         *
+         * @return the input file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the index of this shard within its recording
+         *
+         * @return the index, 0 for the first shard
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the position in events where filtering starts
+         *
+         * @return the warm-up start position
+         */
+        public long getWarmupStart() {
+            return warmupStart;
+        }
+
+        /**
+         * Returns the position in events of the first event of this shard
+         *
+         * @return the start position
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * Returns the position in events after the last event of this shard
+         *
+         * @return the end position
+         */
+        public long getEnd() {
+            return end;
+        }
+
+        /**
+         * Returns the timestamp of the first event of this shard
+         *
+         * @return the timestamp in us
+         */
+        public int getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        /**
+         * Returns the timestamp of the last event of this shard
+         *
+         * @return the timestamp in us
+         */
+        public int getEndTimestamp() {
+            return endTimestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("shard %d of %s: events %d-%d (warm-up from %d), timestamps %d-%d, %d events in, %d events out in %.3f s",
+                    index, file.getName(), start, end, warmupStart, startTimestamp, endTimestamp, eventsIn, eventsOut, elapsedNs * 1e-9);
+        }
+    }
+
+    /**
+     * Splits a recording into at most shardsPerFile shards at chunk
+     * boundaries.
+     *
+     * @param file the recording
+     * @return the shards, in time order
+     * @throws IOException if the file cannot be read
+     */
+    public List<Shard> makeShards(File file) throws IOException {
+        FilterChainBatchProcessor p = processors.peek();
+        AEFileInputStream ais = p.openInputStream(file);
+        ArrayList<Shard> shards = new ArrayList<Shard>();
+        try {
+            long size = ais.size();
+            if (size == 0) {
+                return shards;
+            }
+            long chunkEvents = ais.getChunkSizeEvents();
+            int numChunks = (int) ((size + chunkEvents - 1) / chunkEvents);
+            int n = ais.isJaer3Enabled() ? 1 : Math.min(shardsPerFile, numChunks);
+            int chunksPerShard = (numChunks + n - 1) / n;
+            long shardEvents = ais.isJaer3Enabled() ? size : chunksPerShard * chunkEvents;
+            for (long start = 0; start < size; start += shardEvents) {
+                long end = Math.min(start + shardEvents, size);
+                int startTimestamp = readTimestamp(ais, start);
+                long warmupStart = Math.max(0, start - warmupEvents);
+                if ((warmupUs > 0) && (start > 0)) {
+                    warmupStart = findWarmupStart(ais, startTimestamp, start, warmupStart);
+                }
+                Shard s = new Shard(file, shards.size(), warmupStart, start, end);
+                s.startTimestamp = startTimestamp;
+                s.endTimestamp = readTimestamp(ais, end - 1);
+                shards.add(s);
+            }
+        } finally {
+            ais.close();
+        }
+        return shards;
+    }
+
+    // returns the position warmupUs before the shard start, or fallback if the index cannot tell
+    private long findWarmupStart(AEFileInputStream ais, int startTimestamp, long start, long fallback) {
+        int t = startTimestamp - warmupUs;
+        if ((t > startTimestamp) || !ais.positionAtTimestamp(t)) {
+            return fallback; // the warm-up would wrap around
+        }
+        AEFileIndex index = ais.getTimestampIndex();
+        if ((index != null) && !index.getMarkers().isEmpty()) {
+            log.info(ais.getFile() + " has timestamp wraps or resets, using warm-up of " + warmupEvents + " events");
+            return fallback; // t may be found in a different range of monotonic timestamps
+        }
+        return Math.min(ais.position(), start);
+    }
+
+    private int readTimestamp(AEFileInputStream ais, long position) throws IOException {
+        ais.position(position);
+        AEPacketRaw p = ais.readPacketByNumber(1);
+        return p.getNumEvents() > 0 ? p.getTimestamps()[0] : 0;
+    }
+
+    /**
+     * Processes the recordings. The output of each input file is written to
+     * the corresponding output file.
+     *
+     * @param inputs the AEDAT input files
+     * @param outputs the output files, one per input file
+     * @throws IOException on error reading or writing
+     */
+    public void process(List<File> inputs, List<File> outputs) throws IOException {
+        if (inputs.size() != outputs.size()) {
+            throw new IllegalArgumentException("got " + inputs.size() + " input files but " + outputs.size() + " output files");
+        }
+        long startNs = System.nanoTime();
+        eventsIn = 0;
+        eventsOut = 0;
+        ArrayList<List<Shard>> shardsOfInput = new ArrayList<List<Shard>>();
+        int[] pending = new int[inputs.size()]; // shards of each input still being processed
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ExecutorCompletionService<Shard> completion = new ExecutorCompletionService<Shard>(pool);
+        int submitted = 0;
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                List<Shard> shards = makeShards(inputs.get(i));
+                shardsOfInput.add(shards);
+                pending[i] = shards.size();
+                if (shards.isEmpty()) {
+                    merge(shards, outputs.get(i)); // header only
+                    continue;
+                }
+                File outputDir = outputs.get(i).getAbsoluteFile().getParentFile();
+                for (final Shard s : shards) {
+                    s.outputDir = outputDir;
+                    s.inputIndex = i;
+                    log.info("made " + s);
+                    completion.submit(new Callable<Shard>() {
+                        @Override
+                        public Shard call() throws Exception {
+                            return processShard(s);
+                        }
+                    });
+                    submitted++;
+                }
+            }
+            for (int k = 0; k < submitted; k++) {
+                Shard s = completion.take().get();
+                if (--pending[s.inputIndex] == 0) {
+                    List<Shard> shards = shardsOfInput.get(s.inputIndex);
+                    merge(shards, outputs.get(s.inputIndex));
+                    for (Shard t : shards) {
+                        eventsIn += t.eventsIn;
+                        eventsOut += t.eventsOut;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            abort(pool, shardsOfInput);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            abort(pool, shardsOfInput);
+            throw new IOException(e);
+        } catch (IOException e) {
+            abort(pool, shardsOfInput);
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        elapsedNs = System.nanoTime() - startNs;
+        log.info(toString());
+    }
+
+    // stops the workers and deletes the shard outputs that were not merged yet
+    private void abort(ForkJoinPool pool, List<List<Shard>> shardsOfInput) {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            log.warning("interrupted while waiting for shard workers to stop, some temporary files may remain");
+        }
+        for (List<Shard> shards : shardsOfInput) {
+            for (Shard s : shards) {
+                if (s.outputFile != null) {
+                    s.outputFile.delete();
+                }
+            }
+        }
+    }
+
+    private Shard processShard(Shard s) throws IOException, InterruptedException {
+        FilterChainBatchProcessor p = processors.take();
+        AEFileInputStream ais = null;
+        AEOutputStream out = null;
+        long startNs = System.nanoTime();
+        try {
+            p.getChip().getFilterChain().reset(); // don't carry state over from the previous shard of this worker
+            p.setPacketSizeEvents(packetSizeEvents);
+            p.resetCounters();
+            s.outputFile = File.createTempFile(s.file.getName() + "-shard" + s.index + "-", ".aedat.tmp", s.outputDir);
+            s.outputFile.deleteOnExit();
+            ais = p.openInputStream(s.file);
+            out = new AEOutputStream(new BufferedOutputStream(new FileOutputStream(s.outputFile), 1 << 16)); // headerless, same event format as AER-DAT-2.0 data
+            p.processRange(ais, s.warmupStart, s.start, s.end, out);
+            s.eventsIn = p.getEventsIn();
+            s.eventsOut = p.getEventsOut();
+        } finally {
+            s.elapsedNs = System.nanoTime() - startNs;
+            if (ais != null) {
+                ais.close();
+            }
+            if (out != null) {
+                out.close();
+            }
+            processors.put(p);
+        }
+        log.info("processed " + s);
+        return s;
+    }
+
+    /**
+     * Concatenates the shard outputs in shard (i.e. timestamp) order and
+     * writes them to output with a header, deleting the shard outputs.
+     */
+    private void merge(List<Shard> shards, File output) throws IOException {
+        AEFileOutputStream aos = new AEFileOutputStream(new FileOutputStream(output), processors.peek().getChip(), AEDataFile.DATA_FILE_VERSION_NUMBER);
+        AEPacketRaw buf = new AEPacketRaw(MERGE_BUFFER_EVENTS);
+        int[] addr = buf.getAddresses();
+        int[] ts = buf.getTimestamps();
+        ByteBuffer bytes = ByteBuffer.allocateDirect(MERGE_BUFFER_EVENTS * 8); // big-endian address,timestamp pairs as written by AEOutputStream
+        IntBuffer ints = bytes.asIntBuffer();
+        int[] pairs = new int[MERGE_BUFFER_EVENTS * 2];
+        try {
+            for (Shard s : shards) {
+                FileChannel channel = new FileInputStream(s.outputFile).getChannel();
+                try {
+                    while (true) {
+                        while (bytes.hasRemaining() && (channel.read(bytes) >= 0)) {
+                            // fill the buffer up to the end of the file
+                        }
+                        int n = bytes.position() / 8;
+                        if (n == 0) {
+                            break;
+                        }
+                        ints.clear();
+                        ints.get(pairs, 0, 2 * n);
+                        for (int i = 0; i < n; i++) {
+                            addr[i] = pairs[2 * i];
+                            ts[i] = pairs[(2 * i) + 1];
+                        }
+                        buf.setNumEvents(n);
+                        aos.writePacket(buf);
+                        bytes.clear();
+                        if (n < MERGE_BUFFER_EVENTS) {
+                            break; // end of file
+                        }
+                    }
+                } finally {
+                    channel.close();
+                    bytes.clear();
+                    s.outputFile.delete();
+                    s.outputFile = null;
+                }
+            }
+        } finally {
+            aos.close();
+        }
+        log.info("merged " + shards.size() + " shards into " + output);
+    }
+
+    /**
+     * Returns the chip class of the workers
+     *
+     * @return the chip class
+     */
+    public Class<? extends AEChip> getChipClass() {
+        return chipClass;
+    }
+
+    /**
+     * Returns the number of worker threads
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the maximum number of shards each recording is split into
+     *
+     * @return the number of shards
+     */
+    public int getShardsPerFile() {
+        return shardsPerFile;
+    }
+
+    /**
+     * Sets the maximum number of shards each recording is split into. A
+     * recording has at most as many shards as memory mapped chunks. When
+     * processing many recordings, 1 shard per file avoids the warm-up
+     * overhead.
+     *
+     * @param shardsPerFile the number of shards, at least 1
+     */
+    public void setShardsPerFile(int shardsPerFile) {
+        if (shardsPerFile < 1) {
+            shardsPerFile = 1;
+        }
+        this.shardsPerFile = shardsPerFile;
+    }
+
+    /**
+     * Returns the number of events filtered before the start of each shard
+     *
+     * @return the warm-up in events
+     */
+    public int getWarmupEvents() {
+        return warmupEvents;
+    }
+
+    /**
+     * Sets the number of events filtered before the start of each shard, so
+     * that stateful filters converge before their output is written.
+     *
+     * @param warmupEvents the warm-up in events, 0 for none
+     */
+    public void setWarmupEvents(int warmupEvents) {
+        if (warmupEvents < 0) {
+            warmupEvents = 0;
+        }
+        this.warmupEvents = warmupEvents;
+    }
+
+    /**
+     * Returns the time filtered before the start of each shard
+     *
+     * @return the warm-up in us, 0 if warmupEvents is used
+     */
+    public int getWarmupUs() {
+        return warmupUs;
+    }
+
+    /**
+     * Sets the time filtered before the start of each shard, which is usually
+     * the time constant of the filters, e.g. the correlation time of a noise
+     * filter. It takes precedence over the warm-up in events, except in files
+     * with timestamp wraps or resets. Finding the warm-up start by time loads
+     * or builds the timestamp index of each file.
+     *
+     * @param warmupUs the warm-up in us, 0 to use warmupEvents
+     */
+    public void setWarmupUs(int warmupUs) {
+        if (warmupUs < 0) {
+            warmupUs = 0;
+        }
+        this.warmupUs = warmupUs;
+    }
+
+    /**
+     * Returns the number of events read per packet
+     *
+     * @return the packet size in events
+     */
+    public int getPacketSizeEvents() {
+        return packetSizeEvents;
+    }
+
+    /**
+     * Sets the number of events read per packet
+     *
+     * @param packetSizeEvents the packet size in events
+     * @see FilterChainBatchProcessor#setPacketSizeEvents(int)
+     */
+    public void setPacketSizeEvents(int packetSizeEvents) {
+        this.packetSizeEvents = packetSizeEvents;
+    }
+
+    /**
+     * Returns the total number of events read by the last process call, not
+     * counting warm-up events
+     *
+     * @return the input event count
+     */
+    public long getEventsIn() {
+        return eventsIn;
+    }
+
+    /**
+     * Returns the total number of events written by the last process call
+     *
+     * @return the output event count
+     */
+    public long getEventsOut() {
+        return eventsOut;
+    }
+
+    /**
+     * Returns the wall clock time of the last process call, including
+     * merging
+     *
+     * @return the time in ns
+     */
+    public long getElapsedNs() {
+        return elapsedNs;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ShardedFilterChainBatchProcessor with %d threads: %d events in, %d events out in %.3f s, %.2f Meps",
+                parallelism, eventsIn, eventsOut, elapsedNs * 1e-9, elapsedNs == 0 ? 0 : (1e3 * eventsIn) / elapsedNs);
+    }
+
+    private static File filteredFile(File input, File outputFolder) {
+        String name = input.getName();
+        int i = name.toLowerCase().lastIndexOf(".aedat");
+        name = (i > 0 ? name.substring(0, i) : name) + "-filtered.aedat";
+        return new File(outputFolder != null ? outputFolder : input.getParentFile(), name);
+    }
+
+    public static void main(String[] args) {
+        Options opt = new Options(args, 1, 2);
+        opt.getSet().addOption("aechip", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("filters", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("numevents", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("threads", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("shards", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("warmup", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        opt.getSet().addOption("warmupus", Separator.EQUALS, Multiplicity.ZERO_OR_ONE);
+        if (!opt.check()) {
+            System.err.println(opt.getCheckErrors());
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        File input = new File(opt.getSet().getData().get(0));
+        File output = opt.getSet().getData().size() == 2 ? new File(opt.getSet().getData().get(1)) : null;
+        ArrayList<File> inputs = new ArrayList<File>();
+        ArrayList<File> outputs = new ArrayList<File>();
+        if (input.isDirectory()) {
+            File[] files = input.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.toLowerCase().endsWith(".aedat") && !name.toLowerCase().endsWith("-filtered.aedat");
+                }
+            });
+            Arrays.sort(files);
+            if ((output != null) && !output.isDirectory() && !output.mkdirs()) {
+                System.err.println("Couldn't make output folder " + output);
+                System.exit(1);
+            }
+            for (File f : files) {
+                inputs.add(f);
+                outputs.add(filteredFile(f, output));
+            }
+        } else {
+            inputs.add(input);
+            outputs.add(output != null ? output : filteredFile(input, null));
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("No .aedat files in " + input);
+            System.exit(1);
+        }
+
+        FilterChainBatchProcessor.ImportedFilterSettings importedSettings = null;
+        if (opt.getSet().isSet("filters")) {
+            File f = new File(opt.getSet().getOption("filters").getResultValue(0));
+            try {
+                importedSettings = FilterChainBatchProcessor.importFilterSettings(f);
+            } catch (Exception e) {
+                System.err.println("Couldn't import filter settings from " + f + " : " + e.toString());
+                System.exit(1);
+            }
+        }
+
+        String chipname = prefs.get("AEViewer.aeChipClassName", DEFAULT_CHIP_CLASS);
+        if (opt.getSet().isSet("aechip")) {
+            chipname = opt.getSet().getOption("aechip").getResultValue(0);
+        }
+        ShardedFilterChainBatchProcessor processor = null;
+        try {
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (opt.getSet().isSet("threads")) {
+                threads = Integer.parseInt(opt.getSet().getOption("threads").getResultValue(0));
+            }
+            System.out.println("constructing " + threads + " instances of AEChip " + chipname);
+            processor = new ShardedFilterChainBatchProcessor(Class.forName(chipname).asSubclass(AEChip.class), threads);
+            if (opt.getSet().isSet("shards")) {
+                processor.setShardsPerFile(Integer.parseInt(opt.getSet().getOption("shards").getResultValue(0)));
+            }
+            if (opt.getSet().isSet("warmup")) {
+                processor.setWarmupEvents(Integer.parseInt(opt.getSet().getOption("warmup").getResultValue(0)));
+            }
+            if (opt.getSet().isSet("warmupus")) {
+                processor.setWarmupUs(Integer.parseInt(opt.getSet().getOption("warmupus").getResultValue(0)));
+            }
+            if (opt.getSet().isSet("numevents")) {
+                processor.setPacketSizeEvents(Integer.parseInt(opt.getSet().getOption("numevents").getResultValue(0)));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Bad numeric argument: " + e.toString());
+            exit(1, importedSettings);
+        } catch (Exception ex) {
+            System.err.println("Could not construct instance of aechip=" + chipname + ": " + ex.toString());
+            exit(1, importedSettings);
+        }
+
+        try {
+            processor.process(inputs, outputs);
+        } catch (IOException e) {
+            System.err.println("Couldn't process " + input + " from working directory " + System.getProperty("user.dir") + " : " + e.toString());
+            exit(1, importedSettings);
+        }
+        System.out.println(processor.toString());
+        exit(0, importedSettings);
+    }
+
+    // restores the settings that were imported for the run and exits
+    private static void exit(int status, FilterChainBatchProcessor.ImportedFilterSettings importedSettings) {
+        if (importedSettings != null) {
+            importedSettings.restore();
+        }
+        System.exit(status);
+    }
+}
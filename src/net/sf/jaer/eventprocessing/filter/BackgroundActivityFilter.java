@@ -3,7 +3,6 @@
  * Created on October 21, 2005, 12:33 PM */
 package net.sf.jaer.eventprocessing.filter;
 
-import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -11,20 +10,30 @@ import net.sf.jaer.Description;
 import net.sf.jaer.DevelopmentStatus;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.chip.Chip2D;
-import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.ColumnarEventPacket;
 import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.eventprocessing.ColumnarEventFilter;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.util.IntGrid;
 
 /**
  * An filter that filters slow background activity by only passing
  * events that are supported by another event in the past {@link #setDt dt} in
  * the immediate spatial neighborhood, defined by a subsampling bit shift.
+ * <p>
+ * The filter works on a {@link ColumnarEventPacket} so that it can share the
+ * gathered columns with other {@link ColumnarEventFilter}s in the
+ * FilterChain. The past event times are kept in a flat {@link IntGrid}
+ * without padding, so that each event reaches its neighbors by fixed offsets.
+ * The filter keeps the border branch of the former 2D map: only events off
+ * the sensor border write their time to their neighbors, so events on the
+ * border do not support their neighbors.
  *
  * @author tobi
  */
 @Description("Filters out uncorrelated background activity noise")
 @DevelopmentStatus(DevelopmentStatus.Status.Stable)
-public class BackgroundActivityFilter extends EventFilter2D implements Observer {
+public class BackgroundActivityFilter extends EventFilter2D implements Observer, ColumnarEventFilter {
 
     final int MAX_DT = 100000, MIN_DT = 10;
     final int DEFAULT_TIMESTAMP = Integer.MIN_VALUE;
@@ -44,10 +53,11 @@ public class BackgroundActivityFilter extends EventFilter2D implements Observer
      */
     private int subsampleBy = getInt("subsampleBy", 0);
 
-    int[][] lastTimesMap;
+    IntGrid lastTimesMap;
     private int ts = 0; // used to reset filter
     private int sx;
     private int sy;
+    private final ColumnarEventPacket columns = new ColumnarEventPacket();
 
     public BackgroundActivityFilter(AEChip chip) {
         super(chip);
@@ -68,52 +78,66 @@ public class BackgroundActivityFilter extends EventFilter2D implements Observer
      */
     @Override
     synchronized public EventPacket filterPacket(EventPacket in) {
+        filterColumns(columns.gather(in));
+        columns.scatterFilteredOut();
+        columns.clear();
+        return in;
+    }
+
+    /**
+     * Filters the columns in place; only keeps an event if it is within dt of
+     * the last time an event happened in the direct neighborhood.
+     *
+     * @param in the columnar view of the input packet
+     */
+    @Override
+    synchronized public void filterColumns(ColumnarEventPacket in) {
         if (lastTimesMap == null) {
             allocateMaps(chip);
         }
-
-        // for each event only keep it if it is within dt of the last time
-        // an event happened in the direct neighborhood
-        for (Object eIn : in) {
-            if (eIn == null) {
-                break;  // this can occur if we are supplied packet that has data (eIn.g. APS samples) but no events
-            }
-            BasicEvent e = (BasicEvent) eIn;
-            if (e.isSpecial()) {
+        final int n = in.size;
+        final int[] timestamps = in.timestamps;
+        final short[] xs = in.x, ys = in.y;
+        final IntGrid grid = lastTimesMap;
+        final int[] map = grid.data;
+        final int stride = grid.stride;
+        final int shift = subsampleBy, maxx = sx, maxy = sy, dtUs = dt;
+        for (int i = 0; i < n; i++) {
+            if (in.isSkipped(i)) {
                 continue;
             }
 
-            short x = (short) (e.x >>> subsampleBy), y = (short) (e.y >>> subsampleBy);
-            if ((x < 0) || (x > sx) || (y < 0) || (y > sy)) {
+            final int x = xs[i] >>> shift, y = ys[i] >>> shift;
+            if ((x < 0) || (x > maxx) || (y < 0) || (y > maxy)) {
                 continue;
             }
 
-            ts = e.timestamp;
-            int lastT = lastTimesMap[x][y];
-            int deltaT = (ts - lastT);
-            
-            if (!((deltaT < dt) && (lastT != DEFAULT_TIMESTAMP)) && !(letFirstEventThrough && lastT==DEFAULT_TIMESTAMP)) {
-                e.setFilteredOut(true);
+            ts = timestamps[i];
+            final int k = grid.index(x, y);
+            final int lastT = map[k];
+            final int deltaT = (ts - lastT);
+
+            if (!((deltaT < dtUs) && (lastT != DEFAULT_TIMESTAMP)) && !(letFirstEventThrough && lastT == DEFAULT_TIMESTAMP)) {
+                in.filteredOut.set(i);
             }
 
             // For each event write the event's timestamp into the
-            // lastTimesMap array at neighboring locations lastTimesMap[x][y]=ts;
+            // lastTimesMap array at neighboring locations;
             // Don't write to ourselves, we need support from neighbor for
             // next event.
-            // Bounds checking here to avoid throwing expensive exceptions.
-            if (((x > 0) && (x < sx)) && ((y > 0) && (y < sy))) {
-                lastTimesMap[x - 1][y] = ts;
-                lastTimesMap[x + 1][y] = ts;
-                lastTimesMap[x][y - 1] = ts;
-                lastTimesMap[x][y + 1] = ts;
-                lastTimesMap[x - 1][y - 1] = ts;
-                lastTimesMap[x + 1][y + 1] = ts;
-                lastTimesMap[x - 1][y + 1] = ts;
-                lastTimesMap[x + 1][y - 1] = ts;
+            // Bounds checking here to avoid writing beyond the border.
+            if (((x > 0) && (x < maxx)) && ((y > 0) && (y < maxy))) {
+                final int below = k - stride, above = k + stride;
+                map[k - 1] = ts;
+                map[k + 1] = ts;
+                map[below] = ts;
+                map[above] = ts;
+                map[below - 1] = ts;
+                map[above + 1] = ts;
+                map[above - 1] = ts;
+                map[below + 1] = ts;
             }
         }
-
-        return in;
     }
 
     @Override
@@ -137,10 +161,7 @@ public class BackgroundActivityFilter extends EventFilter2D implements Observer
 
     private void allocateMaps(AEChip chip) {
         if ((chip != null) && (chip.getNumCells() > 0)) {
-            lastTimesMap = new int[chip.getSizeX()][chip.getSizeY()];
-            for (int[] arrayRow : lastTimesMap) {
-                Arrays.fill(arrayRow, DEFAULT_TIMESTAMP);
-            }
+            lastTimesMap = new IntGrid(chip.getSizeX(), chip.getSizeY(), 0, DEFAULT_TIMESTAMP);
         }
     }
 
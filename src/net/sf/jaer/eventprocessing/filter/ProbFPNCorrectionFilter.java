@@ -23,7 +23,9 @@ import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.event.OutputEventIterator;
 import net.sf.jaer.event.PolarityEvent;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.PixelTimestampMap;
 import net.sf.jaer.graphics.FrameAnnotater;
+import net.sf.jaer.util.IntGrid;
 /**
  * Adjust probability of transmission of event so that average rate
  * of activity is the same for all cells.
@@ -35,8 +37,8 @@ firing rate the same as the global average.
  */
 @Description("Adjusts probability of transmission of event so that average rate of activity is the same for all cells")
 public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnotater{
-    float[][][] isi;
-    int[][][] lastTs;
+    float[] isi; // indexed like lastTs.data
+    IntGrid lastTs; // one plane per cell type
     float[] avgIsi;
     Random random = new Random();
     private float alpha = getPrefs().getFloat("ProbFPNCorrectionFilter.alpha",.9f);
@@ -44,6 +46,7 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
     float avgIsiMixingFactor = mixingFactor; //
     final int DEFAULT_ISI = 10000000; // ten seconds
     protected boolean overlayProbabilty = getPrefs().getBoolean("ProbFPNCorrectionFilter.overlayProbability",false);
+    private boolean useSharedTimestampMap = getPrefs().getBoolean("ProbFPNCorrectionFilter.useSharedTimestampMap",false);
 
     /**
      * Creates a new instance of ProbFPNCorrectionFilter
@@ -53,6 +56,7 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
         setPropertyTooltip("alpha","probability of transmission is alpha * isi / avgIsi[type]");
         setPropertyTooltip("mixingFactor","learning update rate for avgISI of each cell type, each event's ISI is mixed with prior rate estimate by this factor");
         setPropertyTooltip("overlayProbabilty","overlay the transmission probability on the graphics");
+        setPropertyTooltip("useSharedTimestampMap","<html>Reads the last event time of each cell from the map that the FilterChain keeps for all its filters instead of keeping its own.<br>The shared map holds all input events of the chain, also those removed by earlier filters, but no earlier events with the same timestamp.");
     }
 
     synchronized public EventPacket<?> filterPacket (EventPacket<?> in){
@@ -63,15 +67,28 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
         checkMap(in);
         setMixingFactor(mixingFactor); // to set global avg mixing factor
         OutputEventIterator oi = out.outputIterator();
+        final PixelTimestampMap shared = usesSharedTimestampMap() && in.getNumCellTypes() == 2 ? getSharedTimestampMap() : null;
+        final int[] lastTimestamps = lastTs.data;
         for ( Object o:in ){
             PolarityEvent e = (PolarityEvent)o;
             int type = e.getType();
-            float lastIsi = isi[e.x][e.y][e.type];
-            int dt = e.timestamp - lastTs[e.x][e.y][e.type];
+            if ( !lastTs.contains(e.x,e.y) || type < 0 || type >= lastTs.depth ){
+                continue; // outside the chip; the flat maps have no padding to absorb it
+            }
+            final int k = lastTs.index(e.x,e.y,type);
+            float lastIsi = isi[k];
+            int last = lastTimestamps[k];
+            if ( shared != null && type < 2 ){
+                last = shared.getLastTimestampBefore(e.x,e.y,type,e.timestamp);
+                if ( last == PixelTimestampMap.NO_TIMESTAMP ){
+                    last = 0; // as the own map after reset
+                }
+            }
+            int dt = e.timestamp - last;
             float newIsi = lastIsi * ( 1 - mixingFactor ) + dt * mixingFactor;
             avgIsi[type] = avgIsi[type] + ( newIsi - avgIsi[type] ) * avgIsiMixingFactor;
-            lastTs[e.x][e.y][type] = e.timestamp;
-            isi[e.x][e.y][type] = newIsi;
+            lastTimestamps[k] = e.timestamp;
+            isi[k] = newIsi;
             float r = random.nextFloat();
             float prob = probOfTransmission(newIsi,type);
             if ( r <= prob ){
@@ -83,9 +100,9 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
     }
 
     void checkMap (EventPacket in){
-        if ( isi == null || isi.length != chip.getSizeX() || isi[0].length != chip.getSizeY() || isi[0][0].length != in.getNumCellTypes() ){
-            isi = new float[ chip.getSizeX() ][ chip.getSizeY() ][ in.getNumCellTypes() ];
-            lastTs = new int[ chip.getSizeX() ][ chip.getSizeY() ][ in.getNumCellTypes() ];
+        if ( lastTs == null || !lastTs.hasSize(chip.getSizeX(),chip.getSizeY(),in.getNumCellTypes(),0) ){
+            lastTs = new IntGrid(chip.getSizeX(),chip.getSizeY(),in.getNumCellTypes(),0,0);
+            isi = new float[ lastTs.data.length ];
             avgIsi = new float[ chip.getNumCellTypes() ];
         }
         resetFilter();
@@ -100,13 +117,7 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
             return;
         }
         Arrays.fill(avgIsi,DEFAULT_ISI);
-        for ( int x = 0 ; x < isi.length ; x++ ){
-            for ( int y = 0 ; y < isi[0].length ; y++ ){
-                for ( int t = 0 ; t < isi[0][0].length ; t++ ){
-                    isi[x][y][t] = DEFAULT_ISI;
-                }
-            }
-        }
+        Arrays.fill(isi,DEFAULT_ISI);
     }
 
     float probOfTransmission (float isi,int type){
@@ -164,6 +175,31 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
         getPrefs().putBoolean("ProbFPNCorrectionFilter.overlayProbabilty",overlayProbabilty);
     }
 
+    /**
+     * @return the useSharedTimestampMap
+     */
+    public boolean isUseSharedTimestampMap (){
+        return useSharedTimestampMap;
+    }
+
+    /**
+     * Sets whether the last event time of each cell is read from the
+     * FilterChain's shared map instead of this filter's own map.
+     *
+     * @param useSharedTimestampMap the useSharedTimestampMap to set
+     */
+    public void setUseSharedTimestampMap (boolean useSharedTimestampMap){
+        boolean old = this.useSharedTimestampMap;
+        this.useSharedTimestampMap = useSharedTimestampMap;
+        getPrefs().putBoolean("ProbFPNCorrectionFilter.useSharedTimestampMap",useSharedTimestampMap);
+        getSupport().firePropertyChange("useSharedTimestampMap",old,useSharedTimestampMap);
+    }
+
+    @Override
+    public boolean usesSharedTimestampMap (){
+        return useSharedTimestampMap;
+    }
+
     public void annotate (float[][][] frame){
     }
 
@@ -189,8 +225,9 @@ public class ProbFPNCorrectionFilter extends EventFilter2D implements FrameAnnot
         float[] rgb = new float[ 3 ];
         for ( int x = 0 ; x < sx ; x++ ){
             for ( int y = 0 ; y < sy ; y++ ){
+                final int k = lastTs.index(x,y);
                 for ( int t = 0 ; t < st ; t++ ){
-                    float v = probOfTransmission(isi[x][y][t],t);
+                    float v = probOfTransmission(isi[k + t],t);
                     rgb[t] = v;
                 }
                 gl.glColor3fv(rgb,0);
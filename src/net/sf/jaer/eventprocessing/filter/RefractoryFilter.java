@@ -2,21 +2,23 @@ package net.sf.jaer.eventprocessing.filter;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.Arrays;
 import java.util.Observable;
 import java.util.Observer;
 
 import net.sf.jaer.Description;
 import net.sf.jaer.DevelopmentStatus;
 import net.sf.jaer.chip.AEChip;
-import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.ColumnarEventPacket;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventio.AEFileInputStream;
 import net.sf.jaer.eventio.AEInputStream;
+import net.sf.jaer.eventprocessing.ColumnarEventFilter;
 import static net.sf.jaer.eventprocessing.EventFilter.log;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.PixelTimestampMap;
 import net.sf.jaer.graphics.AEViewer;
 import net.sf.jaer.graphics.AbstractAEPlayer;
+import net.sf.jaer.util.IntGrid;
 
 /**
  * Adds a refractory period to pixels so that they events only pass if there is
@@ -28,7 +30,7 @@ import net.sf.jaer.graphics.AbstractAEPlayer;
  */
 @Description("Applies a refractory period to pixels so that they events only pass if there is sufficient time since the last event from that pixel")
 @DevelopmentStatus(DevelopmentStatus.Status.Stable)
-public class RefractoryFilter extends EventFilter2D implements Observer, PropertyChangeListener {
+public class RefractoryFilter extends EventFilter2D implements Observer, PropertyChangeListener, ColumnarEventFilter {
 
     final int DEFAULT_TIMESTAMP = Integer.MIN_VALUE;
     /**
@@ -44,7 +46,9 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
      */
     private int subsampleBy = getPrefs().getInt("RefractoryFilter.subsampleBy", 0);
     private boolean passShortISIsEnabled = prefs().getBoolean("RefractoryFilter.passShortISIsEnabled", false);
-    int[][] lastTimestamps;
+    private boolean useSharedTimestampMap = prefs().getBoolean("RefractoryFilter.useSharedTimestampMap", false);
+    IntGrid lastTimestamps;
+    private final ColumnarEventPacket columns = new ColumnarEventPacket();
 
     private boolean addedViewerPropertyChangeListener = false; // TODO promote these to base EventFilter class
     private boolean addTimeStampsResetPropertyChangeListener = false;
@@ -57,10 +61,11 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
         setPropertyTooltip("refractoryPeriodUs", "Events with less than this delta time in us are blocked");
         setPropertyTooltip("subsampleBy", "Past event addresses are subsampled by this many bits in x and y");
         setPropertyTooltip("passShortISIsEnabled", "<html>Inverts filtering so that only events with short ISIs are passed through.<br>If refractoryPeriodUs==0, then you can block all events with idential timestamp from the same pixel.");
+        setPropertyTooltip("useSharedTimestampMap", "<html>Reads past event times from the map that the FilterChain keeps for all its filters instead of keeping its own.<br>The shared map holds all input events of the chain, also those removed by earlier filters, but no earlier events with the same timestamp.<br>Only used if subsampleBy==0.");
     }
 
     void allocateMaps(AEChip chip) {
-        lastTimestamps = new int[chip.getSizeX()][chip.getSizeY()];
+        lastTimestamps = new IntGrid(chip.getSizeX(), chip.getSizeY(), 0, DEFAULT_TIMESTAMP);
     }
     int ts = 0; // used to reset filter
 
@@ -73,40 +78,54 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
      * in place in the in packet.
      */
     synchronized public EventPacket filterPacket(EventPacket in) {
-//        checkOutputPacketEventType(in);
+        filterColumns(columns.gather(in));
+        columns.scatterFilteredOut();
+        columns.clear();
+        return in;
+    }
+
+    /**
+     * Filters the columns in place; an event passes if it is more than
+     * refractoryPeriodUs after the last event from the same (subsampled)
+     * address, or the reverse if passShortISIsEnabled.
+     *
+     * @param in the columnar view of the input packet
+     */
+    @Override
+    synchronized public void filterColumns(ColumnarEventPacket in) {
         if (lastTimestamps == null) {
             allocateMaps(chip);
         }
         maybeAddListeners(chip);
-        int sx = chip.getSizeX(), sy = chip.getSizeY();
-        // for each event only write it to the out buffers if it is 
-        // more than refractoryPeriodUs after the last time an event happened in neighborhood
-//        OutputEventIterator outItr = getOutputPacket().outputIterator();
-//        int sx = chip.getSizeX() - 1;
-//        int sy = chip.getSizeY() - 1;
-        for (Object e : in) {
-            BasicEvent i = (BasicEvent) e;
-            if (i.isSpecial()) {
+        final int sx = chip.getSizeX(), sy = chip.getSizeY();
+        final int n = in.size;
+        final int[] timestamps = in.timestamps;
+        final short[] xs = in.x, ys = in.y;
+        final IntGrid grid = lastTimestamps;
+        final int[] map = grid.data;
+        final int shift = subsampleBy, period = refractoryPeriodUs;
+        final boolean passShort = passShortISIsEnabled;
+        final PixelTimestampMap shared = usesSharedTimestampMap() ? getSharedTimestampMap() : null;
+        for (int i = 0; i < n; i++) {
+            if (in.isSkipped(i)) {
                 continue;
             }
-            if (i.x >= sx || i.x < 0 || i.y >= sy || i.y < 0) {
+            final short ix = xs[i], iy = ys[i];
+            if (ix >= sx || ix < 0 || iy >= sy || iy < 0) {
                 continue;
             }
-            ts = i.timestamp;
-            short x = (short) (i.x >>> subsampleBy), y = (short) (i.y >>> subsampleBy);
-            int lastt = lastTimestamps[x][y];
-            int deltat = (ts - lastt);
-            boolean longISI = lastt == DEFAULT_TIMESTAMP || deltat > refractoryPeriodUs; // if refractoryPeriodUs==0, then all events with ISI==0 pass if passShortISIsEnabled
-            if ((longISI && !passShortISIsEnabled) || (!longISI && passShortISIsEnabled)) {
-//                BasicEvent o = (BasicEvent) outItr.nextOutput();
-//                o.copyFrom(i);
-                i.setFilteredOut(false);
-            } else {
-                i.setFilteredOut(true);
+            ts = timestamps[i];
+            final int k = grid.index(ix >>> shift, iy >>> shift);
+            final int lastt = shared != null ? shared.getLastTimestampBefore(ix, iy, ts) : map[k];
+            final int deltat = (ts - lastt);
+            final boolean longISI = lastt == DEFAULT_TIMESTAMP || deltat > period; // if refractoryPeriodUs==0, then all events with ISI==0 pass if passShortISIsEnabled
+            if (longISI == passShort) {
+                in.filteredOut.set(i);
+            }
+            if (shared == null) {
+                map[k] = ts;
             }
-            lastTimestamps[x][y] = ts;
         }
-        return in;
     }
 
     /**
@@ -137,9 +156,7 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
     }
 
     void resetLastTimestamps() {
-        for (int[] a:lastTimestamps ) {
-            Arrays.fill(a, DEFAULT_TIMESTAMP);
-        }
+        lastTimestamps.fill(DEFAULT_TIMESTAMP);
     }
 
     synchronized public void resetFilter() {
@@ -198,6 +215,32 @@ public class RefractoryFilter extends EventFilter2D implements Observer, Propert
         getSupport().firePropertyChange("passShortISIsEnabled", old, passShortISIsEnabled);
     }
 
+    /**
+     * @return the useSharedTimestampMap
+     */
+    public boolean isUseSharedTimestampMap() {
+        return useSharedTimestampMap;
+    }
+
+    /**
+     * Sets whether the last event times are read from the FilterChain's
+     * shared map instead of this filter's own map.
+     *
+     * @param useSharedTimestampMap the useSharedTimestampMap to set
+     */
+    public void setUseSharedTimestampMap(boolean useSharedTimestampMap) {
+        boolean old = this.useSharedTimestampMap;
+        this.useSharedTimestampMap = useSharedTimestampMap;
+        prefs().putBoolean("RefractoryFilter.useSharedTimestampMap", useSharedTimestampMap);
+        getSupport().firePropertyChange("useSharedTimestampMap", old, useSharedTimestampMap);
+        resetFilter();
+    }
+
+    @Override
+    public boolean usesSharedTimestampMap() {
+        return useSharedTimestampMap && subsampleBy == 0;
+    }
+
     private void maybeAddListeners(AEChip chip) { // TODO promote to EventFilter
         if (chip.getAeViewer() != null) {
             if (!addedViewerPropertyChangeListener) {
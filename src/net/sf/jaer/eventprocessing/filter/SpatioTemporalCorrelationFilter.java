@@ -17,13 +17,17 @@ import net.sf.jaer.chip.Chip2D;
 import net.sf.jaer.event.BasicEvent;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.PixelTimestampMap;
 import net.sf.jaer.graphics.FrameAnnotater;
+import net.sf.jaer.util.IntGrid;
 
 /**
  * An filter derived from BackgroundActivityFilter that only passes events that
  * are supported by at least some fraction of neighbors in the past
  * {@link #setDt dt} in the immediate spatial neighborhood, defined by a
- * subsampling bit shift.
+ * subsampling bit shift. The past event times are kept in an {@link IntGrid}
+ * with a border of one never-written cell, so that the 3x3 neighborhood is
+ * read without bounds checks.
  *
  * @author tobi, with discussion with Moritz Milde, Dave Karpul, Elisabetta
  * chicca, Chiara Bartolozzi Telluride 2017
@@ -62,8 +66,10 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
      * x and y are shifted right by one bit
      */
     private int subsampleBy = getInt("subsampleBy", 0);
+    private boolean useSharedTimestampMap = getBoolean("useSharedTimestampMap", false);
 
-    int[][] lastTimesMap;
+    IntGrid lastTimesMap;
+    private int[] neighborOffsets; // offsets in lastTimesMap.data of the 3x3 neighborhood
     private int ts = 0; // used to reset filter
 
     public SpatioTemporalCorrelationFilter(AEChip chip) {
@@ -75,6 +81,7 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
         setPropertyTooltip(filt, "subsampleBy", "Past events are spatially subsampled (address right shifted) by this many bits");
         setPropertyTooltip(filt, "letFirstEventThrough", "After reset, let's first event through; if false, first event from each pixel is blocked");
         setPropertyTooltip(filt, "numMustBeCorrelated", "At least this number of 9 (3x3) neighbors (including our own event location) must have had event within past dt");
+        setPropertyTooltip(filt, "useSharedTimestampMap", "<html>Reads past event times from the map that the FilterChain keeps for all its filters instead of keeping its own.<br>The shared map holds all input events of the chain, also those removed by earlier filters, but no earlier events with the same timestamp.<br>Only used if subsampleBy==0.");
         setPropertyTooltip(adap, "activityBinDimBits", "2^this is the size of rectangular blocks that histogram event activity for measuring entropy (structure) to evaluate effectiveness of filtering");
         setPropertyTooltip(adap, "adaptiveFilteringEnabled", "enables adaptive control of dt to achieve a target entropyReduction between two limits");
         setPropertyTooltip(adap, "entropyReductionLowLimit", "if entropy reduction from filtering is below this limit, decrease dt");
@@ -96,10 +103,14 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
         filteredOutEventCount = 0;
         final int sx = chip.getSizeX() >> subsampleBy;
         final int sy = chip.getSizeY() >> subsampleBy;
-        if (lastTimesMap == null || lastTimesMap.length != sx || lastTimesMap[0].length != sy) {
+        if (lastTimesMap == null || !lastTimesMap.hasSize(sx, sy, 1, 1)) {
             allocateMaps(chip);
         }
         resetActivityHistograms();
+        final PixelTimestampMap shared = usesSharedTimestampMap() ? getSharedTimestampMap() : null;
+        final IntGrid grid = lastTimesMap;
+        final int[] map = grid.data, neighbors = neighborOffsets;
+        final int dtUs = dt;
 
         // for each event only keep it if it is within dt of the last time
         // an event happened in the direct neighborhood
@@ -121,8 +132,11 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
             }
             int ax = x >> activityBinDimBits, ay = y >> activityBinDimBits;
             activityHistInput[ax][ay]++;
-            if (lastTimesMap[x][y] == DEFAULT_TIMESTAMP) {
-                lastTimesMap[x][y] = ts;
+            final int k = grid.index(x, y);
+            if ((shared != null ? shared.getLastTimestampBefore(x, y, ts) : map[k]) == DEFAULT_TIMESTAMP) {
+                if (shared == null) {
+                    map[k] = ts;
+                }
                 if (letFirstEventThrough) {
                     activityHistFiltered[ax][ay]++;
                     continue;
@@ -132,14 +146,24 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
                 }
             }
             int ncorrelated = 0;
-            for (int xx = x - 1; xx <= x + 1; xx++) {
-                for (int yy = y - 1; yy <= y + 1; yy++) {
-                    if ((xx < 0) || (xx >= sx) || (yy < 0) || (yy >= sy)) {
-                        continue;
+            if (shared != null) {
+                for (int xx = x - 1; xx <= x + 1; xx++) {
+                    for (int yy = y - 1; yy <= y + 1; yy++) {
+                        if ((xx < 0) || (xx >= sx) || (yy < 0) || (yy >= sy)) {
+                            continue;
+                        }
+                        final int lastT = shared.getLastTimestampBefore(xx, yy, ts);
+                        final int deltaT = (ts - lastT);
+                        if (deltaT < dtUs && lastT != DEFAULT_TIMESTAMP) {
+                            ncorrelated++;
+                        }
                     }
-                    final int lastT = lastTimesMap[xx][yy];
+                }
+            } else {
+                for (int o : neighbors) { // the padding holds DEFAULT_TIMESTAMP
+                    final int lastT = map[k + o];
                     final int deltaT = (ts - lastT);
-                    if (deltaT < dt && lastT != DEFAULT_TIMESTAMP) {
+                    if (deltaT < dtUs && lastT != DEFAULT_TIMESTAMP) {
                         ncorrelated++;
                     }
                 }
@@ -150,7 +174,9 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
             } else {
                 activityHistFiltered[ax][ay]++;
             }
-            lastTimesMap[x][y] = ts;
+            if (shared == null) {
+                map[k] = ts;
+            }
         }
         if (totalEventCount > 0) { // don't adjust if there were no DVS events (i.e. only APS turned on)
             adaptFiltering();
@@ -177,10 +203,8 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
 
     private void allocateMaps(AEChip chip) {
         if ((chip != null) && (chip.getNumCells() > 0)) {
-            lastTimesMap = new int[chip.getSizeX() >> subsampleBy][chip.getSizeY() >> subsampleBy];
-            for (int[] arrayRow : lastTimesMap) {
-                Arrays.fill(arrayRow, DEFAULT_TIMESTAMP);
-            }
+            lastTimesMap = new IntGrid(chip.getSizeX() >> subsampleBy, chip.getSizeY() >> subsampleBy, 1, DEFAULT_TIMESTAMP);
+            neighborOffsets = lastTimesMap.neighborOffsets(1, true);
         }
         binDim = 1 << activityBinDimBits;
         nBinsX = chip.getSizeX() / binDim;
@@ -277,6 +301,32 @@ public class SpatioTemporalCorrelationFilter extends EventFilter2D implements Ob
         putBoolean("letFirstEventThrough", letFirstEventThrough);
     }
 
+    /**
+     * @return the useSharedTimestampMap
+     */
+    public boolean isUseSharedTimestampMap() {
+        return useSharedTimestampMap;
+    }
+
+    /**
+     * Sets whether the last event times are read from the FilterChain's
+     * shared map instead of this filter's own map.
+     *
+     * @param useSharedTimestampMap the useSharedTimestampMap to set
+     */
+    public void setUseSharedTimestampMap(boolean useSharedTimestampMap) {
+        boolean old = this.useSharedTimestampMap;
+        this.useSharedTimestampMap = useSharedTimestampMap;
+        putBoolean("useSharedTimestampMap", useSharedTimestampMap);
+        getSupport().firePropertyChange("useSharedTimestampMap", old, useSharedTimestampMap);
+        resetFilter();
+    }
+
+    @Override
+    public boolean usesSharedTimestampMap() {
+        return useSharedTimestampMap && subsampleBy == 0;
+    }
+
     @Override
     public void annotate(GLAutoDrawable drawable) {
         if (!isFilterEnabled()) {
@@ -158,9 +158,9 @@ public class RectangularClusterTracker extends EventFilter2D
 	private float surroundInhibitionCost = getFloat("surroundInhibitionCost", 1);
 
 	/**
-	 * The list of clusters (visible and invisible).
+	 * The list of clusters (visible and invisible), oldest first.
 	 */
-	volatile protected LinkedList<Cluster> clusters = new LinkedList<>();
+	volatile protected ArrayList<Cluster> clusters = new ArrayList<>();
 
 	/**
 	 * The list of visible clusters.
@@ -208,6 +208,12 @@ public class RectangularClusterTracker extends EventFilter2D
 
 	protected FastClusterFinder fastClusterFinder = new FastClusterFinder();
 
+	/**
+	 * Spatial index of the clusters, used by getNearestCluster and
+	 * getFirstContainingCluster.
+	 */
+	protected ClusterGridIndex clusterIndex = new ClusterGridIndex();
+
 	/**
 	 * Creates a new instance of RectangularClusterTracker.
 	 *
@@ -663,9 +669,13 @@ public class RectangularClusterTracker extends EventFilter2D
 				clusters.remove(c2);
 				fastClusterFinder.removeCluster(c1);
 				fastClusterFinder.removeCluster(c2);
+				clusterIndex.remove(c1);
+				clusterIndex.remove(c2);
 
 				// clusters.add(new Cluster(c1, c2)); // No good for cluster-class overriding!
-				clusters.add(createCluster(c1, c2));
+				Cluster merged = createCluster(c1, c2);
+				clusters.add(merged);
+				clusterIndex.add(merged);
 
 				// System.out.println("merged "+c1+" and "+c2);
 			}
@@ -677,6 +687,7 @@ public class RectangularClusterTracker extends EventFilter2D
 		if (isHighwayPerspectiveEnabled()) {
 			for (Cluster c : clusters) {
 				c.setRadius(defaultClusterRadius);
+				clusterIndex.update(c);
 			}
 		}
 	}
@@ -756,6 +767,7 @@ public class RectangularClusterTracker extends EventFilter2D
 		clusters.removeAll(pruneList);
 		for (Cluster c : pruneList) {
 			fastClusterFinder.removeCluster(c);
+			clusterIndex.remove(c);
 			c = null;
 		}
 	}
@@ -791,6 +803,7 @@ public class RectangularClusterTracker extends EventFilter2D
 		initDefaults();
 		defaultClusterRadius = Math.max(chip.getSizeX(), chip.getSizeY()) * getClusterSize();
 		fastClusterFinder.init();
+		clusterIndex.init();
 	}
 
 	private void initDefaults() {
@@ -828,6 +841,7 @@ public class RectangularClusterTracker extends EventFilter2D
 		for (Cluster c : clusters) {
 			c.getLastPacketLocation().setLocation(c.location);
 		}
+		clusterIndex.invalidate(); // clusters may have been changed by other code since the last packet
 
 		// for each event, see which cluster it is closest to and add it to this cluster.
 		// if its too far from any cluster, make a new cluster if we have not jet
@@ -849,6 +863,7 @@ public class RectangularClusterTracker extends EventFilter2D
 				else {
 					closest.addEvent(ev);
 				}
+				clusterIndex.update(closest);
 			}
 			else if (clusters.size() < maxNumClusters) { // start a new cluster
 				Cluster newCluster;
@@ -859,9 +874,13 @@ public class RectangularClusterTracker extends EventFilter2D
 					newCluster = createCluster(ev);
 				}
 				clusters.add(newCluster);
+				clusterIndex.add(newCluster);
 			}
 
 			updatedClusterList = maybeCallUpdateObservers(in, (lastTimestamp = ev.timestamp)); // callback to update()
+			if (updatedClusterList) {
+				clusterIndex.invalidate(); // observers may have changed the clusters
+			}
 
 			if (logDataEnabled) {
 				logData(ev, (EventPacket<BasicEvent>) in);
@@ -928,6 +947,9 @@ public class RectangularClusterTracker extends EventFilter2D
 	 * <p>
 	 * The cluster radius is actually defined for x and y directions since the
 	 * cluster may not have a square aspect ratio.
+	 * <p>
+	 * Only the clusters that {@link #clusterIndex} lists for the event's
+	 * location are tested, in the order of the clusters list.
 	 *
 	 * @param event
 	 *            the event
@@ -938,7 +960,10 @@ public class RectangularClusterTracker extends EventFilter2D
 		float minDistance = Float.MAX_VALUE;
 		Cluster closest = null;
 		float currentDistance = 0;
-		for (Cluster c : clusters) {
+		final Cluster[] candidates = clusterIndex.candidates(event);
+		final int n = clusterIndex.numCandidates;
+		for (int i = 0; i < n; i++) {
+			final Cluster c = candidates[i];
 			float rX = c.radiusX;
 			float rY = c.radiusY; // this is surround region for purposes of dynamicSize scaling of cluster size or
 									// aspect ratio
@@ -976,7 +1001,10 @@ public class RectangularClusterTracker extends EventFilter2D
 		float minDistance = Float.MAX_VALUE;
 		Cluster closest = null;
 		float currentDistance = 0;
-		for (Cluster c : clusters) {
+		final Cluster[] candidates = clusterIndex.candidates(event);
+		final int n = clusterIndex.numCandidates;
+		for (int i = 0; i < n; i++) {
+			final Cluster c = candidates[i];
 			float rX = c.radiusX;
 			float rY = c.radiusY; // this is surround region for purposes of dynamicSize scaling of cluster size or
 									// aspect ratio
@@ -1030,6 +1058,7 @@ public class RectangularClusterTracker extends EventFilter2D
 				c.lastUpdateTime = t;
 			}
 			fastClusterFinder.update(c);
+			clusterIndex.update(c);
 		}
 	}
 
@@ -1170,6 +1199,9 @@ public class RectangularClusterTracker extends EventFilter2D
 		 * compute position updates given a cluster velocityPPT and time now.
 		 */
 		protected int lastUpdateTime;
+
+		// position of this cluster in the clusters list and range of cells covered in clusterIndex
+		private int indexOrder = -1, indexX0 = -1, indexY0, indexX1, indexY1;
 		/**
 		 * events/tick event rate for last two events.
 		 */
@@ -2783,7 +2815,7 @@ public class RectangularClusterTracker extends EventFilter2D
 	 * @return list of clusters
 	 */
 	@Override
-	public LinkedList<RectangularClusterTracker.Cluster> getClusters() {
+	public ArrayList<RectangularClusterTracker.Cluster> getClusters() {
 		return this.clusters;
 	}
 
@@ -2820,6 +2852,7 @@ public class RectangularClusterTracker extends EventFilter2D
 			clusterLogger.logClusterHistories(clusters);
 		}
 		clusters.clear();
+		clusterIndex.invalidate();
 		clusterCounter = 0;
 		logFrameNumber = 0;
 		averageVelocityPPT.x = 0;
@@ -3006,6 +3039,243 @@ public class RectangularClusterTracker extends EventFilter2D
 		}
 	}
 
+	/**
+	 * A grid of cells over the pixel array that lists for each cell the
+	 * clusters that could capture an event in it, so that an event is only
+	 * tested against the clusters near it instead of all clusters.
+	 * <p>
+	 * The region of a cluster is the bounding box of its rectangle (times the
+	 * surround if dynamicSizeEnabled), rotated by the cluster angle and swept
+	 * along the predicted movement that distanceToX and distanceToY apply over
+	 * a time window. The window is rebuilt when an event falls outside it, at
+	 * the start of each packet and after each cluster list update; single
+	 * clusters are updated when they move, are added, merged or pruned. Each
+	 * cell lists its clusters in the order of the clusters list, so lookups
+	 * return the same cluster as testing the whole list.
+	 */
+	protected class ClusterGridIndex {
+
+		/**
+		 * Cells are 2^CELL_SHIFT pixels square
+		 */
+		final int CELL_SHIFT = 4;
+		/**
+		 * Limits of the time window in timestamp ticks that the cluster regions
+		 * cover; the window is shorter when clusters move fast
+		 */
+		final int MIN_WINDOW = 1000, MAX_WINDOW = 100000;
+		private int nx = 0, ny = 0;
+		private Cluster[][] cells = null;
+		private int[] counts = null;
+		private boolean valid = false;
+		private int windowStart, windowEnd;
+		private int nextOrder = 0, numIndexed = 0;
+		private Cluster[] allClusters = new Cluster[0];
+		private int rx0, ry0, rx1, ry1; // cell range from computeRange
+		/**
+		 * The number of clusters returned by the last call to candidates
+		 */
+		int numCandidates = 0;
+
+		void init() {
+			nx = Math.max(1, (chip.getSizeX() + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT);
+			ny = Math.max(1, (chip.getSizeY() + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT);
+			cells = new Cluster[nx * ny][];
+			counts = new int[nx * ny];
+			valid = false;
+		}
+
+		/**
+		 * Marks the index to be rebuilt on the next lookup, e.g. after the
+		 * clusters have changed in ways the index is not told about.
+		 */
+		protected void invalidate() {
+			valid = false;
+		}
+
+		/**
+		 * Returns the clusters that can contain an event, in the order of the
+		 * clusters list. The number of them is {@link #numCandidates}. Events
+		 * outside the pixel array get all clusters.
+		 *
+		 * @param e
+		 *            the event
+		 * @return the array of candidates, which must not be modified
+		 */
+		protected Cluster[] candidates(BasicEvent e) {
+			if (cells == null) {
+				init();
+			}
+			if ((e.x < 0) || (e.y < 0) || ((e.x >> CELL_SHIFT) >= nx) || ((e.y >> CELL_SHIFT) >= ny)) {
+				allClusters = clusters.toArray(allClusters);
+				numCandidates = clusters.size();
+				return allClusters;
+			}
+			if (!valid || (numIndexed != clusters.size()) || (e.timestamp < windowStart) || (e.timestamp > windowEnd)) {
+				rebuild(e.timestamp);
+			}
+			final int k = (e.x >> CELL_SHIFT) + ((e.y >> CELL_SHIFT) * nx);
+			numCandidates = counts[k];
+			return cells[k];
+		}
+
+		private void rebuild(int t) {
+			for (int k = 0; k < counts.length; k++) {
+				if (counts[k] > 0) {
+					Arrays.fill(cells[k], 0, counts[k], null);
+					counts[k] = 0;
+				}
+			}
+			float maxSpeed = 0;
+			for (Cluster c : clusters) {
+				maxSpeed = Math.max(maxSpeed, Math.abs(c.velocityPPT.x) + Math.abs(c.velocityPPT.y));
+			}
+			int window = MAX_WINDOW;
+			if (maxSpeed > 0) { // sweep about one cell per window
+				window = (int) Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, (1 << CELL_SHIFT) / maxSpeed));
+			}
+			windowStart = t;
+			windowEnd = (int) Math.min(Integer.MAX_VALUE, (long) t + window);
+			nextOrder = 0;
+			for (Cluster c : clusters) {
+				c.indexOrder = nextOrder++;
+				c.indexX0 = -1;
+				if (computeRange(c)) {
+					place(c);
+				}
+			}
+			numIndexed = clusters.size();
+			valid = true;
+		}
+
+		/**
+		 * Adds a cluster that was just added to the end of the clusters list.
+		 *
+		 * @param c
+		 *            the cluster
+		 */
+		protected void add(Cluster c) {
+			if (!valid) {
+				return;
+			}
+			c.indexOrder = nextOrder++;
+			c.indexX0 = -1;
+			if (computeRange(c)) {
+				place(c);
+			}
+			numIndexed++;
+		}
+
+		/**
+		 * Removes a cluster that was removed from the clusters list.
+		 *
+		 * @param c
+		 *            the cluster
+		 */
+		protected void remove(Cluster c) {
+			if (!valid || (c.indexOrder < 0)) {
+				return;
+			}
+			erase(c);
+			c.indexOrder = -1;
+			numIndexed--;
+		}
+
+		/**
+		 * Moves a cluster to the cells of its present region, e.g. after it
+		 * has moved or changed size.
+		 *
+		 * @param c
+		 *            the cluster
+		 */
+		protected void update(Cluster c) {
+			if (!valid || (c.indexOrder < 0)) {
+				return;
+			}
+			if (!computeRange(c)) {
+				erase(c);
+			}
+			else if ((rx0 != c.indexX0) || (ry0 != c.indexY0) || (rx1 != c.indexX1) || (ry1 != c.indexY1)) {
+				erase(c);
+				place(c);
+			}
+		}
+
+		// computes the cell range of the region of c; false if it covers no cell
+		private boolean computeRange(Cluster c) {
+			float rX = c.radiusX, rY = c.radiusY;
+			if (dynamicSizeEnabled) {
+				rX *= surround;
+				rY *= surround;
+			}
+			final float cos = Math.abs(c.cosAngle), sin = Math.abs(c.sinAngle);
+			final float hx = (rX * cos) + (rY * sin) + 1, hy = (rX * sin) + (rY * cos) + 1; // 1 pixel for rounding
+			final int dt0 = windowStart - c.lastUpdateTime, dt1 = windowEnd - c.lastUpdateTime;
+			final float x0 = c.location.x - (c.velocityPPT.x * dt0), x1 = c.location.x - (c.velocityPPT.x * dt1);
+			final float y0 = c.location.y - (c.velocityPPT.y * dt0), y1 = c.location.y - (c.velocityPPT.y * dt1);
+			final float xmin = Math.min(x0, x1) - hx, xmax = Math.max(x0, x1) + hx;
+			final float ymin = Math.min(y0, y1) - hy, ymax = Math.max(y0, y1) + hy;
+			if (!((xmax >= 0) && (ymax >= 0) && (xmin < (nx << CELL_SHIFT)) && (ymin < (ny << CELL_SHIFT)))) {
+				return false; // outside, or NaN
+			}
+			rx0 = Math.max(0, (int) xmin >> CELL_SHIFT);
+			ry0 = Math.max(0, (int) ymin >> CELL_SHIFT);
+			rx1 = Math.min(nx - 1, (int) xmax >> CELL_SHIFT);
+			ry1 = Math.min(ny - 1, (int) ymax >> CELL_SHIFT);
+			return true;
+		}
+
+		// adds c to the cells of the range from computeRange, keeping the order of the clusters list
+		private void place(Cluster c) {
+			c.indexX0 = rx0;
+			c.indexY0 = ry0;
+			c.indexX1 = rx1;
+			c.indexY1 = ry1;
+			for (int y = ry0; y <= ry1; y++) {
+				for (int x = rx0; x <= rx1; x++) {
+					final int k = x + (y * nx);
+					Cluster[] cell = cells[k];
+					int n = counts[k];
+					if (cell == null) {
+						cell = cells[k] = new Cluster[4];
+					}
+					else if (n == cell.length) {
+						cell = cells[k] = Arrays.copyOf(cell, 2 * n);
+					}
+					int i = n;
+					while ((i > 0) && (cell[i - 1].indexOrder > c.indexOrder)) {
+						cell[i] = cell[i - 1];
+						i--;
+					}
+					cell[i] = c;
+					counts[k] = n + 1;
+				}
+			}
+		}
+
+		private void erase(Cluster c) {
+			if (c.indexX0 < 0) {
+				return;
+			}
+			for (int y = c.indexY0; y <= c.indexY1; y++) {
+				for (int x = c.indexX0; x <= c.indexX1; x++) {
+					final int k = x + (y * nx);
+					final Cluster[] cell = cells[k];
+					final int n = counts[k];
+					for (int i = 0; i < n; i++) {
+						if (cell[i] == c) {
+							System.arraycopy(cell, i + 1, cell, i, n - i - 1);
+							cell[n - 1] = null;
+							counts[k] = n - 1;
+							break;
+						}
+					}
+				}
+			}
+			c.indexX0 = -1;
+		}
+	}
+
 	public void doSelectVanishingPoint() {
 		if (glCanvas == null) {
 			return;
@@ -3132,6 +3402,7 @@ public class RectangularClusterTracker extends EventFilter2D
 		}
 		this.surround = surround;
 		putFloat("surround", surround);
+		clusterIndex.invalidate();
 	}
 
 	public float getMinSurround() {
@@ -3190,6 +3461,7 @@ public class RectangularClusterTracker extends EventFilter2D
 	public void setDynamicSizeEnabled(boolean dynamicSizeEnabled) {
 		this.dynamicSizeEnabled = dynamicSizeEnabled;
 		putBoolean("dynamicSizeEnabled", dynamicSizeEnabled);
+		clusterIndex.invalidate();
 	}
 	// </editor-fold>
 
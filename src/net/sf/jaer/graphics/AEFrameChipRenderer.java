@@ -26,6 +26,7 @@ import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.event.PolarityEvent;
 import net.sf.jaer.event.PolarityEvent.Polarity;
 import net.sf.jaer.event.orientation.OrientationEventInterface;
+import net.sf.jaer.util.TripleBuffer;
 import net.sf.jaer.util.filter.LowpassFilter2D;
 import net.sf.jaer.util.histogram.SimpleHistogram;
 
@@ -41,6 +42,10 @@ import net.sf.jaer.util.histogram.SimpleHistogram;
  * Besides the pixmaps for APS samples and ON and OFF events, an additional
  * pixmap is provided for pixel annotation; see {@link #getAnnotateMap() }.
  *
+ * After each packet the ON, OFF and annotation maps are published as an
+ * {@link EventMapFrame} that the display draws, so that the display can run in
+ * another thread than rendering; see {@link #publishFrame()}.
+ *
  * @author christian, tobi
  * @see ChipRendererDisplayMethod
  */
@@ -103,6 +108,19 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @see #setAnnotateColorRGBA(int, int, float[]) and similar methods
      */
     protected FloatBuffer annotateMap;
+    /**
+     * The tiles of the ON and OFF maps and of the annotation map that were
+     * written, so that only those are cleared and uploaded to the textures.
+     * Subclasses that write the maps directly must mark the pixels they write.
+     *
+     * @see #markEventPixel(int)
+     */
+    protected DirtyTiles eventTiles, annotateTiles;
+    private float frameStartValue = 0; // value of all pixBuffer components at the start of an APS frame; the value of the last resetMaps or resetAnnotationFrame
+    // the frames passed to the display; see publishFrame
+    private final TripleBuffer<EventMapFrame> frames = new TripleBuffer<EventMapFrame>(new EventMapFrame(), new EventMapFrame(), new EventMapFrame());
+    private long[] eventTileSerials, annotateTileSerials; // serial of the last frame that changed each tile
+    private long frameSerial = 0;
     // double buffered histogram so we can accumulate new histogram while old one is still being rendered and returned
     // to caller
     private final int histStep = 4; // histogram bin step in ADC counts of 1024 levels
@@ -204,44 +222,59 @@ public class AEFrameChipRenderer extends AEChipRenderer {
 
     protected void resetMaps() {
         setColors();
+        clearEventMaps();
+        frameStartValue = 0;
+    }
+
+    /**
+     * Makes the ON and OFF maps fully transparent again. Only the tiles
+     * written since the last clear are cleared, so the cost scales with the
+     * number of events rendered rather than with the size of the sensor.
+     */
+    protected void clearEventMaps() {
         checkPixmapAllocation();
         final int n = 4 * textureWidth * textureHeight;
-        if ((grayBuffer == null) || (grayBuffer.capacity() != n)) {
-            grayBuffer = FloatBuffer.allocate(n); // BufferUtil.newFloatBuffer(n);
-        }
-
-        grayBuffer.rewind();
-        // Fill maps with fully transparent values
-        Arrays.fill(grayBuffer.array(), 0.0f);
-        System.arraycopy(grayBuffer.array(), 0, onMap.array(), 0, n);
-        System.arraycopy(grayBuffer.array(), 0, offMap.array(), 0, n);
-        // if(displayAnnotation) Arrays.fill(annotateMap.array(), 0);
-
-        grayBuffer.rewind();
+        eventTiles.clear(onMap.array(), offMap.array());
         onMap.rewind();
         offMap.rewind();
         onMap.limit(n);
         offMap.limit(n);
     }
 
+    /**
+     * Marks a pixel of the ON and OFF maps as written, so that it is cleared
+     * by the next reset and uploaded to the texture.
+     *
+     * @param index the index of the pixel in the maps, e.g. from getIndex
+     */
+    protected final void markEventPixel(final int index) {
+        eventTiles.markIndex(index);
+    }
+
+    /**
+     * Marks a pixel of the annotation map as written.
+     *
+     * @param index the index of the pixel in the annotation map
+     */
+    protected final void markAnnotatePixel(final int index) {
+        annotateTiles.markIndex(index);
+    }
+
     public synchronized void clearAnnotationMap() {
         resetAnnotationFrame(0);
     }
 
     @Override
     public synchronized void resetAnnotationFrame(final float resetValue) {
+        frameStartValue = resetValue;
         checkPixmapAllocation();
         final int n = 4 * textureWidth * textureHeight;
-        if ((grayBuffer == null) || (grayBuffer.capacity() != n)) {
-            grayBuffer = FloatBuffer.allocate(n); // BufferUtil.newFloatBuffer(n);
+        if (resetValue == 0) {
+            annotateTiles.clear(annotateMap.array()); // only where annotation was drawn
+        } else {
+            Arrays.fill(annotateMap.array(), 0, n, resetValue);
+            annotateTiles.markAll();
         }
-
-        grayBuffer.rewind();
-        // Fill maps with fully transparent values
-        Arrays.fill(grayBuffer.array(), resetValue);
-        System.arraycopy(grayBuffer.array(), 0, annotateMap.array(), 0, n);
-
-        grayBuffer.rewind();
         annotateMap.rewind();
         annotateMap.limit(n);
     }
@@ -319,6 +352,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
         } else {
             renderDvsEvents(pkt);
         }
+        publishFrame();
     }
 
     protected void renderApsDvsEvents(final EventPacket pkt) {
@@ -502,7 +536,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
         timestampFrameStart = ts;
         maxValue = Float.MIN_VALUE;
         minValue = Float.MAX_VALUE;
-        System.arraycopy(grayBuffer.array(), 0, pixBuffer.array(), 0, pixBuffer.array().length);
+        Arrays.fill(pixBuffer.array(), frameStartValue);
 
     }
 
@@ -540,6 +574,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
         if ((index < 0) || (index >= map.length)) {
             return;
         }
+        markEventPixel(index);
 
         if (packet.getNumCellTypes() > 2) {
             checkTypeColors(packet.getNumCellTypes());
@@ -665,6 +700,12 @@ public class AEFrameChipRenderer extends AEChipRenderer {
             offMap = FloatBuffer.allocate(n);
             annotateMap = FloatBuffer.allocate(n);
         }
+        if ((eventTiles == null) || !eventTiles.hasSize(textureWidth, textureHeight)) {
+            eventTiles = new DirtyTiles(textureWidth, textureHeight);
+            annotateTiles = new DirtyTiles(textureWidth, textureHeight);
+            eventTiles.markAll(); // the layout of the maps changed, so all of them must be cleared
+            annotateTiles.markAll();
+        }
     }
 
     /**
@@ -738,6 +779,46 @@ public class AEFrameChipRenderer extends AEChipRenderer {
         return annotateMap;
     }
 
+    /**
+     * Publishes the current ON, OFF and annotation maps as the latest frame
+     * for the display. Only the tiles changed since the back frame was last
+     * published are copied. Called at the end of {@link #render}; subclasses
+     * that override render and write the maps must call it as well.
+     */
+    protected synchronized void publishFrame() {
+        checkPixmapAllocation();
+        final int nTiles = eventTiles.getNumTiles();
+        if ((eventTileSerials == null) || (eventTileSerials.length != nTiles)) {
+            eventTileSerials = new long[nTiles];
+            annotateTileSerials = new long[nTiles];
+        }
+        frameSerial++;
+        eventTiles.stampChanged(eventTileSerials, frameSerial);
+        annotateTiles.stampChanged(annotateTileSerials, frameSerial);
+        frames.getBack().copyFrom(textureWidth, textureHeight, onMap.array(), offMap.array(), annotateMap.array(), eventTileSerials,
+                annotateTileSerials, frameSerial);
+        frames.publish();
+    }
+
+    /**
+     * Returns the latest published frame of the ON, OFF and annotation maps.
+     * Called by the display, which may run in another thread than render; the
+     * frame is not changed until the next call.
+     *
+     * @return the frame, which is empty if none was published yet
+     */
+    protected EventMapFrame acquireFrame() {
+        return frames.acquire();
+    }
+
+    /**
+     * @return true if a frame was published since the display last acquired
+     * one
+     */
+    public boolean isNewFrameAvailable() {
+        return frames.isFresh();
+    }
+
     /**
      * Returns index into pixmap. To access RGB values, just add 0,1, or 2 to
      * the returned index.
@@ -817,6 +898,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      */
     @Override
     public void setAnnotateValue(final int index, final float value) {
+        markAnnotatePixel(index);
         annotateMap.put(index, value);
     }
 
@@ -828,6 +910,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      */
     @Override
     public void setAnnotateColorRGB(final int index, final float[] value) {
+        markAnnotatePixel(index);
         annotateMap.put(index, value[0]);
         annotateMap.put(index + 1, value[1]);
         annotateMap.put(index + 2, value[2]);
@@ -841,6 +924,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      * @param value
      */
     public void setAnnotateColorRGBA(final int index, final float[] value) {
+        markAnnotatePixel(index);
         annotateMap.put(index, value[0]);
         annotateMap.put(index + 1, value[1]);
         annotateMap.put(index + 2, value[2]);
@@ -859,6 +943,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
     @Override
     public void setAnnotateColorRGB(final int x, final int y, final float[] value) {
         final int index = getPixMapIndex(x, y);
+        markAnnotatePixel(index);
         annotateMap.put(index, value[0]);
         annotateMap.put(index + 1, value[1]);
         annotateMap.put(index + 2, value[2]);
@@ -874,6 +959,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      */
     public void setAnnotateColorRGBA(final int x, final int y, final float[] value) {
         final int index = getPixMapIndex(x, y);
+        markAnnotatePixel(index);
         annotateMap.put(index, value[0]);
         annotateMap.put(index + 1, value[1]);
         annotateMap.put(index + 2, value[2]);
@@ -889,6 +975,7 @@ public class AEFrameChipRenderer extends AEChipRenderer {
      */
     public void setAnnotateAlpha(final int x, final int y, final float alpha) {
         final int index = getPixMapIndex(x, y);
+        markAnnotatePixel(index);
         annotateMap.put(index + 3, alpha);
     }
 
@@ -273,6 +273,7 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
         aeFileInputStream.setNonMonotonicTimeExceptionsChecked(viewer.getCheckNonMonotonicTimeExceptionsEnabledCheckBoxMenuItem().isSelected());
         aeFileInputStream.setTimestampResetBitmask(viewer.getAeFileInputStreamTimestampResetBitmask());
         aeFileInputStream.setFile(file);
+        aeFileInputStream.startIndexing(); // so that seeking by time is fast once the user seeks
         aeFileInputStream.setRepeat(isRepeat());
         aeFileInputStream.getSupport().addPropertyChangeListener(viewer);
         // so that users of the stream can get the file information
@@ -569,11 +570,20 @@ public class AEPlayer extends AbstractAEPlayer implements AEFileInputStreamInter
         aeFileInputStream.setFractionalPosition(frac);
     }
 
+    /**
+     * Seeks to the first event at or after time, using the timestamp index of
+     * the file. If time is after the last event, the position is unchanged
+     * and only the start time of the next packet is set.
+     *
+     * @param time the timestamp in us
+     */
     @Override
     public void setTime(int time) {
 //            System.out.println(this+".setTime("+time+")");
         if (aeFileInputStream != null) {
-            aeFileInputStream.setCurrentStartTimestamp(time);
+            if (!aeFileInputStream.positionAtTimestamp(time)) {
+                aeFileInputStream.setCurrentStartTimestamp(time);
+            }
         } else {
             log.warning("null AEInputStream");
             Thread.dumpStack();
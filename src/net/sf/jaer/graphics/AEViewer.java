@@ -56,6 +56,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
@@ -102,7 +103,7 @@ import net.sf.jaer.chip.EventExtractor2D;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventio.AEDataFile;
 import net.sf.jaer.eventio.AEFileInputStream;
-import net.sf.jaer.eventio.AEFileOutputStream;
+import net.sf.jaer.eventio.AEFileRecorder;
 import net.sf.jaer.eventio.AEInputStream;
 import net.sf.jaer.eventio.AEMulticastInput;
 import net.sf.jaer.eventio.AEMulticastOutput;
@@ -576,8 +577,16 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
      * The date formatter used by AEViewer for logged data files
      */
     private File loggingFile;
-    AEFileOutputStream loggingOutputStream;
+    /**
+     * Writes logged packets to loggingFile on its own thread
+     */
+    volatile AEFileRecorder loggingRecorder;
+    private long loggingRotateSizeBytes = prefs.getLong("AEViewer.loggingRotateSizeBytes", 0);
+    private long loggingRotateIntervalMs = prefs.getLong("AEViewer.loggingRotateIntervalMs", 0);
+    private int loggingRingSlots = prefs.getInt("AEViewer.loggingRingSlots", AEFileRecorder.DEFAULT_RING_SLOTS);
     private boolean activeRenderingEnabled = prefs.getBoolean("AEViewer.activeRenderingEnabled", true);
+    private boolean decoupledRenderingEnabled = prefs.getBoolean("AEViewer.decoupledRenderingEnabled", false);
+    private DisplayLoop displayLoop = null; // paints published frames when decoupledRenderingEnabled
     private boolean renderBlankFramesEnabled = prefs.getBoolean("AEViewer.renderBlankFramesEnabled", false);
     // number of packets to skip over rendering, used to speed up real time processing
     private int skipPacketsRenderingNumberMax = prefs.getInt("AEViewer.skipPacketsRenderingNumber", 0), skipPacketsRenderingNumberCurrent = 0;
@@ -818,6 +827,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
         // init menu items that are checkboxes to correct initial state
         viewActiveRenderingEnabledMenuItem.setSelected(isActiveRenderingEnabled());
+        viewDecoupledRenderingEnabledMenuItem.setSelected(isDecoupledRenderingEnabled());
         loggingPlaybackImmediatelyCheckBoxMenuItem.setSelected(isLoggingPlaybackImmediatelyEnabled());
         if (getRenderer() == null) {
             throw new NullPointerException("getRenderer() returns null for this AEChip " + chip);
@@ -848,6 +858,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
             }
         }
         viewLoop.start();
+        if (isDecoupledRenderingEnabled()) {
+            startDisplayLoop();
+        }
 
         // add remote control commands
         // TODO encapsulate all this and command processor
@@ -1711,6 +1724,75 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
     public AEPlayer aePlayer = new AEPlayer(this);
     int noEventCounter = 0;
 
+    /**
+     * Paints the frames that an {@link AEFrameChipRenderer} publishes, at most
+     * at the desired frame rate, when decoupled rendering is enabled. The
+     * ViewLoop then only acquires, filters and renders events into the maps of
+     * the renderer, and never waits for OpenGL or the display.
+     */
+    class DisplayLoop extends Thread {
+
+        volatile boolean stop = false;
+
+        public DisplayLoop() {
+            super();
+            setName("AEViewer.DisplayLoop");
+            setDaemon(true);
+        }
+
+        public void stopThread() {
+            stop = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (!stop) {
+                final long startNs = System.nanoTime();
+                // paint even without a new frame so that annotations, zoom and pixel selection stay live
+                // while paused or idle; the renderer hands back the last frame and nothing is uploaded again
+                if (isDecoupledRenderingActive()) {
+                    if (isActiveRenderingEnabled()) {
+                        chipCanvas.paintFrame();
+                    } else {
+                        chipCanvas.repaint();
+                    }
+                }
+                final long sleepMs = (1000 / getFrameRater().getDesiredFPS()) - ((System.nanoTime() - startNs) / 1000000);
+                try {
+                    Thread.sleep(Math.max(1, sleepMs));
+                } catch (InterruptedException e) {
+                }
+            }
+            log.info("AEViewer.DisplayLoop ending");
+        }
+    }
+
+    private synchronized void startDisplayLoop() {
+        if (displayLoop == null) {
+            displayLoop = new DisplayLoop();
+            displayLoop.start();
+        }
+    }
+
+    private synchronized void stopDisplayLoop() {
+        if (displayLoop != null) {
+            displayLoop.stopThread();
+            displayLoop = null;
+        }
+    }
+
+    /**
+     * Returns true if the ViewLoop leaves painting to the DisplayLoop, so that
+     * frames are painted concurrently with event filtering.
+     *
+     * @return true if decoupled rendering is enabled and the renderer is an
+     * AEFrameChipRenderer
+     */
+    public boolean isDecoupledRenderingActive() {
+        return decoupledRenderingEnabled && (getRenderer() instanceof AEFrameChipRenderer);
+    }
+
     /**
      * This thread is the main animation loop that acquires events and renders
      * them to the canvas for active rendering. The other components render
@@ -1745,7 +1827,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
             //                getRenderer().setSubsamplingEnabled(subsamplingEnabled);
             //            }
             //            if(renderImageEnabled) {
-            if (isActiveRenderingEnabled()) {
+            if (isDecoupledRenderingActive()) {
+                // the DisplayLoop paints the frame that render published
+            } else if (isActiveRenderingEnabled()) {
                 chipCanvas.paintFrame(); // actively paint frame now, either with OpenGL or Java2D, depending on switch
             } else {
                 //                log.info("repaint by "+1000/frameRater.getDesiredFPS()+" ms");
@@ -1917,13 +2001,22 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
                 //--------------------------------------------------------
                 //                System.out.println("Viewer Loop end");
-                fpsDelay();
+                if (!isDecoupledRenderingActive() || isPaused() || (getPlayMode() == PlayMode.PLAYBACK)) {
+                    fpsDelay();
+                } else if (numRawEvents == 0) {
+                    // paced by the data, not by the display; only yield when there is nothing to process
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                    }
+                }
 
                 //                rerenderFlagDone=true;
             } // while (stop == false): end of run() loop - main loop of AEViewer.ViewLoop
 
             // Loop Cleanup
             log.info("AEViewer.run() ending: stop=" + stop + " isInterrupted=" + isInterrupted());
+            stopDisplayLoop();
             if (aemon != null) {
                 aemon.close();
             }
@@ -2198,7 +2291,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
         /**
          * Filters packet through processing chain if ProcessingMode is
-         * RENDERING or LIVE. If any filter throws an exception, all filters are
+         * RENDERING or PIPELINED, or if not LIVE. If any filter throws an exception, all filters are
          * disabled.
          *
          * @return true if packet is null, otherwise false.
@@ -2209,7 +2302,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
                 return false; // don't run filters if user is manipulating position
             }
             // filter events, do processing on them in rendering loop here
-            if ((filterChain.getProcessingMode() == FilterChain.ProcessingMode.RENDERING) || (playMode != PlayMode.LIVE)) {
+            if ((filterChain.getProcessingMode() != FilterChain.ProcessingMode.ACQUISITION) || (playMode != PlayMode.LIVE)) {
                 try {
                     packet = filterChain.filterPacket(packet);
                 } catch (Exception e) {
@@ -2229,23 +2322,25 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         }
 
         void logPacket() {
-            synchronized (loggingOutputStream) {
+            final AEFileRecorder recorder = loggingRecorder;
+            if (recorder == null) {
+                return;
+            }
+            // only copies the packet, the recorder's thread writes it to disk
+            if (!isLogFilteredEventsEnabled()) {
+                recorder.writePacket(aeRaw); // log all events
+            } else {
+                // log the reconstructed packet after filtering
+                AEPacketRaw aeRawRecon = extractor.reconstructRawPacket(packet);
+                recorder.writePacket(aeRawRecon);
+            }
+            if (recorder.getError() != null) {
+                log.warning("recording failed: " + recorder.getError().toString());
+                loggingEnabled = false;
                 try {
-                    if (!isLogFilteredEventsEnabled()) {
-                        loggingOutputStream.writePacket(aeRaw); // log all events
-                    } else {
-                        // log the reconstructed packet after filtering
-                        AEPacketRaw aeRawRecon = extractor.reconstructRawPacket(packet);
-                        loggingOutputStream.writePacket(aeRawRecon);
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    loggingEnabled = false;
-                    try {
-                        loggingOutputStream.close();
-                    } catch (IOException e2) {
-                        e2.printStackTrace();
-                    }
+                    recorder.close();
+                } catch (IOException e2) {
+                    e2.printStackTrace();
                 }
             }
             if (loggingTimeLimit > 0) { // we may have a defined time for logging, if so, check here and abort logging
@@ -2276,26 +2371,14 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
             // write to network socket if a client has opened a socket to us
             // we serve up events on this socket
 
-            if ((getAeServerSocket() != null) && (getAeServerSocket().getAESocket() != null)) {
-                AESocket s = getAeServerSocket().getAESocket();
-                try {
-                    if (!isLogFilteredEventsEnabled()) {
-                        s.writePacket(aeRaw);
-                    } else {
-                        // send the reconstructed packet after filtering
-                        AEPacketRaw aeRawRecon = extractor.reconstructRawPacket(packet);
-                        s.writePacket(aeRawRecon);
-                    }
-                } catch (IOException e) {
-                    //                            e.printStackTrace();
-                    log.warning("sending packet " + aeRaw + " from " + this + " to " + s + " failed, closing socket");
-                    try {
-                        s.close();
-                    } catch (IOException e2) {
-                        e2.printStackTrace();
-                    } finally {
-                        getAeServerSocket().setSocket(null);
-                    }
+            if ((getAeServerSocket() != null) && getAeServerSocket().hasClients()) {
+                // the server queues the packet for each client; slow or failed clients are handled by its own thread
+                if (!isLogFilteredEventsEnabled()) {
+                    getAeServerSocket().writePacket(aeRaw, extractor); // extractor decodes pixels for client subscriptions
+                } else {
+                    // send the reconstructed packet after filtering
+                    AEPacketRaw aeRawRecon = extractor.reconstructRawPacket(packet);
+                    getAeServerSocket().writePacket(aeRawRecon, extractor);
                 }
             }
 
@@ -2352,6 +2435,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
 
             if (unicastOutputEnabled && (unicastOutput != null)) {
                 try {
+                    unicastOutput.setEventExtractor(extractor); // for its subscription
                     if (!isLogFilteredEventsEnabled()) {
                         unicastOutput.writePacket(aeRaw);
                     } else {
@@ -2956,6 +3040,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         jSeparator1 = new javax.swing.JSeparator();
         graphicsSubMenu = new javax.swing.JMenu();
         viewActiveRenderingEnabledMenuItem = new javax.swing.JCheckBoxMenuItem();
+        viewDecoupledRenderingEnabledMenuItem = new javax.swing.JCheckBoxMenuItem();
         viewRenderBlankFramesCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
         jSeparator2 = new javax.swing.JSeparator();
         skipPacketsRenderingCheckBoxMenuItem = new javax.swing.JCheckBoxMenuItem();
@@ -3456,6 +3541,16 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         });
         graphicsSubMenu.add(viewActiveRenderingEnabledMenuItem);
 
+        viewDecoupledRenderingEnabledMenuItem.setText("Decoupled rendering enabled");
+        viewDecoupledRenderingEnabledMenuItem.setToolTipText("<html>If enabled, frames are painted on their own thread at the desired frame rate,<br>so that event processing is paced by the data and never waits for the display.<br>Only applies to chips with frame-based renderers; FrameAnnotaters then draw concurrently with filtering.");
+        viewDecoupledRenderingEnabledMenuItem.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+			public void actionPerformed(java.awt.event.ActionEvent evt) {
+                viewDecoupledRenderingEnabledMenuItemActionPerformed(evt);
+            }
+        });
+        graphicsSubMenu.add(viewDecoupledRenderingEnabledMenuItem);
+
         viewRenderBlankFramesCheckBoxMenuItem.setText("Render blank frames");
         viewRenderBlankFramesCheckBoxMenuItem.setToolTipText("If enabled, frames without events are rendered");
         viewRenderBlankFramesCheckBoxMenuItem.addActionListener(new java.awt.event.ActionListener() {
@@ -4859,11 +4954,11 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
      * extension of AEDataFile.DATA_FILE_EXTENSION is appended if there is no
      * extension.
      *
-     * @param dataFileVersionNum the version number string, e.g. "2.0", "3.0",
-     * or "3.1". ("2.0" is standard AEDAT file format for pre-caer records and
-     * is most stable))
+     * @param dataFileVersionNum the version number string; only "2.0", the
+     * standard AEDAT file format for pre-caer records, is recorded
      *
-     * @return the file that is logged to.
+     * @return the file that is logged to, or null if logging could not be
+     * started, e.g. for another version number.
      */
     synchronized public File startLogging(String filename, String dataFileVersionNum) {
         if (filename == null) {
@@ -4878,7 +4973,9 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         try {
             loggingFile = new File(filename);
 //			loggingOutputStream = new AEFileOutputStream(new BufferedOutputStream(new FileOutputStream(loggingFile), AEFileOutputStream.OUTPUT_BUFFER_SIZE), chip); // tobi changed to 8k buffer (from 400k) because this has measurablly better performance than super large buffer
-            loggingOutputStream = new AEFileOutputStream(new FileOutputStream(loggingFile), chip, dataFileVersionNum); // tobi changed to 8k buffer (from 400k) because this has measurablly better performance than super large buffer
+            loggingRecorder = new AEFileRecorder(loggingFile, chip, dataFileVersionNum, loggingRingSlots);
+            loggingRecorder.setRotateSizeBytes(loggingRotateSizeBytes);
+            loggingRecorder.setRotateIntervalMs(loggingRotateIntervalMs);
 
             if (playMode == PlayMode.PLAYBACK) { // add change listener for rewind to stop logging
                 getAePlayer().getAEInputStream().getSupport().addPropertyChangeListener(AEInputStream.EVENT_REWIND, new PropertyChangeListener() {
@@ -5015,13 +5112,21 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
             loggingMenuItem.setText("Start logging data");
             try {
                 log.info("stopped logging at " + AEDataFile.DATE_FORMAT.format(new Date()) + " to file " + loggingFile);
-                synchronized (loggingOutputStream) {
-                    loggingEnabled = false;
-                    loggingOutputStream.close();
+                loggingEnabled = false;
+                List<File> loggedFiles = loggingRecorder.getFiles();
+                try {
+                    loggingRecorder.close(); // waits for the queued packets to be written
+                } finally {
+                    if (loggingRecorder.getDroppedPacketCount() > 0) {
+                        log.warning("recording dropped " + loggingRecorder.getDroppedPacketCount() + " packets (" + loggingRecorder.getDroppedEventCount() + " events) because the disk could not keep up");
+                    }
+                }
+                if (loggedFiles.size() > 1) {
+                    log.info("recording was rotated into " + loggedFiles.size() + " files, leaving them in " + loggedFiles.get(0).getParent() + ": " + loggedFiles);
                 }
                 // if jaer viewer is logging synchronized data files, then just save the file where it was logged originally
 
-                if (confirmFilename && !jaerViewer.isSyncEnabled()) {
+                if (confirmFilename && !jaerViewer.isSyncEnabled() && (loggedFiles.size() == 1)) {
                     JFileChooser chooser = new JFileChooser();
                     chooser.setCurrentDirectory(lastLoggingFolder);
                     chooser.setFileFilter(new DATFileFilter());
@@ -5738,6 +5843,10 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         prefs.putInt("AEViewer.skipPacketsRenderingNumber", skipPacketsRenderingNumberMax);
     }//GEN-LAST:event_skipPacketsRenderingCheckBoxMenuItemActionPerformed
 
+    private void viewDecoupledRenderingEnabledMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewDecoupledRenderingEnabledMenuItemActionPerformed
+        setDecoupledRenderingEnabled(viewDecoupledRenderingEnabledMenuItem.isSelected());
+    }//GEN-LAST:event_viewDecoupledRenderingEnabledMenuItemActionPerformed
+
     private void viewRenderBlankFramesCheckBoxMenuItemActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewRenderBlankFramesCheckBoxMenuItemActionPerformed
         setRenderBlankFramesEnabled(viewRenderBlankFramesCheckBoxMenuItem.isSelected());
     }//GEN-LAST:event_viewRenderBlankFramesCheckBoxMenuItemActionPerformed
@@ -5830,6 +5939,27 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         prefs.putBoolean("AEViewer.activeRenderingEnabled", activeRenderingEnabled);
     }
 
+    public boolean isDecoupledRenderingEnabled() {
+        return decoupledRenderingEnabled;
+    }
+
+    /**
+     * Sets whether frames are painted on their own DisplayLoop thread instead
+     * of after each packet by the ViewLoop, which then processes packets as
+     * fast as they arrive.
+     *
+     * @param decoupledRenderingEnabled true to paint on the DisplayLoop
+     */
+    public void setDecoupledRenderingEnabled(boolean decoupledRenderingEnabled) {
+        this.decoupledRenderingEnabled = decoupledRenderingEnabled;
+        prefs.putBoolean("AEViewer.decoupledRenderingEnabled", decoupledRenderingEnabled);
+        if (decoupledRenderingEnabled) {
+            startDisplayLoop();
+        } else {
+            stopDisplayLoop();
+        }
+    }
+
     /**
      * Drag and drop data file onto frame to play it. Called while a drag
      * operation is ongoing, when the mouse pointer enters the operable part of
@@ -6047,6 +6177,72 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
         logFilteredEventsCheckBoxMenuItem.setSelected(logFilteredEventsEnabled);
     }
 
+    /**
+     * Returns the current logging recorder.
+     *
+     * @return the recorder, or null if never logged
+     */
+    public AEFileRecorder getLoggingRecorder() {
+        return loggingRecorder;
+    }
+
+    /**
+     * @return the logged file size at which logging continues in a new file,
+     * or 0 if disabled
+     */
+    public long getLoggingRotateSizeBytes() {
+        return loggingRotateSizeBytes;
+    }
+
+    /**
+     * Sets the logged file size at which logging continues in a new file,
+     * for long unattended recordings. Takes effect on the next startLogging.
+     *
+     * @param loggingRotateSizeBytes the size in bytes, or 0 to disable
+     */
+    public void setLoggingRotateSizeBytes(long loggingRotateSizeBytes) {
+        this.loggingRotateSizeBytes = loggingRotateSizeBytes;
+        prefs.putLong("AEViewer.loggingRotateSizeBytes", loggingRotateSizeBytes);
+    }
+
+    /**
+     * @return the time in ms after which logging continues in a new file, or
+     * 0 if disabled
+     */
+    public long getLoggingRotateIntervalMs() {
+        return loggingRotateIntervalMs;
+    }
+
+    /**
+     * Sets the time after which logging continues in a new file. Takes
+     * effect on the next startLogging.
+     *
+     * @param loggingRotateIntervalMs the time in ms, or 0 to disable
+     */
+    public void setLoggingRotateIntervalMs(long loggingRotateIntervalMs) {
+        this.loggingRotateIntervalMs = loggingRotateIntervalMs;
+        prefs.putLong("AEViewer.loggingRotateIntervalMs", loggingRotateIntervalMs);
+    }
+
+    /**
+     * @return the number of packets queued for the logging thread before
+     * packets are dropped
+     */
+    public int getLoggingRingSlots() {
+        return loggingRingSlots;
+    }
+
+    /**
+     * Sets the number of packets queued for the logging thread before packets
+     * are dropped. Takes effect on the next startLogging.
+     *
+     * @param loggingRingSlots the number of packets
+     */
+    public void setLoggingRingSlots(int loggingRingSlots) {
+        this.loggingRingSlots = loggingRingSlots;
+        prefs.putInt("AEViewer.loggingRingSlots", loggingRingSlots);
+    }
+
     /**
      * Returns the enclosing JAERViewer, which is the top level object in jAER.
      *
@@ -6433,6 +6629,7 @@ public class AEViewer extends javax.swing.JFrame implements PropertyChangeListen
     private javax.swing.JMenuItem unzoomMenuItem;
     private javax.swing.JMenuItem updateFirmwareMenuItem;
     private javax.swing.JCheckBoxMenuItem viewActiveRenderingEnabledMenuItem;
+    private javax.swing.JCheckBoxMenuItem viewDecoupledRenderingEnabledMenuItem;
     private javax.swing.JMenuItem viewBiasesMenuItem;
     private javax.swing.JMenuItem viewFiltersMenuItem;
     private javax.swing.JCheckBoxMenuItem viewIgnorePolarityCheckBoxMenuItem;
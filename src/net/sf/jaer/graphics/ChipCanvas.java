@@ -1468,18 +1468,29 @@ public class ChipCanvas implements GLEventListener, Observer {
             }
             final FilterChain chain = ((AEChip) chip).getFilterChain();
             if (chain != null) {
-                for (final EventFilter f : chain) {
-                    if (!f.isAnnotationEnabled()) {
-                        continue;
+                if ((aeViewer != null) && aeViewer.isDecoupledRenderingActive()) {
+                    // the ViewLoop filters concurrently with painting; filterPacket holds the chain lock
+                    synchronized (chain) {
+                        annotateFilterChain(chain, drawable);
                     }
-                    final FrameAnnotater a = (FrameAnnotater) f;
-                    drawAnnotationsIncludingEnclosed(f, a, drawable);
+                } else {
+                    annotateFilterChain(chain, drawable);
                 }
             }
 
         }
     }
 
+    private void annotateFilterChain(final FilterChain chain, final GLAutoDrawable drawable) {
+        for (final EventFilter f : chain) {
+            if (!f.isAnnotationEnabled()) {
+                continue;
+            }
+            final FrameAnnotater a = (FrameAnnotater) f;
+            drawAnnotationsIncludingEnclosed(f, a, drawable);
+        }
+    }
+
     /**
      * Utility method to check for GL errors. Prints stacked up errors up to a
      * limit.
@@ -29,6 +29,7 @@ import net.sf.jaer.aemonitor.AEPacketRaw;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.chip.EventExtractor2D;
 import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.eventio.AEArchiveInputStream;
 import net.sf.jaer.eventio.AEDataFile;
 import net.sf.jaer.eventio.AEFileInputStream;
 import net.sf.jaer.eventio.Hdf5AedatFileInputReader;
@@ -170,7 +171,7 @@ public class ChipDataFilePreview extends JPanel implements PropertyChangeListene
                     // see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4715154
                     // http://bugs.sun.com/bugdatabase/view_bug.do;:YfiG?bug_id=4724038
                 }
-                ais = new AEFileInputStream(file,chip);
+                ais = AEArchiveInputStream.isArchiveFile(file) ? new AEArchiveInputStream(file, chip) : new AEFileInputStream(file, chip);
                 try {
                     ais.rewind();
                 } catch (IOException e) {
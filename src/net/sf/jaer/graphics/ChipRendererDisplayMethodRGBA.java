@@ -21,6 +21,7 @@ import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GL2ES1;
 import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLContext;
 import com.jogamp.opengl.fixedfunc.GLMatrixFunc;
 import com.jogamp.opengl.util.awt.TextRenderer;
 
@@ -40,6 +41,13 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 	public final float SPECIAL_BAR_LOCATION_Y = 0;
 	public final float SPECIAL_BAR_LINE_WIDTH = 8;
 	private boolean renderSpecialEvents = true;
+	// textures of the ON, OFF and annotation maps; the ON and OFF maps share their changed tiles
+	private static final int ON_TEXTURE = 0, OFF_TEXTURE = 1, ANNOTATE_TEXTURE = 2, EVENT_TEXTURES = 0;
+	private final int[] mapTextures = new int[3];
+	private final long[] uploadedSerials = {-1, -1, -1}; // serial of the uploaded EventMapFrame, by EVENT_TEXTURES and ANNOTATE_TEXTURE; -1 for none
+	private GLContext mapTexturesContext = null;
+	private int mapTexturesWidth = 0, mapTexturesHeight = 0;
+	private int[] changedRuns = new int[0];
 
 	/**
 	 * Creates a new instance of ChipRendererDisplayMethodRGBA
@@ -73,18 +81,13 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 	private void displayQuad(final GLAutoDrawable drawable) {
 		final Chip2DRenderer renderer = getChipCanvas().getRenderer();
 		final FloatBuffer pixmap = renderer.getPixmap();
-		FloatBuffer onMap = null;
-		FloatBuffer offMap = null;
-		FloatBuffer annotateMap = null;
+		AEFrameChipRenderer frameRenderer = null;
 		boolean displayEvents = false;
 		boolean displayFrames = true;
 		boolean displayAnnotation = false;
 
 		if (renderer instanceof AEFrameChipRenderer) {
-			final AEFrameChipRenderer frameRenderer = (AEFrameChipRenderer) renderer;
-			onMap = frameRenderer.getOnMap();
-			offMap = frameRenderer.getOffMap();
-			annotateMap = frameRenderer.getAnnotateMap();
+			frameRenderer = (AEFrameChipRenderer) renderer;
 			displayFrames = frameRenderer.isDisplayFrames();
 			displayEvents = frameRenderer.isDisplayEvents();
 			displayAnnotation = frameRenderer.isDisplayAnnotation();
@@ -135,52 +138,29 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 			getChipCanvas().checkGLError(gl, glu, "after frames");
 		}
 
-		if ((onMap != null) && displayEvents) {
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, nearestFilter);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, nearestFilter);
-			gl.glTexEnvf(GL2ES1.GL_TEXTURE_ENV, GL2ES1.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
-			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, width, height, 0, GL.GL_RGBA, GL.GL_FLOAT, onMap);
-
-			gl.glEnable(GL.GL_TEXTURE_2D);
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			drawPolygon(gl, width, height);
-			gl.glDisable(GL.GL_TEXTURE_2D);
-		}
-
-		if ((offMap != null) && displayEvents) {
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, nearestFilter);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, nearestFilter);
-			gl.glTexEnvf(GL2ES1.GL_TEXTURE_ENV, GL2ES1.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
-			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, width, height, 0, GL.GL_RGBA, GL.GL_FLOAT, offMap);
-
-			gl.glEnable(GL.GL_TEXTURE_2D);
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			drawPolygon(gl, width, height);
-			gl.glDisable(GL.GL_TEXTURE_2D);
+		if ((frameRenderer != null) && (displayEvents || displayAnnotation)) {
+			// the frame is a copy of the maps published by the renderer, so it can be uploaded while the next packet is rendered
+			final EventMapFrame frame = frameRenderer.acquireFrame();
+			if ((frame.getWidth() == width) && (frame.getHeight() == height)) {
+				checkMapTextures(gl, width, height);
+				if (displayEvents) {
+					final int nRuns = getRunsToUpload(frame, EVENT_TEXTURES);
+					uploadMap(gl, ON_TEXTURE, frame.getOnMap(), width, height, nRuns);
+					uploadMap(gl, OFF_TEXTURE, frame.getOffMap(), width, height, nRuns);
+				}
+				if (displayAnnotation) {
+					uploadMap(gl, ANNOTATE_TEXTURE, frame.getAnnotateMap(), width, height, getRunsToUpload(frame, ANNOTATE_TEXTURE));
+				}
+			}
 		}
-
-		if (displayAnnotation) {
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, nearestFilter);
-			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, nearestFilter);
-			gl.glTexEnvf(GL2ES1.GL_TEXTURE_ENV, GL2ES1.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
-			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, width, height, 0, GL.GL_RGBA, GL.GL_FLOAT, annotateMap);
-
-			gl.glEnable(GL.GL_TEXTURE_2D);
-			gl.glBindTexture(GL.GL_TEXTURE_2D, 1);
-			drawPolygon(gl, width, height);
-			gl.glDisable(GL.GL_TEXTURE_2D);
+		if ((frameRenderer != null) && (mapTexturesContext == gl.getContext())) {
+			if (displayEvents) {
+				drawMapTexture(gl, ON_TEXTURE, width, height);
+				drawMapTexture(gl, OFF_TEXTURE, width, height);
+			}
+			if (displayAnnotation) {
+				drawMapTexture(gl, ANNOTATE_TEXTURE, width, height);
+			}
 		}
 
 		gl.glDisable(GL.GL_BLEND);
@@ -239,6 +219,78 @@ public class ChipRendererDisplayMethodRGBA extends DisplayMethod implements Disp
 		}
 	}
 
+	// makes the textures of the ON, OFF and annotation maps, which persist so that only their changed tiles are uploaded
+	private void checkMapTextures(final GL2 gl, final int width, final int height) {
+		if ((mapTexturesContext == gl.getContext()) && (mapTexturesWidth == width) && (mapTexturesHeight == height)) {
+			return;
+		}
+		if (mapTexturesContext == gl.getContext()) {
+			gl.glDeleteTextures(mapTextures.length, mapTextures, 0);
+		}
+		gl.glGenTextures(mapTextures.length, mapTextures, 0);
+		for (final int texture : mapTextures) {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_NEAREST);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_NEAREST);
+			// 8 bits per channel is all the display shows, and a quarter of the memory of float textures
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, width, height, 0, GL.GL_RGBA, GL.GL_UNSIGNED_BYTE, null);
+		}
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		mapTexturesContext = gl.getContext();
+		mapTexturesWidth = width;
+		mapTexturesHeight = height;
+		uploadedSerials[EVENT_TEXTURES] = -1;
+		uploadedSerials[ANNOTATE_TEXTURE] = -1;
+	}
+
+	// returns the number of runs of tiles changed since the last upload, or -1 to upload the whole map
+	private int getRunsToUpload(final EventMapFrame frame, final int textures) {
+		final long uploaded = uploadedSerials[textures];
+		uploadedSerials[textures] = frame.getSerial();
+		if (uploaded < 0) {
+			return -1;
+		}
+		if (changedRuns.length < (4 * frame.getNumTiles())) {
+			changedRuns = new int[4 * frame.getNumTiles()];
+		}
+		return textures == EVENT_TEXTURES ? frame.getChangedEventRuns(uploaded, changedRuns) : frame.getChangedAnnotateRuns(uploaded, changedRuns);
+	}
+
+	private void uploadMap(final GL2 gl, final int texture, final FloatBuffer map, final int width, final int height,
+		final int nRuns) {
+		gl.glBindTexture(GL.GL_TEXTURE_2D, mapTextures[texture]);
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
+		if (nRuns < 0) {
+			gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, width, height, GL.GL_RGBA, GL.GL_FLOAT, map);
+		} else if (nRuns > 0) {
+			gl.glPixelStorei(GL2.GL_UNPACK_ROW_LENGTH, width);
+			for (int i = 0; i < (4 * nRuns); i += 4) {
+				final int x = changedRuns[i], y = changedRuns[i + 1];
+				gl.glPixelStorei(GL2.GL_UNPACK_SKIP_PIXELS, x);
+				gl.glPixelStorei(GL2.GL_UNPACK_SKIP_ROWS, y);
+				map.rewind();
+				gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, x, y, changedRuns[i + 2], changedRuns[i + 3], GL.GL_RGBA, GL.GL_FLOAT, map);
+			}
+			gl.glPixelStorei(GL2.GL_UNPACK_ROW_LENGTH, 0);
+			gl.glPixelStorei(GL2.GL_UNPACK_SKIP_PIXELS, 0);
+			gl.glPixelStorei(GL2.GL_UNPACK_SKIP_ROWS, 0);
+		}
+		map.rewind();
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+		getChipCanvas().checkGLError(gl, glu, "after uploading map texture");
+	}
+
+	private void drawMapTexture(final GL2 gl, final int texture, final int width, final int height) {
+		gl.glBindTexture(GL.GL_TEXTURE_2D, mapTextures[texture]);
+		gl.glTexEnvf(GL2ES1.GL_TEXTURE_ENV, GL2ES1.GL_TEXTURE_ENV_MODE, GL.GL_REPLACE);
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		drawPolygon(gl, width, height);
+		gl.glDisable(GL.GL_TEXTURE_2D);
+		gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+	}
+
 	private void drawPolygon(final GL2 gl, final int width, final int height) {
 		final double xRatio = (double) chip.getSizeX() / (double) width;
 		final double yRatio = (double) chip.getSizeY() / (double) height;
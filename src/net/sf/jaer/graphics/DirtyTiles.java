@@ -0,0 +1,155 @@
+package net.sf.jaer.graphics;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which square tiles of an RGBA pixmap were written, so that the
+ * pixmap can be cleared and uploaded to its texture tile by tile instead of
+ * as a whole. The cost of rendering a packet then scales with the number of
+ * pixels its events touch rather than with the size of the sensor.
+ * <p>
+ * Two sets of tiles are kept: the tiles written since the last
+ * {@link #clear(float[]...) clear}, which the next clear resets, and the tiles
+ * changed since the last frame was published, which is the union of the tiles
+ * written and the tiles cleared. The renderer marks the pixels it writes with
+ * {@link #mark(int, int)} and stamps the changed tiles with
+ * {@link #stampChanged(long[], long)} when it publishes a frame.
+ */
+public final class DirtyTiles {
+
+    /**
+     * log2 of the tile size
+     */
+    public static final int TILE_SHIFT = 4;
+    /**
+     * The width and height of a tile in pixels
+     */
+    public static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private final int width, height, tilesX, tilesY;
+    private final boolean[] written, changed;
+    private final int[] writtenList; // the tiles written since the last clear, in order of writing
+    private int numWritten = 0;
+    private boolean allWritten = false, allChanged = true;
+
+    /**
+     * Constructs tiles for a pixmap whose pixels are all changed, so that the
+     * first frame published covers the whole pixmap.
+     *
+     * @param width the width of the pixmap in pixels
+     * @param height the height of the pixmap in pixels
+     */
+    public DirtyTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_SIZE - 1) >> TILE_SHIFT;
+        tilesY = (height + TILE_SIZE - 1) >> TILE_SHIFT;
+        written = new boolean[tilesX * tilesY];
+        changed = new boolean[written.length];
+        writtenList = new int[written.length];
+    }
+
+    /**
+     * @param width the width of the pixmap in pixels
+     * @param height the height of the pixmap in pixels
+     * @return true if these tiles cover a pixmap of this size
+     */
+    public boolean hasSize(int width, int height) {
+        return (this.width == width) && (this.height == height);
+    }
+
+    /**
+     * Marks the tile of a pixel as written. Pixels outside the pixmap are
+     * ignored.
+     *
+     * @param x the pixel x
+     * @param y the pixel y
+     */
+    public void mark(int x, int y) {
+        if ((x < 0) || (y < 0) || (x >= width) || (y >= height)) {
+            return;
+        }
+        final int t = ((y >> TILE_SHIFT) * tilesX) + (x >> TILE_SHIFT);
+        if (!written[t]) {
+            written[t] = true;
+            writtenList[numWritten++] = t;
+        }
+        changed[t] = true;
+    }
+
+    /**
+     * Marks the tile of a pixel as written.
+     *
+     * @param index the index of the R value of the pixel in the RGBA pixmap
+     */
+    public void markIndex(int index) {
+        final int p = index >> 2;
+        mark(p % width, p / width);
+    }
+
+    /**
+     * Marks the whole pixmap as written, e.g. after it was filled.
+     */
+    public void markAll() {
+        allWritten = true;
+        allChanged = true;
+    }
+
+    /**
+     * Sets the RGBA values of the tiles written since the last clear to zero
+     * and marks them changed.
+     *
+     * @param maps the RGBA pixmaps, width*height*4 long, that share these
+     * tiles
+     */
+    public void clear(float[]... maps) {
+        if (allWritten) {
+            for (float[] map : maps) {
+                Arrays.fill(map, 0, 4 * width * height, 0);
+            }
+            allWritten = false;
+            allChanged = true;
+        } else {
+            final int rowLength = 4 * width;
+            for (int i = 0; i < numWritten; i++) {
+                final int t = writtenList[i];
+                final int x0 = (t % tilesX) << TILE_SHIFT, y0 = (t / tilesX) << TILE_SHIFT;
+                final int x1 = Math.min(x0 + TILE_SIZE, width), y1 = Math.min(y0 + TILE_SIZE, height);
+                for (float[] map : maps) {
+                    for (int y = y0; y < y1; y++) {
+                        final int row = y * rowLength;
+                        Arrays.fill(map, row + (4 * x0), row + (4 * x1), 0);
+                    }
+                }
+                changed[t] = true;
+            }
+        }
+        for (int i = 0; i < numWritten; i++) {
+            written[writtenList[i]] = false;
+        }
+        numWritten = 0;
+    }
+
+    /**
+     * Stamps the tiles changed since the last call with the serial of a new
+     * frame, e.g. before it is published as an {@link EventMapFrame}.
+     *
+     * @param serials the serial of the last change of each tile, updated
+     * @param serial the serial of the new frame
+     */
+    public void stampChanged(long[] serials, long serial) {
+        for (int t = 0; t < changed.length; t++) {
+            if (allChanged || changed[t]) {
+                serials[t] = serial;
+            }
+        }
+        Arrays.fill(changed, false);
+        allChanged = false;
+    }
+
+    /**
+     * @return the number of tiles
+     */
+    public int getNumTiles() {
+        return written.length;
+    }
+}
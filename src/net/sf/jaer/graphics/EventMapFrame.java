@@ -0,0 +1,185 @@
+package net.sf.jaer.graphics;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A copy of the ON, OFF and annotation maps of an {@link AEFrameChipRenderer}
+ * that the thread that renders events publishes through a
+ * {@link net.sf.jaer.util.TripleBuffer} for the display to draw.
+ * <p>
+ * Each {@link DirtyTiles tile} of the maps carries the serial number of the
+ * last published frame that changed it. A frame is brought up to date by
+ * copying only the tiles changed since it was itself last published, and the
+ * display uploads only the tiles changed since the frame it drew last, so
+ * neither costs more than the events rendered in between.
+ */
+public final class EventMapFrame {
+
+    private int width = 0, height = 0, tilesX = 0, tilesY = 0;
+    private float[] onMap = new float[0], offMap = new float[0], annotateMap = new float[0];
+    private FloatBuffer onBuffer, offBuffer, annotateBuffer;
+    private long[] eventTileSerials = new long[0], annotateTileSerials = new long[0];
+    private long serial = 0;
+
+    /**
+     * Brings this frame up to date with the maps of the renderer.
+     *
+     * @param width the width of the maps in pixels
+     * @param height the height of the maps in pixels
+     * @param on the ON map, RGBA
+     * @param off the OFF map, RGBA
+     * @param annotate the annotation map, RGBA
+     * @param eventSerials the serial of the last change of each tile of the
+     * ON and OFF maps
+     * @param annotateSerials the serial of the last change of each tile of the
+     * annotation map
+     * @param serial the serial of this frame, larger than that of any earlier
+     * frame
+     */
+    void copyFrom(int width, int height, float[] on, float[] off, float[] annotate, long[] eventSerials, long[] annotateSerials, long serial) {
+        if ((this.width != width) || (this.height != height)) {
+            this.width = width;
+            this.height = height;
+            tilesX = (width + DirtyTiles.TILE_SIZE - 1) >> DirtyTiles.TILE_SHIFT;
+            tilesY = (height + DirtyTiles.TILE_SIZE - 1) >> DirtyTiles.TILE_SHIFT;
+            final int n = 4 * width * height;
+            onMap = new float[n];
+            offMap = new float[n];
+            annotateMap = new float[n];
+            onBuffer = FloatBuffer.wrap(onMap);
+            offBuffer = FloatBuffer.wrap(offMap);
+            annotateBuffer = FloatBuffer.wrap(annotateMap);
+            eventTileSerials = new long[tilesX * tilesY];
+            annotateTileSerials = new long[tilesX * tilesY];
+            this.serial = -1; // copy all tiles
+        }
+        copyTiles(eventSerials, eventTileSerials, on, onMap, off, offMap);
+        copyTiles(annotateSerials, annotateTileSerials, annotate, annotateMap, null, null);
+        this.serial = serial;
+    }
+
+    // copies the tiles changed since this frame was published, and their serials
+    private void copyTiles(long[] serials, long[] mySerials, float[] src1, float[] dst1, float[] src2, float[] dst2) {
+        final int rowLength = 4 * width;
+        for (int t = 0; t < mySerials.length; t++) {
+            if (serials[t] <= serial) {
+                continue; // unchanged, so mySerials[t] equals serials[t]
+            }
+            mySerials[t] = serials[t];
+            final int x0 = (t % tilesX) << DirtyTiles.TILE_SHIFT, y0 = (t / tilesX) << DirtyTiles.TILE_SHIFT;
+            final int x1 = Math.min(x0 + DirtyTiles.TILE_SIZE, width), y1 = Math.min(y0 + DirtyTiles.TILE_SIZE, height);
+            final int length = 4 * (x1 - x0);
+            for (int y = y0; y < y1; y++) {
+                final int i = (y * rowLength) + (4 * x0);
+                System.arraycopy(src1, i, dst1, i, length);
+                if (src2 != null) {
+                    System.arraycopy(src2, i, dst2, i, length);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the parts of the ON and OFF maps changed since an earlier frame
+     * as rectangles, each made of adjacent changed tiles of a row of tiles.
+     *
+     * @param sinceSerial the serial of the earlier frame
+     * @param runs filled with x,y,width,height of each rectangle in pixels;
+     * must hold 4 values for each tile
+     * @return the number of rectangles
+     */
+    public int getChangedEventRuns(long sinceSerial, int[] runs) {
+        return getChangedRuns(eventTileSerials, sinceSerial, runs);
+    }
+
+    /**
+     * Returns the parts of the annotation map changed since an earlier frame.
+     *
+     * @param sinceSerial the serial of the earlier frame
+     * @param runs filled with x,y,width,height of each rectangle
+     * @return the number of rectangles
+     * @see #getChangedEventRuns(long, int[])
+     */
+    public int getChangedAnnotateRuns(long sinceSerial, int[] runs) {
+        return getChangedRuns(annotateTileSerials, sinceSerial, runs);
+    }
+
+    private int getChangedRuns(long[] serials, long sinceSerial, int[] runs) {
+        if (sinceSerial >= serial) {
+            return 0;
+        }
+        int n = 0;
+        for (int ty = 0; ty < tilesY; ty++) {
+            final int row = ty * tilesX;
+            int tx = 0;
+            while (tx < tilesX) {
+                if (serials[row + tx] <= sinceSerial) {
+                    tx++;
+                    continue;
+                }
+                final int start = tx;
+                while ((tx < tilesX) && (serials[row + tx] > sinceSerial)) {
+                    tx++;
+                }
+                final int x0 = start << DirtyTiles.TILE_SHIFT, y0 = ty << DirtyTiles.TILE_SHIFT;
+                runs[n++] = x0;
+                runs[n++] = y0;
+                runs[n++] = Math.min(tx << DirtyTiles.TILE_SHIFT, width) - x0;
+                runs[n++] = Math.min(y0 + DirtyTiles.TILE_SIZE, height) - y0;
+            }
+        }
+        return n / 4;
+    }
+
+    /**
+     * @return the serial of this frame, 0 if it was never published
+     */
+    public long getSerial() {
+        return serial;
+    }
+
+    /**
+     * @return the width of the maps in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the maps in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the number of tiles of each map
+     */
+    public int getNumTiles() {
+        return tilesX * tilesY;
+    }
+
+    /**
+     * @return the ON map, rewound
+     */
+    public FloatBuffer getOnMap() {
+        onBuffer.rewind();
+        return onBuffer;
+    }
+
+    /**
+     * @return the OFF map, rewound
+     */
+    public FloatBuffer getOffMap() {
+        offBuffer.rewind();
+        return offBuffer;
+    }
+
+    /**
+     * @return the annotation map, rewound
+     */
+    public FloatBuffer getAnnotateMap() {
+        annotateBuffer.rewind();
+        return annotateBuffer;
+    }
+}
@@ -14,7 +14,6 @@ import ch.unizh.ini.jaer.chip.multicamera.MultiDavisCameraChip;
 import static java.lang.Math.abs;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import net.sf.jaer.event.PolarityEvent;
 import java.util.BitSet;
@@ -64,8 +63,7 @@ public class MultiCameraDifferentColorDisplayRenderer extends AEFrameChipRendere
         
         setColors();
         if (!accumulateEnabled) {
-            Arrays.fill(onMap.array(), 0.0f);
-            Arrays.fill(offMap.array(), 0.0f);
+            clearEventMaps();
         }
 
         checkPixmapAllocation();
@@ -94,8 +92,9 @@ public class MultiCameraDifferentColorDisplayRenderer extends AEFrameChipRendere
             }
             final int index = getIndex(e);
             if ((index < 0) || (index >= annotateMap.array().length)) {
-                return;
+                continue;
             }else{
+                markEventPixel(index);
                 float[] map;
                 if (e.polarity == PolarityEvent.Polarity.On) {
                     map = onMap.array();
@@ -121,6 +120,7 @@ public class MultiCameraDifferentColorDisplayRenderer extends AEFrameChipRendere
                 map[index + 3] = normalizeEvent(alpha);
             }
         }
+        publishFrame();
     }
        
     private void setColors() {
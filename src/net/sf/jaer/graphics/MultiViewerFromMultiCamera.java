@@ -163,6 +163,7 @@ public class MultiViewerFromMultiCamera extends AEFrameChipRenderer{
 
     public void setAnnotateColorRGB(final int x, final int y, final float[] value, final int ID) {
         final int index = getPixMapIndex(x, y, ID);
+        markAnnotatePixel(index);
         annotateMap.put(index, value[0]);
         annotateMap.put(index + 1, value[1]);
         annotateMap.put(index + 2, value[2]);
@@ -178,6 +179,7 @@ public class MultiViewerFromMultiCamera extends AEFrameChipRenderer{
      */
     public void setAnnotateAlpha(final int x, final int y, final float alpha, final int ID) {
         final int index = getPixMapIndex(x, y, ID);
+        markAnnotatePixel(index);
         annotateMap.put(index + 3, alpha);
     }
 
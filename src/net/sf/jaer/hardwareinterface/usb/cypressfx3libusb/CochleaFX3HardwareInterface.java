@@ -143,8 +143,8 @@ public class CochleaFX3HardwareInterface extends CypressFX3Biasgen {
 
 		@Override
 		protected void translateEvents(final ByteBuffer b) {
-			synchronized (aePacketRawPool) {
-				final AEPacketRaw buffer = aePacketRawPool.writeBuffer();
+				// the write buffer belongs to this thread until AEReader publishes it to the consumer
+				final AEPacketRaw buffer = aePacketRawRing.writeBuffer();
 
 				// Truncate off any extra partial event.
 				if ((b.limit() & 0x01) != 0) {
@@ -300,7 +300,6 @@ public class CochleaFX3HardwareInterface extends CypressFX3Biasgen {
 				buffer.setNumEvents(eventCounter);
 				// write capture size
 				buffer.lastCaptureLength = eventCounter - buffer.lastCaptureIndex;
-			} // sync on aePacketRawPool
 		}
 
 		@Override
@@ -34,7 +34,7 @@ import li.longi.USBTransferThread.USBTransferThread;
 import net.sf.jaer.aemonitor.AEListener;
 import net.sf.jaer.aemonitor.AEMonitorInterface;
 import net.sf.jaer.aemonitor.AEPacketRaw;
-import net.sf.jaer.aemonitor.AEPacketRawPool;
+import net.sf.jaer.aemonitor.AEPacketRawRing;
 import net.sf.jaer.chip.AEChip;
 import net.sf.jaer.event.EventPacket;
 import net.sf.jaer.eventprocessing.EventFilter;
@@ -183,17 +183,25 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 	public static final int AE_BUFFER_SIZE = 600000; // 100k should handle 5Meps at
 	// 30FPS, but tobi increased to 600k to handle APS frames from Davis346B at 40FPS
 	/**
-	 * this is the size of the AEPacketRaw that are part of AEPacketRawPool that
-	 * double buffer the translated events
-	 * between rendering and capture threads
+	 * this is the maximum size of the AEPacketRaw that are part of the
+	 * AEPacketRawRing that passes the translated events
+	 * between capture and rendering threads
 	 */
 	protected int aeBufferSize = CypressFX3.prefs.getInt("CypressFX3.aeBufferSize", CypressFX3.AE_BUFFER_SIZE);
 	/** the event reader - a buffer pool thread from USBIO subclassing */
 	protected AEReader aeReader = null;
 	/** the thread that reads device status messages on EP1 */
 	protected AsyncStatusThread asyncStatusThread = null;
-	/** The pool of raw AE packets, used for data transfer */
-	protected AEPacketRawPool aePacketRawPool = new AEPacketRawPool(this);
+	/** Default number of slots of the ring of raw AE packets */
+	public static final int AE_RING_SLOTS = 8;
+	private int aeRingSlots = CypressFX3.prefs.getInt("CypressFX3.aeRingSlots", CypressFX3.AE_RING_SLOTS);
+	private AEPacketRawRing.FullPolicy aeRingFullPolicy = CypressFX3.loadAeRingFullPolicy();
+	/**
+	 * The lock-free ring of raw AE packets, used for data transfer from the
+	 * AEReader thread (the only writer) to the consumer of
+	 * acquireAvailableEventsFromDriver (the only reader)
+	 */
+	protected volatile AEPacketRawRing aePacketRawRing = createAEPacketRawRing();
 	private String stringDescription = "CypressFX3"; // default which is
 	private USBPacketStatistics usbPacketStatistics = new USBPacketStatistics();
 
@@ -270,6 +278,8 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 	 * packet is reused.
 	 */
 	protected AEPacketRaw lastEventsAcquired = new AEPacketRaw();
+	/** the consumer's packet that the aePacketRawRing is drained into */
+	private final AEPacketRaw consumerPacket = new AEPacketRaw();
 	protected boolean inEndpointEnabled = false; // raphael: changed from
 	// private to protected,
 	// because i need to access
@@ -430,8 +440,8 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 	 * <p>
 	 * This method also starts event acquisition if it is not running already.
 	 *
-	 * Not thread safe but does use the thread-safe swap() method of AEPacketRawPool to swap data with the acquisition
-	 * thread.
+	 * Not thread safe; must be called from a single consumer thread, which collects the packets published by the
+	 * acquisition thread to the lock-free AEPacketRawRing.
 	 *
 	 * @return packet of events acquired.
 	 * @throws HardwareInterfaceException
@@ -460,17 +470,8 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 		// int[] timestamps;
 		int nEvents;
 
-		// getString the 'active' buffer for events (the one that has just been
-		// written by the hardware thread)
-		// synchronized(aePacketRawPool){ // synchronize on aeReader so that we
-		// don't try to access the events at the
-		// same time
-		synchronized (aePacketRawPool) {
-			aePacketRawPool.swap();
-			lastEventsAcquired = aePacketRawPool.readBuffer();
-			eventCounter = 0;
-			realTimeEventCounterStart = 0;
-		}
+		// collect the packets published by the hardware thread since the last call
+		lastEventsAcquired = aePacketRawRing.drainTo(consumerPacket);
 
 		nEvents = lastEventsAcquired.getNumEvents();
 		computeEstimatedEventRate(lastEventsAcquired);
@@ -651,6 +652,7 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 			reader.stopThread();
 
 			setAeReader(null);
+			CypressFX3.log.info("stopped AEReader, " + aePacketRawRing);
 		}
 		else {
 			CypressFX3.log.warning("null reader, nothing to stop");
@@ -1018,35 +1020,37 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 			 */
 			@Override
 			public void processTransfer(final RestrictedTransfer transfer) {
-				synchronized (aePacketRawPool) {
-					if (transfer.status() == LibUsb.TRANSFER_COMPLETED) {
-						usbPacketStatistics.addSample(transfer);
-						translateEvents(transfer.buffer());
-
-						if ((chip != null) && (chip.getFilterChain() != null)
-							&& (chip.getFilterChain().getProcessingMode() == FilterChain.ProcessingMode.ACQUISITION)) {
-							// here we do the realTimeFiltering. We finished
-							// capturing this buffer's worth of events,
-							// now process them apply realtime filters and
-							// realtime (packet level) mapping
-
-							// synchronize here so that rendering thread doesn't
-							// swap the buffer out from under us while
-							// we process these events
-							// aePacketRawPool.writeBuffer is also synchronized
-							// so we getString
-							// the same lock twice which is ok
-							final AEPacketRaw buffer = aePacketRawPool.writeBuffer();
-							final int[] addresses = buffer.getAddresses();
-							final int[] timestamps = buffer.getTimestamps();
-							realTimeFilter(addresses, timestamps);
-						}
+				if (transfer.status() == LibUsb.TRANSFER_COMPLETED) {
+					usbPacketStatistics.addSample(transfer);
+					translateEvents(transfer.buffer());
+
+					if ((chip != null) && (chip.getFilterChain() != null)
+						&& (chip.getFilterChain().getProcessingMode() == FilterChain.ProcessingMode.ACQUISITION)) {
+						// here we do the realTimeFiltering. We finished
+						// capturing this buffer's worth of events,
+						// now process them apply realtime filters and
+						// realtime (packet level) mapping
+
+						// the write buffer belongs to this thread until it
+						// is published below, so no lock is needed
+						final AEPacketRaw buffer = aePacketRawRing.writeBuffer();
+						final int[] addresses = buffer.getAddresses();
+						final int[] timestamps = buffer.getTimestamps();
+						realTimeFilter(addresses, timestamps);
 					}
-					else {
-						CypressFX3.log.warning("ProcessAEData: Bytes transferred: " + transfer.actualLength() + "  Status: "
-							+ LibUsb.errorName(transfer.status()));
+
+					// hand the events to the consumer; if the ring is full
+					// they may stay in the write buffer and the following
+					// transfers are appended to them
+					if (aePacketRawRing.publish()) {
+						eventCounter = 0;
+						realTimeEventCounterStart = 0;
 					}
 				}
+				else {
+					CypressFX3.log.warning("ProcessAEData: Bytes transferred: " + transfer.actualLength() + "  Status: "
+						+ LibUsb.errorName(transfer.status()));
+				}
 			}
 		}
 
@@ -1216,20 +1220,100 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 
 	/**
 	 * Allocates internal memory for transferring data from reader to consumer,
-	 * e.g. rendering.
+	 * e.g. rendering. The ring is only replaced while acquisition is stopped,
+	 * because the reader thread is its only writer. Otherwise the packets of
+	 * the ring grow on demand up to {@link #getAEBufferSize()} and the new
+	 * number of slots takes effect when acquisition is next enabled.
 	 */
 	protected void allocateAEBuffers() {
-		synchronized (aePacketRawPool) {
-			aePacketRawPool.allocateMemory();
+		if ((getAeReader() == null) && (aePacketRawRing.getNumSlots() != aeRingSlots)) {
+			aePacketRawRing = createAEPacketRawRing();
+			eventCounter = 0;
+			realTimeEventCounterStart = 0;
+		}
+	}
+
+	private AEPacketRawRing createAEPacketRawRing() {
+		final AEPacketRawRing r = new AEPacketRawRing(aeRingSlots, aeBufferSize / aeRingSlots);
+		r.setFullPolicy(aeRingFullPolicy);
+		return r;
+	}
+
+	// a stale or corrupt preference must not keep the device from opening
+	private static AEPacketRawRing.FullPolicy loadAeRingFullPolicy() {
+		final String s = CypressFX3.prefs.get("CypressFX3.aeRingFullPolicy", AEPacketRawRing.FullPolicy.COALESCE.toString());
+		try {
+			return AEPacketRawRing.FullPolicy.valueOf(s);
+		}
+		catch (final IllegalArgumentException e) {
+			CypressFX3.log.warning("ignoring unknown CypressFX3.aeRingFullPolicy=" + s + ", using "
+				+ AEPacketRawRing.FullPolicy.COALESCE);
+			return AEPacketRawRing.FullPolicy.COALESCE;
 		}
 	}
 
 	/**
-	 * @return the size of the double buffer raw packet for AEs
+	 * @return the maximum size of each raw packet for AEs in the ring
 	 */
 	@Override
 	public int getAEBufferSize() {
-		return aeBufferSize; // aePacketRawPool.writeBuffer().getCapacity();
+		return aeBufferSize;
+	}
+
+	/**
+	 * Returns the ring that passes raw events from the AEReader thread to the
+	 * consumer, e.g. to read its counters of published and dropped packets.
+	 *
+	 * @return the ring
+	 */
+	public AEPacketRawRing getAEPacketRawRing() {
+		return aePacketRawRing;
+	}
+
+	/**
+	 * @return the number of slots of the raw packet ring
+	 */
+	public int getAERingSlots() {
+		return aeRingSlots;
+	}
+
+	/**
+	 * Sets the number of slots of the raw packet ring. More slots absorb
+	 * longer stalls of the consumer without coalescing or dropping. Takes
+	 * effect when acquisition is next enabled.
+	 *
+	 * @param slots
+	 *            the number of slots, at least AEPacketRawRing.MIN_SLOTS
+	 */
+	public void setAERingSlots(final int slots) {
+		if (slots < AEPacketRawRing.MIN_SLOTS) {
+			CypressFX3.log.warning("ignoring aeRingSlots=" + slots + ", must be at least " + AEPacketRawRing.MIN_SLOTS);
+			return;
+		}
+		aeRingSlots = slots;
+		CypressFX3.prefs.putInt("CypressFX3.aeRingSlots", slots);
+		allocateAEBuffers();
+	}
+
+	/**
+	 * @return the policy for transfers arriving when the raw packet ring is
+	 *         full
+	 */
+	public AEPacketRawRing.FullPolicy getAERingFullPolicy() {
+		return aeRingFullPolicy;
+	}
+
+	/**
+	 * Sets the policy for transfers arriving when the raw packet ring is full.
+	 * Takes effect immediately.
+	 *
+	 * @param policy
+	 *            the policy
+	 */
+	public void setAERingFullPolicy(final AEPacketRawRing.FullPolicy policy) {
+		aeRingFullPolicy = policy;
+		CypressFX3.prefs.put("CypressFX3.aeRingFullPolicy", policy.toString());
+		aePacketRawRing.setFullPolicy(policy);
 	}
 
 	/**
@@ -1267,6 +1351,7 @@ public class CypressFX3 implements AEMonitorInterface, ReaderBufferControl, USBI
 	public synchronized void setEventAcquisitionEnabled(final boolean enable) throws HardwareInterfaceException {
 		// Start reader before sending data enable commands.
 		if (enable) {
+			allocateAEBuffers();
 			startAEReader();
 		}
 		else {
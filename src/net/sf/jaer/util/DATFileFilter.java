@@ -30,7 +30,7 @@ public class DATFileFilter extends javax.swing.filechooser.FileFilter {
         
         String extension = getExtension(f);
         if (extension != null) {
-            if (extension.equals(EXTENSION)  || extension.equals(OLDEXTENSION)){
+            if (extension.equals(EXTENSION)  || extension.equals(OLDEXTENSION) || extension.equals(ARCHIVEEXTENSION)){
                 return true;
             } else {
                 return false;
@@ -64,5 +64,8 @@ public class DATFileFilter extends javax.swing.filechooser.FileFilter {
     /** The orignal extension for AE data files */
     public static final String OLDEXTENSION="dat";
 
+    /** The extension of columnar compressed archive files, without the dot */
+    public static final String ARCHIVEEXTENSION=AEDataFile.ARCHIVE_FILE_EXTENSION.substring(1);
+
     
 }
@@ -0,0 +1,199 @@
+package net.sf.jaer.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A 2D grid of int values, optionally with several values (planes) per cell,
+ * stored in one flat array in row-major order: x varies fastest, then y; the
+ * planes of a cell are adjacent. The grid is surrounded by a border of
+ * <code>padding</code> cells on each side, so that neighborhoods of up to that
+ * radius can be read around any cell of the grid without bounds checks.
+ * <p>
+ * Use it in place of <code>int[x][y]</code> or <code>int[x][y][type]</code>
+ * maps in per-event loops: compute the index of a cell once with
+ * {@link #index(int, int)}, then read or write {@link #data} at that index
+ * plus the offsets from {@link #neighborOffsets(int, boolean)}, {@link #stride}
+ * for the next row or {@link #depth} for the next cell.
+ */
+public final class IntGrid {
+
+    /**
+     * The size of the grid without the padding
+     */
+    public final int sizeX, sizeY;
+    /**
+     * The number of values per cell
+     */
+    public final int depth;
+    /**
+     * The number of border cells on each side
+     */
+    public final int padding;
+    /**
+     * The distance in data between the same cell in adjacent rows
+     */
+    public final int stride;
+    /**
+     * The values, including those of the padding
+     */
+    public final int[] data;
+    private final int origin; // index of cell 0,0
+
+    /**
+     * Constructs a grid with one value per cell.
+     *
+     * @param sizeX the number of cells in x
+     * @param sizeY the number of cells in y
+     * @param padding the number of border cells on each side
+     * @param value the initial value of all cells, including the padding
+     */
+    public IntGrid(int sizeX, int sizeY, int padding, int value) {
+        this(sizeX, sizeY, 1, padding, value);
+    }
+
+    /**
+     * Constructs a grid.
+     *
+     * @param sizeX the number of cells in x
+     * @param sizeY the number of cells in y
+     * @param depth the number of values per cell, e.g. cell types
+     * @param padding the number of border cells on each side
+     * @param value the initial value of all cells, including the padding
+     */
+    public IntGrid(int sizeX, int sizeY, int depth, int padding, int value) {
+        if ((sizeX < 0) || (sizeY < 0) || (depth < 1) || (padding < 0)) {
+            throw new IllegalArgumentException("invalid grid size " + sizeX + "x" + sizeY + "x" + depth + " with padding " + padding);
+        }
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.depth = depth;
+        this.padding = padding;
+        stride = (sizeX + (2 * padding)) * depth;
+        data = new int[stride * (sizeY + (2 * padding))];
+        origin = (padding * stride) + (padding * depth);
+        fill(value);
+    }
+
+    /**
+     * @param sizeX the number of cells in x
+     * @param sizeY the number of cells in y
+     * @param depth the number of values per cell
+     * @param padding the number of border cells
+     * @return true if this grid has these dimensions
+     */
+    public boolean hasSize(int sizeX, int sizeY, int depth, int padding) {
+        return (this.sizeX == sizeX) && (this.sizeY == sizeY) && (this.depth == depth) && (this.padding == padding);
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @return true if x,y is a cell of the grid, not of the padding
+     */
+    public boolean contains(int x, int y) {
+        return (x >= 0) && (x < sizeX) && (y >= 0) && (y < sizeY);
+    }
+
+    /**
+     * Returns the index in data of the first value of a cell. x and y can be
+     * in the padding, down to -padding and up to size+padding-1.
+     *
+     * @param x the cell x
+     * @param y the cell y
+     * @return the index
+     */
+    public int index(int x, int y) {
+        return origin + (y * stride) + (x * depth);
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @param plane the value of the cell, 0 to depth-1
+     * @return the index in data
+     */
+    public int index(int x, int y, int plane) {
+        return origin + (y * stride) + (x * depth) + plane;
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @return the first value of the cell
+     */
+    public int get(int x, int y) {
+        return data[index(x, y)];
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @param plane the value of the cell, 0 to depth-1
+     * @return the value
+     */
+    public int get(int x, int y, int plane) {
+        return data[index(x, y, plane)];
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @param value the new first value of the cell
+     */
+    public void set(int x, int y, int value) {
+        data[index(x, y)] = value;
+    }
+
+    /**
+     * @param x the cell x
+     * @param y the cell y
+     * @param plane the value of the cell, 0 to depth-1
+     * @param value the new value
+     */
+    public void set(int x, int y, int plane, int value) {
+        data[index(x, y, plane)] = value;
+    }
+
+    /**
+     * Sets all values, including those of the padding.
+     *
+     * @param value the value
+     */
+    public void fill(int value) {
+        Arrays.fill(data, value);
+    }
+
+    /**
+     * Returns the offsets in data from a cell to the same plane of the cells
+     * of its square neighborhood, row by row.
+     *
+     * @param radius the radius of the neighborhood, at most padding, e.g. 1
+     * for the 3x3 neighborhood
+     * @param includeCenter whether the offset 0 of the cell itself is included
+     * @return the offsets
+     */
+    public int[] neighborOffsets(int radius, boolean includeCenter) {
+        if ((radius < 0) || (radius > padding)) {
+            throw new IllegalArgumentException("radius " + radius + " must be between 0 and the padding " + padding);
+        }
+        ArrayList<Integer> offsets = new ArrayList();
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                if (includeCenter || (dx != 0) || (dy != 0)) {
+                    offsets.add((dy * stride) + (dx * depth));
+                }
+            }
+        }
+        int[] a = new int[offsets.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = offsets.get(i);
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        return "IntGrid " + sizeX + "x" + sizeY + "x" + depth + " with padding " + padding;
+    }
+}
@@ -9,6 +9,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -70,6 +71,19 @@ public class ListClasses {
      * @return list of all fully qualified class names
      */
     public static List<String> listClasses() {
+        return listClasses(Collections.<File>emptySet());
+    }
+
+    /**
+     * Iterate over the system classpath defined by "java.class.path" searching
+     * for all .class files available, skipping some classpath entries
+     *
+     * @param excludedClasspathElements jars or class folders that are not
+     * searched, e.g. those covered by the SubclassIndex; compared by canonical
+     * path
+     * @return list of all fully qualified class names
+     */
+    public static List<String> listClasses(Collection<File> excludedClasspathElements) {
         List<String> classNames = new ArrayList<String>(INIT_SIZE);
         try {
             // get the system classpath
@@ -90,10 +104,11 @@ public class ListClasses {
                     log.log(Level.INFO, "classpath token = {0}", token);
                 }
                 File classpathElement = new File(token);
-                classNames.addAll(classpathElement.isDirectory()
-                        //?loadClassesFromDir(classpathElement.list(new CLASSFilter()))
-                        ? loadClassesFromDir(null, classpathElement, classpathElement)
-                        : loadClassesFromJar(classpathElement));
+                if (!excludedClasspathElements.isEmpty() && excludedClasspathElements.contains(SubclassIndex.canonicalFile(classpathElement))) {
+                    log.log(Level.INFO, "skipping {0} because its classes are indexed", token);
+                    continue;
+                }
+                classNames.addAll(listClasses(classpathElement));
             }
             HashSet<String> hash=new HashSet(classNames); // store only unique
             classNames=new ArrayList(hash);
@@ -104,6 +119,19 @@ public class ListClasses {
         return classNames;
     }
 
+    /**
+     * Lists the .class files in a single jar or class folder
+     *
+     * @param classpathElement the jar or folder
+     * @return list of all fully qualified class names
+     */
+    public static List<String> listClasses(File classpathElement) {
+        return classpathElement.isDirectory()
+                //?loadClassesFromDir(classpathElement.list(new CLASSFilter()))
+                ? loadClassesFromDir(null, classpathElement, classpathElement)
+                : loadClassesFromJar(classpathElement);
+    }
+
     private static List<String> loadClassesFromJar(File jarFile) {
         List<String> files = new ArrayList<String>(INIT_SIZE);
         try {
@@ -16,13 +16,16 @@ import net.sf.jaer.DevelopmentStatus;
  * Finds subclasses of a given class name in classes on the loaded classpath.
  * Classes are cached in a HashMap to reduce cost of subsequent lookups.
  * <p>
+ * Subclasses of EventFilter2D and AEChip are read from the SubclassIndex
+ * written at build time; only the classpath entries that are not indexed, e.g.
+ * plugin jars, are scanned by loading their classes. Classes are loaded
+ * without running their static initializers.
+ * <p>
  * See http://www.javaworld.com/javaworld/javatips/jw-javatip113.html?page=2
  *
  * @author tobi
  */
 public class SubclassFinder {
-    // TODO needs a way of caching in preferences the list of classes and the number or checksum of classes,
-    // to reduce startup time, since this lookup of subclasses takes 10s of seconds on some machines
 
     /** List of regexp package names to exclude from search */
     public static final ArrayList<String> exclusionList = new ArrayList();
@@ -60,7 +63,7 @@ public class SubclassFinder {
             Class c;
             if ((c = map.get(name)) == null) {
                 try {
-                    c = Class.forName(name);
+                    c = Class.forName(name, false, SubclassFinder.class.getClassLoader()); // don't initialize, only the class hierarchy is needed
                     map.put(name, c);
                 } catch (ClassNotFoundException e) {
                     log.warning("caught " + e + " when trying to get class named " + name);
@@ -114,10 +117,21 @@ public class SubclassFinder {
             }
             publish("Building class list");
             Class superClass = FastClassFinder.forName(superClassName);
-            List<String> allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+            HashSet<String> indexedNames = new HashSet<String>();
+            List<String> allClasses;
+            SubclassIndex index = SubclassIndex.getInstance();
+            if (index.isIndexed(superClassName)) {
+                for (ClassNameWithDescriptionAndDevelopmentStatus cn : index.getSubclasses(superClassName)) {
+                    classes.add(cn);
+                    indexedNames.add(cn.getClassName());
+                }
+                allClasses = ListClasses.listClasses(index.getIndexedClasspathElements()); // only the entries that are not indexed
+            } else {
+                allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+            }
             int n = ".class".length();
             Class c = null;
-            if (allClasses.isEmpty()) {
+            if (allClasses.isEmpty() && classes.isEmpty()) {
                 log.warning("List of subclasses of " + superClassName + " is empty, is there something wrong with your classpath. Do you have \"compile on save\" turned on? (This option can break the SubclassFinder).");
             }
             int i = 0;
@@ -135,8 +149,8 @@ public class SubclassFinder {
 
                     s = s.substring(0, s.length() - n);
                     s = s.replace('/', '.').replace('\\', '.'); // TODO check this replacement of file separators on win/unix
-                    if (s.indexOf("$") != -1) {
-                        continue  allclassloop; // inner class
+                    if (s.indexOf("$") != -1 || indexedNames.contains(s)) {
+                        continue  allclassloop; // inner class or already found in index
                     }
                     for (String excl : exclusionList) {
                         if (s.matches(excl)) {
@@ -207,10 +221,20 @@ public class SubclassFinder {
             progressMonitor.setNote("Building class list");
         }
         Class superClass = FastClassFinder.forName(superClassName);
-        List<String> allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+        List<String> allClasses;
+        SubclassIndex index = SubclassIndex.getInstance();
+        if (index.isIndexed(superClassName)) {
+            for (ClassNameWithDescriptionAndDevelopmentStatus cn : index.getSubclasses(superClassName)) {
+                classes.add(cn.getClassName());
+            }
+            allClasses = ListClasses.listClasses(index.getIndexedClasspathElements()); // only the entries that are not indexed
+        } else {
+            allClasses = ListClasses.listClasses();  // expensive, must search all classpath and make big string array list
+        }
+        HashSet<String> indexedNames = new HashSet<String>(classes);
         int n = ".class".length();
         Class c = null;
-        if (allClasses.isEmpty()) {
+        if (allClasses.isEmpty() && classes.isEmpty()) {
             log.warning("List of subclasses of " + superClassName + " is empty, is there something wrong with your classpath. Do you have \"compile on save\" turned on? (This option can break the SubclassFinder).");
         }
         int i = 0;
@@ -232,8 +256,8 @@ public class SubclassFinder {
                 }
                 s = s.substring(0, s.length() - n);
                 s = s.replace('/', '.').replace('\\', '.'); // TODO check this replacement of file separators on win/unix
-                if (s.indexOf("$") != -1) {
-                    continue; // inner class
+                if (s.indexOf("$") != -1 || indexedNames.contains(s)) {
+                    continue; // inner class or already found in index
                 }
                 for (String excl : exclusionList) {
                     if (s.matches(excl)) {
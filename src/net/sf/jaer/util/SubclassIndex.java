@@ -0,0 +1,391 @@
+package net.sf.jaer.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.jaer.Description;
+import net.sf.jaer.DevelopmentStatus;
+
+/**
+ * An index of the subclasses of EventFilter2D and AEChip, with their
+ * Description and DevelopmentStatus, that is written at build time and read by
+ * SubclassFinder instead of loading every class on the classpath.
+ * <p>
+ * The ant -post-compile target runs {@link #main(java.lang.String[])} on the
+ * compiled classes to write the index as the resource {@link #RESOURCE}, so
+ * that it ends up in jAER.jar. At runtime all index resources on the classpath
+ * are read as text; no class is loaded. The classpath entries (jars or class
+ * folders) that hold an index are listed by
+ * {@link #getIndexedClasspathElements()}, so that SubclassFinder only needs to
+ * scan the other entries for plugins.
+ * <p>
+ * The index of a class folder, e.g. build/classes, is ignored and the folder
+ * is scanned if any class in it is newer than the index, as happens when
+ * NetBeans compiles on save. Set the system property
+ * <code>jaer.subclassIndex=false</code> to ignore all indexes.
+ */
+public final class SubclassIndex {
+
+    private static final Logger log = Logger.getLogger("SubclassIndex");
+    /**
+     * The name of the index resource
+     */
+    public static final String RESOURCE = "META-INF/jaer-subclass-index.txt";
+    /**
+     * The superclasses whose subclasses are indexed
+     */
+    public static final String[] INDEXED_SUPERCLASSES = {"net.sf.jaer.eventprocessing.EventFilter2D", "net.sf.jaer.chip.AEChip"};
+    private static final String SEP = "\t";
+    private static SubclassIndex instance = null;
+
+    // superclass name -> subclasses
+    private final HashMap<String, ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>> subclasses = new HashMap<String, ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>>();
+    private final HashSet<File> indexedClasspathElements = new HashSet<File>();
+
+    private SubclassIndex() {
+    }
+
+    /**
+     * Returns the index read from all index resources on the classpath. The
+     * resources are read on the first call.
+     *
+     * @return the index, which is empty if there is no index resource
+     */
+    public static synchronized SubclassIndex getInstance() {
+        if (instance == null) {
+            instance = new SubclassIndex();
+            if (Boolean.parseBoolean(System.getProperty("jaer.subclassIndex", "true"))) {
+                instance.load();
+            } else {
+                log.info("ignoring subclass index because jaer.subclassIndex=false");
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param superClassName the fully qualified name of the superclass
+     * @return true if the index holds the subclasses of superClassName
+     */
+    public boolean isIndexed(String superClassName) {
+        return subclasses.containsKey(superClassName);
+    }
+
+    /**
+     * @param superClassName the fully qualified name of the superclass
+     * @return the indexed non-abstract subclasses of superClassName in the
+     * indexed classpath elements, empty if none are indexed
+     */
+    public ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> getSubclasses(String superClassName) {
+        ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> list = subclasses.get(superClassName);
+        return list == null ? new ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>() : new ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>(list);
+    }
+
+    /**
+     * @return the jars and class folders whose classes are covered by the
+     * index and need not be scanned
+     */
+    public Set<File> getIndexedClasspathElements() {
+        return Collections.unmodifiableSet(indexedClasspathElements);
+    }
+
+    private void load() {
+        try {
+            Enumeration<URL> urls = SubclassIndex.class.getClassLoader().getResources(RESOURCE);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                File element = classpathElement(url);
+                if (element == null) {
+                    log.warning("cannot find the classpath entry of " + url + "; ignoring it");
+                    continue;
+                }
+                if (element.isDirectory() && isStale(url, element)) {
+                    log.info("ignoring " + url + " because classes in " + element + " were compiled after it; " + element + " will be scanned");
+                    continue;
+                }
+                int count = read(url);
+                indexedClasspathElements.add(element);
+                log.info("read " + count + " indexed subclasses from " + url);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "could not read subclass index; the classpath will be scanned", e);
+            subclasses.clear();
+            indexedClasspathElements.clear();
+        }
+    }
+
+    private int read(URL url) throws IOException {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.split(SEP, -1);
+                if (f.length < 2) {
+                    continue;
+                }
+                ArrayList<ClassNameWithDescriptionAndDevelopmentStatus> list = subclasses.get(f[0]);
+                if (list == null) {
+                    list = new ArrayList<ClassNameWithDescriptionAndDevelopmentStatus>();
+                    subclasses.put(f[0], list);
+                }
+                if (f[1].isEmpty()) {
+                    continue; // only marks the superclass as indexed
+                }
+                DevelopmentStatus status = null;
+                if ((f.length > 2) && !f[2].isEmpty()) {
+                    try {
+                        status = new IndexedDevelopmentStatus(DevelopmentStatus.Status.valueOf(f[2]));
+                    } catch (IllegalArgumentException e) {
+                        log.warning("unknown DevelopmentStatus " + f[2] + " for " + f[1]);
+                    }
+                }
+                String description = f.length > 3 && !f[3].isEmpty() ? unescape(f[3]) : null;
+                list.add(new ClassNameWithDescriptionAndDevelopmentStatus(f[1], description, status));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // true if a class in the class folder is newer than the index resource at url, e.g. after compile on save
+    private static boolean isStale(URL url, File classesDir) {
+        try {
+            return newerClassExists(classesDir, new File(url.toURI()).lastModified());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static boolean newerClassExists(File dir, long time) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return false;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (newerClassExists(f, time)) {
+                    return true;
+                }
+            } else if (f.getName().endsWith(".class") && (f.lastModified() > time)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // finds the jar or folder that holds the resource at url
+    private static File classpathElement(URL url) {
+        try {
+            File f;
+            if ("jar".equals(url.getProtocol())) {
+                f = new File(((JarURLConnection) url.openConnection()).getJarFileURL().toURI());
+            } else if ("file".equals(url.getProtocol())) {
+                f = new File(url.toURI());
+                for (int i = RESOURCE.split("/").length; (i > 0) && (f != null); i--) {
+                    f = f.getParentFile();
+                }
+            } else {
+                return null;
+            }
+            return canonicalFile(f);
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param f a file
+     * @return the canonical file, or the absolute file if it cannot be found
+     */
+    static File canonicalFile(File f) {
+        try {
+            return f.getCanonicalFile();
+        } catch (IOException e) {
+            return f.getAbsoluteFile();
+        }
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c == '\\') && ((i + 1) < s.length())) {
+                char n = s.charAt(++i);
+                switch (n) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // the DevelopmentStatus read from the index, without loading the annotated class
+    private static class IndexedDevelopmentStatus implements DevelopmentStatus {
+
+        private final Status status;
+
+        IndexedDevelopmentStatus(Status status) {
+            this.status = status;
+        }
+
+        @Override
+        public Status value() {
+            return status;
+        }
+
+        @Override
+        public Class<? extends Annotation> annotationType() {
+            return DevelopmentStatus.class;
+        }
+
+        @Override
+        public String toString() {
+            return "@" + DevelopmentStatus.class.getName() + "(" + status + ")";
+        }
+    }
+
+    /**
+     * Writes the index of the classes in a class folder. The classes are
+     * loaded without running their static initializers.
+     *
+     * @param classesDir the folder of compiled classes, e.g. build/classes
+     * @param indexFile the index file to write
+     * @throws IOException if the index cannot be written
+     */
+    public static void write(File classesDir, File indexFile) throws IOException {
+        final ClassLoader loader = SubclassIndex.class.getClassLoader();
+        final ArrayList<Class<?>> superClasses = new ArrayList<Class<?>>();
+        for (String s : INDEXED_SUPERCLASSES) {
+            try {
+                superClasses.add(Class.forName(s, false, loader));
+            } catch (ClassNotFoundException e) {
+                throw new IOException("superclass " + s + " is not on the classpath", e);
+            }
+        }
+        final List<String> classNames = ListClasses.listClasses(classesDir);
+        final ArrayList<Class<?>> found = new ArrayList<Class<?>>();
+        final int n = ".class".length();
+        int errors = 0;
+        allclassloop:
+        for (String s : classNames) {
+            s = s.substring(0, s.length() - n).replace('/', '.').replace('\\', '.');
+            if (s.indexOf("$") != -1) {
+                continue; // inner class
+            }
+            for (String excl : SubclassFinder.exclusionList) {
+                if (s.matches(excl)) {
+                    continue allclassloop;
+                }
+            }
+            try {
+                Class<?> c = Class.forName(s, false, loader);
+                if (!Modifier.isAbstract(c.getModifiers())) {
+                    found.add(c);
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                errors++;
+                log.fine(e + " while loading " + s);
+            }
+        }
+        Collections.sort(found, new Comparator<Class<?>>() {
+            @Override
+            public int compare(Class<?> o1, Class<?> o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        File dir = indexFile.getParentFile();
+        if ((dir != null) && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not make folder " + dir);
+        }
+        int count = 0;
+        try (PrintWriter w = new PrintWriter(new OutputStreamWriter(new FileOutputStream(indexFile), StandardCharsets.UTF_8))) {
+            w.println("# jAER subclass index written at build time by " + SubclassIndex.class.getName() + " from " + classesDir);
+            w.println("# superclass<TAB>class<TAB>DevelopmentStatus<TAB>Description");
+            for (Class<?> superClass : superClasses) {
+                w.println(superClass.getName() + SEP); // marks the superclass as indexed even if it has no subclasses here
+                for (Class<?> c : found) {
+                    if ((c == superClass) || !superClass.isAssignableFrom(c)) {
+                        continue;
+                    }
+                    String status = "", description = "";
+                    try {
+                        DevelopmentStatus ds = c.getAnnotation(DevelopmentStatus.class);
+                        if (ds != null) {
+                            status = ds.value().toString();
+                        }
+                        Description des = c.getAnnotation(Description.class);
+                        if (des != null) {
+                            description = escape(des.value());
+                        }
+                    } catch (LinkageError e) {
+                        log.fine(e + " while reading annotations of " + c.getName());
+                    }
+                    w.println(superClass.getName() + SEP + c.getName() + SEP + status + SEP + description);
+                    count++;
+                }
+            }
+        }
+        log.info(String.format("wrote %d subclasses of %d classes to %s; %d classes could not be loaded", count, classNames.size(), indexFile, errors));
+    }
+
+    /**
+     * Writes the index; called by the ant -post-compile target.
+     *
+     * @param args the class folder and the index file
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: java " + SubclassIndex.class.getName() + " classesDir indexFile");
+            System.exit(1);
+        }
+        try {
+            write(new File(args[0]), new File(args[1]));
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "could not write subclass index", e);
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,85 @@
+package net.sf.jaer.util;
+
+/**
+ * Passes the latest of a stream of objects, e.g. rendered frames, from one
+ * producer thread to one consumer thread without either of them waiting for
+ * the other.
+ * <p>
+ * The producer fills the back object from {@link #getBack()} and calls
+ * {@link #publish()}, which swaps it with the middle object. The consumer calls
+ * {@link #acquire()}, which swaps the middle object with the front object if a
+ * newer one was published, and reads the front object until its next call.
+ * Objects that the consumer is too slow to acquire are overwritten, so a
+ * stalled consumer never holds up the producer. Only the swaps are
+ * synchronized; the objects themselves are filled and read without locks,
+ * since each is owned by one thread at a time.
+ *
+ * @param <T> the type of the buffered objects
+ */
+public final class TripleBuffer<T> {
+
+    private T back, middle, front;
+    private boolean fresh = false; // middle was published and not yet acquired
+
+    /**
+     * Constructs a triple buffer of three distinct objects.
+     *
+     * @param a the first back object
+     * @param b the first middle object
+     * @param c the first front object
+     */
+    public TripleBuffer(T a, T b, T c) {
+        if ((a == b) || (b == c) || (a == c)) {
+            throw new IllegalArgumentException("the three buffers must be distinct objects");
+        }
+        back = a;
+        middle = b;
+        front = c;
+    }
+
+    /**
+     * Returns the object that the producer fills. It stays the same until the
+     * next {@link #publish()}; called only by the producer.
+     *
+     * @return the back object
+     */
+    public synchronized T getBack() {
+        return back;
+    }
+
+    /**
+     * Publishes the back object as the latest and gives the producer the
+     * previous middle object to fill next; called only by the producer.
+     */
+    public synchronized void publish() {
+        final T t = middle;
+        middle = back;
+        back = t;
+        fresh = true;
+    }
+
+    /**
+     * Returns the latest published object; called only by the consumer. The
+     * object may be the same as on the previous call if nothing was published
+     * since.
+     *
+     * @return the front object
+     */
+    public synchronized T acquire() {
+        if (fresh) {
+            final T t = front;
+            front = middle;
+            middle = t;
+            fresh = false;
+        }
+        return front;
+    }
+
+    /**
+     * @return true if an object was published since the last
+     * {@link #acquire()}
+     */
+    public synchronized boolean isFresh() {
+        return fresh;
+    }
+}
@@ -0,0 +1,97 @@
+package net.sf.jaer.benchmarks;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.eventio.AEFileInputStream;
+
+/**
+ * Measures AEFileInputStream.readPacketByTime over a recorded file (parameter
+ * <code>recording</code>) or a synthetic one. Packets have a
+ * varying number of events, so the events/s score is the auxiliary
+ * <code>events</code> counter; the primary score is packets/s. With -prof gc,
+ * divide gc.alloc.rate by the events counter for bytes per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AEFileInputStreamBenchmark {
+
+    /**
+     * Packet duration in us
+     */
+    @Param({"1000", "10000", "100000"})
+    public int dtUs;
+    /**
+     * Path of a recorded .aedat file; empty for synthetic data
+     */
+    @Param({""})
+    public String recording;
+
+    private AEFileInputStream in;
+    private byte[] savedPreferences;
+
+    /**
+     * Counts events read, reported by JMH as a rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class EventCounter {
+
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            events = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        savedPreferences = BenchmarkData.savePreferences();
+        final AEChip chip = BenchmarkData.makeChip();
+        final File f = BenchmarkData.getRecording(chip, recording, 2000);
+        in = new AEFileInputStream(f, chip);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        in.close();
+        BenchmarkData.restorePreferences(savedPreferences);
+    }
+
+    @Benchmark
+    public AEPacketRaw readPacketByTime(final EventCounter counter) throws IOException {
+        AEPacketRaw raw;
+        try {
+            raw = in.readPacketByTime(dtUs);
+        } catch (final EOFException e) {
+            in.rewind();
+            raw = in.readPacketByTime(dtUs);
+        }
+        counter.events += raw.getNumEvents();
+        return raw;
+    }
+}
@@ -0,0 +1,73 @@
+package net.sf.jaer.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.graphics.AEFrameChipRenderer;
+
+/**
+ * Measures AEFrameChipRenderer.render into the pixmaps, without any OpenGL
+ * drawing, of a synthetic packet or the first packet of a recording
+ * (parameter <code>recording</code>). Scores are events/s; with -prof gc, gc.alloc.rate.norm is bytes per
+ * event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BenchmarkData.PACKET_EVENTS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class AEFrameChipRendererBenchmark {
+
+    /**
+     * Accumulate events over packets instead of resetting the maps each packet
+     */
+    @Param({"false", "true"})
+    public boolean accumulate;
+    /**
+     * Path of a recorded .aedat file; empty for synthetic data
+     */
+    @Param({""})
+    public String recording;
+
+    private AEFrameChipRenderer renderer;
+    private EventPacket packet;
+    private byte[] savedPreferences;
+
+    @Setup
+    public void setup() throws IOException {
+        savedPreferences = BenchmarkData.savePreferences();
+        final AEChip chip = BenchmarkData.makeChip();
+        renderer = (AEFrameChipRenderer) chip.getRenderer();
+        renderer.setAccumulateEnabled(accumulate);
+        packet = chip.getEventExtractor().extractPacket(BenchmarkData.makePacketSource(chip, recording).next());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.restorePreferences(savedPreferences);
+    }
+
+    @Benchmark
+    public AEFrameChipRenderer render() {
+        renderer.render(packet);
+        return renderer;
+    }
+}
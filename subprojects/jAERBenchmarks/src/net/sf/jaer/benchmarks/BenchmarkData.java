@@ -0,0 +1,290 @@
+package net.sf.jaer.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.InvalidPreferencesFormatException;
+import java.util.prefs.Preferences;
+
+import eu.seebetter.ini.chips.DavisChip;
+import eu.seebetter.ini.chips.davis.DAVIS240C;
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.eventio.AEFileInputStream;
+import net.sf.jaer.eventio.AEFileOutputStream;
+
+/**
+ * Synthetic and recorded input data shared by the benchmarks.
+ * <p>
+ * Synthetic data is DAVIS240 DVS events from a few moving edges plus uniform
+ * background noise, with a fixed seed so that runs are comparable. A recorded
+ * .aedat file can be used instead by passing its path in the
+ * <code>recording</code> parameter of a benchmark, or by setting the system
+ * property {@value #RECORDING_PROPERTY}.
+ * <p>
+ * Constructing the chip and its filters writes to the chip's Preferences, so
+ * the benchmarks save them with {@link #savePreferences()} before and restore
+ * them with {@link #restorePreferences(byte[])} after, leaving the user's
+ * settings as they were.
+ */
+public final class BenchmarkData {
+
+    /**
+     * System property holding the path of a recorded .aedat file
+     */
+    public static final String RECORDING_PROPERTY = "jaer.benchmark.aedat";
+    /**
+     * Number of events in each synthetic packet. This is the
+     * OperationsPerInvocation of the per-packet benchmarks, so that JMH
+     * reports events/s and -prof gc reports bytes per event.
+     */
+    public static final int PACKET_EVENTS = 8192;
+    /**
+     * Mean inter-event interval of synthetic data; 0.1us is 10 Meps
+     */
+    public static final float EVENT_INTERVAL_US = 0.1f;
+    private static final long SEED = 42;
+    private static final float NOISE_FRACTION = 0.2f;
+    /**
+     * Maximum number of packets read from a recording into memory
+     */
+    public static final int MAX_RECORDED_PACKETS = 500;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Constructs the chip used by all benchmarks. Note that AEChip constructs
+     * its canvas, so a display (or Xvfb) is required.
+     *
+     * @return the chip
+     */
+    public static AEChip makeChip() {
+        return new DAVIS240C();
+    }
+
+    /**
+     * Returns the recording to use.
+     *
+     * @param recording the path of a recorded .aedat file; null or empty for
+     * the {@value #RECORDING_PROPERTY} property
+     * @return the file, or null to use synthetic data
+     * @throws IOException if the path does not name a file
+     */
+    public static File getRecordingFile(final String recording) throws IOException {
+        String path = recording;
+        if ((path == null) || path.isEmpty()) {
+            path = System.getProperty(RECORDING_PROPERTY);
+        }
+        if ((path == null) || path.isEmpty()) {
+            return null;
+        }
+        final File f = new File(path);
+        if (!f.isFile()) {
+            throw new IOException(path + " is not a file");
+        }
+        return f;
+    }
+
+    /**
+     * Saves the Preferences of the benchmark chip, including the nodes of
+     * enclosed filters.
+     *
+     * @return the saved Preferences
+     * @throws IOException if they cannot be read
+     */
+    public static byte[] savePreferences() throws IOException {
+        try {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            chipPreferences().exportSubtree(bos);
+            return bos.toByteArray();
+        } catch (final BackingStoreException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Restores the Preferences saved by {@link #savePreferences()}, removing
+     * any keys and nodes written since.
+     *
+     * @param saved the saved Preferences
+     * @throws IOException if they cannot be written
+     */
+    public static void restorePreferences(final byte[] saved) throws IOException {
+        try {
+            chipPreferences().removeNode();
+            Preferences.importPreferences(new ByteArrayInputStream(saved));
+        } catch (final BackingStoreException e) {
+            throw new IOException(e);
+        } catch (final InvalidPreferencesFormatException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // the node of AEChip.getPrefs() and EventFilter.prefs() of the chip from makeChip
+    private static Preferences chipPreferences() {
+        return Preferences.userNodeForPackage(DAVIS240C.class);
+    }
+
+    /**
+     * Supplies raw packets of exactly {@link #PACKET_EVENTS} events, either
+     * synthetic with ever increasing timestamps or read from a recording,
+     * which is replayed from its start when it runs out.
+     */
+    public static final class PacketSource {
+
+        private final AEChip chip;
+        private final ArrayList<AEPacketRaw> recorded;
+        private int next = 0, startTimestamp = 0;
+        private boolean rewound = false;
+
+        private PacketSource(final AEChip chip, final ArrayList<AEPacketRaw> recorded) {
+            this.chip = chip;
+            this.recorded = recorded;
+        }
+
+        /**
+         * @return the next packet. Recorded packets are returned again after a
+         * rewind, so they must not be modified.
+         */
+        public AEPacketRaw next() {
+            if (recorded == null) {
+                final AEPacketRaw raw = makeRawPacket(chip, PACKET_EVENTS, startTimestamp);
+                startTimestamp = raw.getLastTimestamp() + 1;
+                return raw;
+            }
+            rewound = next == recorded.size();
+            if (rewound) {
+                next = 0;
+            }
+            return recorded.get(next++);
+        }
+
+        /**
+         * @return true if the last {@link #next()} started the recording
+         * over, so that time went backwards
+         */
+        public boolean isRewound() {
+            return rewound;
+        }
+
+        /**
+         * @return true if the packets are read from a recording
+         */
+        public boolean isRecorded() {
+            return recorded != null;
+        }
+    }
+
+    /**
+     * Makes a source of packets.
+     *
+     * @param chip the chip
+     * @param recording the path of a recorded .aedat file; null or empty for
+     * the {@value #RECORDING_PROPERTY} property or else synthetic data
+     * @return the source
+     * @throws IOException if the recording cannot be read or holds fewer than
+     * {@link #PACKET_EVENTS} events
+     */
+    public static PacketSource makePacketSource(final AEChip chip, final String recording) throws IOException {
+        final File f = getRecordingFile(recording);
+        if (f == null) {
+            return new PacketSource(chip, null);
+        }
+        final ArrayList<AEPacketRaw> packets = new ArrayList<AEPacketRaw>();
+        final AEFileInputStream in = new AEFileInputStream(f, chip);
+        try {
+            while (packets.size() < MAX_RECORDED_PACKETS) {
+                final AEPacketRaw raw = in.readPacketByNumber(PACKET_EVENTS);
+                if (raw.getNumEvents() < PACKET_EVENTS) {
+                    break; // the last, partial packet
+                }
+                // the stream reuses its packet
+                final AEPacketRaw copy = new AEPacketRaw(PACKET_EVENTS);
+                System.arraycopy(raw.getAddresses(), 0, copy.getAddresses(), 0, PACKET_EVENTS);
+                System.arraycopy(raw.getTimestamps(), 0, copy.getTimestamps(), 0, PACKET_EVENTS);
+                copy.setNumEvents(PACKET_EVENTS);
+                packets.add(copy);
+            }
+        } catch (final EOFException e) {
+            // read all of it
+        } finally {
+            in.close();
+        }
+        if (packets.isEmpty()) {
+            throw new IOException(f + " holds fewer than " + PACKET_EVENTS + " events");
+        }
+        return new PacketSource(chip, packets);
+    }
+
+    /**
+     * Makes synthetic raw DAVIS DVS events.
+     *
+     * @param chip the chip, used for its size
+     * @param nEvents number of events
+     * @param startTimestamp timestamp of first event in us
+     * @return the raw packet
+     */
+    public static AEPacketRaw makeRawPacket(final AEChip chip, final int nEvents, final int startTimestamp) {
+        final Random r = new Random(SEED + startTimestamp);
+        final int sx = chip.getSizeX(), sy = chip.getSizeY();
+        final AEPacketRaw raw = new AEPacketRaw(nEvents);
+        final int[] a = raw.getAddresses(), t = raw.getTimestamps();
+        float ts = startTimestamp;
+        for (int i = 0; i < nEvents; i++) {
+            int x, y;
+            if (r.nextFloat() < NOISE_FRACTION) {
+                x = r.nextInt(sx);
+                y = r.nextInt(sy);
+            } else {
+                // a few vertical bars sweeping to the right at 1 pixel per ms
+                final int bar = r.nextInt(4);
+                x = (((int) ts / 1000) + (bar * (sx / 4))) % sx;
+                y = r.nextInt(sy);
+            }
+            final int pol = r.nextBoolean() ? DavisChip.POLMASK : 0;
+            // the extractor flips x for DVS events
+            a[i] = DavisChip.ADDRESS_TYPE_DVS | ((sx - 1 - x) << DavisChip.XSHIFT) | (y << DavisChip.YSHIFT) | pol;
+            t[i] = (int) ts;
+            ts += EVENT_INTERVAL_US * 2 * r.nextFloat();
+        }
+        raw.setNumEvents(nEvents);
+        return raw;
+    }
+
+    /**
+     * Returns the recording, or writes a synthetic recording of nPackets
+     * packets to a temporary file.
+     *
+     * @param chip the chip
+     * @param recording the path of a recorded .aedat file; null or empty for
+     * the {@value #RECORDING_PROPERTY} property or else synthetic data
+     * @param nPackets number of synthetic packets to write
+     * @return the file
+     * @throws IOException if the file cannot be written
+     */
+    public static File getRecording(final AEChip chip, final String recording, final int nPackets) throws IOException {
+        final File recorded = getRecordingFile(recording);
+        if (recorded != null) {
+            return recorded;
+        }
+        final File f = File.createTempFile("jaer-benchmark", ".aedat");
+        f.deleteOnExit();
+        final AEFileOutputStream out = new AEFileOutputStream(new BufferedOutputStream(new FileOutputStream(f)), chip, "2.0");
+        int ts = 0;
+        for (int i = 0; i < nPackets; i++) {
+            final AEPacketRaw raw = makeRawPacket(chip, PACKET_EVENTS, ts);
+            out.writePacket(raw);
+            ts = raw.getLastTimestamp() + 1;
+        }
+        out.close();
+        return f;
+    }
+}
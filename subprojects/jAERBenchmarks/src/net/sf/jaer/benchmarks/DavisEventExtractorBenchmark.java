@@ -0,0 +1,74 @@
+package net.sf.jaer.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.chip.EventExtractor2D;
+import net.sf.jaer.event.EventPacket;
+
+/**
+ * Measures DavisBaseCamera.DavisEventExtractor.extractPacket on synthetic DVS
+ * packets or packets of a recording (parameter <code>recording</code>). Scores are events/s; with -prof gc, gc.alloc.rate.norm is bytes
+ * per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BenchmarkData.PACKET_EVENTS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DavisEventExtractorBenchmark {
+
+    /**
+     * Path of a recorded .aedat file; empty for synthetic data
+     */
+    @Param({""})
+    public String recording;
+
+    private EventExtractor2D extractor;
+    private AEPacketRaw[] packets;
+    private int next = 0;
+    private byte[] savedPreferences;
+
+    @Setup
+    public void setup() throws IOException {
+        savedPreferences = BenchmarkData.savePreferences();
+        final AEChip chip = BenchmarkData.makeChip();
+        extractor = chip.getEventExtractor();
+        final BenchmarkData.PacketSource source = BenchmarkData.makePacketSource(chip, recording);
+        // extraction is stateless across packets, so a few of them are cycled
+        packets = new AEPacketRaw[16];
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = source.next();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.restorePreferences(savedPreferences);
+    }
+
+    @Benchmark
+    public EventPacket extractPacket() {
+        final AEPacketRaw raw = packets[next];
+        next = (next + 1) % packets.length;
+        return extractor.extractPacket(raw);
+    }
+}
@@ -0,0 +1,121 @@
+package net.sf.jaer.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.sf.jaer.aemonitor.AEPacketRaw;
+import net.sf.jaer.chip.AEChip;
+import net.sf.jaer.chip.EventExtractor2D;
+import net.sf.jaer.event.BasicEvent;
+import net.sf.jaer.event.EventPacket;
+import net.sf.jaer.eventprocessing.EventFilter2D;
+import net.sf.jaer.eventprocessing.FilterChain;
+
+/**
+ * Measures FilterChain.filterPacket with a single common filter, or with all of
+ * them chained, on synthetic or recorded (parameter <code>recording</code>)
+ * events. The input packet is re-extracted for each invocation (outside
+ * the measurement) so that filteredOut flags from the previous invocation do
+ * not shrink the work. Scores are events/s; with -prof gc, gc.alloc.rate.norm
+ * is bytes per event. Parameter <code>useSharedTimestampMap</code> sets the
+ * property of that name of the filters that have it, so that the filters'
+ * own timestamp maps can be compared with the map shared by the chain.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(BenchmarkData.PACKET_EVENTS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class FilterChainBenchmark {
+
+    /**
+     * Fully-qualified filter classes, comma separated, in chain order
+     */
+    @Param({"net.sf.jaer.eventprocessing.filter.BackgroundActivityFilter",
+        "net.sf.jaer.eventprocessing.filter.SpatioTemporalCorrelationFilter",
+        "net.sf.jaer.eventprocessing.tracking.RectangularClusterTracker",
+        "net.sf.jaer.eventprocessing.filter.BackgroundActivityFilter,net.sf.jaer.eventprocessing.tracking.RectangularClusterTracker",
+        "net.sf.jaer.eventprocessing.filter.RefractoryFilter,net.sf.jaer.eventprocessing.filter.BackgroundActivityFilter,net.sf.jaer.eventprocessing.filter.SpatioTemporalCorrelationFilter"})
+    public String filters;
+    /**
+     * Value of the useSharedTimestampMap property of the filters that have it
+     */
+    @Param({"false", "true"})
+    public boolean useSharedTimestampMap;
+    /**
+     * Path of a recorded .aedat file; empty for synthetic data
+     */
+    @Param({""})
+    public String recording;
+
+    private AEChip chip;
+    private FilterChain chain;
+    private EventExtractor2D extractor;
+    private BenchmarkData.PacketSource source;
+    private EventPacket<? extends BasicEvent> packet;
+    private byte[] savedPreferences;
+
+    @Setup
+    public void setup() throws Exception {
+        savedPreferences = BenchmarkData.savePreferences();
+        chip = BenchmarkData.makeChip();
+        extractor = chip.getEventExtractor();
+        source = BenchmarkData.makePacketSource(chip, recording);
+        chain = new FilterChain(chip);
+        chain.setTimeLimitEnabled(false);
+        chain.setMeasurePerformanceEnabled(false);
+        for (final String s : filters.split(",")) {
+            final Constructor<?> c = Class.forName(s.trim()).getConstructor(AEChip.class);
+            final EventFilter2D f = (EventFilter2D) c.newInstance(chip);
+            try {
+                f.getClass().getMethod("setUseSharedTimestampMap", boolean.class).invoke(f, useSharedTimestampMap);
+            } catch (NoSuchMethodException e) {
+                // the filter keeps its own state
+            }
+            f.setFilterEnabled(true);
+            chain.add(f);
+        }
+    }
+
+    /**
+     * Takes the next packet, since the filters are stateful and would
+     * otherwise see time go backwards. When a recording starts over, the
+     * chain is reset as on a rewind in the viewer.
+     */
+    @Setup(Level.Invocation)
+    public void nextPacket() {
+        final AEPacketRaw raw = source.next();
+        if (source.isRewound()) {
+            chain.reset();
+        }
+        packet = extractor.extractPacket(raw);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.restorePreferences(savedPreferences);
+    }
+
+    @Benchmark
+    public EventPacket filterPacket() {
+        return chain.filterPacket(packet);
+    }
+}